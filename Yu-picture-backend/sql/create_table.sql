@@ -131,3 +131,107 @@ WHERE TABLE_SCHEMA = 'yu_picture'
 
 DROP TABLE IF EXISTS yu_picture.picture_2009535827909464066;
 
+
+-- 标签字典：标签 <-> 紧凑的整型id，图片中只存标签id
+create table if not exists tag
+(
+    id         int auto_increment comment 'id' primary key,
+    tagName    varchar(64) collate utf8mb4_bin    not null comment '标签名称',
+    createTime datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+
+    UNIQUE KEY uk_tagName (tagName) -- 标签名唯一（区分大小写，与应用内存中的标签字典按原样匹配一致）
+) comment '标签字典' collate = utf8mb4_unicode_ci;
+-- 已按 utf8mb4_unicode_ci 建过 tag 表的库执行（原有数据不区分大小写时唯一，区分后一定唯一）：
+-- alter table tag modify tagName varchar(64) collate utf8mb4_bin not null comment '标签名称';
+
+-- 添加新列 -> 标签id列表（逗号分隔，如 3,17,42），有值时以它为准，tags 列仅保留给老数据
+-- 注意：已存在的空间分表 picture_{spaceId} 也需要执行同样的 alter
+alter table picture
+    ADD COLUMN tagIds varchar(512) null comment '标签id列表（逗号分隔）' after tags;
+
+-- 排序白名单对应的联合索引（见 PictureSortFieldEnum），等值条件在前、排序列在后、id 作为稳定排序的第二键
+-- 只给前端实际发出的查询建索引（主页、空间详情页、管理员审核页都按 createTime 倒序分页），picture 是写入频繁的表，不为每个筛选列单独建索引
+-- 宽、高、体积、宽高比的范围筛选同样走下面的排序索引：按 createTime 顺序读取并过滤，凑够一页即停止，不需要 filesort
+-- 主页公共图库：spaceId is null and reviewStatus = 1 order by createTime desc, id desc
+create index idx_spaceId_reviewStatus_createTime_id on picture (spaceId, reviewStatus, createTime, id);
+-- 空间详情页（不带审核状态）：spaceId = ? order by createTime desc, id desc
+-- 原有的 inx_spaceId 是它的前缀，确认无其他依赖后可以删除
+create index idx_spaceId_createTime_id on picture (spaceId, createTime, id);
+-- 管理员按审核状态查看：reviewStatus = ? order by createTime desc, id desc
+create index idx_reviewStatus_createTime_id on picture (reviewStatus, createTime, id);
+-- 注意：已存在的空间分表 picture_{spaceId} 也需要执行同样的语句
+
+-- 公共图库等非旗舰版空间的图片按 id 哈希分表（见 PictureShardingAlgorithm），开启 ShardingSphere 分表时执行
+-- 分表数量要与 application.yml 中的 hash-table-count 一致
+create table if not exists picture_h0 like picture;
+create table if not exists picture_h1 like picture;
+create table if not exists picture_h2 like picture;
+create table if not exists picture_h3 like picture;
+create table if not exists picture_h4 like picture;
+create table if not exists picture_h5 like picture;
+create table if not exists picture_h6 like picture;
+create table if not exists picture_h7 like picture;
+
+-- 已有图片迁移到哈希分表见 sql/migrate_picture_hash_sharding.sql：只在开启 ShardingSphere 分表之后单独执行，本文件不搬迁也不删除任何数据
+
+-- 冷数据归档（见 PictureArchiveManager）：长期没有访问的图片、逻辑删除很久的图片从热表搬到归档表
+-- 列与 picture 完全一致（搬迁时 select *），额外的归档列放在最后，picture 以后新增列时要用 after 加到归档列之前
+-- 归档表只按 id、spaceId、userId 查询，去掉其余索引并开启压缩
+create table if not exists picture_archive like picture;
+alter table picture_archive
+    drop index idx_name,
+    drop index idx_introduction,
+    drop index idx_category,
+    drop index idx_tags,
+    drop index idx_reviewStatus,
+    drop index idx_spaceId_reviewStatus_createTime_id,
+    drop index idx_spaceId_createTime_id,
+    drop index idx_reviewStatus_createTime_id,
+    ADD COLUMN archiveTime   datetime default CURRENT_TIMESTAMP not null comment '归档时间',
+    ADD COLUMN archiveReason varchar(16)                        not null comment '归档原因：deleted/idle',
+    ROW_FORMAT = COMPRESSED,
+    KEY_BLOCK_SIZE = 8;
+
+-- 空间的归档策略，没有记录的空间（以及公共图库）使用 application.yml 中的默认策略
+create table if not exists space_archive_policy
+(
+    spaceId              bigint                             not null comment '空间id' primary key,
+    enabled              tinyint  default 1                 not null comment '是否开启归档',
+    deletedRetentionDays int                                null comment '逻辑删除的图片保留多少天后归档，为空使用默认值',
+    idleDays             int                                null comment '多少天没有访问和编辑的图片归档，为空使用默认值，0 表示不按访问归档',
+    createTime           datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    updateTime           datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间'
+) comment '空间归档策略' collate = utf8mb4_unicode_ci;
+
+-- 标签统计（见 PictureTagStatService）：每个范围（all 全部、public 公共图库、space:{spaceId} 空间）每个标签的图片数
+-- 图片新增/编辑/删除时增量更新，定时任务全量核对；标签分析只需要按 scope 读一次索引
+create table if not exists picture_tag_stat
+(
+    scope        varchar(64)                        not null comment '统计范围：all/public/space:{spaceId}',
+    tagId        int                                not null comment '标签id',
+    pictureCount bigint   default 0                 not null comment '图片数量',
+    updateTime   datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    PRIMARY KEY (scope, tagId),
+    INDEX idx_scope_pictureCount (scope, pictureCount) -- 按范围读取并按数量排序
+) comment '标签统计' collate = utf8mb4_unicode_ci;
+
+-- 每日上传汇总表（按 空间 + 日期 + 用户 预聚合，用户上传行为分析直接读这张表）
+create table if not exists picture_upload_daily
+(
+    spaceId     bigint                             not null comment '空间 id（公共图库为 0）',
+    statDate    date                               not null comment '上传日期（图片的创建日期）',
+    userId      bigint                             not null comment '上传用户 id',
+    uploadCount bigint   default 0                 not null comment '上传数量',
+    uploadSize  bigint   default 0                 not null comment '上传总大小',
+    updateTime  datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    PRIMARY KEY (spaceId, statDate, userId),
+    INDEX idx_userId_statDate (userId, statDate) -- 全空间按用户分析
+) comment '每日上传汇总' collate = utf8mb4_unicode_ci;
+
+-- 已经建过宽、高、体积、宽高比、editTime 索引的库，手动删除这些没有查询使用的索引（新库不会创建它们）
+-- 注意：哈希分表 picture_h0..7 和空间分表 picture_{spaceId} 也需要执行同样的语句
+-- drop index idx_spaceId_reviewStatus_picWidth on picture;
+-- drop index idx_spaceId_reviewStatus_picHeight on picture;
+-- drop index idx_spaceId_reviewStatus_picSize on picture;
+-- drop index idx_spaceId_reviewStatus_picScale on picture;
+-- drop index idx_spaceId_reviewStatus_editTime_id on picture;
@@ -0,0 +1,39 @@
+-- 把逻辑表 picture 中已有的图片迁移到哈希分表 picture_h0 ~ picture_h7（见 PictureShardingAlgorithm）
+-- 注意：只在已经开启 ShardingSphere 分表之后执行！
+-- YuPictureBackendApplication 排除了 ShardingSphereAutoConfiguration 时应用直接读写 picture，执行本脚本会让图库"消失"
+-- 执行顺序：
+-- 1. 执行 create_table.sql 创建哈希分表；
+-- 2. 去掉 exclude = {ShardingSphereAutoConfiguration.class} 开启分表，停止写入（停机或维护窗口）；
+-- 3. 执行本脚本，核对下面的行数后再恢复写入。
+-- MySQL 的 CRC32(id) % 8 与 Java 端的哈希结果一致，分表数量要与 application.yml 中的 hash-table-count 一致
+-- 可以重复执行：已经搬过的行会被跳过，picture 中只删除已经确认写入哈希分表的行
+use yu_picture;
+
+start transaction;
+
+insert ignore into picture_h0 select * from picture where CRC32(id) % 8 = 0;
+insert ignore into picture_h1 select * from picture where CRC32(id) % 8 = 1;
+insert ignore into picture_h2 select * from picture where CRC32(id) % 8 = 2;
+insert ignore into picture_h3 select * from picture where CRC32(id) % 8 = 3;
+insert ignore into picture_h4 select * from picture where CRC32(id) % 8 = 4;
+insert ignore into picture_h5 select * from picture where CRC32(id) % 8 = 5;
+insert ignore into picture_h6 select * from picture where CRC32(id) % 8 = 6;
+insert ignore into picture_h7 select * from picture where CRC32(id) % 8 = 7;
+
+-- 迁移后 picture 只作为建表模板，不再存数据
+delete p from picture p join picture_h0 h on h.id = p.id;
+delete p from picture p join picture_h1 h on h.id = p.id;
+delete p from picture p join picture_h2 h on h.id = p.id;
+delete p from picture p join picture_h3 h on h.id = p.id;
+delete p from picture p join picture_h4 h on h.id = p.id;
+delete p from picture p join picture_h5 h on h.id = p.id;
+delete p from picture p join picture_h6 h on h.id = p.id;
+delete p from picture p join picture_h7 h on h.id = p.id;
+
+commit;
+
+-- 核对：picture 应为 0 行，各哈希分表的行数之和应等于迁移前 picture 的行数
+select count(*) as remaining from picture;
+select (select count(*) from picture_h0) + (select count(*) from picture_h1) + (select count(*) from picture_h2) +
+       (select count(*) from picture_h3) + (select count(*) from picture_h4) + (select count(*) from picture_h5) +
+       (select count(*) from picture_h6) + (select count(*) from picture_h7) as migrated;
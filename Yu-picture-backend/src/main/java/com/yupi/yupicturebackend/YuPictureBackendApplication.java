@@ -6,6 +6,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 // 加上exclude = {ShardingSphereAutoConfiguration.class}可以自动关闭分库分表操作
 @SpringBootApplication(exclude = {ShardingSphereAutoConfiguration.class})
@@ -14,6 +15,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 // 引入AOP切面后，需添加@EnableAspectJAutoProxy(exposeProxy = true) -> 目的是：启动时，Spring会自动扫描@Aspect注解的类并创建代理对象
 @EnableAspectJAutoProxy(exposeProxy = true)
 @EnableAsync // 开启异步的支持
+@EnableScheduling // 开启定时任务（动态分表注册兜底同步等）
 public class YuPictureBackendApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,18 @@
+package com.yupi.yupicturebackend.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 读写分离：打上这个注解的方法从只读副本查询
+ * 当前用户刚写入过数据、或没有可用的副本（延迟过大）时，仍然查主库
+ *
+ * @Target(ElementType.METHOD) 作用于方法
+ * @Retention(RetentionPolicy.RUNTIME) 运行时生效
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadFromReplica {
+}
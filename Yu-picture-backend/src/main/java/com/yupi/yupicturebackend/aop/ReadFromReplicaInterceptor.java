@@ -0,0 +1,46 @@
+package com.yupi.yupicturebackend.aop;
+
+import com.yupi.yupicturebackend.annotation.ReadFromReplica;
+import com.yupi.yupicturebackend.manager.datasource.DataSourceRouteHolder;
+import com.yupi.yupicturebackend.manager.datasource.ReadWriteRouteManager;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+
+/**
+ * AOP切面：标注了 @ReadFromReplica 的方法，执行期间的查询路由到只读副本
+ * 只在开启读写分离时生效
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(prefix = "picture.datasource.read-write-splitting", name = "enabled", havingValue = "true")
+public class ReadFromReplicaInterceptor {
+
+    // 引入读写分离路由管理
+    @Resource
+    private ReadWriteRouteManager readWriteRouteManager;
+
+
+    @Around("@annotation(readFromReplica)")
+    public Object doInterceptor(ProceedingJoinPoint joinPoint, ReadFromReplica readFromReplica) throws Throwable {
+        String previous = DataSourceRouteHolder.get();
+        // 1.外层已经选好了数据源（嵌套调用），或者处于事务中（连接已经绑定主库），保持不变
+        if (previous != null || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return joinPoint.proceed();
+        }
+        // 2.选择数据源：当前用户刚写过数据、或没有延迟达标的副本时仍然走主库
+        Long userId = readWriteRouteManager.getCurrentUserId();
+        DataSourceRouteHolder.set(readWriteRouteManager.chooseReadTarget(userId));
+        try {
+            return joinPoint.proceed();
+        } finally {
+            // 3.恢复，防止线程复用时影响后续请求
+            DataSourceRouteHolder.set(previous);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import org.springframework.boot.jackson.JsonComponent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 
 /**
  * 【样板代码】Spring MVC Json 配置
@@ -28,4 +29,14 @@ public class JsonConfig {
         objectMapper.registerModule(module);
         return objectMapper;
     }
+
+    /**
+     * 替换默认的 JSON 消息转换器：鉴权时已经解析过的请求体不再重复解析
+     * @param objectMapper
+     * @return
+     */
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        return new ParsedBodyHttpMessageConverter(objectMapper);
+    }
 }
@@ -3,7 +3,10 @@ package com.yupi.yupicturebackend.config;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.yupi.yupicturebackend.manager.datasource.ReadWriteRouteManager;
+import com.yupi.yupicturebackend.manager.datasource.ReadYourWritesInnerInterceptor;
 import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -13,10 +16,13 @@ public class MybatisPlusConfig {
 
     /**
      * 添加MyBatis-Plus分页插件
+     * 开启读写分离时，额外添加“读自己的写”插件（记录当前用户刚写入过数据）
      */
     @Bean
-    public MybatisPlusInterceptor mybatisPlusInterceptor() {
+    public MybatisPlusInterceptor mybatisPlusInterceptor(ObjectProvider<ReadWriteRouteManager> readWriteRouteManagerProvider) {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        readWriteRouteManagerProvider.ifAvailable(readWriteRouteManager ->
+                interceptor.addInnerInterceptor(new ReadYourWritesInnerInterceptor(readWriteRouteManager)));
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL)); // 如果配置多个插件, 切记分页最后添加
         // 如果有多数据源可以不配具体类型, 否则都建议配上具体的 DbType
         return interceptor;
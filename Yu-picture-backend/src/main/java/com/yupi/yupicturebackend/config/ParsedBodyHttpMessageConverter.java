@@ -0,0 +1,41 @@
+package com.yupi.yupicturebackend.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpRequest;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * JSON 消息转换器：请求体在鉴权时已经解析过的，直接从记录的 token 反序列化，不再解析请求体
+ */
+public class ParsedBodyHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    public ParsedBodyHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException, HttpMessageNotReadableException {
+        if (inputMessage instanceof ServletServerHttpRequest) {
+            Object attribute = ((ServletServerHttpRequest) inputMessage).getServletRequest()
+                    .getAttribute(ParsedJsonBody.ATTRIBUTE_NAME);
+            if (attribute instanceof ParsedJsonBody && ((ParsedJsonBody) attribute).getTokenBuffer() != null) {
+                JavaType javaType = getJavaType(type, contextClass);
+                try (JsonParser parser = ((ParsedJsonBody) attribute).getTokenBuffer().asParser(getObjectMapper())) {
+                    return getObjectMapper().readValue(parser, javaType);
+                } catch (JsonProcessingException e) {
+                    throw new HttpMessageNotReadableException("JSON parse error: " + e.getOriginalMessage(), e, inputMessage);
+                }
+            }
+        }
+        // 没有解析过（不需要空间鉴权的请求），正常读取请求体
+        return super.read(type, contextClass, inputMessage);
+    }
+}
@@ -0,0 +1,188 @@
+package com.yupi.yupicturebackend.config;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.yupi.yupicturebackend.exception.BusinessException;
+import com.yupi.yupicturebackend.exception.ErrorCode;
+import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthContext;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.model.entity.SpaceUser;
+import lombok.Getter;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * 解析过一次的 JSON 请求体
+ * <p>
+ * 1. 请求体字节只解码一次：流式读取的同时取出空间鉴权需要的字段，并把所有 token 记录到 TokenBuffer 中；
+ * 2. 结果放在请求属性中，Spring MVC 绑定 @RequestBody 时直接从 TokenBuffer 反序列化（见 ParsedBodyHttpMessageConverter），
+ * 不用再解析一次请求体。
+ */
+@Getter
+public class ParsedJsonBody {
+
+    /**
+     * 请求属性名
+     */
+    public static final String ATTRIBUTE_NAME = ParsedJsonBody.class.getName();
+
+    /**
+     * 请求体的全部 token，请求体为空时为 null
+     */
+    private final TokenBuffer tokenBuffer;
+
+    /**
+     * 空间鉴权上下文
+     */
+    private final SpaceUserAuthContext authContext;
+
+    private ParsedJsonBody(TokenBuffer tokenBuffer, SpaceUserAuthContext authContext) {
+        this.tokenBuffer = tokenBuffer;
+        this.authContext = authContext;
+    }
+
+
+    /**
+     * 获取当前请求解析过的请求体，还没有解析时解析一次并保存到请求属性中
+     *
+     * @param request      JSON 请求
+     * @param objectMapper 与 Spring MVC 相同的 ObjectMapper
+     * @return
+     */
+    public static ParsedJsonBody of(HttpServletRequest request, ObjectMapper objectMapper) {
+        Object attribute = request.getAttribute(ATTRIBUTE_NAME);
+        if (attribute instanceof ParsedJsonBody) {
+            return (ParsedJsonBody) attribute;
+        }
+        byte[] body;
+        RequestWrapper requestWrapper = WebUtils.getNativeRequest(request, RequestWrapper.class);
+        try {
+            body = requestWrapper != null
+                    ? requestWrapper.getBodyBytes()
+                    : StreamUtils.copyToByteArray(request.getInputStream());
+        } catch (IOException e) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "读取请求体失败");
+        }
+        ParsedJsonBody parsedJsonBody = parse(body, objectMapper);
+        request.setAttribute(ATTRIBUTE_NAME, parsedJsonBody);
+        return parsedJsonBody;
+    }
+
+
+    /**
+     * 流式解析请求体（只读一遍）：记录全部 token，同时取出顶层的 id、pictureId、spaceId、spaceUserId，
+     * 以及 picture、space、spaceUser 对象（只关心是否存在，spaceUser 只取 spaceRole）
+     */
+    static ParsedJsonBody parse(byte[] body, ObjectMapper objectMapper) {
+        SpaceUserAuthContext authContext = new SpaceUserAuthContext();
+        if (body == null || body.length == 0) {
+            return new ParsedJsonBody(null, authContext);
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            TokenBuffer tokenBuffer = new TokenBuffer(parser);
+            tokenBuffer.forceUseOfBigDecimal(objectMapper.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS));
+            // 当前嵌套深度（顶层对象内为 1）和当前顶层字段
+            int depth = 0;
+            String topField = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                tokenBuffer.copyCurrentEvent(parser);
+                switch (token) {
+                    case START_OBJECT:
+                        if (depth == 1 && topField != null) {
+                            readTopObject(authContext, topField);
+                        }
+                        depth++;
+                        break;
+                    case START_ARRAY:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case FIELD_NAME:
+                        if (depth == 1) {
+                            topField = parser.getCurrentName();
+                        }
+                        break;
+                    default:
+                        if (depth == 1 && topField != null) {
+                            readTopValue(authContext, topField, parser);
+                        } else if (depth == 2 && "spaceUser".equals(topField) && authContext.getSpaceUser() != null
+                                && "spaceRole".equals(parser.getCurrentName()) && token == JsonToken.VALUE_STRING) {
+                            authContext.getSpaceUser().setSpaceRole(parser.getText());
+                        }
+                }
+            }
+            return new ParsedJsonBody(tokenBuffer.firstToken() == null ? null : tokenBuffer, authContext);
+        } catch (IOException e) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "请求体格式错误");
+        }
+    }
+
+
+    private static void readTopObject(SpaceUserAuthContext authContext, String field) {
+        switch (field) {
+            case "picture":
+                authContext.setPicture(new Picture());
+                break;
+            case "space":
+                authContext.setSpace(new Space());
+                break;
+            case "spaceUser":
+                authContext.setSpaceUser(new SpaceUser());
+                break;
+            default:
+        }
+    }
+
+
+    private static void readTopValue(SpaceUserAuthContext authContext, String field, JsonParser parser) throws IOException {
+        switch (field) {
+            case "id":
+                authContext.setId(readLong(parser));
+                break;
+            case "pictureId":
+                authContext.setPictureId(readLong(parser));
+                break;
+            case "spaceId":
+                authContext.setSpaceId(readLong(parser));
+                break;
+            case "spaceUserId":
+                authContext.setSpaceUserId(readLong(parser));
+                break;
+            default:
+        }
+    }
+
+
+    /**
+     * id 可能是数字，也可能是字符串（前端拿到的 Long 都被序列化成了字符串）
+     */
+    private static Long readLong(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = parser.getText().trim();
+            if (text.isEmpty()) {
+                return null;
+            }
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package com.yupi.yupicturebackend.config;
+
+import com.yupi.yupicturebackend.manager.datasource.DataSourceRouteHolder;
+import com.yupi.yupicturebackend.manager.datasource.ReadWriteRouteManager;
+import com.yupi.yupicturebackend.manager.datasource.ReadWriteRoutingDataSource;
+import com.yupi.yupicturebackend.manager.datasource.ReplicaLagMonitor;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读写分离配置（默认关闭，picture.datasource.read-write-splitting.enabled=true 时生效）
+ * <p>
+ * 主库使用 spring.datasource 的配置，只读副本在 replicas 中配置。
+ * 只有标注了 @ReadFromReplica 的方法（列表、分析、搜索）会读副本，其余读写都走主库。
+ * 注意：开启 ShardingSphere 分表时数据源由 ShardingSphere 创建，请改用它自带的 readwrite-splitting 规则。
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "picture.datasource.read-write-splitting", name = "enabled", havingValue = "true")
+@ConfigurationProperties(prefix = "picture.datasource.read-write-splitting")
+@Data
+public class ReadWriteDataSourceConfig {
+
+    /**
+     * 只读副本列表
+     */
+    private List<ReplicaProperties> replicas = new ArrayList<>();
+
+    /**
+     * 允许的最大复制延迟（秒），超过后暂停从该副本读取
+     */
+    private long maxLagSeconds = 5;
+
+    /**
+     * 用户写入后，该用户的读请求强制走主库的时长（毫秒）
+     */
+    private long readYourWritesWindowMs = 5000;
+
+    /**
+     * 只读副本的连接配置
+     */
+    @Data
+    public static class ReplicaProperties {
+
+        /**
+         * 副本名称（不能为 primary）
+         */
+        private String name;
+
+        private String url;
+
+        private String username;
+
+        private String password;
+    }
+
+
+    /**
+     * 替换默认的数据源：按当前线程的路由选择主库或某个副本
+     */
+    @Bean
+    @Primary
+    public ReadWriteRoutingDataSource dataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource primaryDataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class).build();
+        primaryDataSource.setPoolName("primary");
+        Map<String, DataSource> replicaDataSourceMap = new LinkedHashMap<>();
+        for (ReplicaProperties replica : replicas) {
+            if (DataSourceRouteHolder.PRIMARY.equals(replica.getName())) {
+                throw new IllegalArgumentException("只读副本名称不能为 " + DataSourceRouteHolder.PRIMARY);
+            }
+            HikariDataSource replicaDataSource = new HikariDataSource();
+            replicaDataSource.setPoolName("replica-" + replica.getName());
+            replicaDataSource.setDriverClassName(dataSourceProperties.determineDriverClassName());
+            replicaDataSource.setJdbcUrl(replica.getUrl());
+            replicaDataSource.setUsername(replica.getUsername());
+            replicaDataSource.setPassword(replica.getPassword());
+            // 副本只用于查询
+            replicaDataSource.setReadOnly(true);
+            replicaDataSourceMap.put(replica.getName(), replicaDataSource);
+        }
+        return new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSourceMap);
+    }
+
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(ReadWriteRoutingDataSource dataSource) {
+        return new ReplicaLagMonitor(dataSource.getReplicaDataSourceMap(), maxLagSeconds);
+    }
+
+
+    @Bean
+    public ReadWriteRouteManager readWriteRouteManager(StringRedisTemplate stringRedisTemplate, ReplicaLagMonitor replicaLagMonitor) {
+        return new ReadWriteRouteManager(stringRedisTemplate, replicaLagMonitor, readYourWritesWindowMs);
+    }
+}
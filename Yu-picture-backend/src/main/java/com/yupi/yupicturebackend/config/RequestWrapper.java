@@ -1,12 +1,15 @@
 package com.yupi.yupicturebackend.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StreamUtils;
 
 import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 【样板代码】RequestWrapper 和 HttpRequestWrapperFilter 可以防止 HttpServletRequest流重复使用，而非使用一次消失
@@ -17,34 +20,33 @@ import java.io.*;
 @Slf4j
 public class RequestWrapper extends HttpServletRequestWrapper {
 
-    private final String body;
+    /**
+     * 请求体（只读取一次，按字节缓存，不再经过 String 转换）
+     */
+    private final byte[] body;
 
     public RequestWrapper(HttpServletRequest request) {
         super(request);
-        StringBuilder stringBuilder = new StringBuilder();
-        try (InputStream inputStream = request.getInputStream(); BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream))) {
-            char[] charBuffer = new char[128];
-            int bytesRead = -1;
-            while ((bytesRead = bufferedReader.read(charBuffer)) > 0) {
-                stringBuilder.append(charBuffer, 0, bytesRead);
-            }
+        byte[] bytes = new byte[0];
+        try (InputStream inputStream = request.getInputStream()) {
+            bytes = StreamUtils.copyToByteArray(inputStream);
         } catch (IOException ignored) {
         }
-        body = stringBuilder.toString();
+        body = bytes;
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(body.getBytes());
+        final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(body);
         return new ServletInputStream() {
             @Override
             public boolean isFinished() {
-                return false;
+                return byteArrayInputStream.available() == 0;
             }
 
             @Override
             public boolean isReady() {
-                return false;
+                return true;
             }
 
             @Override
@@ -55,17 +57,31 @@ public class RequestWrapper extends HttpServletRequestWrapper {
             public int read() throws IOException {
                 return byteArrayInputStream.read();
             }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return byteArrayInputStream.read(b, off, len);
+            }
         };
 
     }
 
     @Override
     public BufferedReader getReader() throws IOException {
-        return new BufferedReader(new InputStreamReader(this.getInputStream()));
+        return new BufferedReader(new InputStreamReader(this.getInputStream(), getBodyCharset()));
     }
 
     public String getBody() {
+        return new String(this.body, getBodyCharset());
+    }
+
+    public byte[] getBodyBytes() {
         return this.body;
     }
 
+    private Charset getBodyCharset() {
+        String encoding = getCharacterEncoding();
+        return encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+    }
+
 }
@@ -1,17 +1,41 @@
 package com.yupi.yupicturebackend.controller;
 
 import com.yupi.yupicturebackend.common.BaseResponse;
+import com.yupi.yupicturebackend.annotation.AuthCheck;
 import com.yupi.yupicturebackend.common.ResultUtils;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditClusterRelay;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditMessageSender;
+import com.yupi.yupicturebackend.manager.websocket.disruptor.PictureEditEventProducer;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditLaneStat;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRelayStat;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRingStat;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditSenderStat;
+import com.yupi.yupicturebackend.model.constant.UserConstant;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.Resource;
+import java.util.List;
+
 // @RestController 表示按照Restful风格返回数据的接口类
 @RestController
 // @RequestMapping("/") 表示该类下的所有接口，都以/开头
 @RequestMapping("/")
 public class MainController {
 
+    // 引入图片编辑事件生产者，查看分道状态
+    @Resource
+    private PictureEditEventProducer pictureEditEventProducer;
+
+    // 引入图片编辑消息发送器，查看发送队列状态
+    @Resource
+    private PictureEditMessageSender pictureEditMessageSender;
+
+    // 引入图片编辑跨节点转发，查看转发状态
+    @Resource
+    private PictureEditClusterRelay pictureEditClusterRelay;
+
     /**
      * 健康检查
      *
@@ -26,4 +50,52 @@ public class MainController {
 
         return ResultUtils.success("ok");
     }
+
+
+    /**
+     * 图片协同编辑事件各分道的积压情况（仅管理员）
+     *
+     * @return
+     */
+    @GetMapping(value = "/health/picture_edit/lanes", produces = "application/json")
+    @AuthCheck(mustRole = UserConstant.ADMIN_ROLE)
+    public BaseResponse<List<PictureEditLaneStat>> listPictureEditLaneStats() {
+        return ResultUtils.success(pictureEditEventProducer.listLaneStats());
+    }
+
+
+    /**
+     * 图片协同编辑各会话发送队列的积压、丢弃、合并、断开情况（仅管理员）
+     *
+     * @return
+     */
+    @GetMapping(value = "/health/picture_edit/sender", produces = "application/json")
+    @AuthCheck(mustRole = UserConstant.ADMIN_ROLE)
+    public BaseResponse<PictureEditSenderStat> getPictureEditSenderStat() {
+        return ResultUtils.success(pictureEditMessageSender.getSenderStat());
+    }
+
+
+    /**
+     * 图片协同编辑事件环形队列的占用率、拒绝和丢弃情况（仅管理员）
+     *
+     * @return
+     */
+    @GetMapping(value = "/health/picture_edit/ring", produces = "application/json")
+    @AuthCheck(mustRole = UserConstant.ADMIN_ROLE)
+    public BaseResponse<PictureEditRingStat> getPictureEditRingStat() {
+        return ResultUtils.success(pictureEditEventProducer.getRingStat());
+    }
+
+
+    /**
+     * 图片协同编辑跨节点转发的订阅、批量发布和丢弃情况（仅管理员）
+     *
+     * @return
+     */
+    @GetMapping(value = "/health/picture_edit/relay", produces = "application/json")
+    @AuthCheck(mustRole = UserConstant.ADMIN_ROLE)
+    public BaseResponse<PictureEditRelayStat> getPictureEditRelayStat() {
+        return ResultUtils.success(pictureEditClusterRelay.getRelayStat());
+    }
 }
@@ -1,5 +1,6 @@
 package com.yupi.yupicturebackend.controller;
 
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
@@ -7,6 +8,7 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.yupi.yupicturebackend.annotation.AuthCheck;
+import com.yupi.yupicturebackend.annotation.ReadFromReplica;
 import com.yupi.yupicturebackend.api.aliyunai.AliYunAiApi;
 import com.yupi.yupicturebackend.api.aliyunai.model.CreateOutPaintingTaskResponse;
 import com.yupi.yupicturebackend.api.aliyunai.model.GetOutPaintingTaskResponse;
@@ -22,6 +24,9 @@ import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthManager;
 import com.yupi.yupicturebackend.manager.auth.StpKit;
 import com.yupi.yupicturebackend.manager.auth.annotation.SaSpaceCheckPermission;
 import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
+import com.yupi.yupicturebackend.manager.bloom.PictureBloomFilterManager;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
 import com.yupi.yupicturebackend.model.constant.UserConstant;
 import com.yupi.yupicturebackend.model.dto.picture.*;
 import com.yupi.yupicturebackend.model.entity.Picture;
@@ -32,18 +37,22 @@ import com.yupi.yupicturebackend.model.vo.PictureTagCategory;
 import com.yupi.yupicturebackend.model.vo.PictureVO;
 import com.yupi.yupicturebackend.model.vo.SpaceVO;
 import com.yupi.yupicturebackend.service.PictureService;
+import com.yupi.yupicturebackend.service.PictureTagStatService;
 import com.yupi.yupicturebackend.service.SpaceService;
+import com.yupi.yupicturebackend.service.TagService;
 import com.yupi.yupicturebackend.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
@@ -73,6 +82,9 @@ public class PictureController {
             .expireAfterWrite(Duration.ofMinutes(5)) // 写缓存之后的过期时间（5分钟）
             .build();
 
+    // 批量获取图片时一次最多的数量
+    private static final int MAX_BATCH_GET_SIZE = 50;
+
     // 引入SpaceService
     @Resource
     private SpaceService spaceService;
@@ -85,6 +97,29 @@ public class PictureController {
     @Resource
     private SpaceUserAuthManager spaceUserAuthManager;
 
+    // 引入标签字典
+    @Resource
+    private TagService tagService;
+
+    // 引入图片id布隆过滤器
+    @Resource
+    private PictureBloomFilterManager pictureBloomFilterManager;
+
+    // 引入ETag管理（条件请求，数据没变化时返回304）
+    @Resource
+    private ETagManager eTagManager;
+
+    // 引入动态分表管理器，修改空间图片前确认分表已注册、没有在迁移
+    @Resource
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入标签统计服务
+    @Resource
+    private PictureTagStatService pictureTagStatService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
 
     /**
      * 【增】通过文件上传图片(可重新上传，因为业务层中定义文件名加了前缀，前缀一定不同)
@@ -178,24 +213,29 @@ public class PictureController {
         Picture picture = new Picture();
         BeanUtils.copyProperties(pictureUpdateRequest, picture);
 
-        // 注意将list转为String -> 因为Picture的tags是字符串类型，而图片更新请求的tags是list
-        picture.setTags(JSONUtil.toJsonStr(pictureUpdateRequest.getTags()));
+        // 注意将list转为标签id -> Picture中存的是标签字典的id，而图片更新请求的tags是list
+        tagService.fillPictureTags(picture, pictureUpdateRequest.getTags());
 
         // 4.数据校验
           // 可以直接调用抽象类：validPicture 校验方法
         pictureService.validPicture(picture);
 
-        // 5.判断图片是否存在
+        // 5.判断图片是否存在（已归档的先恢复）
         Long id = pictureUpdateRequest.getId();
-        Picture oldPicture = pictureService.getById(id);
+        Picture oldPicture = pictureService.getByIdForUpdate(id);
         ThrowUtils.throwIf(oldPicture == null, ErrorCode.NOT_FOUND_ERROR);
         User loginUser = userService.getLoginUser(request);
         // 补充审核参数 - 调用fillReviewParams方法
         pictureService.fillReviewParams(picture, loginUser);
 
-        // 6.最后操作数据库，更新数据
-        boolean result = pictureService.updateById(picture);
-        ThrowUtils.throwIf(!result, ErrorCode.PARAMS_ERROR);
+        // 6.最后操作数据库，更新数据（修改了标签时，同一个事务中更新标签统计）
+        dynamicShardingManager.beforeSpaceWrite(oldPicture.getSpaceId());
+        transactionTemplate.executeWithoutResult(status -> {
+            boolean result = pictureService.updateById(picture);
+            ThrowUtils.throwIf(!result, ErrorCode.PARAMS_ERROR);
+            pictureTagStatService.applyTagChange(oldPicture, picture.getTagIds());
+        });
+        eTagManager.bumpScope(oldPicture.getSpaceId());
         return ResultUtils.success(true);
     }
 
@@ -234,8 +274,8 @@ public class PictureController {
     public BaseResponse<Picture> getPictureById(long id, HttpServletRequest request) {
         // 1.校验
         ThrowUtils.throwIf(id <= 0, ErrorCode.PARAMS_ERROR);
-        // 2.查询数据库 -> 根据id获取图片
-        Picture picture = pictureService.getById(id);
+        // 2.查询数据库 -> 根据id获取图片（热表没有时查归档表）
+        Picture picture = pictureService.getByIdWithArchive(id);
         ThrowUtils.throwIf(picture == null, ErrorCode.NOT_FOUND_ERROR);
 
         // 3.空间权限校验
@@ -260,11 +300,13 @@ public class PictureController {
      */
     @GetMapping("/get/vo")
     // @SaSpaceCheckPermission(value = SpaceUserPermissionConstant.PICTURE_VIEW)
-    public BaseResponse<PictureVO> getPictureVOById(long id, HttpServletRequest request) {
+    public BaseResponse<PictureVO> getPictureVOById(long id, HttpServletRequest request, HttpServletResponse response) {
         // 1.校验参数
         ThrowUtils.throwIf(id <= 0, ErrorCode.PARAMS_ERROR);
-        // 2.查询数据库
-        Picture picture = pictureService.getById(id);
+        // 1.1 布隆过滤器判断一定不存在的id，直接拒绝，不再查库
+        ThrowUtils.throwIf(!pictureBloomFilterManager.mightContain(id), ErrorCode.NOT_FOUND_ERROR);
+        // 2.查询数据库（热表没有时查归档表）
+        Picture picture = pictureService.getByIdWithArchive(id);
         ThrowUtils.throwIf(picture == null, ErrorCode.NOT_FOUND_ERROR);
 
         // 3.【新增】空间权限校验
@@ -285,12 +327,39 @@ public class PictureController {
             ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
         }
         User loginUser = userService.getLoginUser(request);
-        List<String> permissionList = spaceUserAuthManager.getPermissionList(space, loginUser);
+        // 3.1 ETag：图片的更新时间 + 所在范围的版本号 + 登录用户 + 权限掩码（成员角色变化后权限列表也会变），没变化就直接返回304
+        long permissionMask = spaceUserAuthManager.getPermissionMask(space, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceId), id, picture.getUpdateTime().getTime(),
+                loginUser.getId(), permissionMask);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
+        List<String> permissionList = spaceUserAuthManager.toPermissionList(permissionMask);
         PictureVO pictureVO = pictureService.getPictureVO(picture, request);
         pictureVO.setPermissionList(permissionList);
 
-        // 4.如果查找到了，获取封装VO类
-        return ResultUtils.success(pictureService.getPictureVO(picture, request));
+        // 4.如果查找到了，获取封装VO类（带上权限列表）
+        return ResultUtils.success(pictureVO);
+    }
+
+
+    /**
+     * 【查】根据id列表批量获取图片(封装VO类)
+     * 给轮播图、选择面板等一次需要多张图片的场景使用，把多次 /get/vo 合并为一次请求
+     * 按请求顺序返回，不存在或没有查看权限的图片会被跳过
+     * @param pictureGetBatchRequest
+     * @param request
+     * @return
+     */
+    @PostMapping("/get/vo/batch")
+    public BaseResponse<List<PictureVO>> listPictureVOByIds(@RequestBody PictureGetBatchRequest pictureGetBatchRequest, HttpServletRequest request) {
+        // 1.校验参数
+        ThrowUtils.throwIf(pictureGetBatchRequest == null || CollUtil.isEmpty(pictureGetBatchRequest.getIdList()), ErrorCode.PARAMS_ERROR);
+        ThrowUtils.throwIf(pictureGetBatchRequest.getIdList().size() > MAX_BATCH_GET_SIZE, ErrorCode.PARAMS_ERROR, "一次最多获取" + MAX_BATCH_GET_SIZE + "张图片");
+        // 2.获取登录用户
+        User loginUser = userService.getLoginUser(request);
+        // 3.批量查询
+        return ResultUtils.success(pictureService.getPictureVOListByIds(pictureGetBatchRequest.getIdList(), loginUser));
     }
 
 
@@ -301,6 +370,7 @@ public class PictureController {
      */
     @PostMapping("/list/page")
     @AuthCheck(mustRole = UserConstant.ADMIN_ROLE)
+    @ReadFromReplica
     public BaseResponse<Page<Picture>> listPictureByPage(@RequestBody PictureQueryRequest pictureQueryRequest) {
         // 1.先获取当前页和每页最大列数 -> 从PageRequest中获取的
         long current = pictureQueryRequest.getCurrent();
@@ -328,7 +398,9 @@ public class PictureController {
      */
     @PostMapping("/list/page/vo")
     // @SaSpaceCheckPermission(value = SpaceUserPermissionConstant.PICTURE_VIEW)
-    public BaseResponse<Page<PictureVO>> listPictureVOByPage(@RequestBody PictureQueryRequest pictureQueryRequest, HttpServletRequest request) {
+    @ReadFromReplica
+    public BaseResponse<Page<PictureVO>> listPictureVOByPage(@RequestBody PictureQueryRequest pictureQueryRequest, HttpServletRequest request,
+                                                             HttpServletResponse response) {
         // 0.参数校验
         ThrowUtils.throwIf(pictureQueryRequest == null, ErrorCode.PARAMS_ERROR);
         
@@ -359,6 +431,12 @@ public class PictureController {
             }*/
         }
 
+        // 3.1 ETag：所在范围的版本号 + 查询条件，范围内没有任何写操作就直接返回304，不查库
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceId), pictureQueryRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
+
         // 4.查询数据库
         Page<Picture> picturePage = pictureService.page(new Page<>(current, size), pictureService.getQueryWrapper(pictureQueryRequest));
 
@@ -375,6 +453,7 @@ public class PictureController {
      */
     @Deprecated  // @Deprecated注解 是标记过时接口，表示这个接口不用了
     @PostMapping("/list/page/vo/cache")
+    @ReadFromReplica
     public BaseResponse<Page<PictureVO>> listPictureVOByPageWithCache(@RequestBody PictureQueryRequest pictureQueryRequest, HttpServletRequest request) {
         // 1.先获取当前页和每页最大列数 -> 从PageRequest中获取的
         long current = pictureQueryRequest.getCurrent();
@@ -440,6 +519,7 @@ public class PictureController {
      * @return 封装VO的分页数据
      */
     @PostMapping("/list/page/vo/cache/redis")
+    @ReadFromReplica
     public BaseResponse<Page<PictureVO>> listPictureVOByPageWithRedisCache(@RequestBody PictureQueryRequest pictureQueryRequest, HttpServletRequest request) {
         // 1.先获取当前页和每页最大列数 -> 从PageRequest中获取的
         long current = pictureQueryRequest.getCurrent();
@@ -494,6 +574,7 @@ public class PictureController {
      * @return 封装VO的分页数据
      */
     @PostMapping("/list/page/vo/cache/caffeine")
+    @ReadFromReplica
     public BaseResponse<Page<PictureVO>> listPictureVOByPageWithCaffeineCache(@RequestBody PictureQueryRequest pictureQueryRequest, HttpServletRequest request) {
         // 1.先获取当前页和每页最大列数 -> 从PageRequest中获取的
         long current = pictureQueryRequest.getCurrent();
@@ -606,7 +687,7 @@ public class PictureController {
         Long pictureId = searchPictureByPictureRequest.getPictureId();
         ThrowUtils.throwIf(pictureId == null || pictureId <= 0, ErrorCode.PARAMS_ERROR);
         // 2.根据查到的id获取图片
-        Picture picture = pictureService.getById(pictureId);
+        Picture picture = pictureService.getByIdWithArchive(pictureId);
         ThrowUtils.throwIf(picture == null, ErrorCode.NOT_FOUND_ERROR);
         // 3.调用门面接口ImageSearchApiFacade
         List<ImageSearchResult> resultList = ImageSearchApiFacade.searchImage(picture.getUrl());
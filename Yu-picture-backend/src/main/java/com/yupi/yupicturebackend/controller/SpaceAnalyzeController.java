@@ -4,6 +4,7 @@ import com.yupi.yupicturebackend.common.BaseResponse;
 import com.yupi.yupicturebackend.common.ResultUtils;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
 import com.yupi.yupicturebackend.model.dto.space.analyze.*;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.User;
@@ -16,6 +17,7 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.util.List;
 
 @RestController
@@ -31,6 +33,10 @@ public class SpaceAnalyzeController {
     @Resource
     private SpaceAnalyzeService spaceAnalyzeService;
 
+    // 引入ETag管理（条件请求，数据没变化时返回304）
+    @Resource
+    private ETagManager eTagManager;
+
 
     /**
      * 获取空间的使用状态
@@ -39,11 +45,18 @@ public class SpaceAnalyzeController {
      * @return
      */
     @PostMapping("/usage")
-    public BaseResponse<SpaceUsageAnalyzeResponse> getSpaceUsageAnalyze(@RequestBody SpaceUsageAnalyzeRequest spaceUsageAnalyzeRequest, HttpServletRequest request) {
+    public BaseResponse<SpaceUsageAnalyzeResponse> getSpaceUsageAnalyze(@RequestBody SpaceUsageAnalyzeRequest spaceUsageAnalyzeRequest, HttpServletRequest request,
+            HttpServletResponse response) {
         // 1.参数校验
         ThrowUtils.throwIf(spaceUsageAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         // 2.获取登录用户
         User loginUser = userService.getLoginUser(request);
+        // 先鉴权，再用 范围版本号 + 请求参数 生成ETag，数据没变化直接返回304，不做统计查询
+        spaceAnalyzeService.checkSpaceAnalyzeAuth(spaceUsageAnalyzeRequest, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceUsageAnalyzeRequest), "usage", spaceUsageAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         // 3.从spaceAnalyzeService中调用方法，获取空间的使用状态
         SpaceUsageAnalyzeResponse spaceUsageAnalyze = spaceAnalyzeService.getSpaceUsageAnalyze(spaceUsageAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceUsageAnalyze);
@@ -59,11 +72,18 @@ public class SpaceAnalyzeController {
      */
     @PostMapping("/category")
     public BaseResponse<List<SpaceCategoryAnalyzeResponse>> getSpaceCategoryAnalyze(@RequestBody SpaceCategoryAnalyzeRequest spaceCategoryAnalyzeRequest,
-                                                                                    HttpServletRequest request) {
+                                                                                    HttpServletRequest request,
+            HttpServletResponse response) {
         // 1.参数校验
         ThrowUtils.throwIf(spaceCategoryAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         // 2.获取登录用户
         User loginUser = userService.getLoginUser(request);
+        // 先鉴权，再用 范围版本号 + 请求参数 生成ETag，数据没变化直接返回304，不做统计查询
+        spaceAnalyzeService.checkSpaceAnalyzeAuth(spaceCategoryAnalyzeRequest, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceCategoryAnalyzeRequest), "category", spaceCategoryAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         // 3.获取空间图片分类列表
         List<SpaceCategoryAnalyzeResponse> spaceCategoryAnalyze = spaceAnalyzeService.getSpaceCategoryAnalyze(spaceCategoryAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceCategoryAnalyze);
@@ -77,9 +97,16 @@ public class SpaceAnalyzeController {
      * @return
      */
     @PostMapping("/tags")
-    public BaseResponse<List<SpaceTagAnalyzeResponse>> getSpaceTagAnalyze(@RequestBody SpaceTagAnalyzeRequest spaceTagAnalyzeRequest, HttpServletRequest request) {
+    public BaseResponse<List<SpaceTagAnalyzeResponse>> getSpaceTagAnalyze(@RequestBody SpaceTagAnalyzeRequest spaceTagAnalyzeRequest, HttpServletRequest request,
+            HttpServletResponse response) {
         ThrowUtils.throwIf(spaceTagAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         User loginUser = userService.getLoginUser(request);
+        // 先鉴权，再用 范围版本号 + 请求参数 生成ETag，数据没变化直接返回304，不做统计查询
+        spaceAnalyzeService.checkSpaceAnalyzeAuth(spaceTagAnalyzeRequest, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceTagAnalyzeRequest), "tags", spaceTagAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         List<SpaceTagAnalyzeResponse> spaceTagAnalyze = spaceAnalyzeService.getSpaceTagAnalyze(spaceTagAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceTagAnalyze);
     }
@@ -92,9 +119,16 @@ public class SpaceAnalyzeController {
      * @return
      */
     @PostMapping("/size")
-    public BaseResponse<List<SpaceSizeAnalyzeResponse>> getSpaceSizeAnalyze(@RequestBody SpaceSizeAnalyzeRequest spaceSizeAnalyzeRequest, HttpServletRequest request) {
+    public BaseResponse<List<SpaceSizeAnalyzeResponse>> getSpaceSizeAnalyze(@RequestBody SpaceSizeAnalyzeRequest spaceSizeAnalyzeRequest, HttpServletRequest request,
+            HttpServletResponse response) {
         ThrowUtils.throwIf(spaceSizeAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         User loginUser = userService.getLoginUser(request);
+        // 先鉴权，再用 范围版本号 + 请求参数 生成ETag，数据没变化直接返回304，不做统计查询
+        spaceAnalyzeService.checkSpaceAnalyzeAuth(spaceSizeAnalyzeRequest, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceSizeAnalyzeRequest), "size", spaceSizeAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         List<SpaceSizeAnalyzeResponse> spaceSizeAnalyze = spaceAnalyzeService.getSpaceSizeAnalyze(spaceSizeAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceSizeAnalyze);
     }
@@ -107,9 +141,16 @@ public class SpaceAnalyzeController {
      * @return
      */
     @PostMapping("/user")
-    public BaseResponse<List<SpaceUserAnalyzeResponse>> getSpaceUserAnalyze(@RequestBody SpaceUserAnalyzeRequest spaceUserAnalyzeRequest, HttpServletRequest request) {
+    public BaseResponse<List<SpaceUserAnalyzeResponse>> getSpaceUserAnalyze(@RequestBody SpaceUserAnalyzeRequest spaceUserAnalyzeRequest, HttpServletRequest request,
+            HttpServletResponse response) {
         ThrowUtils.throwIf(spaceUserAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         User loginUser = userService.getLoginUser(request);
+        // 先鉴权，再用 范围版本号 + 请求参数 生成ETag，数据没变化直接返回304，不做统计查询
+        spaceAnalyzeService.checkSpaceAnalyzeAuth(spaceUserAnalyzeRequest, loginUser);
+        String eTag = eTagManager.buildETag(eTagManager.scopeOf(spaceUserAnalyzeRequest), "user", spaceUserAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         List<SpaceUserAnalyzeResponse> spaceUserAnalyze = spaceAnalyzeService.getSpaceUserAnalyze(spaceUserAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceUserAnalyze);
     }
@@ -122,10 +163,33 @@ public class SpaceAnalyzeController {
      * @return
      */
     @PostMapping("/rank")
-    public BaseResponse<List<Space>> getSpaceRankAnalyze(@RequestBody SpaceRankAnalyzeRequest spaceRankAnalyzeRequest, HttpServletRequest request) {
+    public BaseResponse<List<Space>> getSpaceRankAnalyze(@RequestBody SpaceRankAnalyzeRequest spaceRankAnalyzeRequest, HttpServletRequest request,
+            HttpServletResponse response) {
         ThrowUtils.throwIf(spaceRankAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         User loginUser = userService.getLoginUser(request);
+        // 排行只有管理员能看，先鉴权再用ETag判断（任意空间变化都会影响排行）
+        ThrowUtils.throwIf(!userService.isAdmin(loginUser), ErrorCode.NO_AUTH_ERROR);
+        String eTag = eTagManager.buildETag(ETagManager.SCOPE_ALL, "rank", spaceRankAnalyzeRequest);
+        if (eTagManager.checkNotModified(request, response, eTag)) {
+            return null;
+        }
         List<Space> spaceRankAnalyze = spaceAnalyzeService.getSpaceRankAnalyze(spaceRankAnalyzeRequest, loginUser);
         return ResultUtils.success(spaceRankAnalyze);
     }
+
+
+    /**
+     * 获取某个空间在使用排行中的名次
+     * @param spaceRankPositionRequest
+     * @param request
+     * @return
+     */
+    @PostMapping("/rank/position")
+    public BaseResponse<SpaceRankPositionResponse> getSpaceRankPosition(@RequestBody SpaceRankPositionRequest spaceRankPositionRequest,
+            HttpServletRequest request) {
+        ThrowUtils.throwIf(spaceRankPositionRequest == null, ErrorCode.PARAMS_ERROR);
+        User loginUser = userService.getLoginUser(request);
+        SpaceRankPositionResponse spaceRankPosition = spaceAnalyzeService.getSpaceRankPosition(spaceRankPositionRequest, loginUser);
+        return ResultUtils.success(spaceRankPosition);
+    }
 }
@@ -9,12 +9,18 @@ import com.yupi.yupicturebackend.exception.BusinessException;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
 import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthManager;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaManager;
+import com.yupi.yupicturebackend.manager.rank.SpaceRankManager;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
 import com.yupi.yupicturebackend.model.constant.UserConstant;
 import com.yupi.yupicturebackend.model.dto.space.*;
 import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy;
 import com.yupi.yupicturebackend.model.entity.User;
 import com.yupi.yupicturebackend.model.enums.SpaceLevelEnum;
 import com.yupi.yupicturebackend.model.vo.SpaceVO;
+import com.yupi.yupicturebackend.service.SpaceArchivePolicyService;
 import com.yupi.yupicturebackend.service.SpaceService;
 import com.yupi.yupicturebackend.service.UserService;
 import lombok.extern.slf4j.Slf4j;
@@ -44,6 +50,26 @@ public class SpaceController {
     @Resource
     private SpaceUserAuthManager spaceUserAuthManager;
 
+    // 引入ETag管理，空间变化后让对应范围的ETag失效
+    @Resource
+    private ETagManager eTagManager;
+
+    // 引入动态分表管理器，空间升级为旗舰版后自动建分表
+    @Resource
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入空间归档策略
+    @Resource
+    private SpaceArchivePolicyService spaceArchivePolicyService;
+
+    // 引入空间使用排行榜，删除空间时移出排行
+    @Resource
+    private SpaceRankManager spaceRankManager;
+
+    // 引入空间额度管理，修改空间级别时同步额度上限
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
 
     // 【增】新增空间
     @PostMapping("/add")
@@ -55,6 +81,7 @@ public class SpaceController {
         User loginUser = userService.getLoginUser(request);
           // 调用Service层的addSpace方法
         long newId = spaceService.addSpace(spaceAddRequest, loginUser);
+        eTagManager.bumpScope(newId);
         return ResultUtils.success(newId);
     }
 
@@ -90,6 +117,8 @@ public class SpaceController {
         // 5.最后一步：操作数据库，删除查到的space
         boolean result = spaceService.removeById(id);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        spaceRankManager.removeSpace(id);
+        eTagManager.bumpScope(id);
         return ResultUtils.success(true);
     }
 
@@ -120,6 +149,14 @@ public class SpaceController {
         // 5.最后操作数据库
         boolean result = spaceService.updateById(space);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        eTagManager.bumpScope(space.getId());
+        // 额度上限可能变化，同步到 Redis 中的额度
+        Space newSpace = spaceService.getById(id);
+        spaceQuotaManager.updateLimit(newSpace);
+        // 6.升级为旗舰版团队空间时创建分表
+        if (space.getSpaceLevel() != null && space.getSpaceLevel() != oldSpace.getSpaceLevel().intValue()) {
+            dynamicShardingManager.createSpacePictureTable(newSpace);
+        }
         return ResultUtils.success(true);
     }
 
@@ -198,6 +235,7 @@ public class SpaceController {
         // 5.操作数据库
         boolean result = spaceService.updateById(space);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        eTagManager.bumpScope(space.getId());
         return ResultUtils.success(true);
     }
 
@@ -263,4 +301,33 @@ public class SpaceController {
                 }).collect(Collectors.toList());
         return ResultUtils.success(spaceLevelList);
     }
+
+
+    /**
+     * 获取空间的归档策略（仅空间创建人和管理员）
+     * @param spaceId 空间id
+     * @param request
+     * @return 没有单独配置时返回 null，表示使用默认策略
+     */
+    @GetMapping("/archive/policy/get")
+    public BaseResponse<SpaceArchivePolicy> getSpaceArchivePolicy(Long spaceId, HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        return ResultUtils.success(spaceArchivePolicyService.getArchivePolicy(spaceId, loginUser));
+    }
+
+
+    /**
+     * 设置空间的归档策略（仅空间创建人和管理员）
+     * @param spaceArchivePolicyUpdateRequest
+     * @param request
+     * @return
+     */
+    @PostMapping("/archive/policy/update")
+    public BaseResponse<Boolean> updateSpaceArchivePolicy(@RequestBody SpaceArchivePolicyUpdateRequest spaceArchivePolicyUpdateRequest,
+                                                          HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        boolean result = spaceArchivePolicyService.updateArchivePolicy(spaceArchivePolicyUpdateRequest, loginUser);
+        ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        return ResultUtils.success(true);
+    }
 }
@@ -6,8 +6,10 @@ import com.yupi.yupicturebackend.common.DeleteRequest;
 import com.yupi.yupicturebackend.common.ResultUtils;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
+import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthManager;
 import com.yupi.yupicturebackend.manager.auth.annotation.SaSpaceCheckPermission;
 import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
 import com.yupi.yupicturebackend.model.dto.spaceuser.SpaceUserAddRequest;
 import com.yupi.yupicturebackend.model.dto.spaceuser.SpaceUserEditRequest;
 import com.yupi.yupicturebackend.model.dto.spaceuser.SpaceUserQueryRequest;
@@ -38,6 +40,14 @@ public class SpaceUserController {
     @Resource
     private SpaceUserService spaceUserService;
 
+    // 引入SpaceUserAuthManager，成员变化后清除角色缓存
+    @Resource
+    private SpaceUserAuthManager spaceUserAuthManager;
+
+    // 引入ETag管理，成员变化后该空间的权限列表会变，之前的 ETag 全部失效
+    @Resource
+    private ETagManager eTagManager;
+
     /**
      * 添加成员到空间
      *
@@ -52,6 +62,8 @@ public class SpaceUserController {
         ThrowUtils.throwIf(spaceUserAddRequest == null, ErrorCode.PARAMS_ERROR);
         // 从spaceUserService中获取id并返回
         long id = spaceUserService.addSpaceUser(spaceUserAddRequest);
+        spaceUserAuthManager.invalidateSpaceRole(spaceUserAddRequest.getSpaceId(), spaceUserAddRequest.getUserId());
+        eTagManager.bumpScope(spaceUserAddRequest.getSpaceId());
         return ResultUtils.success(id);
     }
 
@@ -74,6 +86,8 @@ public class SpaceUserController {
         // 然后操作数据库
         boolean result = spaceUserService.removeById(id);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        spaceUserAuthManager.invalidateSpaceRole(oldSpaceUser.getSpaceId(), oldSpaceUser.getUserId());
+        eTagManager.bumpScope(oldSpaceUser.getSpaceId());
         return ResultUtils.success(true);
     }
 
@@ -148,6 +162,8 @@ public class SpaceUserController {
         // 4.最后操作数据库，修改数据
         boolean result = spaceUserService.updateById(spaceUser);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        spaceUserAuthManager.invalidateSpaceRole(oldSpaceUser.getSpaceId(), oldSpaceUser.getUserId());
+        eTagManager.bumpScope(oldSpaceUser.getSpaceId());
         return ResultUtils.success(true);
     }
 
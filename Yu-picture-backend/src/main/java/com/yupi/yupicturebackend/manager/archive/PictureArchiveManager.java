@@ -0,0 +1,505 @@
+package com.yupi.yupicturebackend.manager.archive;
+
+import cn.hutool.core.collection.CollUtil;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaManager;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaReservation;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
+import com.yupi.yupicturebackend.manager.sharding.SpacePictureMigrator;
+import com.yupi.yupicturebackend.mapper.PictureMapper;
+import com.yupi.yupicturebackend.mapper.SpaceMapper;
+import com.yupi.yupicturebackend.mapper.typehandler.IntArrayTypeHandler;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy;
+import com.yupi.yupicturebackend.service.PictureTagStatService;
+import com.yupi.yupicturebackend.service.PictureUploadDailyService;
+import com.yupi.yupicturebackend.service.SpaceArchivePolicyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 图片冷数据归档
+ * <p>
+ * 1. 定时按 id 游标扫描每张图片物理表，按空间的归档策略（没有单独配置的用默认策略）挑出冷数据：
+ * 逻辑删除超过保留天数的图片（deleted）、长期没有访问也没有编辑的图片（idle）；
+ * 2. 分批在一个事务中 REPLACE INTO picture_archive 并从热表删除，批次之间休眠限速；
+ * 3. 归档的图片不再出现在列表和分析中，但按 id 查看时透明地回退到归档表；编辑、删除等写操作会先把它恢复到热表；
+ * 4. 访问时间记录在 Redis 的 ZSET 中（分数为日期），没有记录的按编辑时间计算；每次归档前清理超过最大未访问天数的记录，
+ * 这些记录已经不影响归档判断，避免 ZSET 无限增长；
+ * 5. 正在迁移到专属分表的空间跳过，避免与迁移的校验冲突；
+ * 6. 归档的未删除图片仍然占用空间额度（额度核对也会统计归档表），恢复时不再重复占用，但和上传一样要经过额度管理的检查。
+ */
+@Slf4j
+@Component
+public class PictureArchiveManager {
+
+    /**
+     * 图片最近访问日期，member 为图片id，score 为 epochDay
+     */
+    private static final String ACCESS_KEY = "yupicture:archive:access";
+
+    /**
+     * 归档任务锁，多个节点只有一个执行
+     */
+    private static final String LOCK_KEY = "yupicture:archive:lock";
+
+    /**
+     * 归档表（未删除的归档图片仍然占用空间额度，额度核对时一起统计）
+     */
+    public static final String ARCHIVE_TABLE_NAME = "picture_archive";
+
+    /**
+     * 归档原因：逻辑删除
+     */
+    private static final String REASON_DELETED = "deleted";
+
+    /**
+     * 归档原因：长期未访问
+     */
+    private static final String REASON_IDLE = "idle";
+
+    /**
+     * 搬到归档表的列（与 picture 的列一一对应，归档表多出的 archiveTime、archiveReason 单独赋值）
+     * 显式列出，picture 新增列或调整列顺序时不会错位写入归档表
+     */
+    private static final String ARCHIVE_COLUMNS = "id, url, thumbnailUrl, name, introduction, category, tags, tagIds, picSize, "
+            + "picWidth, picHeight, picScale, picFormat, picColor, userId, spaceId, reviewStatus, reviewMessage, reviewId, "
+            + "reviewTime, createTime, editTime, updateTime, isDelete";
+
+    // 引入图片Mapper，查询和删除归档表
+    @Resource
+    private PictureMapper pictureMapper;
+
+    // 引入动态分表管理器，获取物理表和真实数据源
+    @Resource
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入空间迁移器，跳过正在迁移的空间
+    @Resource
+    private SpacePictureMigrator spacePictureMigrator;
+
+    // 引入空间归档策略
+    @Resource
+    private SpaceArchivePolicyService spaceArchivePolicyService;
+
+    // 引入ETag管理，归档后列表发生变化
+    @Resource
+    private ETagManager eTagManager;
+
+    // 引入标签统计服务，归档、恢复未删除的图片时更新统计
+    @Resource
+    private PictureTagStatService pictureTagStatService;
+
+    // 引入每日上传汇总服务，同上
+    @Resource
+    private PictureUploadDailyService pictureUploadDailyService;
+
+    // 引入空间额度管理，恢复图片前检查额度
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    // 引入空间Mapper，恢复时获取空间额度（不引入SpaceService，避免循环依赖）
+    @Resource
+    private SpaceMapper spaceMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${picture.archive.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 默认策略：逻辑删除的图片保留天数
+     */
+    @Value("${picture.archive.deleted-retention-days:30}")
+    private int defaultDeletedRetentionDays;
+
+    /**
+     * 默认策略：多少天未访问、未编辑的图片归档，0 表示不按访问归档
+     */
+    @Value("${picture.archive.idle-days:0}")
+    private int defaultIdleDays;
+
+    /**
+     * 每次扫描的行数
+     */
+    @Value("${picture.archive.scan-size:2000}")
+    private int scanSize;
+
+    /**
+     * 每批搬迁的行数
+     */
+    @Value("${picture.archive.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 每批之间的休眠时间（毫秒），用于限速
+     */
+    @Value("${picture.archive.batch-interval-ms:50}")
+    private long batchIntervalMillis;
+
+
+    /**
+     * 记录图片被访问（按天，同一天多次访问只是覆盖分数）
+     *
+     * @param pictureId 图片id
+     */
+    public void recordAccess(Long pictureId) {
+        if (!enabled || pictureId == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().add(ACCESS_KEY, String.valueOf(pictureId), LocalDate.now().toEpochDay());
+        } catch (Exception e) {
+            // 访问记录丢失最多导致图片提前归档，归档后仍然可以访问
+            log.error("记录图片访问失败, pictureId = {}", pictureId, e);
+        }
+    }
+
+
+    /**
+     * 从归档表中查询图片
+     *
+     * @param pictureId 图片id
+     * @return 不存在（或还没有建归档表）时返回 null
+     */
+    public Picture getArchivedPicture(Long pictureId) {
+        if (pictureId == null) {
+            return null;
+        }
+        try {
+            return pictureMapper.selectArchivedById(pictureId);
+        } catch (Exception e) {
+            log.error("查询归档图片失败, pictureId = {}", pictureId, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * 从归档表中批量查询图片
+     *
+     * @param idList 图片id列表
+     * @return
+     */
+    public List<Picture> listArchivedPictures(Collection<Long> idList) {
+        if (CollUtil.isEmpty(idList)) {
+            return new ArrayList<>();
+        }
+        try {
+            return pictureMapper.selectArchivedBatchIds(idList);
+        } catch (Exception e) {
+            log.error("批量查询归档图片失败", e);
+            return new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * 把归档的图片恢复到热表（写操作之前调用），热表中已经有了也视为成功
+     *
+     * @param pictureId  图片id
+     * @param checkQuota 是否检查空间额度（删除图片时不检查，否则额度超限的空间无法通过删除释放额度）
+     * @return 恢复后的图片，归档表中也没有时返回 null
+     */
+    public Picture restorePicture(Long pictureId, boolean checkQuota) {
+        Picture picture = getArchivedPicture(pictureId);
+        if (picture == null) {
+            return null;
+        }
+        // 空间图片：归档期间一直占用着额度，所以只检查空间没有超额（和上传一样，如空间降级后上限变小），不再预占图片本身的大小
+        if (checkQuota && picture.getSpaceId() != null && !Integer.valueOf(1).equals(picture.getIsDelete())) {
+            Space space = spaceMapper.selectById(picture.getSpaceId());
+            if (space != null) {
+                SpaceQuotaReservation reservation = spaceQuotaManager.reserve(space, 0, 0);
+                spaceQuotaManager.release(reservation);
+            }
+        }
+        dynamicShardingManager.beforeSpaceWrite(picture.getSpaceId());
+        try {
+            // 经过 MyBatis-Plus（以及 ShardingSphere）插入，自动路由到正确的物理表
+            pictureMapper.insert(picture);
+            // 未删除的图片重新计入标签统计和每日上传汇总
+            if (!Integer.valueOf(1).equals(picture.getIsDelete())) {
+                pictureTagStatService.applyTagDelta(null, picture);
+                pictureUploadDailyService.applyUploadDelta(null, picture);
+            }
+        } catch (DuplicateKeyException e) {
+            // 并发恢复，其他请求已经插入
+        }
+        pictureMapper.deleteArchivedById(pictureId);
+        recordAccess(pictureId);
+        eTagManager.bumpScope(picture.getSpaceId());
+        log.info("图片 {} 已从归档表恢复", pictureId);
+        return picture;
+    }
+
+
+    /**
+     * 定时归档冷数据（默认每天凌晨执行）
+     */
+    @Scheduled(cron = "${picture.archive.cron:0 30 3 * * ?}")
+    public void archiveColdPictures() {
+        if (!enabled) {
+            return;
+        }
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_KEY, "1", 6, TimeUnit.HOURS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            Map<Long, SpaceArchivePolicy> policyMap = spaceArchivePolicyService.list().stream()
+                    .collect(Collectors.toMap(SpaceArchivePolicy::getSpaceId, Function.identity()));
+            trimAccessRecords(policyMap);
+            JdbcTemplate jdbcTemplate = dynamicShardingManager.getActualJdbcTemplate();
+            ArchiveContext context = new ArchiveContext(jdbcTemplate, policyMap);
+            for (String tableName : dynamicShardingManager.getPictureTableNames()) {
+                archiveTable(context, tableName);
+            }
+            // 归档了未删除的图片，对应范围的列表发生变化
+            context.changedSpaceIds.forEach(eTagManager::bumpScope);
+            log.info("图片归档完成，逻辑删除 {} 张，长期未访问 {} 张，耗时 {} ms",
+                    context.deletedCount, context.idleCount, System.currentTimeMillis() - startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("图片归档失败，下次定时任务继续", e);
+        } finally {
+            stringRedisTemplate.delete(LOCK_KEY);
+        }
+    }
+
+
+    /**
+     * 清理过期的访问记录：早于（今天 - 所有策略中最大的未访问天数）的访问，和没有访问记录的效果一样
+     *
+     * @param policyMap 空间的归档策略
+     */
+    private void trimAccessRecords(Map<Long, SpaceArchivePolicy> policyMap) {
+        int maxIdleDays = Math.max(0, defaultIdleDays);
+        for (SpaceArchivePolicy policy : policyMap.values()) {
+            maxIdleDays = Math.max(maxIdleDays, getIdleDays(policy));
+        }
+        long threshold = LocalDate.now().toEpochDay() - maxIdleDays;
+        Long removed = stringRedisTemplate.opsForZSet().removeRangeByScore(ACCESS_KEY, 0, threshold - 1);
+        log.info("清理图片访问记录 {} 条（访问日期早于 {}）", removed, LocalDate.ofEpochDay(threshold));
+    }
+
+
+    /**
+     * 按 id 游标扫描一张物理表，挑出冷数据分批搬迁
+     */
+    private void archiveTable(ArchiveContext context, String tableName) throws InterruptedException {
+        long lastId = 0;
+        while (true) {
+            List<Map<String, Object>> rowList = context.jdbcTemplate.queryForList(
+                    "SELECT id, spaceId, isDelete, UNIX_TIMESTAMP(editTime) AS editTime, UNIX_TIMESTAMP(updateTime) AS updateTime"
+                            + " FROM " + tableName + " WHERE id > ? ORDER BY id LIMIT ?",
+                    lastId, scanSize);
+            if (rowList.isEmpty()) {
+                return;
+            }
+            lastId = ((Number) rowList.get(rowList.size() - 1).get("id")).longValue();
+            List<Long> deletedIdList = new ArrayList<>();
+            // 图片id -> 所在空间的未访问天数
+            Map<Long, Integer> idleDaysMap = new LinkedHashMap<>();
+            for (Map<String, Object> row : rowList) {
+                Long spaceId = row.get("spaceId") == null ? null : ((Number) row.get("spaceId")).longValue();
+                if (spaceId != null && context.isMigrating(spaceId)) {
+                    continue;
+                }
+                SpaceArchivePolicy policy = context.policyMap.get(spaceId);
+                if (policy != null && Integer.valueOf(0).equals(policy.getEnabled())) {
+                    continue;
+                }
+                long id = ((Number) row.get("id")).longValue();
+                if (((Number) row.get("isDelete")).intValue() == 1) {
+                    int retentionDays = getDeletedRetentionDays(policy);
+                    if (getSeconds(row, "updateTime") < context.daysAgo(retentionDays)) {
+                        deletedIdList.add(id);
+                    }
+                } else {
+                    int idleDays = getIdleDays(policy);
+                    if (idleDays > 0 && getSeconds(row, "editTime") < context.daysAgo(idleDays)) {
+                        idleDaysMap.put(id, idleDays);
+                    }
+                }
+            }
+            // 逻辑删除的：删除后（updateTime）没有再变化过
+            for (List<Long> batch : CollUtil.split(deletedIdList, batchSize)) {
+                context.deletedCount += moveToArchive(context, tableName, batch, REASON_DELETED);
+                TimeUnit.MILLISECONDS.sleep(batchIntervalMillis);
+            }
+            // 长期未访问的：还要排除最近有访问记录的
+            List<Long> idleIdList = filterIdle(idleDaysMap);
+            for (List<Long> batch : CollUtil.split(idleIdList, batchSize)) {
+                context.idleCount += moveToArchive(context, tableName, batch, REASON_IDLE);
+                TimeUnit.MILLISECONDS.sleep(batchIntervalMillis);
+            }
+        }
+    }
+
+
+    /**
+     * 排除最近访问过的图片（Redis 中的访问日期在未访问天数以内）
+     *
+     * @param idleDaysMap 图片id -> 所在空间的未访问天数
+     * @return 确实长期没有访问的图片id
+     */
+    private List<Long> filterIdle(Map<Long, Integer> idleDaysMap) {
+        if (idleDaysMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> idList = new ArrayList<>(idleDaysMap.keySet());
+        byte[] key = ACCESS_KEY.getBytes(StandardCharsets.UTF_8);
+        List<Object> scoreList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : idList) {
+                connection.zSetCommands().zScore(key, String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        long today = LocalDate.now().toEpochDay();
+        List<Long> resultList = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            Long id = idList.get(i);
+            Object score = scoreList.get(i);
+            if (score == null || ((Number) score).longValue() < today - idleDaysMap.get(id)) {
+                resultList.add(id);
+            }
+        }
+        return resultList;
+    }
+
+
+    /**
+     * 在一个事务中把一批图片搬到归档表，返回实际搬迁的行数
+     * 先加锁再复核：任务开始后有变化（编辑、审核、删除、恢复都会更新 updateTime）的图片不再搬迁
+     */
+    private int moveToArchive(ArchiveContext context, String tableName, List<Long> idList, String reason) {
+        String inSql = idList.stream().map(String::valueOf).collect(Collectors.joining(","));
+        String condition = (REASON_DELETED.equals(reason) ? "isDelete = 1" : "isDelete = 0") + " AND updateTime < FROM_UNIXTIME(?)";
+        List<Map<String, Object>> lockedList = context.transactionTemplate.execute(status -> {
+            List<Map<String, Object>> rowList = context.jdbcTemplate.queryForList(
+                    "SELECT id, spaceId, userId, picSize, UNIX_TIMESTAMP(createTime) AS createTime, tags, tagIds FROM " + tableName + " WHERE id IN (" + inSql + ") AND " + condition + " FOR UPDATE",
+                    context.now);
+            if (rowList.isEmpty()) {
+                return rowList;
+            }
+            String lockedInSql = rowList.stream().map(row -> String.valueOf(row.get("id"))).collect(Collectors.joining(","));
+            context.jdbcTemplate.update("REPLACE INTO " + ARCHIVE_TABLE_NAME + " (" + ARCHIVE_COLUMNS + ", archiveTime, archiveReason)"
+                    + " SELECT " + ARCHIVE_COLUMNS + ", NOW(), ? FROM " + tableName + " WHERE id IN (" + lockedInSql + ")", reason);
+            context.jdbcTemplate.update("DELETE FROM " + tableName + " WHERE id IN (" + lockedInSql + ")");
+            if (REASON_IDLE.equals(reason)) {
+                rowList.stream()
+                        .map(row -> row.get("spaceId") == null ? null : ((Number) row.get("spaceId")).longValue())
+                        .forEach(context.changedSpaceIds::add);
+            }
+            return rowList;
+        });
+        if (CollUtil.isEmpty(lockedList)) {
+            return 0;
+        }
+        // 访问记录不再需要，恢复时会重新记录
+        stringRedisTemplate.opsForZSet().remove(ACCESS_KEY, lockedList.stream().map(row -> String.valueOf(row.get("id"))).toArray());
+        if (REASON_IDLE.equals(reason)) {
+            // 未删除的图片移出热表，扣减标签统计和每日上传汇总
+            // （分表时归档用的是真实数据源的事务，统计表不在同一个事务中，偏差由定时核对修正）
+            for (Map<String, Object> row : lockedList) {
+                Picture picture = new Picture();
+                picture.setSpaceId(row.get("spaceId") == null ? null : ((Number) row.get("spaceId")).longValue());
+                picture.setUserId(((Number) row.get("userId")).longValue());
+                picture.setPicSize(row.get("picSize") == null ? null : ((Number) row.get("picSize")).longValue());
+                picture.setCreateTime(new Date(getSeconds(row, "createTime") * 1000));
+                picture.setTags(row.get("tags") == null ? null : row.get("tags").toString());
+                picture.setTagIds(row.get("tagIds") == null ? null : IntArrayTypeHandler.parse(row.get("tagIds").toString()));
+                try {
+                    pictureTagStatService.applyTagDelta(picture, null);
+                    pictureUploadDailyService.applyUploadDelta(picture, null);
+                } catch (Exception e) {
+                    log.error("归档后更新统计失败", e);
+                }
+            }
+        }
+        return lockedList.size();
+    }
+
+
+    /**
+     * 时间列按秒读取（不同驱动版本的 getObject 返回类型不一致）
+     */
+    private long getSeconds(Map<String, Object> row, String columnName) {
+        return ((Number) row.get(columnName)).longValue();
+    }
+
+    private int getDeletedRetentionDays(SpaceArchivePolicy policy) {
+        return policy == null || policy.getDeletedRetentionDays() == null
+                ? defaultDeletedRetentionDays : policy.getDeletedRetentionDays();
+    }
+
+    private int getIdleDays(SpaceArchivePolicy policy) {
+        return policy == null || policy.getIdleDays() == null ? defaultIdleDays : policy.getIdleDays();
+    }
+
+
+    /**
+     * 一次归档任务的上下文
+     */
+    private class ArchiveContext {
+
+        private final JdbcTemplate jdbcTemplate;
+
+        private final TransactionTemplate transactionTemplate;
+
+        private final Map<Long, SpaceArchivePolicy> policyMap;
+
+        /**
+         * 任务开始时数据库的当前时间（秒），所有天数都以它为准
+         */
+        private final long now;
+
+        private final Map<Long, Boolean> migratingMap = new HashMap<>();
+
+        private final Set<Long> changedSpaceIds = new HashSet<>();
+
+        private int deletedCount;
+
+        private int idleCount;
+
+        private ArchiveContext(JdbcTemplate jdbcTemplate, Map<Long, SpaceArchivePolicy> policyMap) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(
+                    Objects.requireNonNull(jdbcTemplate.getDataSource())));
+            this.policyMap = policyMap;
+            this.now = Objects.requireNonNull(jdbcTemplate.queryForObject("SELECT UNIX_TIMESTAMP()", Long.class));
+        }
+
+        /**
+         * N 天前的时间（秒）
+         */
+        private long daysAgo(int days) {
+            return now - TimeUnit.DAYS.toSeconds(days);
+        }
+
+        private boolean isMigrating(Long spaceId) {
+            return migratingMap.computeIfAbsent(spaceId, spacePictureMigrator::isMigrating);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.yupi.yupicturebackend.manager.auth;
+
+import cn.hutool.core.util.StrUtil;
+import com.yupi.yupicturebackend.manager.auth.model.SpaceUserAuthConfig;
+import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermission;
+import com.yupi.yupicturebackend.manager.auth.model.SpaceUserRole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译后的权限表（不可变）
+ * <p>
+ * 1. 启动时把 spaceUserAuthConfig.json 编译一次：每个权限按配置中的顺序分配一个二进制位，每个角色对应一个位掩码；
+ * 2. 权限判断就是一次按位与，不再遍历角色列表、也不再在 List 中查找字符串；
+ * 3. 需要返回权限列表（给前端、给 Sa-Token）时，按掩码取预先生成好的不可变列表，不产生新对象。
+ */
+public final class SpacePermissionTable {
+
+    /**
+     * 权限数量上限：每种掩码组合都预先生成权限列表，数量过多时表会过大
+     */
+    private static final int MAX_PERMISSION_COUNT = 16;
+
+    /**
+     * 权限键 -> 位
+     */
+    private final Map<String, Long> permissionBitMap;
+
+    /**
+     * 角色键 -> 位掩码
+     */
+    private final Map<String, Long> roleMaskMap;
+
+    /**
+     * 位掩码 -> 权限列表（下标就是掩码）
+     */
+    private final List<List<String>> permissionListTable;
+
+    private SpacePermissionTable(Map<String, Long> permissionBitMap, Map<String, Long> roleMaskMap,
+                                 List<List<String>> permissionListTable) {
+        this.permissionBitMap = permissionBitMap;
+        this.roleMaskMap = roleMaskMap;
+        this.permissionListTable = permissionListTable;
+    }
+
+
+    /**
+     * 编译权限配置
+     *
+     * @param authConfig 空间成员权限配置
+     * @return 编译后的权限表
+     */
+    public static SpacePermissionTable compile(SpaceUserAuthConfig authConfig) {
+        // 1.给每个权限分配一个位
+        List<SpaceUserPermission> permissionList = authConfig.getPermissions();
+        if (permissionList.size() > MAX_PERMISSION_COUNT) {
+            throw new IllegalStateException("空间权限数量超过上限: " + permissionList.size());
+        }
+        List<String> permissionKeyList = new ArrayList<>(permissionList.size());
+        Map<String, Long> permissionBitMap = new HashMap<>();
+        for (SpaceUserPermission permission : permissionList) {
+            permissionBitMap.put(permission.getKey(), 1L << permissionKeyList.size());
+            permissionKeyList.add(permission.getKey());
+        }
+        // 2.角色的权限合并为位掩码，配置中写了不存在的权限直接报错，避免静默丢权限
+        Map<String, Long> roleMaskMap = new HashMap<>();
+        for (SpaceUserRole role : authConfig.getRoles()) {
+            long mask = 0;
+            for (String permissionKey : role.getPermissions()) {
+                Long bit = permissionBitMap.get(permissionKey);
+                if (bit == null) {
+                    throw new IllegalStateException("角色 " + role.getKey() + " 配置了不存在的权限: " + permissionKey);
+                }
+                mask |= bit;
+            }
+            roleMaskMap.put(role.getKey(), mask);
+        }
+        // 3.每种掩码组合预先生成不可变的权限列表
+        int tableSize = 1 << permissionKeyList.size();
+        List<List<String>> permissionListTable = new ArrayList<>(tableSize);
+        for (int mask = 0; mask < tableSize; mask++) {
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < permissionKeyList.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    list.add(permissionKeyList.get(i));
+                }
+            }
+            permissionListTable.add(Collections.unmodifiableList(list));
+        }
+        return new SpacePermissionTable(Collections.unmodifiableMap(permissionBitMap),
+                Collections.unmodifiableMap(roleMaskMap), Collections.unmodifiableList(permissionListTable));
+    }
+
+
+    /**
+     * 获取权限对应的位，权限不存在时返回 0（任何掩码都不包含）
+     */
+    public long getPermissionBit(String permission) {
+        if (permission == null) {
+            return 0L;
+        }
+        return permissionBitMap.getOrDefault(permission, 0L);
+    }
+
+    /**
+     * 获取角色对应的位掩码，角色不存在时返回 0（没有任何权限）
+     */
+    public long getRoleMask(String role) {
+        if (StrUtil.isBlank(role)) {
+            return 0L;
+        }
+        return roleMaskMap.getOrDefault(role, 0L);
+    }
+
+    /**
+     * 把位掩码转为权限列表（不可变，多次调用返回同一个对象）
+     */
+    public List<String> toPermissionList(long mask) {
+        return permissionListTable.get((int) (mask & (permissionListTable.size() - 1)));
+    }
+
+    /**
+     * 掩码是否包含全部指定的权限位
+     */
+    public static boolean hasPermission(long mask, long permissionBit) {
+        return permissionBit != 0 && (mask & permissionBit) == permissionBit;
+    }
+}
@@ -1,11 +1,12 @@
 package com.yupi.yupicturebackend.manager.auth;
 
 import cn.hutool.core.io.resource.ResourceUtil;
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.yupi.yupicturebackend.manager.auth.model.SpaceUserAuthConfig;
 import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
-import com.yupi.yupicturebackend.manager.auth.model.SpaceUserRole;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.SpaceUser;
 import com.yupi.yupicturebackend.model.entity.User;
@@ -13,15 +14,42 @@ import com.yupi.yupicturebackend.model.enums.SpaceRoleEnum;
 import com.yupi.yupicturebackend.model.enums.SpaceTypeEnum;
 import com.yupi.yupicturebackend.service.SpaceUserService;
 import com.yupi.yupicturebackend.service.UserService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+/**
+ * 空间权限管理器
+ * <p>
+ * 1. 权限配置启动时编译为 角色 -> 位掩码 的不可变表（SpacePermissionTable），权限判断是一次按位与；
+ * 2. 团队空间的成员角色按 用户id -> (空间id -> 角色) 缓存在本地，查找不需要拼接 key；
+ * 成员添加、编辑、移除后清除本节点的缓存，并通过 Redis 发布订阅通知其他节点清除；
+ * 通知丢失时（如 Redis 短暂断开）靠较短的过期时间兜底，最多延迟一个过期时间生效。
+ */
+@Slf4j
 @Component
-public class SpaceUserAuthManager {
+public class SpaceUserAuthManager implements MessageListener {
+
+    /**
+     * 成员角色失效通知的频道，消息内容为 {spaceId}:{userId}
+     */
+    private static final String ROLE_INVALIDATE_CHANNEL = "yupicture:space:role:invalidate";
 
     // 引入UserService
     @Resource
@@ -31,15 +59,58 @@ public class SpaceUserAuthManager {
     @Resource
     private SpaceUserService spaceUserService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 引入 Redis 消息监听容器，接收其他节点的成员角色失效通知
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
     // 定义常量SPACE_USER_AUTH_CONFIG
     public static final SpaceUserAuthConfig SPACE_USER_AUTH_CONFIG;
 
+    /**
+     * 编译后的权限表
+     */
+    public static final SpacePermissionTable PERMISSION_TABLE;
+
+    /**
+     * 管理员权限掩码
+     */
+    private static final long ADMIN_MASK;
+
+    /**
+     * 只读权限掩码
+     */
+    private static final long VIEW_MASK;
+
     //
     static {
         // 使用Hutool的ResourceUtil.readUtf8Str读取配置类
         String json = ResourceUtil.readUtf8Str("biz/spaceUserAuthConfig.json");
         // 然后通过JSONUtil的toBean方法把得到的json转为spaceUserAuthConfig.class
         SPACE_USER_AUTH_CONFIG = JSONUtil.toBean(json, SpaceUserAuthConfig.class);
+        PERMISSION_TABLE = SpacePermissionTable.compile(SPACE_USER_AUTH_CONFIG);
+        ADMIN_MASK = PERMISSION_TABLE.getRoleMask(SpaceRoleEnum.ADMIN.getValue());
+        VIEW_MASK = PERMISSION_TABLE.getPermissionBit(SpaceUserPermissionConstant.PICTURE_VIEW);
+    }
+
+    /**
+     * 不是空间成员（缓存不能存 null，用空字符串表示，避免非成员反复查库）
+     */
+    private static final String NO_ROLE = "";
+
+    // 成员角色本地缓存：用户id -> (空间id -> 角色)
+    private final Cache<Long, Map<Long, String>> spaceRoleCache = Caffeine.newBuilder()
+            .initialCapacity(1024)
+            .maximumSize(10_000L)
+            .expireAfterWrite(Duration.ofMinutes(1)) // 失效通知丢失时，最多 1 分钟生效
+            .build();
+
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(ROLE_INVALIDATE_CHANNEL));
     }
 
 
@@ -47,26 +118,121 @@ public class SpaceUserAuthManager {
      * 根据角色获取权限列表
      *
      * @param spaceUserRole
-     * @return
+     * @return 不可变的权限列表
      */
     public List<String> getPermissionByRole(String spaceUserRole) {
-        // 校验参数，不存在就返回空ArrayList
-        if (StrUtil.isBlank(spaceUserRole)) {
-            return new ArrayList<>();
+        return PERMISSION_TABLE.toPermissionList(PERMISSION_TABLE.getRoleMask(spaceUserRole));
+    }
+
+
+    /**
+     * 把权限掩码转为权限列表（给前端或 Sa-Token）
+     */
+    public List<String> toPermissionList(long mask) {
+        return PERMISSION_TABLE.toPermissionList(mask);
+    }
+
+
+    /**
+     * 权限掩码是否包含某个权限
+     */
+    public boolean hasPermission(long mask, String permission) {
+        return SpacePermissionTable.hasPermission(mask, PERMISSION_TABLE.getPermissionBit(permission));
+    }
+
+
+    /**
+     * 登录用户在空间中是否有某个权限
+     */
+    public boolean hasPermission(Space space, User loginUser, String permission) {
+        return hasPermission(getPermissionMask(space, loginUser), permission);
+    }
+
+
+    /**
+     * 获取管理员权限掩码
+     */
+    public long getAdminMask() {
+        return ADMIN_MASK;
+    }
+
+
+    /**
+     * 获取只读权限掩码
+     */
+    public long getViewMask() {
+        return VIEW_MASK;
+    }
+
+
+    /**
+     * 获取用户在团队空间中的角色（优先读本地缓存）
+     *
+     * @param spaceId 空间id
+     * @param userId  用户id
+     * @return 角色，不是空间成员时返回 null
+     */
+    public String getSpaceRole(Long spaceId, Long userId) {
+        if (spaceId == null || userId == null) {
+            return null;
+        }
+        // 同一用户并发加载同一空间时只查一次库，失效与加载互斥，不会把旧角色写回缓存
+        String spaceRole = getUserRoleMap(userId).computeIfAbsent(spaceId, key -> {
+            SpaceUser spaceUser = spaceUserService.lambdaQuery()
+                    .select(SpaceUser::getSpaceRole)
+                    .eq(SpaceUser::getSpaceId, spaceId)
+                    .eq(SpaceUser::getUserId, userId)
+                    .one();
+            return spaceUser == null || spaceUser.getSpaceRole() == null ? NO_ROLE : spaceUser.getSpaceRole();
+        });
+        return NO_ROLE.equals(spaceRole) ? null : spaceRole;
+    }
+
+
+    /**
+     * 获取用户在团队空间中的权限掩码
+     */
+    public long getSpaceRoleMask(Long spaceId, Long userId) {
+        return PERMISSION_TABLE.getRoleMask(getSpaceRole(spaceId, userId));
+    }
+
+
+    /**
+     * 成员添加、编辑、移除后调用，清除该成员的角色缓存（包括其他节点）
+     *
+     * @param spaceId 空间id
+     * @param userId  用户id
+     */
+    public void invalidateSpaceRole(Long spaceId, Long userId) {
+        if (spaceId == null || userId == null) {
+            return;
         }
-        // 否则先拿到所有的Roles，再过滤 当前要查的角色role等于角色列表中的Key
-        SpaceUserRole role = SPACE_USER_AUTH_CONFIG.getRoles()
-                .stream()
-                .filter(r -> r.getKey().equals(spaceUserRole))
-                // 如果找到了这条数据，就用.findFirst(),没找到就null
-                .findFirst()
-                .orElse(null);
-
-        // 如果获取的role不存在（一般不存在这种情况），直接返回ArrayList
-        if (role == null) {
-            return new ArrayList<>();
+        evictSpaceRole(spaceId, userId);
+        try {
+            stringRedisTemplate.convertAndSend(ROLE_INVALIDATE_CHANNEL, spaceId + ":" + userId);
+        } catch (Exception e) {
+            // 其他节点的缓存等过期
+            log.warn("发送成员角色失效通知失败, spaceId = {}, userId = {}", spaceId, userId, e);
         }
-        return role.getPermissions();
+    }
+
+
+    /**
+     * 收到成员角色失效通知（包括本节点自己发出的，重复清除没有影响）
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(':');
+        if (index < 0) {
+            return;
+        }
+        String spaceId = body.substring(0, index);
+        String userId = body.substring(index + 1);
+        if (!NumberUtil.isLong(spaceId) || !NumberUtil.isLong(userId)) {
+            return;
+        }
+        evictSpaceRole(Long.parseLong(spaceId), Long.parseLong(userId));
     }
 
 
@@ -78,53 +244,119 @@ public class SpaceUserAuthManager {
      * @return
      */
     public List<String> getPermissionList(Space space, User loginUser) {
+        return PERMISSION_TABLE.toPermissionList(getPermissionMask(space, loginUser));
+    }
+
+
+    /**
+     * 获取权限掩码
+     *
+     * @param space     空间，为 null 表示公共图库
+     * @param loginUser 登录用户
+     * @return
+     */
+    public long getPermissionMask(Space space, User loginUser) {
         if (loginUser == null) {
-            return new ArrayList<>();
+            return 0L;
         }
-        // 1.设置管理员权限
-        List<String> ADMIN_PERMISSIONS = getPermissionByRole(SpaceRoleEnum.ADMIN.getValue());
-
-        // 2. 公共图库
+        // 1.公共图库
         if (space == null) {
             if (userService.isAdmin(loginUser)) {
-                return ADMIN_PERMISSIONS;
+                return ADMIN_MASK;
             }
             // 不是管理员，可以返回空权限，也可以返回只读权限
-            // return new ArrayList<>();
-            return Collections.singletonList(SpaceUserPermissionConstant.PICTURE_VIEW);
+            return VIEW_MASK;
         }
 
-        // 3. 判断当前空间类别
+        // 2. 判断当前空间类别
         // 从当前空间中拿到SpaceType对应SpaceTypeEnum的值
         SpaceTypeEnum spaceTypeEnum = SpaceTypeEnum.getEnumByValue(space.getSpaceType());
         if (spaceTypeEnum == null) {
-            return new ArrayList<>();
+            return 0L;
         }
         // 根据空间获取对应的权限 -> 使用switch语句
         switch (spaceTypeEnum) {
             case PRIVATE:
                 // 私有空间，仅本人或管理员有所有权限
                 if (space.getUserId().equals(loginUser.getId()) || userService.isAdmin(loginUser)) {
-                    return ADMIN_PERMISSIONS;
+                    return ADMIN_MASK;
                 } else {
-                    return new ArrayList<>();
+                    return 0L;
                 }
             case TEAM:
-                // 团队空间：查询SpaceUser并获取角色和权限
-                SpaceUser spaceUser = spaceUserService.lambdaQuery()
-                        // 查询用户所在的空间
-                        .eq(SpaceUser::getSpaceId, space.getId())
-                        // 查询用户的信息
-                        .eq(SpaceUser::getUserId, loginUser.getId())
-                        .one();
-                if (spaceUser == null) {
-                    return new ArrayList<>();
-                } else {
-                    // 如果spaceUser存在，就拿到对应的角色权限
-                    return getPermissionByRole(spaceUser.getSpaceRole());
-                }
+                // 团队空间：按成员角色获取权限
+                return getSpaceRoleMask(space.getId(), loginUser.getId());
+        }
+        // 如果什么空间都不是，才返回空权限
+        return 0L;
+    }
+
+
+    /**
+     * 批量获取多个空间的权限掩码（缓存中没有的团队空间成员角色一次查出）
+     *
+     * @param spaceList 空间列表（不含公共图库）
+     * @param loginUser 登录用户
+     * @return 空间id -> 权限掩码
+     */
+    public Map<Long, Long> getPermissionMaskMap(Collection<Space> spaceList, User loginUser) {
+        Map<Long, Long> permissionMaskMap = new HashMap<>();
+        if (loginUser == null || spaceList == null || spaceList.isEmpty()) {
+            return permissionMaskMap;
+        }
+        Long userId = loginUser.getId();
+        Map<Long, String> cachedRoleMap = spaceRoleCache.getIfPresent(userId);
+        // 1.团队空间：缓存中没有的，一次查出登录用户在这些空间中的角色并写入缓存
+        Set<Long> missingSpaceIdSet = spaceList.stream()
+                .filter(space -> SpaceTypeEnum.TEAM.getValue() == space.getSpaceType())
+                .map(Space::getId)
+                .filter(spaceId -> cachedRoleMap == null || !cachedRoleMap.containsKey(spaceId))
+                .collect(Collectors.toSet());
+        if (!missingSpaceIdSet.isEmpty()) {
+            Map<Long, String> spaceRoleMap = new HashMap<>();
+            spaceUserService.lambdaQuery()
+                    .select(SpaceUser::getSpaceId, SpaceUser::getSpaceRole)
+                    .in(SpaceUser::getSpaceId, missingSpaceIdSet)
+                    .eq(SpaceUser::getUserId, userId)
+                    .list()
+                    .forEach(spaceUser -> spaceRoleMap.put(spaceUser.getSpaceId(), spaceUser.getSpaceRole()));
+            Map<Long, String> userRoleMap = getUserRoleMap(userId);
+            for (Long spaceId : missingSpaceIdSet) {
+                String spaceRole = spaceRoleMap.get(spaceId);
+                userRoleMap.put(spaceId, spaceRole == null ? NO_ROLE : spaceRole);
+            }
+        }
+        // 2.其他空间和单个查询的规则一致
+        for (Space space : spaceList) {
+            permissionMaskMap.put(space.getId(), getPermissionMask(space, loginUser));
+        }
+        return permissionMaskMap;
+    }
+
+
+    /**
+     * 批量获取多个空间的权限列表
+     *
+     * @param spaceList 空间列表（不含公共图库）
+     * @param loginUser 登录用户
+     * @return 空间id -> 权限列表
+     */
+    public Map<Long, List<String>> getPermissionListMap(Collection<Space> spaceList, User loginUser) {
+        Map<Long, List<String>> permissionListMap = new HashMap<>();
+        getPermissionMaskMap(spaceList, loginUser)
+                .forEach((spaceId, mask) -> permissionListMap.put(spaceId, PERMISSION_TABLE.toPermissionList(mask)));
+        return permissionListMap;
+    }
+
+
+    private Map<Long, String> getUserRoleMap(Long userId) {
+        return spaceRoleCache.get(userId, key -> new ConcurrentHashMap<>());
+    }
+
+    private void evictSpaceRole(Long spaceId, Long userId) {
+        Map<Long, String> userRoleMap = spaceRoleCache.getIfPresent(userId);
+        if (userRoleMap != null) {
+            userRoleMap.remove(spaceId);
         }
-        // 如果什么空间都不是，才返回空数组
-        return new ArrayList<>();
     }
 }
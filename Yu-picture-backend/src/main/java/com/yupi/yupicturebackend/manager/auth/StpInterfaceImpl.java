@@ -3,23 +3,20 @@ package com.yupi.yupicturebackend.manager.auth;
 import cn.dev33.satoken.stp.StpInterface;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.ObjUtil;
-import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.core.util.ReflectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.extra.servlet.ServletUtil;
 import cn.hutool.http.ContentType;
 import cn.hutool.http.Header;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yupi.yupicturebackend.config.ParsedJsonBody;
 import com.yupi.yupicturebackend.exception.BusinessException;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
-import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
+import com.yupi.yupicturebackend.manager.bloom.PictureBloomFilterManager;
 import com.yupi.yupicturebackend.model.entity.Picture;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.SpaceUser;
 import com.yupi.yupicturebackend.model.entity.User;
-import com.yupi.yupicturebackend.model.enums.SpaceRoleEnum;
-import com.yupi.yupicturebackend.model.enums.SpaceTypeEnum;
 import com.yupi.yupicturebackend.service.PictureService;
 import com.yupi.yupicturebackend.service.SpaceService;
 import com.yupi.yupicturebackend.service.SpaceUserService;
@@ -64,6 +61,14 @@ public class StpInterfaceImpl implements StpInterface {
     @Resource
     private SpaceUserAuthManager spaceUserAuthManager;
 
+    // 图片id布隆过滤器
+    @Resource
+    private PictureBloomFilterManager pictureBloomFilterManager;
+
+    // 与 Spring MVC 相同的 ObjectMapper，解析 JSON 请求体
+    @Resource
+    private ObjectMapper objectMapper;
+
 
     /**
      * 返回一个账号所拥有的权限码集合
@@ -82,55 +87,54 @@ public class StpInterfaceImpl implements StpInterface {
         if (!StpKit.SPACE_TYPE.equals(loginType)) {
             return new ArrayList<>();
         }
+        // 2.按位掩码计算权限，最后转为预先生成的不可变权限列表（不产生新对象）
+        return spaceUserAuthManager.toPermissionList(getPermissionMask(loginId));
+    }
+
 
-        // 2.设置管理员权限，表示权限校验通过
-        List<String> ADMIN_PERMISSIONS = spaceUserAuthManager.getPermissionByRole(SpaceRoleEnum.ADMIN.getValue());
+    /**
+     * 计算当前请求的权限掩码
+     *
+     * @param loginId
+     * @return
+     */
+    private long getPermissionMask(Object loginId) {
+        // 1.设置管理员权限，表示权限校验通过
+        long adminMask = spaceUserAuthManager.getAdminMask();
 
-        // 3.判断查询字段是否为空：
+        // 2.判断查询字段是否为空：
         // 获取上下文对象，从SpaceUserAuthContext中
         SpaceUserAuthContext authContext = getAuthContextByRequest();
-        // 3.1 如果所有字段都为空，表示查询公共图库，可以通过，调用方法isAllFieldsNull()
+        // 2.1 如果所有字段都为空，表示查询公共图库，可以通过，调用方法isAllFieldsNull()
         if (isAllFieldsNull(authContext)) {
-            return ADMIN_PERMISSIONS; // 直接放行管理员权限
+            return adminMask; // 直接放行管理员权限
         }
 
-        // 3.2 如果不是全为空，进行权限校验
+        // 2.2 如果不是全为空，进行权限校验
         // 先获取userId -> 先从Sa-Token的Session中拿到登录用户的Session信息
         User loginUser = (User) StpKit.SPACE.getSessionByLoginId(loginId).get(USER_LOGIN_STATE);
         if (loginUser == null) {
             throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "用户未登录");
         }
         Long userId = loginUser.getId();
-        // 3.2.1 再 直接从上下文中拿到SpaceUser对象 (团队成员)
+        // 2.2.1 再 直接从上下文中拿到SpaceUser对象 (团队成员)
         SpaceUser spaceUser = authContext.getSpaceUser();
         if (spaceUser != null) {
-            return spaceUserAuthManager.getPermissionByRole(spaceUser.getSpaceRole());
+            return SpaceUserAuthManager.PERMISSION_TABLE.getRoleMask(spaceUser.getSpaceRole());
         }
 
-        // 3.2.2 如果没查到spaceUser，但是有spaceUserId，也一定是团队空间 -> 通过数据库查询SpaceUser对象获取
+        // 2.2.2 如果没查到spaceUser，但是有spaceUserId，也一定是团队空间 -> 通过数据库查询SpaceUser对象获取
         Long spaceUserId = authContext.getSpaceUserId(); // 拿到某一个团队成员张三的Id信息
         if (spaceUserId != null) {
             // 查询spaceUser
             spaceUser = spaceUserService.getById(spaceUserId);
             ThrowUtils.throwIf(spaceUser == null, ErrorCode.NOT_FOUND_ERROR, "未找到空间用户信息");
 
-            // 然后去除当前登录用户对应的 spaceUser -> 要通过spaceId和userId共同确认
-            // 查询当前登录用户（我自己）在同一个空间的个人信息
-            SpaceUser loginSpaceUser = spaceUserService.lambdaQuery()
-                    // 条件1：跟查到的张三在同一个空间的ID
-                    .eq(SpaceUser::getSpaceId, spaceUser.getSpaceId())
-                    // 当前登录用户（我自己）
-                    .eq(SpaceUser::getUserId, userId)
-                    .one();
-            if (loginSpaceUser == null) {
-                return new ArrayList<>();
-            }
-            // 返回的应该是我自己的权限，而不是张三的权限
-            // 因为查的都是空间权限，可能会导致管理员在私有空间无权限，再查一次库处理（这一步没理解，何意味啊？）
-            return spaceUserAuthManager.getPermissionByRole(loginSpaceUser.getSpaceRole());
+            // 返回的应该是我自己（当前登录用户）在同一个空间的权限，而不是张三的权限 -> 角色走本地缓存
+            return spaceUserAuthManager.getSpaceRoleMask(spaceUser.getSpaceId(), userId);
         }
 
-        // 3.2.3 如果没有spaceUserId，尝试通过 spaceId 或 pictureId 获取space对象并处理
+        // 2.2.3 如果没有spaceUserId，尝试通过 spaceId 或 pictureId 获取space对象并处理
         Long spaceId = authContext.getSpaceId();
         // spaceId 为空：
         if (spaceId == null) {
@@ -138,13 +142,21 @@ public class StpInterfaceImpl implements StpInterface {
             Long pictureId = authContext.getPictureId();
             // 如果pictureId也没有，则说明默认全部权限都通过
             if (pictureId == null) {
-                return ADMIN_PERMISSIONS;
+                return adminMask;
+            }
+            // 布隆过滤器判断一定不存在的图片，不再查库
+            if (!pictureBloomFilterManager.mightContain(pictureId)) {
+                throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "未找到图片信息");
             }
             // 有pictureId的话，就通过pictureId -> 再查询对应的spaceId、userId 查到Picture
             Picture picture = pictureService.lambdaQuery()
                     .eq(Picture::getId, pictureId)
                     .select(Picture::getId, Picture::getSpaceId, Picture::getUserId)
                     .one();
+            if (picture == null) {
+                // 热表中没有，可能已经归档
+                picture = pictureService.getByIdWithArchive(pictureId);
+            }
             if (picture == null) {
                 throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "未找到图片信息");
             }
@@ -153,10 +165,10 @@ public class StpInterfaceImpl implements StpInterface {
             if (spaceId == null) {
                 // 公共图库，仅本人或者管理员可操作
                 if (picture.getUserId().equals(userId) || userService.isAdmin(loginUser)) {
-                    return ADMIN_PERMISSIONS;
+                    return adminMask;
                 } else {
                     // 权限不够，不是自己的图片，就只能查看，不能编辑
-                    return Collections.singletonList(SpaceUserPermissionConstant.PICTURE_VIEW);
+                    return spaceUserAuthManager.getViewMask();
                 }
             }
         }
@@ -165,25 +177,8 @@ public class StpInterfaceImpl implements StpInterface {
         if (space == null) {
             throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "未找到空间信息");
         }
-        // 根据 Space 类型判断权限
-        if (space.getSpaceType() == SpaceTypeEnum.PRIVATE.getValue()) {
-            // 私有空间，仅本人或管理员有权限，直接放行管理员权限即可
-            if (space.getUserId().equals(userId) || userService.isAdmin(loginUser)) {
-                return ADMIN_PERMISSIONS;
-            } else {
-                return new ArrayList<>();
-            }
-        } else {
-            // 非私有，就是团队空间，需要查询SpaceUser并获取角色和权限
-            spaceUser = spaceUserService.lambdaQuery()
-                    .eq(SpaceUser::getSpaceId, spaceId)
-                    .eq(SpaceUser::getUserId, userId)
-                    .one();
-            if (spaceUser == null) {
-                return new ArrayList<>();
-            }
-            return spaceUserAuthManager.getPermissionByRole(spaceUser.getSpaceRole());
-        }
+        // 根据 Space 类型判断权限：私有空间仅本人或管理员有权限，团队空间按成员角色（走本地缓存）
+        return spaceUserAuthManager.getPermissionMask(space, loginUser);
     }
 
 
@@ -215,11 +210,9 @@ public class StpInterfaceImpl implements StpInterface {
         // 3.获取请求参数，并判断
         // 3.1 如果是JSON请求
         if (ContentType.JSON.getValue().equals(contentType)) {
-            // 根据Hutool的ServletUtil方法拿到body
-            // 【重要 - 开发经验多才看得出来】但是坑爹的是，HttpServletRequest的body值是个流，只支持读取一次，读完就没了！所以还要在config包下自定义请求包装类和请求包装类过滤器（样板代码，拿来直接用即可）。
-            String body = ServletUtil.getBody(request);
-            // 用JSONUtil把body转为SpaceUserAuthContext
-            authRequest = JSONUtil.toBean(body, SpaceUserAuthContext.class);
+            // 请求体字节已由 RequestWrapper 缓存，这里流式解析一次（只取鉴权需要的字段），
+            // 解析结果保存在请求属性中，Spring MVC 绑定 @RequestBody 时直接复用，不再解析第二遍
+            authRequest = ParsedJsonBody.of(request, objectMapper).getAuthContext();
         } else {
             // 3.2 如果是Get请求（没有JSON）
             Map<String, String> paramMap = ServletUtil.getParamMap(request);
@@ -256,21 +249,21 @@ public class StpInterfaceImpl implements StpInterface {
 
 
     /**
-     * 判断对象的所有字段是否为空
+     * 判断上下文的所有字段是否为空（字段固定，直接判断，不用反射）
      *
-     * @param object
+     * @param authContext
      * @return
      */
-    private boolean isAllFieldsNull(Object object) {
-        if (object == null) {
+    private boolean isAllFieldsNull(SpaceUserAuthContext authContext) {
+        if (authContext == null) {
             return true; // 对象本身为空值
         }
-
-        // 获取所有字段并判断是否所有字段都为空 -> 用反射动态获取对象信息ReflectUtil.getFields()方法
-        return Arrays.stream(ReflectUtil.getFields(object.getClass()))
-                // 遍历，通过反射工具类获取每个字段值
-                .map(field -> ReflectUtil.getFieldValue(object, field))
-                // 检查是否所有字段都为空：allMatch()必须所有的都符合条件
-                .allMatch(ObjectUtil::isEmpty);
+        return authContext.getId() == null
+                && authContext.getPictureId() == null
+                && authContext.getSpaceId() == null
+                && authContext.getSpaceUserId() == null
+                && authContext.getPicture() == null
+                && authContext.getSpace() == null
+                && authContext.getSpaceUser() == null;
     }
 }
@@ -0,0 +1,607 @@
+package com.yupi.yupicturebackend.manager.bloom;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yupicturebackend.mapper.PictureMapper;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.utils.RedisScriptUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 图片id布隆过滤器：防止用随机或已删除的图片id穿透到缓存和数据库
+ * <p>
+ * 1. 本地一份可扩容布隆过滤器，绝大多数判断在本地完成；
+ * 2. Redis 中按同样的分段规则保存一份位图镜像，本地判断不存在时再用 Redis 确认一次（其他节点新上传的图片本地还没有）；
+ * 3. 启动后异步按id游标分批扫描全表（以及归档表）重建；删除无法从布隆过滤器中移除，已删除的比例过高时重建；
+ * 4. 过滤器还没建好、或 Redis 异常时一律放行（宁可多查一次库，也不能误拦截存在的图片）；
+ * 5. 新增id写入 Redis 失败时，本地标记为脏并在 Redis 中打开旁路标记，所有节点都放行到数据库，直到重建完成。
+ */
+@Slf4j
+@Component
+public class PictureBloomFilterManager {
+
+    /**
+     * Redis key 前缀
+     */
+    private static final String KEY_PREFIX = "yupicture:bloom:picture:";
+
+    /**
+     * 当前生效的版本号
+     */
+    private static final String GEN_KEY = KEY_PREFIX + "gen";
+
+    /**
+     * 正在重建中的版本号（重建期间新增的id要同时写入）
+     */
+    private static final String BUILDING_KEY = KEY_PREFIX + "building";
+
+    /**
+     * 版本号自增序列
+     */
+    private static final String GEN_SEQ_KEY = KEY_PREFIX + "genSeq";
+
+    /**
+     * 重建锁，同一时间只允许一个节点重建 Redis 镜像
+     */
+    private static final String REBUILD_LOCK_KEY = KEY_PREFIX + "rebuildLock";
+
+    /**
+     * 旁路标记：存在时所有节点的 Redis 判断一律放行，值每次标记时自增，重建只清除自己开始扫描前的标记
+     */
+    private static final String BYPASS_KEY = KEY_PREFIX + "bypass";
+
+    /**
+     * 新增id（计数和置位在一个脚本中完成，要么都写入、要么都不写）
+     * ARGV：key 前缀、传入的段数 n，然后每段依次为 [该段结束时的累计容量, 哈希个数 k, k 个位下标]
+     * 当前版本和重建中的版本各写一次；传入的段不够时什么都不写，返回 [-1, 需要的计数]，成功返回 [0, 0]
+     */
+    private static final DefaultRedisScript<List<Long>> ADD_SCRIPT = RedisScriptUtils.listScript(
+            "local function locate(count)\n" +
+            "  local pos = 3\n" +
+            "  for s = 0, tonumber(ARGV[2]) - 1 do\n" +
+            "    local k = tonumber(ARGV[pos + 1])\n" +
+            "    if count <= tonumber(ARGV[pos]) then return s, pos + 2, k end\n" +
+            "    pos = pos + 2 + k\n" +
+            "  end\n" +
+            "  return nil\n" +
+            "end\n" +
+            "local gens = {}\n" +
+            "local gen = redis.call('GET', KEYS[1])\n" +
+            "if gen then table.insert(gens, gen) end\n" +
+            "local building = redis.call('GET', KEYS[2])\n" +
+            "if building and building ~= gen then table.insert(gens, building) end\n" +
+            "local targets = {}\n" +
+            "for _, g in ipairs(gens) do\n" +
+            "  local countKey = ARGV[1] .. g .. ':count'\n" +
+            "  local count = tonumber(redis.call('GET', countKey) or '0') + 1\n" +
+            "  local s, pos, k = locate(count)\n" +
+            "  if not s then return {-1, count} end\n" +
+            "  table.insert(targets, {g, countKey, s, pos, k})\n" +
+            "end\n" +
+            "for _, t in ipairs(targets) do\n" +
+            "  redis.call('INCR', t[2])\n" +
+            "  local key = ARGV[1] .. t[1] .. ':' .. t[3]\n" +
+            "  for i = 0, t[5] - 1 do redis.call('SETBIT', key, ARGV[t[4] + i], 1) end\n" +
+            "end\n" +
+            "return {0, 0}");
+
+    /**
+     * 查询当前版本：返回 [版本号, 计数]，打开了旁路标记时返回空
+     */
+    private static final DefaultRedisScript<List<String>> GEN_SCRIPT = RedisScriptUtils.listScript(
+            "if redis.call('EXISTS', KEYS[2]) == 1 then return {} end\n" +
+            "local gen = redis.call('GET', KEYS[1])\n" +
+            "if not gen then return {} end\n" +
+            "return {gen, redis.call('GET', ARGV[1] .. gen .. ':count') or '0'}");
+
+    /**
+     * 值相同才删除旁路标记（重建期间又有新的标记时保留）
+     */
+    private static final DefaultRedisScript<Long> CLEAR_BYPASS_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0", Long.class);
+
+    /**
+     * 脏标记没有清除时，重试重建的间隔（毫秒）
+     */
+    private static final long REBUILD_RETRY_MILLIS = 30_000;
+
+    /**
+     * 每批扫描的id数量
+     */
+    private static final int SCAN_BATCH_SIZE = 5000;
+
+    @Resource
+    private PictureMapper pictureMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${picture.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 第一段的容量（后续每段翻倍）
+     */
+    @Value("${picture.bloom.initial-capacity:1000000}")
+    private long initialCapacity;
+
+    /**
+     * 误判率
+     */
+    @Value("${picture.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+     * 已删除数量占比超过该值时重建
+     */
+    @Value("${picture.bloom.stale-ratio:0.2}")
+    private double staleRatio;
+
+    /**
+     * 当前生效的本地过滤器，null 表示还没建好
+     */
+    private volatile ScalableBloomFilter localFilter;
+
+    /**
+     * 正在重建的本地过滤器，重建期间新增的id也要写进去
+     */
+    private volatile ScalableBloomFilter buildingFilter;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    /**
+     * 上次重建后删除的图片数量
+     */
+    private final AtomicLong deletedCount = new AtomicLong(0);
+
+    /**
+     * 是否有id没有写入 Redis（为 true 时判断一律放行，直到重建完成）
+     */
+    private volatile boolean dirty;
+
+    /**
+     * 每次标记为脏时自增，重建结束时没有变化才能清除脏标记
+     */
+    private final AtomicLong dirtySeq = new AtomicLong(0);
+
+    /**
+     * Redis 镜像至少有多少段（用于决定新增id时传给脚本的段数）
+     */
+    private volatile int segmentHint;
+
+    /**
+     * 重建专用的线程（扫描全表耗时很长，不能占用公共线程池）
+     */
+    private ScheduledExecutorService rebuildExecutor;
+
+    @PostConstruct
+    public void init() {
+        rebuildExecutor = Executors.newSingleThreadScheduledExecutor(ThreadFactoryBuilder.create()
+                .setNamePrefix("pictureBloomRebuild-")
+                .setDaemon(true)
+                .build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+
+    /**
+     * 启动后异步重建，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            submitRebuild(0);
+        }
+    }
+
+
+    /**
+     * 图片id是否可能存在（返回false则一定不存在，可以直接拒绝）
+     *
+     * @param pictureId 图片id
+     * @return
+     */
+    public boolean mightContain(Long pictureId) {
+        if (pictureId == null || pictureId <= 0) {
+            return false;
+        }
+        ScalableBloomFilter filter = localFilter;
+        // 1.没有启用、还没建好、或者有id没写入 Redis，放行
+        if (!enabled || filter == null || dirty) {
+            return true;
+        }
+        // 2.本地命中
+        if (filter.mightContain(pictureId)) {
+            return true;
+        }
+        // 3.本地不存在，用 Redis 确认（可能是其他节点刚新增的）
+        Boolean existInRedis = mightContainInRedis(pictureId);
+        if (existInRedis == null || existInRedis) {
+            // Redis 中存在，补到本地，下次不用再查 Redis
+            if (existInRedis != null) {
+                filter.put(pictureId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * 新增图片后调用
+     *
+     * @param pictureId 图片id
+     */
+    public void add(Long pictureId) {
+        if (!enabled || pictureId == null) {
+            return;
+        }
+        ScalableBloomFilter filter = localFilter;
+        if (filter != null) {
+            filter.put(pictureId);
+        }
+        ScalableBloomFilter building = buildingFilter;
+        if (building != null) {
+            building.put(pictureId);
+        }
+        try {
+            // 传入的段不够（其他节点写入后段数增加了）时，按脚本返回的计数补足段数再试一次
+            List<Long> result = executeAdd(pictureId, segmentHint + 1);
+            if (result.get(0) < 0) {
+                int segment = segmentIndexForCount(result.get(1));
+                segmentHint = Math.max(segmentHint, segment);
+                result = executeAdd(pictureId, segment + 1);
+            }
+            if (result.get(0) < 0) {
+                throw new IllegalStateException("布隆过滤器段数不足");
+            }
+        } catch (Exception e) {
+            // Redis 中缺了这个id，其他节点会误判为不存在：所有节点放行到数据库，直到重建完成
+            log.error("布隆过滤器写入 Redis 失败, 重建前放行所有判断, pictureId = {}", pictureId, e);
+            markDirty();
+        }
+    }
+
+
+    /**
+     * 删除图片后调用（布隆过滤器无法删除，只记录数量，过多时重建）
+     *
+     * @param pictureId 图片id
+     */
+    public void remove(Long pictureId) {
+        ScalableBloomFilter filter = localFilter;
+        if (!enabled || pictureId == null || filter == null) {
+            return;
+        }
+        long deleted = deletedCount.incrementAndGet();
+        if (deleted > filter.count() * staleRatio && deleted >= 1000 && !rebuilding.get()) {
+            log.info("布隆过滤器中已删除的id过多({}), 开始重建", deleted);
+            submitRebuild(0);
+        }
+    }
+
+
+    /**
+     * 按id游标分批扫描全表，重建本地过滤器；Redis 镜像由抢到锁的节点重建到新版本后切换
+     */
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        String newGen = null;
+        // 扫描开始前的脏标记和旁路标记：扫描会包含这之前已经提交的图片，重建完成后可以清除
+        long dirtySeqBefore = dirtySeq.get();
+        String bypassBefore = null;
+        boolean redisSwitched = false;
+        try {
+            long startTime = System.currentTimeMillis();
+            ScalableBloomFilter newFilter = new ScalableBloomFilter(initialCapacity, fpp);
+            buildingFilter = newFilter;
+            long deletedBefore = deletedCount.get();
+            // 1.Redis 中没有镜像、本地已删除过多、或者有id没写入 Redis 时，才需要重建 Redis 镜像
+            boolean rebuildRedis = false;
+            try {
+                bypassBefore = stringRedisTemplate.opsForValue().get(BYPASS_KEY);
+                boolean needRebuildRedis = !Boolean.TRUE.equals(stringRedisTemplate.hasKey(GEN_KEY)) || deletedBefore > 0
+                        || dirty || bypassBefore != null;
+                rebuildRedis = needRebuildRedis && Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                        .setIfAbsent(REBUILD_LOCK_KEY, "1", 30, TimeUnit.MINUTES));
+                if (rebuildRedis) {
+                    newGen = String.valueOf(stringRedisTemplate.opsForValue().increment(GEN_SEQ_KEY));
+                    stringRedisTemplate.opsForValue().set(BUILDING_KEY, newGen);
+                }
+            } catch (Exception e) {
+                log.error("布隆过滤器 Redis 镜像不可用，只重建本地", e);
+            }
+            // 2.按id升序游标分批扫描（逻辑删除的数据会自动过滤）
+            long lastId = 0;
+            long total = 0;
+            while (true) {
+                List<Long> idList = pictureMapper.selectObjs(new QueryWrapper<Picture>()
+                                .select("id")
+                                .gt("id", lastId)
+                                .orderByAsc("id")
+                                .last("limit " + SCAN_BATCH_SIZE))
+                        .stream()
+                        .map(obj -> ((Number) obj).longValue())
+                        .collect(Collectors.toList());
+                if (idList.isEmpty()) {
+                    break;
+                }
+                idList.forEach(newFilter::put);
+                if (newGen != null) {
+                    addBatchToRedis(newGen, idList);
+                }
+                total += idList.size();
+                lastId = idList.get(idList.size() - 1);
+            }
+            // 2.1 归档表中的图片仍然可以按id查看，同样要加入过滤器
+            lastId = 0;
+            try {
+                while (true) {
+                    List<Long> idList = pictureMapper.selectArchivedIds(lastId, SCAN_BATCH_SIZE);
+                    if (idList.isEmpty()) {
+                        break;
+                    }
+                    idList.forEach(newFilter::put);
+                    if (newGen != null) {
+                        addBatchToRedis(newGen, idList);
+                    }
+                    total += idList.size();
+                    lastId = idList.get(idList.size() - 1);
+                }
+            } catch (BadSqlGrammarException e) {
+                // 还没有建归档表
+                log.warn("归档表不存在，跳过归档图片: {}", e.getMessage());
+            }
+            // 3.切换
+            localFilter = newFilter;
+            deletedCount.addAndGet(-deletedBefore);
+            if (newGen != null) {
+                switchRedisGen(newGen, bypassBefore);
+                newGen = null;
+                redisSwitched = true;
+            }
+            log.info("布隆过滤器重建完成, 共 {} 个id, {} 段, 耗时 {} ms", total, newFilter.segmentCount(),
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("布隆过滤器重建失败", e);
+            if (newGen != null) {
+                stringRedisTemplate.delete(BUILDING_KEY);
+                stringRedisTemplate.delete(REBUILD_LOCK_KEY);
+            }
+        } finally {
+            buildingFilter = null;
+            // 4.Redis 镜像已经包含标记前的所有id，且重建期间没有新的写入失败，才清除脏标记；否则稍后再重建
+            if (redisSwitched && dirtySeq.get() == dirtySeqBefore) {
+                dirty = false;
+            }
+            rebuilding.set(false);
+            if (dirty) {
+                submitRebuild(REBUILD_RETRY_MILLIS);
+            }
+        }
+    }
+
+
+    /**
+     * 新增id写入 Redis 失败：本地标记为脏，Redis 中打开旁路标记，然后重建
+     */
+    private void markDirty() {
+        dirtySeq.incrementAndGet();
+        dirty = true;
+        try {
+            stringRedisTemplate.opsForValue().increment(BYPASS_KEY);
+        } catch (Exception e) {
+            // Redis 不可用时其他节点查询 Redis 也会失败，同样放行；重建时会再检查
+            log.error("布隆过滤器打开旁路标记失败", e);
+        }
+        submitRebuild(0);
+    }
+
+    private void submitRebuild(long delayMillis) {
+        try {
+            rebuildExecutor.schedule(this::rebuild, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 正在停机
+        }
+    }
+
+
+    /**
+     * 执行新增脚本
+     *
+     * @param segments 传入的段数（从第 0 段开始）
+     * @return [0, 0] 成功；[-1, 需要的计数] 段数不够
+     */
+    private List<Long> executeAdd(long pictureId, int segments) {
+        long h1 = ScalableBloomFilter.hash1(pictureId);
+        long h2 = ScalableBloomFilter.hash2(h1);
+        List<String> argList = new ArrayList<>();
+        argList.add(KEY_PREFIX);
+        argList.add(String.valueOf(segments));
+        long capacityEnd = 0;
+        for (int segment = 0; segment < segments; segment++) {
+            long bits = segmentBits(segment);
+            int hashes = segmentHashes(segment);
+            capacityEnd += ScalableBloomFilter.segmentCapacity(initialCapacity, segment);
+            argList.add(String.valueOf(capacityEnd));
+            argList.add(String.valueOf(hashes));
+            for (int i = 0; i < hashes; i++) {
+                argList.add(String.valueOf(ScalableBloomFilter.bitIndex(h1, h2, i, bits)));
+            }
+        }
+        List<Long> result = stringRedisTemplate.execute(ADD_SCRIPT, Arrays.asList(GEN_KEY, BUILDING_KEY), argList.toArray());
+        if (result == null || result.size() < 2) {
+            throw new IllegalStateException("布隆过滤器新增脚本返回值错误");
+        }
+        return result;
+    }
+
+
+    /**
+     * 批量写入 Redis 新版本
+     */
+    private void addBatchToRedis(String gen, List<Long> idList) {
+        Long count = stringRedisTemplate.opsForValue().increment(KEY_PREFIX + gen + ":count", idList.size());
+        long firstCount = count - idList.size() + 1;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < idList.size(); i++) {
+                setBits(connection, gen, segmentIndexForCount(firstCount + i), idList.get(i));
+            }
+            return null;
+        });
+    }
+
+
+    /**
+     * 切换到新版本，删除旧版本的位图
+     */
+    private void switchRedisGen(String newGen, String bypassBefore) {
+        String oldGen = stringRedisTemplate.opsForValue().getAndSet(GEN_KEY, newGen);
+        stringRedisTemplate.delete(BUILDING_KEY);
+        stringRedisTemplate.delete(REBUILD_LOCK_KEY);
+        // 扫描开始前打开的旁路标记可以清除了（扫描期间又有新的标记时保留，由标记的节点再重建）
+        if (bypassBefore != null) {
+            stringRedisTemplate.execute(CLEAR_BYPASS_SCRIPT, Collections.singletonList(BYPASS_KEY), bypassBefore);
+        }
+        if (StrUtil.isBlank(oldGen) || oldGen.equals(newGen)) {
+            return;
+        }
+        // 旧版本已经不再被引用，删除它的计数和所有段（正在读旧版本的请求读不到时只是放行）
+        String oldCountKey = KEY_PREFIX + oldGen + ":count";
+        String oldCount = stringRedisTemplate.opsForValue().get(oldCountKey);
+        int oldSegments = segmentIndexForCount(Math.max(1, oldCount == null ? 1 : Long.parseLong(oldCount))) + 1;
+        List<String> oldKeyList = new ArrayList<>();
+        oldKeyList.add(oldCountKey);
+        for (int i = 0; i < oldSegments; i++) {
+            oldKeyList.add(segmentKey(oldGen, i));
+        }
+        stringRedisTemplate.unlink(oldKeyList);
+    }
+
+
+    /**
+     * Redis 中是否可能存在
+     *
+     * @return null 表示 Redis 不可用或还没有镜像
+     */
+    private Boolean mightContainInRedis(long pictureId) {
+        try {
+            List<String> genCountList = stringRedisTemplate.execute(GEN_SCRIPT,
+                    Arrays.asList(GEN_KEY, BYPASS_KEY), KEY_PREFIX);
+            if (CollUtil.isEmpty(genCountList)) {
+                return null;
+            }
+            String gen = genCountList.get(0);
+            int segments = segmentIndexForCount(Math.max(1, Long.parseLong(genCountList.get(1)))) + 1;
+            segmentHint = Math.max(segmentHint, segments - 1);
+            long h1 = ScalableBloomFilter.hash1(pictureId);
+            long h2 = ScalableBloomFilter.hash2(h1);
+            List<Object> bitList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int segment = 0; segment < segments; segment++) {
+                    long bits = segmentBits(segment);
+                    int hashes = segmentHashes(segment);
+                    byte[] key = segmentKey(gen, segment).getBytes();
+                    for (int i = 0; i < hashes; i++) {
+                        connection.getBit(key, ScalableBloomFilter.bitIndex(h1, h2, i, bits));
+                    }
+                }
+                return null;
+            });
+            // 任意一段的所有位都为1，则可能存在
+            int offset = 0;
+            for (int segment = 0; segment < segments; segment++) {
+                int hashes = segmentHashes(segment);
+                boolean hit = true;
+                for (int i = 0; i < hashes; i++) {
+                    if (!Boolean.TRUE.equals(bitList.get(offset + i))) {
+                        hit = false;
+                        break;
+                    }
+                }
+                if (hit) {
+                    return true;
+                }
+                offset += hashes;
+            }
+            return false;
+        } catch (Exception e) {
+            log.error("布隆过滤器查询 Redis 失败, pictureId = {}", pictureId, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * 把id写入指定版本的指定段
+     */
+    private void setBits(RedisConnection connection, String gen, int segment, long pictureId) {
+        long bits = segmentBits(segment);
+        int hashes = segmentHashes(segment);
+        long h1 = ScalableBloomFilter.hash1(pictureId);
+        long h2 = ScalableBloomFilter.hash2(h1);
+        byte[] key = segmentKey(gen, segment).getBytes();
+        for (int i = 0; i < hashes; i++) {
+            connection.setBit(key, ScalableBloomFilter.bitIndex(h1, h2, i, bits), true);
+        }
+    }
+
+    /**
+     * 第 count 个元素（从1开始）所在的段
+     */
+    private int segmentIndexForCount(long count) {
+        int index = 0;
+        long total = ScalableBloomFilter.segmentCapacity(initialCapacity, 0);
+        while (count > total && index < 20) {
+            index++;
+            total += ScalableBloomFilter.segmentCapacity(initialCapacity, index);
+        }
+        return index;
+    }
+
+    private long segmentBits(int segment) {
+        return ScalableBloomFilter.segmentBits(ScalableBloomFilter.segmentCapacity(initialCapacity, segment),
+                ScalableBloomFilter.segmentFpp(fpp, segment));
+    }
+
+    private int segmentHashes(int segment) {
+        return ScalableBloomFilter.segmentHashes(ScalableBloomFilter.segmentCapacity(initialCapacity, segment),
+                segmentBits(segment));
+    }
+
+    private String segmentKey(String gen, int segment) {
+        return KEY_PREFIX + gen + ":" + segment;
+    }
+}
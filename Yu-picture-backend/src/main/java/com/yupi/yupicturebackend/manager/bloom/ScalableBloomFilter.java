@@ -0,0 +1,217 @@
+package com.yupi.yupicturebackend.manager.bloom;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 可扩容的布隆过滤器（本地内存版，元素为 long 类型的id）
+ * <p>
+ * 由多段普通布隆过滤器串联而成：当前段写满后追加一段容量翻倍、误判率减半的新段，
+ * 这样总误判率始终不超过 fpp * (1 + 1/2 + 1/4 + ...) = 2 * fpp，不需要预先知道数据总量。
+ * 每一段的大小只由段号决定（{@link #segmentBits}、{@link #segmentHashes}），Redis 中的镜像也按同样的规则分段。
+ * 判断存在时需要检查所有段，只要有一段命中就认为可能存在。
+ */
+public class ScalableBloomFilter {
+
+    /**
+     * 第一段的容量
+     */
+    private final long initialCapacity;
+
+    /**
+     * 第一段的误判率
+     */
+    private final double fpp;
+
+    /**
+     * 所有段（读多写少）
+     */
+    private final CopyOnWriteArrayList<Segment> segmentList = new CopyOnWriteArrayList<>();
+
+    public ScalableBloomFilter(long initialCapacity, double fpp) {
+        if (initialCapacity <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数错误");
+        }
+        this.initialCapacity = initialCapacity;
+        this.fpp = fpp;
+        segmentList.add(new Segment(initialCapacity, fpp));
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param value id
+     */
+    public void put(long value) {
+        Segment segment = segmentList.get(segmentList.size() - 1);
+        if (segment.count >= segment.capacity) {
+            segment = grow(segment);
+        }
+        segment.put(value);
+    }
+
+    /**
+     * 是否可能存在（返回false则一定不存在）
+     *
+     * @param value id
+     * @return
+     */
+    public boolean mightContain(long value) {
+        long h1 = hash1(value);
+        long h2 = hash2(h1);
+        // 新数据一般在最后一段，倒序检查
+        for (int i = segmentList.size() - 1; i >= 0; i--) {
+            if (segmentList.get(i).mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 已添加的元素数量（近似值）
+     */
+    public long count() {
+        long count = 0;
+        for (Segment segment : segmentList) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    /**
+     * 段数量
+     */
+    public int segmentCount() {
+        return segmentList.size();
+    }
+
+    /**
+     * 追加一段（加锁避免并发时追加多段）
+     */
+    private synchronized Segment grow(Segment current) {
+        Segment last = segmentList.get(segmentList.size() - 1);
+        if (last != current && last.count < last.capacity) {
+            return last;
+        }
+        int index = segmentList.size();
+        Segment segment = new Segment(segmentCapacity(initialCapacity, index), segmentFpp(fpp, index));
+        segmentList.add(segment);
+        return segment;
+    }
+
+
+    // 下面是分段规则与哈希算法：本地和 Redis 镜像共用，保证同一个id在两边落在相同的位上
+
+    /**
+     * 第 index 段的容量：每段翻倍
+     */
+    public static long segmentCapacity(long initialCapacity, int index) {
+        return initialCapacity << Math.min(index, 20);
+    }
+
+    /**
+     * 第 index 段的误判率：每段减半
+     */
+    public static double segmentFpp(double fpp, int index) {
+        return fpp / (1L << Math.min(index, 20));
+    }
+
+    /**
+     * 位数组大小 m = -n * ln(p) / (ln2)^2，按 64 位对齐
+     */
+    public static long segmentBits(long capacity, double fpp) {
+        long bits = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return Math.max(64, (bits + 63) / 64 * 64);
+    }
+
+    /**
+     * 哈希函数个数 k = m / n * ln2
+     */
+    public static int segmentHashes(long capacity, long bits) {
+        return Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+    }
+
+    /**
+     * 第一个哈希值（murmur3 的 fmix64，id 是雪花算法生成的，低位规律性强，必须先打散）
+     */
+    public static long hash1(long value) {
+        return fmix64(value);
+    }
+
+    /**
+     * 第二个哈希值（保证为奇数，避免双重哈希时步长退化）
+     */
+    public static long hash2(long hash1) {
+        return fmix64(hash1 ^ 0x9E3779B97F4A7C15L) | 1L;
+    }
+
+    /**
+     * 双重哈希：第 i 个位置 = (h1 + i * h2) mod m
+     */
+    public static long bitIndex(long h1, long h2, int i, long bits) {
+        return Math.floorMod(h1 + i * h2, bits);
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+
+    /**
+     * 单段布隆过滤器（位数组用 AtomicLongArray，支持并发写入）
+     */
+    private static class Segment {
+
+        private final long capacity;
+
+        private final long bits;
+
+        private final int hashes;
+
+        private final AtomicLongArray data;
+
+        private volatile long count;
+
+        Segment(long capacity, double fpp) {
+            this.capacity = capacity;
+            this.bits = segmentBits(capacity, fpp);
+            this.hashes = segmentHashes(capacity, bits);
+            this.data = new AtomicLongArray((int) (bits >>> 6));
+        }
+
+        void put(long value) {
+            long h1 = hash1(value);
+            long h2 = hash2(h1);
+            for (int i = 0; i < hashes; i++) {
+                long index = bitIndex(h1, h2, i, bits);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long old;
+                do {
+                    old = data.get(word);
+                    if ((old & mask) != 0) {
+                        break;
+                    }
+                } while (!data.compareAndSet(word, old, old | mask));
+            }
+            // 计数只用来判断是否需要扩容，允许并发下的少量误差
+            count++;
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long index = bitIndex(h1, h2, i, bits);
+                if ((data.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
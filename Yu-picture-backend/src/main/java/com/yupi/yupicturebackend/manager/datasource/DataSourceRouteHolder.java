@@ -0,0 +1,35 @@
+package com.yupi.yupicturebackend.manager.datasource;
+
+/**
+ * 当前线程要使用的数据源（主库或某个只读副本的名称）
+ */
+public class DataSourceRouteHolder {
+
+    /**
+     * 主库
+     */
+    public static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<String> ROUTE = new ThreadLocal<>();
+
+    private DataSourceRouteHolder() {
+    }
+
+    /**
+     * 获取当前线程的数据源，为空表示主库
+     */
+    public static String get() {
+        return ROUTE.get();
+    }
+
+    /**
+     * 设置当前线程的数据源，传入 null 等于清除
+     */
+    public static void set(String dataSourceName) {
+        if (dataSourceName == null) {
+            ROUTE.remove();
+        } else {
+            ROUTE.set(dataSourceName);
+        }
+    }
+}
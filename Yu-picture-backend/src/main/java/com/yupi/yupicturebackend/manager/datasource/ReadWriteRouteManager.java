@@ -0,0 +1,110 @@
+package com.yupi.yupicturebackend.manager.datasource;
+
+import com.yupi.yupicturebackend.model.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpSession;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.yupi.yupicturebackend.model.constant.UserConstant.USER_LOGIN_STATE;
+
+/**
+ * 读写分离路由管理
+ * <p>
+ * 1. 读请求轮询可用的只读副本，没有可用副本时查主库；
+ * 2. 读自己的写：用户写入数据后的一小段时间内（副本可能还没同步），该用户的读请求都查主库，
+ * 记录在 Redis 中，多个节点共享。
+ */
+@Slf4j
+public class ReadWriteRouteManager {
+
+    private static final String RECENT_WRITE_KEY_PREFIX = "yupicture:rw:recent-write:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ReplicaLagMonitor replicaLagMonitor;
+
+    /**
+     * 写入后强制读主库的时长（毫秒）
+     */
+    private final long readYourWritesWindowMillis;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public ReadWriteRouteManager(StringRedisTemplate stringRedisTemplate, ReplicaLagMonitor replicaLagMonitor,
+                                 long readYourWritesWindowMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.replicaLagMonitor = replicaLagMonitor;
+        this.readYourWritesWindowMillis = readYourWritesWindowMillis;
+    }
+
+
+    /**
+     * 为当前用户的读请求选择数据源
+     *
+     * @param userId 当前登录用户id，未登录为 null
+     * @return 副本名称，或 DataSourceRouteHolder.PRIMARY
+     */
+    public String chooseReadTarget(Long userId) {
+        List<String> healthyReplicas = replicaLagMonitor.getHealthyReplicas();
+        if (healthyReplicas.isEmpty()) {
+            return DataSourceRouteHolder.PRIMARY;
+        }
+        if (userId != null && hasRecentWrite(userId)) {
+            return DataSourceRouteHolder.PRIMARY;
+        }
+        int index = Math.floorMod(counter.getAndIncrement(), healthyReplicas.size());
+        return healthyReplicas.get(index);
+    }
+
+
+    /**
+     * 记录用户刚写入过数据
+     *
+     * @param userId 用户id
+     */
+    public void markWrite(Long userId) {
+        try {
+            stringRedisTemplate.opsForValue().set(RECENT_WRITE_KEY_PREFIX + userId, "1",
+                    readYourWritesWindowMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // 记录失败时用户可能短暂读到旧数据，不影响写操作本身
+            log.error("记录用户写入时间失败, userId = {}", userId, e);
+        }
+    }
+
+
+    private boolean hasRecentWrite(Long userId) {
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RECENT_WRITE_KEY_PREFIX + userId));
+        } catch (Exception e) {
+            // Redis 不可用时无法判断，保守地查主库
+            return true;
+        }
+    }
+
+
+    /**
+     * 从当前请求的 Session 中获取登录用户id（不查数据库），不在请求中或未登录时返回 null
+     *
+     * @return
+     */
+    public Long getCurrentUserId() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (!(requestAttributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        HttpSession session = ((ServletRequestAttributes) requestAttributes).getRequest().getSession(false);
+        if (session == null) {
+            return null;
+        }
+        Object userObj = session.getAttribute(USER_LOGIN_STATE);
+        return userObj instanceof User ? ((User) userObj).getId() : null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.yupi.yupicturebackend.manager.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 读写分离的路由数据源：按 DataSourceRouteHolder 中的名称选择主库或只读副本，默认主库
+ * 注意：路由在获取连接时确定，事务中拿到的始终是同一个连接
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private final DataSource primaryDataSource;
+
+    /**
+     * 副本名称 -> 副本数据源
+     */
+    private final Map<String, DataSource> replicaDataSourceMap;
+
+    public ReadWriteRoutingDataSource(DataSource primaryDataSource, Map<String, DataSource> replicaDataSourceMap) {
+        this.primaryDataSource = primaryDataSource;
+        this.replicaDataSourceMap = Collections.unmodifiableMap(replicaDataSourceMap);
+        Map<Object, Object> targetDataSources = new HashMap<>(replicaDataSourceMap);
+        targetDataSources.put(DataSourceRouteHolder.PRIMARY, primaryDataSource);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primaryDataSource);
+    }
+
+    public Map<String, DataSource> getReplicaDataSourceMap() {
+        return replicaDataSourceMap;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String dataSourceName = DataSourceRouteHolder.get();
+        return dataSourceName == null ? DataSourceRouteHolder.PRIMARY : dataSourceName;
+    }
+
+    /**
+     * 应用关闭时关闭所有连接池
+     */
+    @Override
+    public void close() throws IOException {
+        for (DataSource dataSource : replicaDataSourceMap.values()) {
+            if (dataSource instanceof Closeable) {
+                ((Closeable) dataSource).close();
+            }
+        }
+        if (primaryDataSource instanceof Closeable) {
+            ((Closeable) primaryDataSource).close();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.yupi.yupicturebackend.manager.datasource;
+
+import com.baomidou.mybatisplus.extension.plugins.inner.InnerInterceptor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * MyBatis-Plus 插件：任何 insert / update / delete 执行前，记录当前登录用户刚写入过数据（读自己的写）
+ * 放在 Mapper 层统一处理，业务代码新增写操作时不需要再记得手动标记
+ */
+public class ReadYourWritesInnerInterceptor implements InnerInterceptor {
+
+    private final ReadWriteRouteManager readWriteRouteManager;
+
+    public ReadYourWritesInnerInterceptor(ReadWriteRouteManager readWriteRouteManager) {
+        this.readWriteRouteManager = readWriteRouteManager;
+    }
+
+    @Override
+    public void beforeUpdate(Executor executor, MappedStatement ms, Object parameter) {
+        Long userId = readWriteRouteManager.getCurrentUserId();
+        if (userId != null) {
+            readWriteRouteManager.markWrite(userId);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.yupi.yupicturebackend.manager.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.util.*;
+
+/**
+ * 只读副本延迟监控：定时查询每个副本的复制延迟，延迟超过阈值、复制中断或连不上的副本暂时不参与读路由
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+
+    /**
+     * 副本名称 -> 副本数据源
+     */
+    private final Map<String, DataSource> replicaDataSourceMap;
+
+    /**
+     * 允许的最大延迟（秒）
+     */
+    private final long maxLagSeconds;
+
+    /**
+     * 当前可用的副本名称
+     */
+    private volatile List<String> healthyReplicas = Collections.emptyList();
+
+    public ReplicaLagMonitor(Map<String, DataSource> replicaDataSourceMap, long maxLagSeconds) {
+        this.replicaDataSourceMap = replicaDataSourceMap;
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+
+    /**
+     * 当前可用的副本名称（每次检查后整体替换，读取时不需要加锁）
+     */
+    public List<String> getHealthyReplicas() {
+        return healthyReplicas;
+    }
+
+
+    /**
+     * 定时检查所有副本的延迟
+     */
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${picture.datasource.read-write-splitting.lag-check-interval-ms:5000}")
+    public void checkLag() {
+        List<String> healthyList = new ArrayList<>();
+        replicaDataSourceMap.forEach((name, dataSource) -> {
+            Long lagSeconds = queryLagSeconds(dataSource);
+            if (lagSeconds != null && lagSeconds <= maxLagSeconds) {
+                healthyList.add(name);
+            } else if (healthyReplicas.contains(name)) {
+                log.warn("只读副本 {} 延迟 {} 秒，超过阈值 {} 秒，暂停从该副本读取", name, lagSeconds, maxLagSeconds);
+            }
+        });
+        healthyReplicas = Collections.unmodifiableList(healthyList);
+    }
+
+
+    /**
+     * 查询副本的复制延迟
+     *
+     * @param dataSource 副本数据源
+     * @return 延迟秒数；复制未运行、不是副本或查询失败时返回 null
+     */
+    private Long queryLagSeconds(DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            List<Map<String, Object>> statusList;
+            try {
+                // MySQL 8.0.22 及以上
+                statusList = jdbcTemplate.queryForList("SHOW REPLICA STATUS");
+            } catch (Exception e) {
+                // 老版本
+                statusList = jdbcTemplate.queryForList("SHOW SLAVE STATUS");
+            }
+            if (statusList.isEmpty()) {
+                return null;
+            }
+            Map<String, Object> status = statusList.get(0);
+            Object lag = status.containsKey("Seconds_Behind_Source")
+                    ? status.get("Seconds_Behind_Source") : status.get("Seconds_Behind_Master");
+            // 复制线程停止时为 NULL
+            return lag == null ? null : ((Number) lag).longValue();
+        } catch (Exception e) {
+            log.error("查询只读副本复制延迟失败", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.yupi.yupicturebackend.manager.etag;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.yupi.yupicturebackend.model.dto.space.analyze.SpaceAnalyzeRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * ETag 条件请求管理
+ * <p>
+ * 每个数据范围（公共图库、某个空间、全部）在 Redis 中维护一个版本号，范围内的图片或空间有写操作就 +1。
+ * 读接口用 版本号 + 请求参数 算出强 ETag，与客户端的 If-None-Match 一致时直接返回 304，不再查库和序列化。
+ * 注意：列表接口是 POST，Spring 自带的 checkNotModified 对非 GET 请求会返回 412，所以这里自己处理。
+ * <p>
+ * 开启读写分离时，版本号 +1 之后的一段时间（副本最大延迟 + 延迟检查间隔）内副本可能还没同步，
+ * 读到的旧数据如果带上新的 ETag，客户端会一直用旧数据命中 304，所以这段时间内该范围不生成 ETag。
+ */
+@Slf4j
+@Component
+public class ETagManager {
+
+    /**
+     * 范围版本号的 Redis key 前缀
+     */
+    private static final String GEN_KEY_PREFIX = "yupicture:etag:gen:";
+
+    /**
+     * 范围最近有写操作的标记（过期时间为副本可能落后的时长），key 前缀
+     */
+    private static final String RECENT_WRITE_KEY_PREFIX = "yupicture:etag:recent:";
+
+    /**
+     * 公共图库
+     */
+    public static final String SCOPE_PUBLIC = "public";
+
+    /**
+     * 全部图库（任意图片或空间的写操作都会变化）
+     */
+    public static final String SCOPE_ALL = "all";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否开启了读写分离（列表、分析从副本读取）
+     */
+    @Value("${picture.datasource.read-write-splitting.enabled:false}")
+    private boolean readWriteSplittingEnabled;
+
+    /**
+     * 副本允许的最大延迟（秒）
+     */
+    @Value("${picture.datasource.read-write-splitting.max-lag-seconds:5}")
+    private long replicaMaxLagSeconds;
+
+    /**
+     * 副本延迟的检查间隔（毫秒），延迟超标后最多这么久才会停止从该副本读取
+     */
+    @Value("${picture.datasource.read-write-splitting.lag-check-interval-ms:5000}")
+    private long replicaLagCheckIntervalMs;
+
+
+    /**
+     * 图片所在的范围
+     *
+     * @param spaceId 空间id，为空表示公共图库
+     * @return
+     */
+    public String scopeOf(Long spaceId) {
+        return spaceId == null ? SCOPE_PUBLIC : "space:" + spaceId;
+    }
+
+    /**
+     * 空间分析请求对应的范围
+     *
+     * @param spaceAnalyzeRequest 空间分析请求
+     * @return
+     */
+    public String scopeOf(SpaceAnalyzeRequest spaceAnalyzeRequest) {
+        if (spaceAnalyzeRequest.isQueryAll()) {
+            return SCOPE_ALL;
+        }
+        if (spaceAnalyzeRequest.isQueryPublic()) {
+            return SCOPE_PUBLIC;
+        }
+        return scopeOf(spaceAnalyzeRequest.getSpaceId());
+    }
+
+
+    /**
+     * 数据有变化后调用：该范围和“全部”范围的版本号 +1，之前的 ETag 全部失效
+     * 开启读写分离时同时标记这两个范围最近有写操作，副本追上之前不生成 ETag
+     *
+     * @param spaceId 空间id，为空表示公共图库
+     */
+    public void bumpScope(Long spaceId) {
+        String scope = scopeOf(spaceId);
+        try {
+            if (readWriteSplittingEnabled) {
+                long replicaLagMillis = TimeUnit.SECONDS.toMillis(replicaMaxLagSeconds) + replicaLagCheckIntervalMs;
+                stringRedisTemplate.opsForValue().set(RECENT_WRITE_KEY_PREFIX + scope, "1", replicaLagMillis, TimeUnit.MILLISECONDS);
+                stringRedisTemplate.opsForValue().set(RECENT_WRITE_KEY_PREFIX + SCOPE_ALL, "1", replicaLagMillis, TimeUnit.MILLISECONDS);
+            }
+            stringRedisTemplate.opsForValue().increment(GEN_KEY_PREFIX + scope);
+            stringRedisTemplate.opsForValue().increment(GEN_KEY_PREFIX + SCOPE_ALL);
+        } catch (Exception e) {
+            // 版本号更新失败时，旧的 ETag 可能仍然有效，只记录日志，不影响写操作
+            log.error("ETag 版本号更新失败, spaceId = {}", spaceId, e);
+        }
+    }
+
+
+    /**
+     * 根据范围版本号和请求参数生成强 ETag
+     *
+     * @param scope  数据范围
+     * @param params 影响返回结果的参数（请求体、用户id等）
+     * @return ETag，Redis 不可用、或副本可能还没同步最近的写操作时返回null（不使用条件请求）
+     */
+    public String buildETag(String scope, Object... params) {
+        String generation;
+        try {
+            if (!readWriteSplittingEnabled) {
+                generation = stringRedisTemplate.opsForValue().get(GEN_KEY_PREFIX + scope);
+            } else {
+                // 版本号和最近写标记一次取回
+                List<String> valueList = stringRedisTemplate.opsForValue()
+                        .multiGet(Arrays.asList(GEN_KEY_PREFIX + scope, RECENT_WRITE_KEY_PREFIX + scope));
+                if (valueList == null || valueList.get(1) != null) {
+                    return null;
+                }
+                generation = valueList.get(0);
+            }
+        } catch (Exception e) {
+            log.error("ETag 版本号读取失败, scope = {}", scope, e);
+            return null;
+        }
+        generation = StrUtil.nullToDefault(generation, "0");
+        String paramStr = Arrays.stream(params)
+                .map(param -> param == null ? "" : (param instanceof CharSequence || param instanceof Number)
+                        ? param.toString() : JSONUtil.toJsonStr(param))
+                .collect(Collectors.joining("|"));
+        String source = scope + "|" + generation + "|" + paramStr;
+        return "\"" + DigestUtils.md5DigestAsHex(source.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+
+    /**
+     * 设置 ETag 响应头，并判断客户端缓存是否仍然有效
+     *
+     * @param request  请求
+     * @param response 响应
+     * @param eTag     当前数据的 ETag
+     * @return true 表示已返回 304，调用方直接返回即可
+     */
+    public boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String eTag) {
+        if (eTag == null) {
+            return false;
+        }
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        // 可以缓存，但每次使用前必须重新验证
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (StrUtil.isBlank(ifNoneMatch) || !matches(ifNoneMatch, eTag)) {
+            return false;
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+
+    /**
+     * If-None-Match 可能是 *、多个 ETag 用逗号分隔、或带 W/ 前缀的弱 ETag（压缩后部分代理会改成弱 ETag）
+     */
+    private boolean matches(String ifNoneMatch, String eTag) {
+        if ("*".equals(ifNoneMatch.trim())) {
+            return true;
+        }
+        List<String> candidateList = StrUtil.split(ifNoneMatch, ',', true, true);
+        for (String candidate : candidateList) {
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,721 @@
+package com.yupi.yupicturebackend.manager.quota;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.yupi.yupicturebackend.exception.BusinessException;
+import com.yupi.yupicturebackend.exception.ErrorCode;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
+import com.yupi.yupicturebackend.mapper.SpaceMapper;
+import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.utils.RedisScriptUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空间额度管理（Redis 原子预占 + 异步批量落库）
+ * <p>
+ * 1. 每个空间在 Redis 中有一个额度 Hash（usedSize、usedCount、maxSize、maxCount），第一次使用时从数据库加载
+ * （数据库的 totalSize / totalCount 加上还没落库的变化量）；
+ * 2. 上传前用 Lua 脚本原子地“检查 + 预占”，上传失败时释放，入库成功后按实际大小修正并记录待落库的变化量；
+ * 删除图片直接记录释放的额度。这样并发上传不会超额，也不再在事务中更新 space 的同一行；
+ * 3. 定时落库（同一时间只有一个节点执行）：把待落库的变化量原子地移入处理中的 Hash，按空间id顺序在一个事务中批量更新 space 表，
+ * 事务提交后才删除处理中的变化量；事务失败或节点宕机时，处理中的变化量保留，下次落库时合并重试；
+ * 加载额度时把处理中的变化量也算上，并用落库代数确认读取 space 表期间没有落库完成，保证数据库的值与变化量是一致的；
+ * 4. Redis 不可用时降级为原来的方式：按数据库的值检查额度，提交时直接更新数据库；
+ * 5. 图片入库事务提交之后才记录待落库的变化量，这期间数据库的行与变化量对不上：预占（删除前开始写入）时登记进行中的写入，
+ * 记录变化量后注销，额度核对跳过有进行中写入、或重算期间开始过写入的空间，避免同一次上传、删除被修正后又累加一次。
+ * 额度 Hash 一天没有上传会过期，下次使用时重新加载；预占后进程崩溃等原因产生的偏差，由额度核对任务修正。
+ */
+@Slf4j
+@Component
+public class SpaceQuotaManager {
+
+    private static final String QUOTA_KEY_PREFIX = "yupicture:space:quota:";
+
+    /**
+     * 待落库的大小变化量，field 为空间id
+     */
+    private static final String PENDING_SIZE_KEY = "yupicture:space:quota:pending:size";
+
+    /**
+     * 待落库的数量变化量，field 为空间id
+     */
+    private static final String PENDING_COUNT_KEY = "yupicture:space:quota:pending:count";
+
+    /**
+     * 正在落库的大小变化量（事务提交后删除），field 为空间id
+     */
+    private static final String PROCESSING_SIZE_KEY = "yupicture:space:quota:processing:size";
+
+    /**
+     * 正在落库的数量变化量（事务提交后删除），field 为空间id
+     */
+    private static final String PROCESSING_COUNT_KEY = "yupicture:space:quota:processing:count";
+
+    /**
+     * 落库代数，每次落库提交后加一
+     */
+    private static final String FLUSH_GENERATION_KEY = "yupicture:space:quota:flush:generation";
+
+    /**
+     * 落库锁，同一时间只有一个节点落库（额度核对、排行核对时也会持有，暂停落库）
+     */
+    private static final String FLUSH_LOCK_KEY = "yupicture:space:quota:flush:lock";
+
+    /**
+     * 空间进行中的写入（ZSET，member 为写入标识，score 为过期时间），key 后面拼接 spaceId
+     */
+    private static final String WRITE_INFLIGHT_KEY_PREFIX = "yupicture:space:quota:write:inflight:";
+
+    /**
+     * 空间开始写入的次数，key 后面拼接 spaceId
+     */
+    private static final String WRITE_SEQUENCE_KEY_PREFIX = "yupicture:space:quota:write:sequence:";
+
+    /**
+     * 进行中的写入最长保留时间（毫秒）：覆盖上传文件和入库的时间，进程崩溃后到期自动失效
+     */
+    private static final long WRITE_INFLIGHT_TTL_MILLIS = 10 * 60_000;
+
+    /**
+     * 定时落库持有锁的时间（毫秒）
+     */
+    private static final long FLUSH_LOCK_TTL_MILLIS = 30_000;
+
+    /**
+     * 加载额度时遇到正在落库的最多重试次数
+     */
+    private static final int LOAD_MAX_RETRIES = 10;
+
+    private static final long LOAD_RETRY_INTERVAL_MILLIS = 20;
+
+    /**
+     * 额度 Hash 的过期时间（秒）
+     */
+    private static final long QUOTA_EXPIRE_SECONDS = 24 * 60 * 60;
+
+    private static final long RESULT_NOT_LOADED = -1;
+
+    private static final long RESULT_COUNT_EXCEEDED = -2;
+
+    private static final long RESULT_SIZE_EXCEEDED = -3;
+
+    private static final long RESULT_LOAD_RETRY = -1;
+
+    /**
+     * 预占额度：额度未加载返回 -1，条数不足返回 -2，大小不足返回 -3，成功返回 1
+     */
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end\n" +
+            "local quota = redis.call('HMGET', KEYS[1], 'usedSize', 'usedCount', 'maxSize', 'maxCount')\n" +
+            "local size = tonumber(ARGV[1])\n" +
+            "local count = tonumber(ARGV[2])\n" +
+            "if count > 0 and tonumber(quota[2]) + count > tonumber(quota[4]) then return -2 end\n" +
+            "if tonumber(quota[1]) >= tonumber(quota[3]) or tonumber(quota[1]) + size > tonumber(quota[3]) then return -3 end\n" +
+            "redis.call('HINCRBY', KEYS[1], 'usedSize', size)\n" +
+            "redis.call('HINCRBY', KEYS[1], 'usedCount', count)\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[3])\n" +
+            "return 1", Long.class);
+
+    /**
+     * 加载额度（已经存在时不覆盖，避免并发加载覆盖预占）：已用额度 = 数据库的值 + 待落库 + 处理中的变化量；
+     * 读取数据库之后落库代数变了，或者该空间有正在落库的变化量（数据库的值是否已经包含它无法确定）时返回 -1，由调用方重试
+     * KEYS：额度、待落库大小、待落库数量、处理中大小、处理中数量、落库代数
+     * ARGV：数据库的已用大小、已用数量、最大大小、最大数量、过期时间、读取数据库前的落库代数、空间id
+     */
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end\n" +
+            "if (redis.call('GET', KEYS[6]) or '0') ~= ARGV[6] then return -1 end\n" +
+            "if redis.call('HEXISTS', KEYS[4], ARGV[7]) == 1 or redis.call('HEXISTS', KEYS[5], ARGV[7]) == 1 then return -1 end\n" +
+            "local size = tonumber(ARGV[1]) + tonumber(redis.call('HGET', KEYS[2], ARGV[7]) or '0')\n" +
+            "local count = tonumber(ARGV[2]) + tonumber(redis.call('HGET', KEYS[3], ARGV[7]) or '0')\n" +
+            "redis.call('HSET', KEYS[1], 'usedSize', string.format('%d', math.max(0, size)), " +
+            "'usedCount', string.format('%d', math.max(0, count)), " +
+            "'maxSize', ARGV[3], 'maxCount', ARGV[4])\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[5])\n" +
+            "return 1", Long.class);
+
+    /**
+     * 修正已用额度（不小于 0），并记录待落库的变化量
+     * ARGV：已用大小修正、已用数量修正、待落库大小、待落库数量、空间id
+     */
+    private static final DefaultRedisScript<Long> ADJUST_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then\n" +
+            "  if redis.call('HINCRBY', KEYS[1], 'usedSize', ARGV[1]) < 0 then redis.call('HSET', KEYS[1], 'usedSize', 0) end\n" +
+            "  if redis.call('HINCRBY', KEYS[1], 'usedCount', ARGV[2]) < 0 then redis.call('HSET', KEYS[1], 'usedCount', 0) end\n" +
+            "end\n" +
+            "if tonumber(ARGV[3]) ~= 0 then redis.call('HINCRBY', KEYS[2], ARGV[5], ARGV[3]) end\n" +
+            "if tonumber(ARGV[4]) ~= 0 then redis.call('HINCRBY', KEYS[3], ARGV[5], ARGV[4]) end\n" +
+            "return 1", Long.class);
+
+    /**
+     * 修改额度上限（额度未加载时不需要处理）
+     */
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end\n" +
+            "redis.call('HSET', KEYS[1], 'maxSize', ARGV[1], 'maxCount', ARGV[2])\n" +
+            "return 1", Long.class);
+
+    /**
+     * 把待落库的变化量合并到处理中（包括上次没有提交成功的），返回 [处理中大小的 field/value 列表, 处理中数量的 field/value 列表]
+     * KEYS：待落库大小、待落库数量、处理中大小、处理中数量
+     */
+    private static final DefaultRedisScript<List<List<?>>> MOVE_PENDING_SCRIPT = RedisScriptUtils.listScript(
+            "for i = 1, 2 do\n" +
+            "  local entries = redis.call('HGETALL', KEYS[i])\n" +
+            "  for j = 1, #entries, 2 do redis.call('HINCRBY', KEYS[i + 2], entries[j], entries[j + 1]) end\n" +
+            "  redis.call('DEL', KEYS[i])\n" +
+            "end\n" +
+            "return {redis.call('HGETALL', KEYS[3]), redis.call('HGETALL', KEYS[4])}");
+
+    /**
+     * 落库事务提交后：删除处理中的变化量，落库代数加一
+     * KEYS：处理中大小、处理中数量、落库代数
+     */
+    private static final DefaultRedisScript<Long> COMPLETE_FLUSH_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1], KEYS[2])\n" +
+            "return redis.call('INCR', KEYS[3])", Long.class);
+
+    /**
+     * 读取空间还没落库的变化量（待落库 + 处理中）：返回 [大小, 数量]
+     * KEYS：待落库大小、待落库数量、处理中大小、处理中数量
+     */
+    private static final DefaultRedisScript<List<Long>> PENDING_USAGE_SCRIPT = RedisScriptUtils.listScript(
+            "local size = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0') + tonumber(redis.call('HGET', KEYS[3], ARGV[1]) or '0')\n" +
+            "local count = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0') + tonumber(redis.call('HGET', KEYS[4], ARGV[1]) or '0')\n" +
+            "return {size, count}");
+
+    /**
+     * 登记进行中的写入，写入次数加一
+     * KEYS：进行中的写入、写入次数；ARGV：写入标识、过期时间点、进行中写入 key 的过期时间、写入次数 key 的过期时间（毫秒）
+     */
+    private static final DefaultRedisScript<Long> BEGIN_WRITE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3])\n" +
+            "local sequence = redis.call('INCR', KEYS[2])\n" +
+            "redis.call('PEXPIRE', KEYS[2], ARGV[4])\n" +
+            "return sequence", Long.class);
+
+    /**
+     * 读取写入次数，有未过期的进行中写入时返回 -1
+     * KEYS：进行中的写入、写入次数；ARGV：当前时间
+     */
+    private static final DefaultRedisScript<Long> WRITE_SEQUENCE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[1])\n" +
+            "if redis.call('ZCARD', KEYS[1]) > 0 then return -1 end\n" +
+            "return tonumber(redis.call('GET', KEYS[2]) or '0')", Long.class);
+
+    /**
+     * 值相同才删除（释放落库锁）
+     */
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0", Long.class);
+
+    // 引入空间Mapper，加载额度和落库（不引入SpaceService，避免循环依赖）
+    @Resource
+    private SpaceMapper spaceMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    // 引入ETag管理，落库后让空间使用量的缓存失效
+    @Resource
+    private ETagManager eTagManager;
+
+
+    /**
+     * 上传前预占额度，额度不足时抛出异常
+     *
+     * @param space 空间
+     * @param size  预占的大小（上传前不知道大小时为 0）
+     * @param count 预占的数量（替换已有图片时为 0）
+     * @return 预占记录，上传结束后必须调用 {@link #commit} 或 {@link #release}
+     */
+    public SpaceQuotaReservation reserve(Space space, long size, long count) {
+        SpaceQuotaReservation reservation = new SpaceQuotaReservation(space.getId(), size, count);
+        String quotaKey = getQuotaKey(space.getId());
+        Long result;
+        try {
+            result = executeReserve(quotaKey, size, count);
+            if (result != null && result == RESULT_NOT_LOADED) {
+                loadQuota(space.getId());
+                result = executeReserve(quotaKey, size, count);
+            }
+        } catch (Exception e) {
+            // Redis 不可用：按数据库的值检查额度（与原来的逻辑一致），提交时直接更新数据库
+            log.warn("Redis 预占空间额度失败，降级为数据库检查, spaceId = {}", space.getId(), e);
+            checkQuotaByDb(space, size, count);
+            reservation.setDbMode(true);
+            return reservation;
+        }
+        if (result == null || result == RESULT_NOT_LOADED) {
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "空间额度加载失败");
+        }
+        if (result == RESULT_COUNT_EXCEEDED) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
+        }
+        if (result == RESULT_SIZE_EXCEEDED) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间大小不足");
+        }
+        reservation.setWriteToken(beginWrite(space.getId()));
+        return reservation;
+    }
+
+
+    /**
+     * 图片入库后提交预占：按实际的变化量修正已用额度，并记录待落库的变化量
+     *
+     * @param reservation 预占记录
+     * @param sizeDelta   实际的大小变化量（替换图片时为新旧大小之差）
+     * @param countDelta  实际的数量变化量
+     */
+    public void commit(SpaceQuotaReservation reservation, long sizeDelta, long countDelta) {
+        if (reservation == null) {
+            return;
+        }
+        if (reservation.isDbMode()) {
+            flushToDb(reservation.getSpaceId(), sizeDelta, countDelta);
+            return;
+        }
+        adjust(reservation.getSpaceId(), sizeDelta - reservation.getSize(), countDelta - reservation.getCount(),
+                sizeDelta, countDelta);
+        endWrite(reservation.getSpaceId(), reservation.getWriteToken());
+    }
+
+
+    /**
+     * 上传或入库失败时释放预占
+     *
+     * @param reservation 预占记录
+     */
+    public void release(SpaceQuotaReservation reservation) {
+        if (reservation == null || reservation.isDbMode()) {
+            return;
+        }
+        try {
+            executeAdjust(reservation.getSpaceId(), -reservation.getSize(), -reservation.getCount(), 0, 0);
+        } catch (Exception e) {
+            log.warn("释放空间额度失败, spaceId = {}", reservation.getSpaceId(), e);
+        }
+        endWrite(reservation.getSpaceId(), reservation.getWriteToken());
+    }
+
+
+    /**
+     * 删除图片后释放额度（事务提交后调用）
+     *
+     * @param spaceId    空间id
+     * @param size       图片大小
+     * @param writeToken 删除前 {@link #beginWrite} 返回的写入标识
+     */
+    public void releaseUsage(Long spaceId, long size, String writeToken) {
+        if (spaceId == null) {
+            return;
+        }
+        adjust(spaceId, -size, -1, -size, -1);
+        endWrite(spaceId, writeToken);
+    }
+
+
+    /**
+     * 登记空间进行中的写入（图片入库事务开始前调用），记录变化量后调用 {@link #endWrite} 注销
+     * 事务提交到记录变化量之间，额度核对会跳过该空间
+     *
+     * @param spaceId 空间id
+     * @return 写入标识，空间为空或 Redis 不可用时返回 null
+     */
+    public String beginWrite(Long spaceId) {
+        if (spaceId == null) {
+            return null;
+        }
+        String token = IdUtil.fastSimpleUUID();
+        try {
+            stringRedisTemplate.execute(BEGIN_WRITE_SCRIPT,
+                    Arrays.asList(WRITE_INFLIGHT_KEY_PREFIX + spaceId, WRITE_SEQUENCE_KEY_PREFIX + spaceId), token,
+                    String.valueOf(System.currentTimeMillis() + WRITE_INFLIGHT_TTL_MILLIS),
+                    String.valueOf(WRITE_INFLIGHT_TTL_MILLIS), String.valueOf(TimeUnit.SECONDS.toMillis(QUOTA_EXPIRE_SECONDS)));
+            return token;
+        } catch (Exception e) {
+            log.warn("登记空间写入失败, spaceId = {}", spaceId, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * 注销进行中的写入（变化量已经记录，或写入失败）
+     *
+     * @param spaceId    空间id
+     * @param writeToken {@link #beginWrite} 返回的写入标识
+     */
+    public void endWrite(Long spaceId, String writeToken) {
+        if (spaceId == null || writeToken == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(WRITE_INFLIGHT_KEY_PREFIX + spaceId, writeToken);
+        } catch (Exception e) {
+            // 到期后自动失效
+            log.warn("注销空间写入失败, spaceId = {}", spaceId, e);
+        }
+    }
+
+
+    /**
+     * 获取空间开始写入的次数，用于确认一段时间内没有写入
+     *
+     * @param spaceId 空间id
+     * @return 写入次数，有进行中的写入时返回 -1
+     */
+    public long getWriteSequence(Long spaceId) {
+        Long sequence = stringRedisTemplate.execute(WRITE_SEQUENCE_SCRIPT,
+                Arrays.asList(WRITE_INFLIGHT_KEY_PREFIX + spaceId, WRITE_SEQUENCE_KEY_PREFIX + spaceId),
+                String.valueOf(System.currentTimeMillis()));
+        return sequence == null ? -1 : sequence;
+    }
+
+
+    /**
+     * 空间的额度上限修改后调用
+     *
+     * @param space 修改后的空间
+     */
+    public void updateLimit(Space space) {
+        if (space == null || space.getMaxSize() == null || space.getMaxCount() == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(LIMIT_SCRIPT, Collections.singletonList(getQuotaKey(space.getId())),
+                    String.valueOf(space.getMaxSize()), String.valueOf(space.getMaxCount()));
+        } catch (Exception e) {
+            // 删除后下次使用时重新加载
+            log.warn("更新空间额度上限失败, spaceId = {}", space.getId(), e);
+            stringRedisTemplate.delete(getQuotaKey(space.getId()));
+        }
+    }
+
+
+    /**
+     * 获取还没落库的变化量（待落库 + 处理中）
+     *
+     * @param spaceId 空间id
+     * @return [大小, 数量]
+     */
+    public long[] getPendingUsage(Long spaceId) {
+        List<Long> result = stringRedisTemplate.execute(PENDING_USAGE_SCRIPT,
+                Arrays.asList(PENDING_SIZE_KEY, PENDING_COUNT_KEY, PROCESSING_SIZE_KEY, PROCESSING_COUNT_KEY), String.valueOf(spaceId));
+        if (result == null) {
+            return new long[2];
+        }
+        return new long[]{result.get(0), result.get(1)};
+    }
+
+
+    /**
+     * 获取空间当前的使用量：数据库的值 + 还没落库的变化量
+     * 数据库的值最多落后一个落库间隔，直接展示会把旧值缓存到新的 ETag 下；Redis 不可用时只返回数据库的值
+     *
+     * @param space 空间（totalSize / totalCount 为数据库的值）
+     * @return [大小, 数量]
+     */
+    public long[] getUsage(Space space) {
+        long[] usage = {nullToZero(space.getTotalSize()), nullToZero(space.getTotalCount())};
+        try {
+            long[] pending = getPendingUsage(space.getId());
+            usage[0] += pending[0];
+            usage[1] += pending[1];
+        } catch (Exception e) {
+            log.warn("读取空间还没落库的额度变化量失败, spaceId = {}", space.getId(), e);
+        }
+        return usage;
+    }
+
+
+    /**
+     * 获取所有空间还没落库的变化量（待落库 + 处理中）
+     *
+     * @return 空间id -> [大小, 数量]
+     */
+    public Map<Long, long[]> getAllPendingUsage() {
+        Map<Long, long[]> pendingMap = new HashMap<>();
+        collectHash(pendingMap, PENDING_SIZE_KEY, 0);
+        collectHash(pendingMap, PROCESSING_SIZE_KEY, 0);
+        collectHash(pendingMap, PENDING_COUNT_KEY, 1);
+        collectHash(pendingMap, PROCESSING_COUNT_KEY, 1);
+        return pendingMap;
+    }
+
+    /**
+     * 还没落库的变化量所在的 Hash（field 为空间id），供需要在脚本中原子读取的地方使用
+     *
+     * @param index 0：大小，1：数量
+     * @return [待落库, 处理中]
+     */
+    public List<String> getPendingUsageKeys(int index) {
+        return index == 0 ? Arrays.asList(PENDING_SIZE_KEY, PROCESSING_SIZE_KEY)
+                : Arrays.asList(PENDING_COUNT_KEY, PROCESSING_COUNT_KEY);
+    }
+
+
+    /**
+     * 获取落库锁，持有期间不会落库（space 表的 totalSize / totalCount 不变）
+     *
+     * @param ttlMillis  持有锁的时间（毫秒）
+     * @param waitMillis 最多等待的时间（毫秒），正在落库时等它完成
+     * @return 锁的标识，释放时传入；没有获取到时返回 null
+     */
+    public String tryLockFlush(long ttlMillis, long waitMillis) {
+        String token = IdUtil.fastSimpleUUID();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        try {
+            while (true) {
+                if (Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                        .setIfAbsent(FLUSH_LOCK_KEY, token, ttlMillis, TimeUnit.MILLISECONDS))) {
+                    return token;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return null;
+                }
+                TimeUnit.MILLISECONDS.sleep(LOAD_RETRY_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 释放落库锁（只释放自己持有的）
+     *
+     * @param token {@link #tryLockFlush} 返回的标识
+     */
+    public void unlockFlush(String token) {
+        if (token == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(FLUSH_LOCK_KEY), token);
+        } catch (Exception e) {
+            // 锁会自动过期
+            log.warn("释放空间额度落库锁失败", e);
+        }
+    }
+
+
+    /**
+     * 修正额度偏差（额度核对时调用）：按差值更新 space 表（不覆盖并发落库的变化量），并同步 Redis 中的已用额度
+     *
+     * @param spaceId   空间id
+     * @param sizeDiff  大小偏差
+     * @param countDiff 数量偏差
+     */
+    public void correctUsage(Long spaceId, long sizeDiff, long countDiff) {
+        updateSpaceUsage(spaceId, sizeDiff, countDiff);
+        try {
+            executeAdjust(spaceId, sizeDiff, countDiff, 0, 0);
+        } catch (Exception e) {
+            // 删除后下次使用时重新加载
+            log.warn("同步 Redis 空间额度失败, spaceId = {}", spaceId, e);
+            stringRedisTemplate.delete(getQuotaKey(spaceId));
+        }
+    }
+
+
+    /**
+     * 定时把待落库的变化量批量写入 space 表（默认每秒一次）
+     */
+    @Scheduled(fixedDelayString = "${picture.quota.flush-interval-ms:1000}")
+    public void flushPending() {
+        String token;
+        try {
+            if (stringRedisTemplate.opsForHash().size(PENDING_SIZE_KEY) == 0
+                    && stringRedisTemplate.opsForHash().size(PENDING_COUNT_KEY) == 0
+                    && stringRedisTemplate.opsForHash().size(PROCESSING_SIZE_KEY) == 0
+                    && stringRedisTemplate.opsForHash().size(PROCESSING_COUNT_KEY) == 0) {
+                return;
+            }
+            // 其他节点正在落库，或者核对任务暂停了落库
+            token = tryLockFlush(FLUSH_LOCK_TTL_MILLIS, 0);
+        } catch (Exception e) {
+            log.warn("读取待落库的空间额度失败", e);
+            return;
+        }
+        if (token == null) {
+            return;
+        }
+        try {
+            // 1.把待落库的变化量原子地移入处理中（连同上次没有提交成功的），在事务提交前不删除
+            List<List<?>> result = stringRedisTemplate.execute(MOVE_PENDING_SCRIPT,
+                    Arrays.asList(PENDING_SIZE_KEY, PENDING_COUNT_KEY, PROCESSING_SIZE_KEY, PROCESSING_COUNT_KEY));
+            TreeMap<Long, long[]> deltaMap = new TreeMap<>();
+            if (result != null) {
+                collectEntries(deltaMap, result.get(0), 0);
+                collectEntries(deltaMap, result.get(1), 1);
+            }
+            deltaMap.values().removeIf(delta -> delta[0] == 0 && delta[1] == 0);
+            // 2.按空间id顺序在一个事务中批量更新，提交后再删除处理中的变化量；失败时保留，下次合并重试
+            transactionTemplate.executeWithoutResult(status -> {
+                deltaMap.forEach((spaceId, delta) -> updateSpaceUsage(spaceId, delta[0], delta[1]));
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        completeFlush(deltaMap.keySet());
+                    }
+                });
+            });
+        } catch (Exception e) {
+            log.error("空间额度落库失败，稍后重试", e);
+        } finally {
+            unlockFlush(token);
+        }
+    }
+
+
+    /**
+     * 落库事务提交后删除处理中的变化量
+     * 删除失败时下次落库会重复累加这些变化量，偏差由额度核对任务修正
+     *
+     * @param spaceIds 本次落库的空间id
+     */
+    private void completeFlush(Set<Long> spaceIds) {
+        try {
+            stringRedisTemplate.execute(COMPLETE_FLUSH_SCRIPT,
+                    Arrays.asList(PROCESSING_SIZE_KEY, PROCESSING_COUNT_KEY, FLUSH_GENERATION_KEY));
+        } catch (Exception e) {
+            log.error("删除已落库的空间额度变化量失败", e);
+        }
+        // 事务提交到删除处理中的变化量之间，使用量会被重复计算一次，这期间缓存的响应随版本号一起失效
+        spaceIds.forEach(eTagManager::bumpScope);
+    }
+
+
+    /**
+     * 从数据库加载额度：数据库的值 + 还没落库的变化量
+     * 读取数据库期间有落库完成、或该空间正在落库时，数据库的值与变化量对不上，稍后重试
+     */
+    private void loadQuota(Long spaceId) {
+        String field = String.valueOf(spaceId);
+        for (int i = 0; i < LOAD_MAX_RETRIES; i++) {
+            // 1.先记录落库代数，再读取数据库
+            String generation = stringRedisTemplate.opsForValue().get(FLUSH_GENERATION_KEY);
+            Space space = spaceMapper.selectById(spaceId);
+            if (space == null) {
+                throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "要操作的空间不存在");
+            }
+            // 2.在脚本中确认代数没变、该空间没有正在落库的变化量，再加上待落库的变化量写入
+            Long result = stringRedisTemplate.execute(LOAD_SCRIPT,
+                    Arrays.asList(getQuotaKey(spaceId), PENDING_SIZE_KEY, PENDING_COUNT_KEY,
+                            PROCESSING_SIZE_KEY, PROCESSING_COUNT_KEY, FLUSH_GENERATION_KEY),
+                    String.valueOf(nullToZero(space.getTotalSize())), String.valueOf(nullToZero(space.getTotalCount())),
+                    String.valueOf(nullToZero(space.getMaxSize())), String.valueOf(nullToZero(space.getMaxCount())),
+                    String.valueOf(QUOTA_EXPIRE_SECONDS), generation == null ? "0" : generation, field);
+            if (result != null && result != RESULT_LOAD_RETRY) {
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(LOAD_RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new BusinessException(ErrorCode.SYSTEM_ERROR, "空间额度加载失败");
+    }
+
+
+    /**
+     * Redis 不可用时的额度检查（与原来的逻辑一致）
+     */
+    private void checkQuotaByDb(Space space, long size, long count) {
+        if (count > 0 && nullToZero(space.getTotalCount()) + count > nullToZero(space.getMaxCount())) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
+        }
+        if (nullToZero(space.getTotalSize()) >= nullToZero(space.getMaxSize())) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间大小不足");
+        }
+    }
+
+
+    /**
+     * 修正已用额度并记录待落库的变化量，Redis 不可用时直接更新数据库
+     */
+    private void adjust(Long spaceId, long usedSizeDelta, long usedCountDelta, long pendingSize, long pendingCount) {
+        try {
+            executeAdjust(spaceId, usedSizeDelta, usedCountDelta, pendingSize, pendingCount);
+        } catch (Exception e) {
+            log.warn("记录空间额度变化失败，直接更新数据库, spaceId = {}", spaceId, e);
+            flushToDb(spaceId, pendingSize, pendingCount);
+        }
+    }
+
+    private void flushToDb(Long spaceId, long sizeDelta, long countDelta) {
+        if (sizeDelta == 0 && countDelta == 0) {
+            return;
+        }
+        updateSpaceUsage(spaceId, sizeDelta, countDelta);
+    }
+
+    private void updateSpaceUsage(Long spaceId, long sizeDelta, long countDelta) {
+        spaceMapper.update(null, new UpdateWrapper<Space>()
+                .eq("id", spaceId)
+                .setSql("totalSize = totalSize + " + sizeDelta)
+                .setSql("totalCount = totalCount + " + countDelta));
+    }
+
+    private Long executeReserve(String quotaKey, long size, long count) {
+        return stringRedisTemplate.execute(RESERVE_SCRIPT, Collections.singletonList(quotaKey),
+                String.valueOf(size), String.valueOf(count), String.valueOf(QUOTA_EXPIRE_SECONDS));
+    }
+
+    private void executeAdjust(Long spaceId, long usedSizeDelta, long usedCountDelta, long pendingSize, long pendingCount) {
+        stringRedisTemplate.execute(ADJUST_SCRIPT, Arrays.asList(getQuotaKey(spaceId), PENDING_SIZE_KEY, PENDING_COUNT_KEY),
+                String.valueOf(usedSizeDelta), String.valueOf(usedCountDelta),
+                String.valueOf(pendingSize), String.valueOf(pendingCount), String.valueOf(spaceId));
+    }
+
+    /**
+     * 把脚本返回的 field/value 列表累加到变化量中
+     *
+     * @param deltaMap 空间id -> [大小, 数量]
+     * @param entries  HGETALL 的结果
+     * @param index    0：大小，1：数量
+     */
+    private void collectEntries(Map<Long, long[]> deltaMap, List<?> entries, int index) {
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < entries.size(); i += 2) {
+            long[] delta = deltaMap.computeIfAbsent(Long.valueOf(entries.get(i).toString()), key -> new long[2]);
+            delta[index] += Long.parseLong(entries.get(i + 1).toString());
+        }
+    }
+
+    private void collectHash(Map<Long, long[]> deltaMap, String key, int index) {
+        stringRedisTemplate.opsForHash().entries(key).forEach((field, value) -> {
+            long[] delta = deltaMap.computeIfAbsent(Long.valueOf(field.toString()), spaceId -> new long[2]);
+            delta[index] += Long.parseLong(value.toString());
+        });
+    }
+
+    private String getQuotaKey(Long spaceId) {
+        return QUOTA_KEY_PREFIX + spaceId;
+    }
+
+    private long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,343 @@
+package com.yupi.yupicturebackend.manager.quota;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yupicturebackend.manager.archive.PictureArchiveManager;
+import com.yupi.yupicturebackend.manager.rank.SpaceRankManager;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
+import com.yupi.yupicturebackend.manager.sharding.SpacePictureMigrator;
+import com.yupi.yupicturebackend.mapper.PictureMapper;
+import com.yupi.yupicturebackend.mapper.SpaceMapper;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.Space;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 空间额度核对
+ * <p>
+ * 上传中途失败、文件清理竞争、预占后进程崩溃等都会让 space 的 totalSize / totalCount 与实际图片不一致，由这个任务定时修正：
+ * 1. 并行扫描每张图片物理表（picture、picture_h{N}、picture_{spaceId}）和归档表（未删除的归档图片仍然占用额度），
+ * 按 id 游标分块读取，只读 id、spaceId、picSize、isDelete，
+ * 在内存中按空间汇总，不锁表；
+ * 2. 每处理完一块，在一个 Redis 事务中累加该块的汇总并记录该表的游标（检查点），重启后从检查点继续，不需要从头扫描；
+ * 3. 全部扫描完后与 space 表（加上还没落库的变化量）比较，扫描期间有上传、删除的空间也会出现差异，
+ * 所以只对有差异的空间按 spaceId 精确重算一次（走索引），重算时持有额度落库锁，space 表的值与还没落库的变化量不会在读取之间变化，
+ * 确认后按差值更新，不锁其他空间；
+ * 4. 正在迁移到专属分表的空间跳过，下次再核对；
+ * 5. 图片入库提交后才记录变化量，有进行中写入、或重算期间开始过写入的空间也跳过，否则同一次上传、删除会被修正后再累加一次。
+ */
+@Slf4j
+@Component
+public class SpaceQuotaReconciler {
+
+    private static final String KEY_PREFIX = "yupicture:space:quota:reconcile:";
+
+    /**
+     * 检查点：startTime 为本轮开始时间，其他 field 为表名，值为游标（已处理的最大 id）或 done
+     */
+    private static final String CHECKPOINT_KEY = KEY_PREFIX + "checkpoint";
+
+    /**
+     * 本轮已扫描部分的汇总：field 为 {spaceId}:size / {spaceId}:count
+     */
+    private static final String TOTALS_KEY = KEY_PREFIX + "totals";
+
+    private static final String LOCK_KEY = KEY_PREFIX + "lock";
+
+    private static final String START_TIME_FIELD = "startTime";
+
+    private static final String DONE = "done";
+
+    /**
+     * 重算一个空间时持有落库锁的时间（毫秒）
+     */
+    private static final long FLUSH_LOCK_TTL_MILLIS = 30_000;
+
+    /**
+     * 等待正在进行的落库完成的时间（毫秒）
+     */
+    private static final long FLUSH_LOCK_WAIT_MILLIS = 5_000;
+
+    // 引入动态分表管理器，获取物理表和真实数据源
+    @Resource
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入空间迁移器，跳过正在迁移的空间
+    @Resource
+    private SpacePictureMigrator spacePictureMigrator;
+
+    // 引入空间额度管理，读取待落库的变化量并修正偏差
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    // 引入空间使用排行榜，修正后同步排行
+    @Resource
+    private SpaceRankManager spaceRankManager;
+
+    @Resource
+    private SpaceMapper spaceMapper;
+
+    @Resource
+    private PictureMapper pictureMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每块扫描的行数
+     */
+    @Value("${picture.quota.reconcile-chunk-size:2000}")
+    private int chunkSize;
+
+    /**
+     * 同时扫描的表数量
+     */
+    @Value("${picture.quota.reconcile-parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 检查点的有效期（小时），超过后重新开始一轮，避免用很久之前的部分结果
+     */
+    @Value("${picture.quota.reconcile-checkpoint-hours:24}")
+    private int checkpointHours;
+
+
+    /**
+     * 定时核对（默认每天凌晨执行）
+     */
+    @Scheduled(cron = "${picture.quota.reconcile-cron:0 0 5 * * ?}")
+    public void reconcileSpaceQuota() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_KEY, "1", 6, TimeUnit.HOURS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            long startTime = System.currentTimeMillis();
+            // 1.恢复或开始一轮核对
+            Map<String, String> checkpointMap = loadCheckpoint();
+            // 2.并行扫描每张物理表
+            JdbcTemplate jdbcTemplate = dynamicShardingManager.getActualJdbcTemplate();
+            List<String> tableNameList = new ArrayList<>(dynamicShardingManager.getPictureTableNames());
+            tableNameList.add(PictureArchiveManager.ARCHIVE_TABLE_NAME);
+            List<Future<?>> futureList = new ArrayList<>();
+            for (String tableName : tableNameList) {
+                String cursor = checkpointMap.get(tableName);
+                if (DONE.equals(cursor)) {
+                    continue;
+                }
+                long lastId = cursor == null ? 0 : Long.parseLong(cursor);
+                futureList.add(executorService.submit(() -> scanTable(jdbcTemplate, tableName, lastId)));
+            }
+            for (Future<?> future : futureList) {
+                // 任意一张表失败就结束本次任务，已完成的块保留在检查点中，下次继续
+                future.get();
+            }
+            // 3.与 space 表比较并修正
+            int fixed = correctDrift();
+            // 4.本轮完成，清除检查点
+            stringRedisTemplate.delete(Arrays.asList(CHECKPOINT_KEY, TOTALS_KEY));
+            log.info("空间额度核对完成，修正 {} 个空间，耗时 {} ms", fixed, System.currentTimeMillis() - startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("空间额度核对失败，下次从检查点继续", e);
+        } finally {
+            executorService.shutdownNow();
+            stringRedisTemplate.delete(LOCK_KEY);
+        }
+    }
+
+
+    /**
+     * 读取检查点，没有或已过期时开始新的一轮
+     */
+    private Map<String, String> loadCheckpoint() {
+        Map<String, String> checkpointMap = new HashMap<>();
+        stringRedisTemplate.opsForHash().entries(CHECKPOINT_KEY)
+                .forEach((field, value) -> checkpointMap.put(field.toString(), value.toString()));
+        String startTime = checkpointMap.get(START_TIME_FIELD);
+        long now = System.currentTimeMillis();
+        if (startTime != null && now - Long.parseLong(startTime) < TimeUnit.HOURS.toMillis(checkpointHours)) {
+            log.info("从检查点继续空间额度核对: {}", checkpointMap);
+            return checkpointMap;
+        }
+        stringRedisTemplate.delete(Arrays.asList(CHECKPOINT_KEY, TOTALS_KEY));
+        stringRedisTemplate.opsForHash().put(CHECKPOINT_KEY, START_TIME_FIELD, String.valueOf(now));
+        return new HashMap<>();
+    }
+
+
+    /**
+     * 按 id 游标分块扫描一张表，每块提交一次检查点
+     */
+    private void scanTable(JdbcTemplate jdbcTemplate, String tableName, long startId) {
+        long lastId = startId;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Map<String, Object>> rowList = jdbcTemplate.queryForList(
+                    "SELECT id, spaceId, picSize, isDelete FROM " + tableName + " WHERE id > ? ORDER BY id LIMIT ?",
+                    lastId, chunkSize);
+            if (rowList.isEmpty()) {
+                stringRedisTemplate.opsForHash().put(CHECKPOINT_KEY, tableName, DONE);
+                return;
+            }
+            // 块内按空间汇总
+            Map<Long, long[]> chunkMap = new HashMap<>();
+            for (Map<String, Object> row : rowList) {
+                Object spaceId = row.get("spaceId");
+                if (spaceId == null || ((Number) row.get("isDelete")).intValue() != 0) {
+                    continue;
+                }
+                long[] total = chunkMap.computeIfAbsent(((Number) spaceId).longValue(), key -> new long[2]);
+                total[0] += row.get("picSize") == null ? 0 : ((Number) row.get("picSize")).longValue();
+                total[1]++;
+            }
+            lastId = ((Number) rowList.get(rowList.size() - 1).get("id")).longValue();
+            saveChunk(tableName, lastId, chunkMap);
+        }
+    }
+
+
+    /**
+     * 在一个 Redis 事务中累加块的汇总并推进游标，重启后不会重复累加
+     */
+    private void saveChunk(String tableName, long lastId, Map<Long, long[]> chunkMap) {
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> stringOperations = asStringOperations(operations);
+                stringOperations.multi();
+                chunkMap.forEach((spaceId, total) -> {
+                    stringOperations.opsForHash().increment(TOTALS_KEY, spaceId + ":size", total[0]);
+                    stringOperations.opsForHash().increment(TOTALS_KEY, spaceId + ":count", total[1]);
+                });
+                stringOperations.opsForHash().put(CHECKPOINT_KEY, tableName, String.valueOf(lastId));
+                return stringOperations.exec();
+            }
+        });
+    }
+
+    /**
+     * StringRedisTemplate 回调中的 operations 就是它自己，key、value 都是字符串
+     */
+    @SuppressWarnings("unchecked")
+    private static RedisOperations<String, String> asStringOperations(RedisOperations<?, ?> operations) {
+        return (RedisOperations<String, String>) operations;
+    }
+
+
+    /**
+     * 比较扫描结果与 space 表，对有差异的空间精确重算后修正
+     *
+     * @return 修正的空间数量
+     */
+    private int correctDrift() {
+        // 1.读取扫描结果
+        Map<Long, long[]> scannedMap = new HashMap<>();
+        stringRedisTemplate.opsForHash().entries(TOTALS_KEY).forEach((field, value) -> {
+            String[] parts = field.toString().split(":");
+            long[] total = scannedMap.computeIfAbsent(Long.valueOf(parts[0]), key -> new long[2]);
+            total["size".equals(parts[1]) ? 0 : 1] = Long.parseLong(value.toString());
+        });
+        // 2.按 id 游标遍历所有空间，找出有差异的空间
+        int fixed = 0;
+        long lastId = 0;
+        while (true) {
+            List<Space> spaceList = spaceMapper.selectList(new QueryWrapper<Space>()
+                    .select("id", "totalSize", "totalCount")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + chunkSize));
+            if (spaceList.isEmpty()) {
+                return fixed;
+            }
+            for (Space space : spaceList) {
+                long[] scanned = scannedMap.getOrDefault(space.getId(), new long[2]);
+                long[] pending = spaceQuotaManager.getPendingUsage(space.getId());
+                if (scanned[0] == nullToZero(space.getTotalSize()) + pending[0]
+                        && scanned[1] == nullToZero(space.getTotalCount()) + pending[1]) {
+                    continue;
+                }
+                if (spacePictureMigrator.isMigrating(space.getId())) {
+                    continue;
+                }
+                if (correctSpace(space.getId())) {
+                    fixed++;
+                }
+            }
+            lastId = spaceList.get(spaceList.size() - 1).getId();
+        }
+    }
+
+
+    /**
+     * 精确重算一个空间（按 spaceId 走索引，包括归档表），仍有偏差时按差值修正
+     * 重算期间持有落库锁：space 表的值不变，还没落库的变化量都在 Redis 中，两者一致；拿不到锁时跳过，下次再核对
+     * 重算前后都没有进行中的写入、且写入次数不变，图片表与变化量才是一致的，否则跳过
+     */
+    private boolean correctSpace(Long spaceId) {
+        String flushLockToken = spaceQuotaManager.tryLockFlush(FLUSH_LOCK_TTL_MILLIS, FLUSH_LOCK_WAIT_MILLIS);
+        if (flushLockToken == null) {
+            log.warn("获取空间额度落库锁失败，跳过核对, spaceId = {}", spaceId);
+            return false;
+        }
+        try {
+            long writeSequence = spaceQuotaManager.getWriteSequence(spaceId);
+            if (writeSequence < 0) {
+                log.info("空间有进行中的写入，跳过核对, spaceId = {}", spaceId);
+                return false;
+            }
+            // 1.热表中的图片
+            List<Map<String, Object>> resultList = pictureMapper.selectMaps(new QueryWrapper<Picture>()
+                    .select("SUM(picSize) AS usedSize", "COUNT(*) AS usedCount")
+                    .eq("spaceId", spaceId));
+            Map<String, Object> result = resultList.isEmpty() || resultList.get(0) == null ? Collections.emptyMap() : resultList.get(0);
+            long actualSize = result.get("usedSize") == null ? 0 : ((Number) result.get("usedSize")).longValue();
+            long actualCount = result.get("usedCount") == null ? 0 : ((Number) result.get("usedCount")).longValue();
+            // 2.归档表中未删除的图片
+            Map<String, Object> archiveResult = dynamicShardingManager.getActualJdbcTemplate().queryForMap(
+                    "SELECT SUM(picSize) AS usedSize, COUNT(*) AS usedCount FROM " + PictureArchiveManager.ARCHIVE_TABLE_NAME
+                            + " WHERE spaceId = ? AND isDelete = 0", spaceId);
+            actualSize += archiveResult.get("usedSize") == null ? 0 : ((Number) archiveResult.get("usedSize")).longValue();
+            actualCount += archiveResult.get("usedCount") == null ? 0 : ((Number) archiveResult.get("usedCount")).longValue();
+            // 3.与 space 表 + 还没落库的变化量比较
+            Space space = spaceMapper.selectById(spaceId);
+            if (space == null) {
+                return false;
+            }
+            long[] pending = spaceQuotaManager.getPendingUsage(spaceId);
+            long sizeDiff = actualSize - nullToZero(space.getTotalSize()) - pending[0];
+            long countDiff = actualCount - nullToZero(space.getTotalCount()) - pending[1];
+            if (sizeDiff == 0 && countDiff == 0) {
+                // 扫描期间的正常变化，不是偏差
+                return false;
+            }
+            if (spaceQuotaManager.getWriteSequence(spaceId) != writeSequence) {
+                log.info("重算期间空间有写入，跳过核对, spaceId = {}", spaceId);
+                return false;
+            }
+            log.info("修正空间额度偏差, spaceId = {}, sizeDiff = {}, countDiff = {}", spaceId, sizeDiff, countDiff);
+            spaceQuotaManager.correctUsage(spaceId, sizeDiff, countDiff);
+            spaceRankManager.incrementUsage(spaceId, sizeDiff, countDiff);
+            return true;
+        } finally {
+            spaceQuotaManager.unlockFlush(flushLockToken);
+        }
+    }
+
+
+    private long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,35 @@
+package com.yupi.yupicturebackend.manager.quota;
+
+import lombok.Data;
+
+/**
+ * 空间额度的预占记录
+ */
+@Data
+public class SpaceQuotaReservation {
+
+    /**
+     * 空间id
+     */
+    private final Long spaceId;
+
+    /**
+     * 预占的大小
+     */
+    private final long size;
+
+    /**
+     * 预占的数量
+     */
+    private final long count;
+
+    /**
+     * Redis 不可用时降级：没有在 Redis 中预占，提交时直接更新数据库
+     */
+    private boolean dbMode;
+
+    /**
+     * 进行中写入的标识（提交或释放时注销）
+     */
+    private String writeToken;
+}
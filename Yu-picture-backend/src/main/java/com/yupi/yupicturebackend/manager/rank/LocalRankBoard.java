@@ -0,0 +1,122 @@
+package com.yupi.yupicturebackend.manager.rank;
+
+import java.util.*;
+
+/**
+ * 本地排行榜（Redis 不可用时的降级结构）
+ * <p>
+ * 分数降序、同分按 id 升序排列的有序集合 + id 到分数的索引：更新、前 N 名都是 O(log n)；
+ * 排名按需整体计算一次后缓存（id -> 排名），之后查排名是 O(1)，排行变化时作废缓存。
+ */
+public class LocalRankBoard {
+
+    /**
+     * 按排名排序的元素：[分数, id]
+     */
+    private final TreeSet<long[]> rankSet = new TreeSet<>((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+
+    private final Map<Long, Long> scoreMap = new HashMap<>();
+
+    /**
+     * 排名缓存（id -> 排名），排行变化后为 null，下次查排名时重建
+     */
+    private Map<Long, Long> rankCache;
+
+
+    /**
+     * 增加分数，不存在时从 0 开始
+     */
+    public synchronized void increment(long id, long delta) {
+        Long oldScore = scoreMap.get(id);
+        if (oldScore != null && delta == 0) {
+            // 替换图片时数量不变，排名也不变，不作废缓存
+            return;
+        }
+        long score = oldScore == null ? delta : oldScore + delta;
+        if (oldScore != null) {
+            rankSet.remove(new long[]{oldScore, id});
+        }
+        scoreMap.put(id, score);
+        rankSet.add(new long[]{score, id});
+        rankCache = null;
+    }
+
+    /**
+     * 元素不存在时以 0 分加入
+     */
+    public synchronized void addIfAbsent(long id) {
+        if (!scoreMap.containsKey(id)) {
+            scoreMap.put(id, 0L);
+            rankSet.add(new long[]{0L, id});
+            rankCache = null;
+        }
+    }
+
+    public synchronized void remove(long id) {
+        Long oldScore = scoreMap.remove(id);
+        if (oldScore != null) {
+            rankSet.remove(new long[]{oldScore, id});
+            rankCache = null;
+        }
+    }
+
+    /**
+     * 用全量数据替换（核对时调用）
+     *
+     * @param newScoreMap id -> 分数
+     */
+    public synchronized void replaceAll(Map<Long, Long> newScoreMap) {
+        scoreMap.clear();
+        rankSet.clear();
+        newScoreMap.forEach((id, score) -> {
+            scoreMap.put(id, score);
+            rankSet.add(new long[]{score, id});
+        });
+        rankCache = null;
+    }
+
+    /**
+     * 前 N 名
+     *
+     * @return 有序的 id -> 分数
+     */
+    public synchronized LinkedHashMap<Long, Long> top(int n) {
+        LinkedHashMap<Long, Long> result = new LinkedHashMap<>();
+        Iterator<long[]> iterator = rankSet.iterator();
+        while (result.size() < n && iterator.hasNext()) {
+            long[] entry = iterator.next();
+            result.put(entry[1], entry[0]);
+        }
+        return result;
+    }
+
+    /**
+     * 排名（从 1 开始），不存在时返回 null
+     */
+    public synchronized Long rank(long id) {
+        if (!scoreMap.containsKey(id)) {
+            return null;
+        }
+        if (rankCache == null) {
+            Map<Long, Long> newRankCache = new HashMap<>(scoreMap.size() * 2);
+            long rank = 0;
+            for (long[] entry : rankSet) {
+                newRankCache.put(entry[1], ++rank);
+            }
+            rankCache = newRankCache;
+        }
+        return rankCache.get(id);
+    }
+
+    public synchronized Long score(long id) {
+        return scoreMap.get(id);
+    }
+
+    public synchronized long size() {
+        return scoreMap.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return scoreMap.isEmpty();
+    }
+}
@@ -0,0 +1,333 @@
+package com.yupi.yupicturebackend.manager.rank;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaManager;
+import com.yupi.yupicturebackend.mapper.SpaceMapper;
+import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.model.enums.SpaceRankTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空间使用排行榜
+ * <p>
+ * 1. Redis 中按排序依据各维护一个 ZSET（member 为空间id，score 为 totalSize / totalCount），
+ * 前 N 名（ZREVRANGE）和某个空间的排名（ZREVRANK）都是 O(log n)，不再每次对空间表排序；
+ * 2. 与空间额度在同一处更新（上传、删除图片后 ZINCRBY），创建空间时以 0 分加入，删除空间时移除；
+ * 3. 定时从空间表全量核对，同时重建本地排行榜；重建 Redis 排行期间持有额度落库锁，空间表的值不变，
+ * 扫描后的变化都在额度的待落库变化量中：临时 key 写入空间表的值，再在一个脚本中加上待落库的变化量并 RENAME 原子替换，
+ * 扫描期间的 ZINCRBY 不会丢失（记录待落库与 ZINCRBY 之间恰好替换的极少数情况，由下一次核对修正）；
+ * 4. Redis 不可用时降级到本地排行榜（每个节点各自维护，核对后与数据库一致）。
+ */
+@Slf4j
+@Component
+public class SpaceRankManager {
+
+    private static final String RANK_KEY_PREFIX = "yupicture:space:rank:";
+
+    /**
+     * 核对任务锁，多个节点只有一个写 Redis
+     */
+    private static final String RECONCILE_LOCK_KEY = "yupicture:space:rank:lock";
+
+    /**
+     * 核对时每次扫描的空间数
+     */
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * 核对时持有锁的时间（毫秒）
+     */
+    private static final long RECONCILE_LOCK_TTL_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * 等待正在进行的额度落库完成的时间（毫秒）
+     */
+    private static final long FLUSH_LOCK_WAIT_MILLIS = 5_000;
+
+    /**
+     * 临时 key 加上还没落库的变化量（只加已经在排行中的空间），再替换排行
+     * KEYS：临时 key、排行 key、待落库 Hash、处理中 Hash
+     */
+    private static final DefaultRedisScript<Long> APPLY_PENDING_AND_RENAME_SCRIPT = new DefaultRedisScript<>(
+            "for i = 3, 4 do\n" +
+            "  local entries = redis.call('HGETALL', KEYS[i])\n" +
+            "  for j = 1, #entries, 2 do\n" +
+            "    if redis.call('ZSCORE', KEYS[1], entries[j]) then redis.call('ZINCRBY', KEYS[1], entries[j + 1], entries[j]) end\n" +
+            "  end\n" +
+            "end\n" +
+            "redis.call('RENAME', KEYS[1], KEYS[2])\n" +
+            "return 1", Long.class);
+
+    // 引入空间Mapper，核对时扫描空间（不引入SpaceService，避免循环依赖）
+    @Resource
+    private SpaceMapper spaceMapper;
+
+    // 引入空间额度管理，重建排行时暂停落库并加上还没落库的变化量
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地排行榜（降级用），与 SpaceRankTypeEnum 一一对应
+     */
+    private final Map<SpaceRankTypeEnum, LocalRankBoard> localBoardMap = new EnumMap<>(SpaceRankTypeEnum.class);
+
+    public SpaceRankManager() {
+        for (SpaceRankTypeEnum rankType : SpaceRankTypeEnum.values()) {
+            localBoardMap.put(rankType, new LocalRankBoard());
+        }
+    }
+
+
+    /**
+     * 空间额度变化后调用（事务提交后）
+     *
+     * @param spaceId    空间id
+     * @param sizeDelta  使用大小变化量
+     * @param countDelta 图片数量变化量
+     */
+    public void incrementUsage(Long spaceId, long sizeDelta, long countDelta) {
+        if (spaceId == null) {
+            return;
+        }
+        localBoardMap.get(SpaceRankTypeEnum.SIZE).increment(spaceId, sizeDelta);
+        localBoardMap.get(SpaceRankTypeEnum.COUNT).increment(spaceId, countDelta);
+        byte[] member = String.valueOf(spaceId).getBytes(StandardCharsets.UTF_8);
+        try {
+            // 两个排行一次往返
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.zIncrBy(getRankKey(SpaceRankTypeEnum.SIZE).getBytes(StandardCharsets.UTF_8), sizeDelta, member);
+                connection.zIncrBy(getRankKey(SpaceRankTypeEnum.COUNT).getBytes(StandardCharsets.UTF_8), countDelta, member);
+                return null;
+            });
+        } catch (Exception e) {
+            // 排行不影响额度本身，偏差由定时核对修正
+            log.warn("更新空间排行失败, spaceId = {}", spaceId, e);
+        }
+    }
+
+    /**
+     * 创建空间后调用，以 0 分加入排行
+     */
+    public void addSpace(Long spaceId) {
+        if (spaceId == null) {
+            return;
+        }
+        localBoardMap.values().forEach(board -> board.addIfAbsent(spaceId));
+        try {
+            for (SpaceRankTypeEnum rankType : SpaceRankTypeEnum.values()) {
+                stringRedisTemplate.opsForZSet().addIfAbsent(getRankKey(rankType), String.valueOf(spaceId), 0);
+            }
+        } catch (Exception e) {
+            log.warn("空间加入排行失败, spaceId = {}", spaceId, e);
+        }
+    }
+
+    /**
+     * 删除空间后调用，移出排行
+     */
+    public void removeSpace(Long spaceId) {
+        if (spaceId == null) {
+            return;
+        }
+        localBoardMap.values().forEach(board -> board.remove(spaceId));
+        try {
+            for (SpaceRankTypeEnum rankType : SpaceRankTypeEnum.values()) {
+                stringRedisTemplate.opsForZSet().remove(getRankKey(rankType), String.valueOf(spaceId));
+            }
+        } catch (Exception e) {
+            log.warn("空间移出排行失败, spaceId = {}", spaceId, e);
+        }
+    }
+
+
+    /**
+     * 获取前 N 名
+     *
+     * @param rankType 排序依据
+     * @param topN     前 N 名
+     * @return 按排名排序的 空间id -> 分数
+     */
+    public LinkedHashMap<Long, Long> listTop(SpaceRankTypeEnum rankType, int topN) {
+        try {
+            Set<ZSetOperations.TypedTuple<String>> tupleSet = stringRedisTemplate.opsForZSet()
+                    .reverseRangeWithScores(getRankKey(rankType), 0, topN - 1);
+            if (tupleSet != null && !tupleSet.isEmpty()) {
+                LinkedHashMap<Long, Long> result = new LinkedHashMap<>();
+                for (ZSetOperations.TypedTuple<String> tuple : tupleSet) {
+                    result.put(Long.valueOf(Objects.requireNonNull(tuple.getValue())),
+                            tuple.getScore() == null ? 0L : tuple.getScore().longValue());
+                }
+                return result;
+            }
+            // Redis 中还没有排行（尚未核对或被清空），使用本地排行
+        } catch (Exception e) {
+            log.warn("读取 Redis 空间排行失败，降级到本地排行", e);
+        }
+        return localBoardMap.get(rankType).top(topN);
+    }
+
+    /**
+     * 获取某个空间的排名
+     *
+     * @param rankType 排序依据
+     * @param spaceId  空间id
+     * @return [排名(从 1 开始), 分数, 参与排行的空间总数]，空间不在排行中时返回 null
+     */
+    public long[] getRank(SpaceRankTypeEnum rankType, Long spaceId) {
+        String member = String.valueOf(spaceId);
+        try {
+            String rankKey = getRankKey(rankType);
+            ZSetOperations<String, String> zSetOperations = stringRedisTemplate.opsForZSet();
+            Long rank = zSetOperations.reverseRank(rankKey, member);
+            Double score = zSetOperations.score(rankKey, member);
+            Long total = zSetOperations.zCard(rankKey);
+            if (rank != null && score != null && total != null) {
+                return new long[]{rank + 1, score.longValue(), total};
+            }
+        } catch (Exception e) {
+            log.warn("读取 Redis 空间排名失败，降级到本地排行", e);
+        }
+        LocalRankBoard board = localBoardMap.get(rankType);
+        Long rank = board.rank(spaceId);
+        Long score = board.score(spaceId);
+        if (rank == null || score == null) {
+            return null;
+        }
+        return new long[]{rank, score, board.size()};
+    }
+
+
+    /**
+     * 启动后在后台核对一次，建立本地排行（Redis 中没有排行时同时建立）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initRank() {
+        CompletableFuture.runAsync(this::reconcileRank);
+    }
+
+
+    /**
+     * 定时从空间表全量核对（默认每 10 分钟）
+     */
+    @Scheduled(fixedDelayString = "${picture.space-rank.reconcile-interval-ms:600000}",
+            initialDelayString = "${picture.space-rank.reconcile-interval-ms:600000}")
+    public void reconcileRank() {
+        boolean locked = false;
+        String flushLockToken = null;
+        try {
+            long startTime = System.currentTimeMillis();
+            // 1.只有一个节点重建 Redis 排行，扫描前暂停额度落库，直到排行替换完成
+            locked = Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(RECONCILE_LOCK_KEY, "1", RECONCILE_LOCK_TTL_MILLIS, TimeUnit.MILLISECONDS));
+            if (locked) {
+                flushLockToken = spaceQuotaManager.tryLockFlush(RECONCILE_LOCK_TTL_MILLIS, FLUSH_LOCK_WAIT_MILLIS);
+                if (flushLockToken == null) {
+                    log.warn("获取空间额度落库锁失败，本次只重建本地排行");
+                }
+            }
+            // 2.按 id 游标分批扫描所有空间
+            Map<SpaceRankTypeEnum, Map<Long, Long>> scoreMaps = new EnumMap<>(SpaceRankTypeEnum.class);
+            for (SpaceRankTypeEnum rankType : SpaceRankTypeEnum.values()) {
+                scoreMaps.put(rankType, new HashMap<>());
+            }
+            long lastId = 0;
+            while (true) {
+                List<Space> spaceList = spaceMapper.selectList(new QueryWrapper<Space>()
+                        .select("id", "totalSize", "totalCount")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + SCAN_BATCH_SIZE));
+                if (spaceList.isEmpty()) {
+                    break;
+                }
+                for (Space space : spaceList) {
+                    scoreMaps.get(SpaceRankTypeEnum.SIZE).put(space.getId(), space.getTotalSize() == null ? 0L : space.getTotalSize());
+                    scoreMaps.get(SpaceRankTypeEnum.COUNT).put(space.getId(), space.getTotalCount() == null ? 0L : space.getTotalCount());
+                }
+                lastId = spaceList.get(spaceList.size() - 1).getId();
+            }
+            // 3.每个节点都重建本地排行（空间表的值 + 还没落库的变化量）
+            Map<Long, long[]> pendingMap = getAllPendingUsageQuietly();
+            scoreMaps.forEach((rankType, scoreMap) -> {
+                int index = rankType == SpaceRankTypeEnum.SIZE ? 0 : 1;
+                Map<Long, Long> localScoreMap = new HashMap<>(scoreMap);
+                pendingMap.forEach((spaceId, pending) -> localScoreMap.computeIfPresent(spaceId, (id, score) -> score + pending[index]));
+                localBoardMap.get(rankType).replaceAll(localScoreMap);
+            });
+            // 4.重建 Redis 排行：写临时 key 后在脚本中加上还没落库的变化量并 RENAME，读请求不会看到一半的数据
+            if (flushLockToken == null) {
+                return;
+            }
+            scoreMaps.forEach(this::rebuildRedisRank);
+            log.info("空间排行核对完成，共 {} 个空间，耗时 {} ms", scoreMaps.get(SpaceRankTypeEnum.SIZE).size(),
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("空间排行核对失败", e);
+        } finally {
+            spaceQuotaManager.unlockFlush(flushLockToken);
+            if (locked) {
+                stringRedisTemplate.delete(RECONCILE_LOCK_KEY);
+            }
+        }
+    }
+
+
+    private void rebuildRedisRank(SpaceRankTypeEnum rankType, Map<Long, Long> scoreMap) {
+        String rankKey = getRankKey(rankType);
+        if (scoreMap.isEmpty()) {
+            stringRedisTemplate.delete(rankKey);
+            return;
+        }
+        String tmpKey = rankKey + ":tmp";
+        stringRedisTemplate.delete(tmpKey);
+        Set<ZSetOperations.TypedTuple<String>> tupleSet = new HashSet<>();
+        for (Map.Entry<Long, Long> entry : scoreMap.entrySet()) {
+            tupleSet.add(ZSetOperations.TypedTuple.of(String.valueOf(entry.getKey()), entry.getValue().doubleValue()));
+            if (tupleSet.size() >= SCAN_BATCH_SIZE) {
+                stringRedisTemplate.opsForZSet().add(tmpKey, tupleSet);
+                tupleSet.clear();
+            }
+        }
+        if (!tupleSet.isEmpty()) {
+            stringRedisTemplate.opsForZSet().add(tmpKey, tupleSet);
+        }
+        List<String> keyList = new ArrayList<>(Arrays.asList(tmpKey, rankKey));
+        keyList.addAll(spaceQuotaManager.getPendingUsageKeys(rankType == SpaceRankTypeEnum.SIZE ? 0 : 1));
+        stringRedisTemplate.execute(APPLY_PENDING_AND_RENAME_SCRIPT, keyList);
+    }
+
+
+    /**
+     * 读取还没落库的变化量，Redis 不可用时按没有变化量处理
+     */
+    private Map<Long, long[]> getAllPendingUsageQuietly() {
+        try {
+            return spaceQuotaManager.getAllPendingUsage();
+        } catch (Exception e) {
+            log.warn("读取待落库的空间额度失败", e);
+            return Collections.emptyMap();
+        }
+    }
+
+
+    private String getRankKey(SpaceRankTypeEnum rankType) {
+        return RANK_KEY_PREFIX + rankType.getValue();
+    }
+}
@@ -1,140 +1,489 @@
 package com.yupi.yupicturebackend.manager.sharding;
 
-import com.baomidou.mybatisplus.extension.toolkit.SqlRunner;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
 import com.yupi.yupicturebackend.exception.BusinessException;
+import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.enums.SpaceLevelEnum;
 import com.yupi.yupicturebackend.model.enums.SpaceTypeEnum;
 import com.yupi.yupicturebackend.service.SpaceService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.shardingsphere.driver.jdbc.core.connection.ShardingSphereConnection;
+import org.apache.shardingsphere.driver.jdbc.core.datasource.ShardingSphereDataSource;
+import org.apache.shardingsphere.infra.datanode.DataNode;
 import org.apache.shardingsphere.infra.metadata.database.rule.ShardingSphereRuleMetaData;
 import org.apache.shardingsphere.mode.manager.ContextManager;
 import org.apache.shardingsphere.sharding.api.config.ShardingRuleConfiguration;
 import org.apache.shardingsphere.sharding.api.config.rule.ShardingTableRuleConfiguration;
 import org.apache.shardingsphere.sharding.rule.ShardingRule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
- * 动态分表管理器 （注释这个Bean，就可以关闭分库分表）
+ * 动态分表管理器
+ * <p>
+ * 1. 启动时判断数据源是否为 ShardingSphere 数据源，不是（启动类排除了 ShardingSphereAutoConfiguration）就什么都不做，不用再注释这个 Bean；
+ * 2. 旗舰版团队空间创建 / 升级时自动建表 picture_{spaceId}，并把新节点追加到 actual-data-nodes（只追加，不重建整个规则，也不 reloadDatabase）；
+ * 3. 多节点部署：建表用 CREATE TABLE IF NOT EXISTS，已注册的空间记录在 Redis 集合中，并通过 Redis 发布订阅通知其他节点注册，
+ * 定时任务再兜底同步一次，防止漏掉消息；
+ * 4. 已有图片的空间升级后，由 SpacePictureMigrator 在后台迁移数据，迁移完成后再注册分表。
  */
-//@Component
+@Component
 @Slf4j
-public class DynamicShardingManager {
+public class DynamicShardingManager implements MessageListener {
 
     // 引入数据库DB
     @Resource
     private DataSource dataSource;
 
     @Resource
+    @Lazy
     private SpaceService spaceService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 引入 Redis 消息监听容器，用于接收其他节点的建表通知
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 引入空间图片迁移器
+    @Resource
+    @Lazy
+    private SpacePictureMigrator spacePictureMigrator;
+
     private static final String LOGIC_TABLE_NAME = "picture";
 
     private static final String DATABASE_NAME = "logic_db"; // 配置文件中的数据库名称
 
+    private static final String DATA_SOURCE_NAME = "yu_picture"; // 配置文件中的真实数据源名称
+
     /**
-     *
+     * 已注册分表的空间id集合（所有节点共享）
+     */
+    private static final String REGISTERED_SPACE_KEY = "yupicture:sharding:picture:spaces";
+
+    /**
+     * 新分表注册通知的频道，消息内容为 spaceId
      */
-    @PostConstruct // 目的是？
+    private static final String TABLE_CREATED_CHANNEL = "yupicture:sharding:picture:created";
+
+    /**
+     * 写入栅栏：迁移最后阶段暂停该空间的写入，key 后面拼接 spaceId
+     */
+    private static final String WRITE_FENCE_KEY_PREFIX = "yupicture:sharding:picture:fence:";
+
+    /**
+     * 写请求在栅栏的最长持续时间之外多等的时间（栅栏过期和轮询间隔的误差）
+     */
+    private static final long WRITE_FENCE_WAIT_MARGIN_MILLIS = 500;
+
+    /**
+     * 写入栅栏的最长持续时间（毫秒），也是写请求遇到栅栏时最多等待的时间：
+     * 栅栏一定会在写请求放弃之前过期，迁移的切换阶段超过该时间就放弃本次切换
+     */
+    @Value("${picture.sharding.write-fence-ms:5000}")
+    private long writeFenceMillis;
+
+    /**
+     * 当前数据源是否开启了分库分表
+     */
+    private volatile boolean enabled;
+
+    /**
+     * 本节点已经注册到分片规则中的空间id
+     */
+    private final Set<Long> registeredSpaceIds = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * 启动时把已有的分表一次性注册进分片规则
+     */
+    @PostConstruct
     public void initialize() {
+        try {
+            enabled = dataSource.isWrapperFor(ShardingSphereDataSource.class);
+        } catch (SQLException e) {
+            enabled = false;
+        }
+        if (!enabled) {
+            log.info("未启用 ShardingSphere 数据源，跳过动态分表初始化");
+            return;
+        }
         log.info("初始化动态分表配置...");
-        updateShardingTableNodes();
+        // 1.配置文件中已经写死的分表，视为已注册
+        registeredSpaceIds.addAll(parseSpaceIds(getPictureTableRuleConfig().getActualDataNodes()));
+        // 2.数据库中实际存在分表的旗舰版团队空间
+        Set<Long> spaceIdSet = new HashSet<>();
+        for (Long spaceId : fetchShardingSpaceIds()) {
+            if (spacePictureMigrator.isMigrating(spaceId)) {
+                // 迁移还没完成，分表中的数据不全，等迁移完成后再注册
+                continue;
+            }
+            if (tableExists(spaceId)) {
+                spaceIdSet.add(spaceId);
+            } else {
+                log.warn("旗舰版团队空间 {} 没有对应的分表，图片仍保存在逻辑表中", spaceId);
+            }
+        }
+        // 3.其他节点已注册的分表
+        spaceIdSet.addAll(fetchRegisteredSpaceIds());
+        registerSpaceTables(spaceIdSet);
+        // 4.订阅其他节点的建表通知
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(TABLE_CREATED_CHANNEL));
     }
 
+
     /**
-     * 获取所有动态表名，包括初始表 picture 和 分表 picture_{spaceId}
+     * 获取需要分表的空间id：旗舰版团队空间
      *
      * @return
      */
-    private Set<String> fetchAllPictureTableNames() {
-        // 1.为了测试方便，直接对所有团队空间分表（实际上线改为仅对旗舰版生效）
-        // 1.1 首先拿到空间类型为TEAM的spaceId集合
-        Set<Long> spaceIds = spaceService.lambdaQuery()
-                // 条件1：选择空间类型为TEAM的团队空间
+    private Set<Long> fetchShardingSpaceIds() {
+        return spaceService.lambdaQuery()
+                .select(Space::getId)
                 .eq(Space::getSpaceType, SpaceTypeEnum.TEAM.getValue())
+                .eq(Space::getSpaceLevel, SpaceLevelEnum.FLAGSHIP.getValue())
                 .list()
                 .stream()
-                // 根据Id查到对应的space
                 .map(Space::getId)
                 .collect(Collectors.toSet());
+    }
 
-        // 1.2 然后根据拿到的spaceId集合，转换成对应的表名称
-        Set<String> tableNames = spaceIds.stream()
-                // 转化：对spaceId 转为 LOGIC_TABLE_NAME_spaceId，且LOGIC_TABLE_NAME常量是 picture ==> picture_spaceId
-                .map(spaceId -> LOGIC_TABLE_NAME + "_" + spaceId)
-                .collect(Collectors.toSet());
 
-        // 2.还要把逻辑表本身添加到tableNames中
-        tableNames.add(LOGIC_TABLE_NAME);
-        return tableNames;
+    /**
+     * 空间是否需要分表
+     */
+    private boolean needSharding(Space space) {
+        return space != null
+                && space.getSpaceType() != null && space.getSpaceType() == SpaceTypeEnum.TEAM.getValue()
+                && space.getSpaceLevel() != null && space.getSpaceLevel() == SpaceLevelEnum.FLAGSHIP.getValue();
+    }
+
+
+    /**
+     * 动态创建分表：创建和 picture 表结构一样的分表，并注册为分片节点
+     * 注意：DDL 会隐式提交事务，必须在创建空间的事务提交之后再调用
+     *
+     * @param space 新创建或刚升级的空间
+     */
+    public void createSpacePictureTable(Space space) {
+        // 仅为旗舰版团队空间创建分表
+        if (!enabled || !needSharding(space)) {
+            return;
+        }
+        Long spaceId = space.getId();
+        if (registeredSpaceIds.contains(spaceId)) {
+            return;
+        }
+        try {
+            // 1.建表：IF NOT EXISTS 保证多个节点同时执行也没问题
+            // DDL 直接在真实数据源上执行，避免被 ShardingSphere 当作逻辑表广播到所有分表
+            String tableName = LOGIC_TABLE_NAME + "_" + spaceId;
+            String createTableSql = "CREATE TABLE IF NOT EXISTS " + tableName + " LIKE " + LOGIC_TABLE_NAME;
+            getActualJdbcTemplate().execute(createTableSql);
+            // 2.升级前已经有图片的空间，图片都在哈希分表里，直接切换会“丢”图片，先在后台迁移数据，迁移完成后再注册
+            if (space.getTotalCount() != null && space.getTotalCount() > 0) {
+                spacePictureMigrator.migrateAsync(spaceId);
+                return;
+            }
+            // 3.本节点注册，记录到 Redis 并通知其他节点
+            registerMigratedSpace(spaceId);
+        } catch (Exception e) {
+            log.error("创建图片空间分表失败，空间id = {}", spaceId, e);
+        }
+    }
+
+
+    /**
+     * 分表数据已就绪：记录到 Redis，本节点注册并通知其他节点
+     * 先写 Redis：写入 Redis 即视为切换完成，没收到通知的节点在写入前（beforeSpaceWrite）和定时任务中都会按 Redis 补注册
+     *
+     * @param spaceId 空间id
+     */
+    public void registerMigratedSpace(Long spaceId) {
+        stringRedisTemplate.opsForSet().add(REGISTERED_SPACE_KEY, String.valueOf(spaceId));
+        registerSpaceTables(Collections.singleton(spaceId));
+        stringRedisTemplate.convertAndSend(TABLE_CREATED_CHANNEL, String.valueOf(spaceId));
+    }
+
+
+    /**
+     * 空间的分表是否已经切换完成（以 Redis 中的注册记录为准，不是只看本节点）
+     *
+     * @param spaceId 空间id
+     * @return
+     */
+    public boolean isSpaceRegistered(Long spaceId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(REGISTERED_SPACE_KEY, String.valueOf(spaceId)));
+    }
+
+
+    /**
+     * 写入空间图片前调用：
+     * 1. 空间正在切换分表（迁移的最后阶段）时等待，栅栏最多持续 writeFenceMillis，超过时提示稍后重试（正常不会发生）；
+     * 2. 本节点如果漏掉了其他节点的建表通知，这里同步注册一次，保证写入正确的分表。
+     *
+     * @param spaceId 空间id，为空表示公共图库
+     */
+    public void beforeSpaceWrite(Long spaceId) {
+        if (!enabled || spaceId == null) {
+            return;
+        }
+        String spaceIdStr = String.valueOf(spaceId);
+        try {
+            long deadline = System.currentTimeMillis() + writeFenceMillis + WRITE_FENCE_WAIT_MARGIN_MILLIS;
+            while (Boolean.TRUE.equals(stringRedisTemplate.hasKey(WRITE_FENCE_KEY_PREFIX + spaceIdStr))) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间数据迁移中，请稍后重试");
+                }
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            if (!registeredSpaceIds.contains(spaceId)
+                    && Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(REGISTERED_SPACE_KEY, spaceIdStr))) {
+                registerSpaceTables(Collections.singleton(spaceId));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR);
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("同步空间分表注册状态失败，空间id = {}", spaceId, e);
+        }
+    }
+
+
+    /**
+     * 打开写入栅栏：该空间的新写入会等待，直到栅栏关闭或过期
+     * 过期时间就是写请求的最长等待时间，迁移节点宕机、切换太慢时写请求也不会因为栅栏失败
+     *
+     * @param spaceId 空间id
+     */
+    public void openWriteFence(Long spaceId) {
+        stringRedisTemplate.opsForValue().set(WRITE_FENCE_KEY_PREFIX + spaceId, "1", writeFenceMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * 写入栅栏的剩余时间（毫秒），栅栏不存在时返回 0
+     *
+     * @param spaceId 空间id
+     * @return
+     */
+    public long getWriteFenceRemainingMillis(Long spaceId) {
+        Long expire = stringRedisTemplate.getExpire(WRITE_FENCE_KEY_PREFIX + spaceId, TimeUnit.MILLISECONDS);
+        return expire == null || expire < 0 ? 0 : expire;
+    }
+
+
+    public void closeWriteFence(Long spaceId) {
+        stringRedisTemplate.delete(WRITE_FENCE_KEY_PREFIX + spaceId);
+    }
+
+
+    /**
+     * 收到其他节点的建表通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (!NumberUtil.isLong(body)) {
+            return;
+        }
+        registerSpaceTables(Collections.singleton(Long.parseLong(body)));
     }
 
 
     /**
-     * 【样板代码】首次加载动态分表需要：更新ShardingSphere的 actual-data-nodes 动态表名配置
+     * 兜底：定时和 Redis 中的注册记录对齐，防止发布订阅消息丢失
      */
-    private void updateShardingTableNodes() {
-        // 1.调用方法，获取表名tableNames
-        Set<String> tableNames = fetchAllPictureTableNames();
-        // 生成前缀配置
-        String newActualDataNodes = tableNames.stream()
-                // 把所有的tableName 转换为 yu_picture.tableName
-                .map(tableName -> "yu_picture." + tableName)
+    @Scheduled(fixedDelayString = "${picture.sharding.sync-interval-ms:60000}")
+    public void syncRegisteredSpaceTables() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            registerSpaceTables(fetchRegisteredSpaceIds());
+        } catch (Exception e) {
+            log.error("同步分表注册记录失败", e);
+        }
+    }
+
+
+    private Set<Long> fetchRegisteredSpaceIds() {
+        Set<String> members = stringRedisTemplate.opsForSet().members(REGISTERED_SPACE_KEY);
+        if (CollUtil.isEmpty(members)) {
+            return Collections.emptySet();
+        }
+        return members.stream()
+                .filter(NumberUtil::isLong)
+                .map(Long::parseLong)
+                .collect(Collectors.toSet());
+    }
+
+
+    /**
+     * 把分表追加到 picture 的 actual-data-nodes：只处理本节点还没注册的空间，多个空间合并成一次规则变更
+     *
+     * @param spaceIds 空间id
+     */
+    private synchronized void registerSpaceTables(Collection<Long> spaceIds) {
+        List<Long> newSpaceIds = spaceIds.stream()
+                .filter(spaceId -> !registeredSpaceIds.contains(spaceId))
+                .sorted()
+                .collect(Collectors.toList());
+        if (newSpaceIds.isEmpty()) {
+            return;
+        }
+        // 1.在原有节点后面追加新节点
+        ShardingTableRuleConfiguration oldTableRule = getPictureTableRuleConfig();
+        String appendNodes = newSpaceIds.stream()
+                .map(spaceId -> DATA_SOURCE_NAME + "." + LOGIC_TABLE_NAME + "_" + spaceId)
                 .collect(Collectors.joining(","));
-        log.info("动态分表 actual-data-nodes 配置：{}", newActualDataNodes);
+        String newActualDataNodes = oldTableRule.getActualDataNodes() + "," + appendNodes;
+        ShardingTableRuleConfiguration newTableRule = new ShardingTableRuleConfiguration(LOGIC_TABLE_NAME, newActualDataNodes);
+        newTableRule.setDatabaseShardingStrategy(oldTableRule.getDatabaseShardingStrategy());
+        newTableRule.setTableShardingStrategy(oldTableRule.getTableShardingStrategy());
+        newTableRule.setKeyGenerateStrategy(oldTableRule.getKeyGenerateStrategy());
+        newTableRule.setAuditStrategy(oldTableRule.getAuditStrategy());
+
+        // 2.只替换 picture 这一条分表规则，其他规则保持不变
+        ShardingRuleConfiguration ruleConfig = getShardingRuleConfig();
+        List<ShardingTableRuleConfiguration> updateRules = ruleConfig.getTables().stream()
+                .map(tableRule -> LOGIC_TABLE_NAME.equals(tableRule.getLogicTable()) ? newTableRule : tableRule)
+                .collect(Collectors.toList());
+        ruleConfig.setTables(updateRules);
+        // 分表结构和逻辑表完全一样，不需要 reloadDatabase 重新加载全部表的元数据
+        getContextManager().alterRuleConfiguration(DATABASE_NAME, Collections.singleton(ruleConfig));
+        registeredSpaceIds.addAll(newSpaceIds);
+        log.info("动态分表新增节点：{}", appendNodes);
+    }
+
+
+    /**
+     * 从 actual-data-nodes 中解析出已有分表的空间id
+     */
+    private Set<Long> parseSpaceIds(String actualDataNodes) {
+        String prefix = LOGIC_TABLE_NAME + "_";
+        return StrUtil.split(actualDataNodes, ',', true, true).stream()
+                .map(node -> StrUtil.subAfter(node, ".", true))
+                .filter(tableName -> tableName.startsWith(prefix))
+                .map(tableName -> tableName.substring(prefix.length()))
+                .filter(NumberUtil::isLong)
+                .map(Long::parseLong)
+                .collect(Collectors.toSet());
+    }
+
+
+    /**
+     * 当前配置的所有哈希分表名（picture_h0 ~ picture_h{N-1}）
+     *
+     * @return
+     */
+    public List<String> getHashTableNames() {
+        return getActualTableNames().stream()
+                .filter(tableName -> tableName.startsWith(PictureShardingAlgorithm.HASH_TABLE_PREFIX))
+                .collect(Collectors.toList());
+    }
 
-        // 2.调用方法ContextManager获取ShardingSphere的上下文
-        ContextManager contextManager = getContextManager();
+
+    /**
+     * 存放图片的所有物理表：开启分表时为逻辑表（建表模板，迁移前可能还有数据） + 哈希分表 + 空间分表，否则只有 picture
+     *
+     * @return
+     */
+    public List<String> getPictureTableNames() {
+        if (!enabled) {
+            return Collections.singletonList(LOGIC_TABLE_NAME);
+        }
+        return getActualTableNames();
+    }
+
+
+    /**
+     * picture 规则中的所有物理表（行表达式已展开）
+     */
+    private List<String> getActualTableNames() {
+        ShardingRule shardingRule = getContextManager().getMetaDataContexts()
+                .getMetaData()
+                .getDatabases()
+                .get(DATABASE_NAME)
+                .getRuleMetaData()
+                .findSingleRule(ShardingRule.class)
+                .orElseThrow(() -> new IllegalStateException("未找到ShardingSphere的分片规则配置"));
+        return shardingRule.getTableRule(LOGIC_TABLE_NAME).getActualDataNodes().stream()
+                .map(DataNode::getTableName)
+                .collect(Collectors.toList());
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * 分表在真实数据库中是否存在
+     */
+    private boolean tableExists(Long spaceId) {
+        Integer count = getActualJdbcTemplate().queryForObject(
+                "SELECT COUNT(*) FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?",
+                Integer.class, LOGIC_TABLE_NAME + "_" + spaceId);
+        return count != null && count > 0;
+    }
+
+
+    private ShardingRuleConfiguration getShardingRuleConfig() {
         // 然后就是找配置类的内容,即yml文件中ShardingSphere的配置逐级往下找，直到找到rule规则配置
-        ShardingSphereRuleMetaData ruleMetaData = contextManager.getMetaDataContexts()
+        ShardingSphereRuleMetaData ruleMetaData = getContextManager().getMetaDataContexts()
                 .getMetaData()
                 .getDatabases()
                 .get(DATABASE_NAME)
                 .getRuleMetaData();
+        ShardingRule shardingRule = ruleMetaData.findSingleRule(ShardingRule.class)
+                .orElseThrow(() -> new IllegalStateException("未找到ShardingSphere的分片规则配置"));
+        return (ShardingRuleConfiguration) shardingRule.getConfiguration();
+    }
+
 
-        // 3.根据规则配置找到其中的一条规则
-        Optional<ShardingRule> shardingRule = ruleMetaData.findSingleRule(ShardingRule.class);
-        if (shardingRule.isPresent()) {
-            // 拿到该条规则的配置
-            ShardingRuleConfiguration ruleConfig = (ShardingRuleConfiguration) shardingRule.get().getConfiguration();
-            // 从该条规则配置中拿到分表配置，需要遍历所有的分表规则
-            List<ShardingTableRuleConfiguration> updateRules = ruleConfig.getTables().stream()
-                    // 遍历匹配需要的分表规则
-                    .map(oldTableRule -> {
-                        if (LOGIC_TABLE_NAME.equals(oldTableRule.getLogicTable())) {
-                            // 新建一条配置 参数一定是newActualDataNodes，表示新的
-                            ShardingTableRuleConfiguration newTableRuleConfig = new ShardingTableRuleConfiguration(LOGIC_TABLE_NAME, newActualDataNodes);
-                            // 然后把原来的配置修改为现在的配置 allset，返回
-                            newTableRuleConfig.setDatabaseShardingStrategy(oldTableRule.getDatabaseShardingStrategy());
-                            newTableRuleConfig.setTableShardingStrategy(oldTableRule.getTableShardingStrategy());
-                            newTableRuleConfig.setKeyGenerateStrategy(oldTableRule.getKeyGenerateStrategy());
-                            newTableRuleConfig.setAuditStrategy(oldTableRule.getAuditStrategy());
-                            return newTableRuleConfig;
-                        }
-                        return oldTableRule;
-                    })
-                    .collect(Collectors.toList());
-
-            // 4.把规则设置进表中
-            ruleConfig.setTables(updateRules);
-            contextManager.alterRuleConfiguration(DATABASE_NAME, Collections.singleton(ruleConfig));
-            // 重载数据库
-            contextManager.reloadDatabase(DATABASE_NAME);
-            log.info("动态分表规则更新成功！");
-        } else {
-            log.error("未找到ShardingSphere的分片规则配置，动态分表更新失败。");
+    private ShardingTableRuleConfiguration getPictureTableRuleConfig() {
+        return getShardingRuleConfig().getTables().stream()
+                .filter(tableRule -> LOGIC_TABLE_NAME.equals(tableRule.getLogicTable()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("未找到 picture 表的分表规则"));
+    }
+
+
+    /**
+     * 获取真实数据源的 JdbcTemplate（不经过 ShardingSphere 路由，直接操作物理表）
+     * 没有开启分表时就是当前数据源
+     */
+    public JdbcTemplate getActualJdbcTemplate() {
+        if (!enabled) {
+            return new JdbcTemplate(dataSource);
         }
+        return new JdbcTemplate(getContextManager().getDataSourceMap(DATABASE_NAME).get(DATA_SOURCE_NAME));
     }
 
 
@@ -151,32 +500,4 @@ public class DynamicShardingManager {
             throw new RuntimeException("获取 ShardingSphere ContextManager 失败", e);
         }
     }
-
-
-    /**
-     * 动态创建分表：通过拼接sql的方式创建出和picture表结构一样的分表，创建显得分表后记得更新分表节点
-     * @param space
-     */
-    public void createSpacePictureTable(Space space) {
-        // 动态创建分表
-        // 仅为旗舰版团队空间创建分表
-        if (space.getSpaceType() == SpaceTypeEnum.TEAM.getValue() && space.getSpaceLevel() == SpaceLevelEnum.FLAGSHIP.getValue()) {
-            // 条件为 先判断空间类型 => TEAM ，然后是空间等级 ==> FLAGSHIP
-            // 1.先拿到spaceId
-            Long spaceId = space.getId();
-            // 2.然后拿到表名：逻辑表名_spaceId
-            String tableName = LOGIC_TABLE_NAME + "_" + spaceId;
-            // 3.创建新表：动态拼接sql
-                // 【易错点】CREATE TABLE后要加空格，LIKE前后都要加空格！
-            String createTableSql = "CREATE TABLE " + tableName + " LIKE " + LOGIC_TABLE_NAME;
-            try {
-                // MyBatis-Plus提供的SqlRunner 动态表执行器
-                SqlRunner.db().update(createTableSql);
-                // 更新分表
-                updateShardingTableNodes();
-            } catch (Exception e) {
-                log.error("创建图片空间分表失败，空间id = {}", space.getId());
-            }
-        }
-    }
 }
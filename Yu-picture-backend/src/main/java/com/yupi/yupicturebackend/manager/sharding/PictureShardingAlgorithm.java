@@ -1,58 +1,211 @@
 package com.yupi.yupicturebackend.manager.sharding;
 
-import org.apache.shardingsphere.sharding.api.sharding.standard.PreciseShardingValue;
-import org.apache.shardingsphere.sharding.api.sharding.standard.RangeShardingValue;
-import org.apache.shardingsphere.sharding.api.sharding.standard.StandardShardingAlgorithm;
+import cn.hutool.core.util.NumberUtil;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingAlgorithm;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 /**
- * picture的分表算法实现类
+ * picture的分表算法实现类（复合分片：spaceId + id）
+ * <p>
+ * 1. 旗舰版团队空间：写入各自的分表 picture_{spaceId}；
+ * 2. 其他图片（公共图库、私有空间、非旗舰版团队空间）：按 CRC32(id) % N 分散到 picture_h0 ~ picture_h{N-1}，
+ * 与 MySQL 的 CRC32(id) % N 结果一致，方便用 SQL 迁移历史数据；
+ * 3. 逻辑表 picture 本身只作为建表模板（CREATE TABLE ... LIKE picture），开启分表后不再存数据。
+ * <p>
+ * 路由规则：IN 列表按每个值分别路由后取并集；spaceId 的范围条件只保留范围内的空间分表（外加哈希分表）；
+ * id 的范围条件无法裁剪哈希分表。没有分片条件的查询（包括 spaceId IS NULL）由 ShardingSphere 全路由，
+ * 多张表的结果由 ShardingSphere 并行执行；路由到的表数不超过 max-connections-size-per-query 时流式归并，
+ * 超过时退化为内存归并，所以该配置要不小于哈希分表数 + 空间分表数（见配置 max-connections-size-per-query、kernel-executor-size）。
+ * <p>
+ * 不按创建月份分表：getById、删除、修改都只有 id 条件，按 id 哈希才能精确路由到一张表。
  */
-public class PictureShardingAlgorithm implements StandardShardingAlgorithm<Long> {
+public class PictureShardingAlgorithm implements ComplexKeysShardingAlgorithm<Comparable<?>> {
+
+    /**
+     * 哈希分表的前缀
+     */
+    public static final String HASH_TABLE_PREFIX = "picture_h";
+
+    private static final String SPACE_ID_COLUMN = "spaceId";
+
+    private static final String ID_COLUMN = "id";
+
+    /**
+     * 哈希分表的数量（配置项 hash-table-count）
+     */
+    private int hashTableCount = 8;
+
+    private Properties props = new Properties();
+
 
     @Override
-    public String doSharding(Collection<String> availableTargetNames, PreciseShardingValue<Long> preciseShardingValue) {
-        // 实际的分表值 就是 spaceId
-        Long spaceId = preciseShardingValue.getValue();
-        // 同时拿到逻辑表
-        String logicTableName = preciseShardingValue.getLogicTableName();
-        // spaceId为null表示 查询所有图片
-        if (spaceId == null) {
-            return logicTableName; // 直接返回逻辑表，让ShardingSphere查全表
+    public Collection<String> doSharding(Collection<String> availableTargetNames, ComplexKeysShardingValue<Comparable<?>> shardingValue) {
+        String logicTableName = shardingValue.getLogicTableName();
+        Collection<Comparable<?>> spaceIds = getShardingValues(shardingValue, SPACE_ID_COLUMN);
+        Collection<Comparable<?>> ids = getShardingValues(shardingValue, ID_COLUMN);
+        Range<Comparable<?>> spaceIdRange = getRangeValue(shardingValue, SPACE_ID_COLUMN);
+        Set<String> result = new LinkedHashSet<>();
+
+        // 1.没有 spaceId 的精确条件：图片可能在哈希分表，也可能在任意一张（spaceId 范围内的）空间分表
+        if (spaceIds == null) {
+            if (ids != null) {
+                // getById、按id修改/删除、按id批量查询：每个id只可能在一张哈希分表
+                ids.forEach(id -> result.add(getHashTableName(id)));
+            } else {
+                // 只有范围条件（如按id游标扫描），哈希分表无法裁剪
+                addAllHashTables(result);
+            }
+            availableTargetNames.stream()
+                    .filter(tableName -> isSpaceTable(tableName, logicTableName))
+                    .filter(tableName -> spaceIdRange == null || inRange(spaceIdRange, getSpaceId(tableName, logicTableName)))
+                    .forEach(result::add);
+            return filterAvailable(availableTargetNames, result);
+        }
+
+        // 2.有 spaceId 条件（插入时 spaceId 一定有值，公共图库为 null）
+        boolean needHashTables = false;
+        for (Comparable<?> spaceId : spaceIds) {
+            String spaceTableName = spaceId == null ? null : logicTableName + "_" + spaceId;
+            if (spaceTableName != null && availableTargetNames.contains(spaceTableName)) {
+                // 旗舰版团队空间的分表
+                result.add(spaceTableName);
+            } else {
+                needHashTables = true;
+            }
         }
-        // 根据spaceId动态生成分表名
-        String realTableName = "picture_" + spaceId;
-        if (availableTargetNames.contains(realTableName)) {
-            // 如果真实的表明在支持的表名里面，就查真实的单张表
-            return realTableName;
-        } else {
-            return logicTableName;
+        if (needHashTables) {
+            if (ids != null) {
+                // 有 id：精确到一张哈希分表（插入必然走这里）
+                ids.forEach(id -> result.add(getHashTableName(id)));
+            } else {
+                // 没有 id：分散查询所有哈希分表，再由 ShardingSphere 归并
+                addAllHashTables(result);
+            }
         }
+        return filterAvailable(availableTargetNames, result);
     }
 
 
-    @Override
-    public Collection<String> doSharding(Collection<String> availableTargetNames, RangeShardingValue<Long> rangeShardingValue) {
-        // 范围查询时（如 spaceId IS NULL 或 spaceId IN (...)）
-        // 只返回逻辑表，避免查询所有分表
-        String logicTableName = rangeShardingValue.getLogicTableName();
-        // 只返回逻辑表，让 ShardingSphere 只查询主表
-        List<String> result = new ArrayList<>();
-        result.add(logicTableName);
-        return result;
+    /**
+     * 获取图片id对应的哈希分表名
+     *
+     * @param id 图片id
+     * @return
+     */
+    public String getHashTableName(Object id) {
+        return HASH_TABLE_PREFIX + getHashTableIndex(Long.parseLong(String.valueOf(id)), hashTableCount);
+    }
+
+
+    /**
+     * 计算哈希分表的下标：CRC32(id 的十进制字符串) % N，与 MySQL 的 CRC32(id) % N 一致
+     * 不直接用 id % N：雪花id低位是序列号，低并发时几乎都是 1、2，会严重倾斜
+     *
+     * @param id             图片id
+     * @param hashTableCount 哈希分表数量
+     * @return
+     */
+    public static int getHashTableIndex(long id, int hashTableCount) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(String.valueOf(id).getBytes(StandardCharsets.US_ASCII));
+        return (int) (crc32.getValue() % hashTableCount);
+    }
+
+
+    private void addAllHashTables(Set<String> result) {
+        for (int i = 0; i < hashTableCount; i++) {
+            result.add(HASH_TABLE_PREFIX + i);
+        }
+    }
+
+
+    /**
+     * 空间id是否在范围条件内（SQL 中的字面量可能是 Integer，参数是 Long，统一按 long 比较）
+     */
+    private boolean inRange(Range<Comparable<?>> range, long spaceId) {
+        if (range.hasLowerBound()) {
+            long lower = ((Number) range.lowerEndpoint()).longValue();
+            if (spaceId < lower || (spaceId == lower && range.lowerBoundType() == BoundType.OPEN)) {
+                return false;
+            }
+        }
+        if (range.hasUpperBound()) {
+            long upper = ((Number) range.upperEndpoint()).longValue();
+            if (spaceId > upper || (spaceId == upper && range.upperBoundType() == BoundType.OPEN)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private long getSpaceId(String spaceTableName, String logicTableName) {
+        return Long.parseLong(spaceTableName.substring(logicTableName.length() + 1));
+    }
+
+
+    /**
+     * 是否为空间分表 picture_{spaceId}
+     */
+    private boolean isSpaceTable(String tableName, String logicTableName) {
+        String prefix = logicTableName + "_";
+        return tableName.startsWith(prefix) && NumberUtil.isLong(tableName.substring(prefix.length()));
+    }
+
+
+    /**
+     * 获取某个分片列的精确值，没有该列的条件时返回 null
+     */
+    private Collection<Comparable<?>> getShardingValues(ComplexKeysShardingValue<Comparable<?>> shardingValue, String columnName) {
+        for (Map.Entry<String, Collection<Comparable<?>>> entry : shardingValue.getColumnNameAndShardingValuesMap().entrySet()) {
+            if (columnName.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * 获取某个分片列的范围条件，没有时返回 null
+     */
+    private Range<Comparable<?>> getRangeValue(ComplexKeysShardingValue<Comparable<?>> shardingValue, String columnName) {
+        for (Map.Entry<String, Range<Comparable<?>>> entry : shardingValue.getColumnNameAndRangeValuesMap().entrySet()) {
+            if (columnName.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * 只返回实际配置了的表，防止路由到不存在的表
+     */
+    private Collection<String> filterAvailable(Collection<String> availableTargetNames, Set<String> tableNames) {
+        return tableNames.stream()
+                .filter(availableTargetNames::contains)
+                .collect(Collectors.toList());
     }
 
     @Override
     public Properties getProps() {
-        return null;
+        return props;
     }
 
     @Override
     public void init(Properties properties) {
-
+        this.props = properties;
+        String count = properties.getProperty("hash-table-count");
+        if (count != null) {
+            hashTableCount = Integer.parseInt(count.trim());
+        }
     }
 }
@@ -0,0 +1,350 @@
+package com.yupi.yupicturebackend.manager.sharding;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.NumberUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 空间图片在线迁移器：空间升级为旗舰版后，把它已有的图片从哈希分表搬到专属分表 picture_{spaceId}
+ * <p>
+ * 1. 全量复制：按 id 游标分批 REPLACE INTO 目标表，批次之间休眠，避免影响前台请求；
+ * 2. 增量追平：复制期间的新写入仍然进入哈希分表，按 updateTime（逻辑删除也会更新它）反复补齐变化的行；
+ * 3. 切换：打开写入栅栏（该空间的写入短暂等待），最后追平一次，核对行数和校验和，注册分表并通知所有节点，关闭栅栏；
+ * 栅栏的持续时间有上限，切换阶段超时（栅栏快过期了）就放弃本次切换，源表数据不受影响，稍后重试；
+ * 4. 清理：注册之后再删除源表中该空间的数据，任何时候宕机图片都不会“消失”（注册前读源表，注册后读分表）；
+ * 5. 是否已切换以 Redis 中的分表注册记录为准，节点宕机后由其他节点（或重启后）继续执行，每一步都可以重复执行；
+ * 6. 迁移在专用的线程池中执行（批次之间会休眠），不占用公共线程池。
+ */
+@Slf4j
+@Component
+public class SpacePictureMigrator {
+
+    /**
+     * 正在迁移的空间id集合
+     */
+    private static final String MIGRATING_SPACE_KEY = "yupicture:sharding:migrate:spaces";
+
+    /**
+     * 迁移锁，同一个空间同一时间只允许一个节点迁移，key 后面拼接 spaceId
+     */
+    private static final String LOCK_KEY_PREFIX = "yupicture:sharding:migrate:lock:";
+
+    /**
+     * 迁移锁的过期时间（分钟），迁移过程中不断续期，节点宕机后其他节点最多等这么久就能接手
+     */
+    private static final long LOCK_TTL_MINUTES = 5;
+
+    /**
+     * 注册分表前，写入栅栏至少还要剩余的时间（毫秒），保证注册完成之前栅栏不会过期
+     */
+    private static final long FENCE_REMAINING_MIN_MILLIS = 1000;
+
+    /**
+     * 参与校验和的列：id + 所有业务列，任何一列不一致都会导致校验失败
+     * 每列用 QUOTE 包装：NULL 变成 NULL 字面量（CONCAT_WS 会直接跳过 NULL，列错位也能算出相同的值），
+     * 其他值加引号并转义，分隔符出现在值中也不会混淆
+     */
+    private static final String CHECKSUM_COLUMNS = quoteColumns("id", "url", "name", "introduction", "category", "tags", "tagIds",
+            "picSize", "picWidth", "picHeight", "picScale", "picFormat", "picColor", "userId", "spaceId", "reviewStatus",
+            "reviewMessage", "reviewId", "reviewTime", "editTime", "updateTime", "isDelete");
+
+    /**
+     * 增量追平时，变化的行数少于该值就进入切换阶段
+     */
+    private static final int CATCH_UP_THRESHOLD = 100;
+
+    /**
+     * 增量追平的最多轮数，写入一直很频繁时也要进入切换阶段（切换阶段有栅栏，一定能追平）
+     */
+    private static final int MAX_CATCH_UP_ROUNDS = 10;
+
+    // 引入动态分表管理器
+    @Resource
+    private DynamicShardingManager dynamicShardingManager;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每批复制的行数
+     */
+    @Value("${picture.sharding.migrate.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 每批之间的休眠时间（毫秒），用于限速
+     */
+    @Value("${picture.sharding.migrate.batch-interval-ms:50}")
+    private long batchIntervalMillis;
+
+    /**
+     * 打开写入栅栏后，等待已经开始的写请求完成的时间（毫秒）
+     */
+    @Value("${picture.sharding.migrate.fence-grace-ms:1000}")
+    private long fenceGraceMillis;
+
+    /**
+     * 迁移专用线程池：迁移是长时间运行、批次之间休眠的任务，同一时间最多迁移两个空间
+     */
+    private ExecutorService migrateExecutor;
+
+
+    @PostConstruct
+    public void init() {
+        migrateExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                ThreadFactoryBuilder.create()
+                        .setNamePrefix("spacePictureMigrate-")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 迁移的每一步都可以重复执行，直接中断即可，重启后继续
+        migrateExecutor.shutdownNow();
+    }
+
+
+    /**
+     * 空间是否处于迁移中
+     *
+     * @param spaceId 空间id
+     * @return
+     */
+    public boolean isMigrating(Long spaceId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(MIGRATING_SPACE_KEY, String.valueOf(spaceId)));
+    }
+
+
+    /**
+     * 在后台迁移空间的图片（目标表需要已经创建）
+     *
+     * @param spaceId 空间id
+     */
+    public void migrateAsync(Long spaceId) {
+        stringRedisTemplate.opsForSet().add(MIGRATING_SPACE_KEY, String.valueOf(spaceId));
+        migrateExecutor.execute(() -> migrate(spaceId));
+    }
+
+
+    /**
+     * 启动后继续执行没有完成的迁移，之后定时重试（校验失败、节点宕机等）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${picture.sharding.migrate.retry-interval-ms:600000}",
+            fixedDelayString = "${picture.sharding.migrate.retry-interval-ms:600000}")
+    public void resumeMigrations() {
+        if (!dynamicShardingManager.isEnabled()) {
+            return;
+        }
+        Set<String> spaceIds = stringRedisTemplate.opsForSet().members(MIGRATING_SPACE_KEY);
+        if (CollUtil.isEmpty(spaceIds)) {
+            return;
+        }
+        spaceIds.stream()
+                .filter(NumberUtil::isLong)
+                .map(Long::parseLong)
+                .forEach(spaceId -> migrateExecutor.execute(() -> migrate(spaceId)));
+    }
+
+
+    /**
+     * 执行迁移，拿不到锁说明其他节点正在迁移
+     *
+     * @param spaceId 空间id
+     */
+    private void migrate(Long spaceId) {
+        String lockKey = LOCK_KEY_PREFIX + spaceId;
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", LOCK_TTL_MINUTES, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            JdbcTemplate jdbcTemplate = dynamicShardingManager.getActualJdbcTemplate();
+            List<String> sourceTables = dynamicShardingManager.getHashTableNames();
+            String targetTable = "picture_" + spaceId;
+            // 已经注册（上次在删除源数据时中断）：分表是唯一的数据来源，不能再从源表复制，直接清理
+            if (!dynamicShardingManager.isSpaceRegistered(spaceId)) {
+                // 1.全量复制
+                Timestamp copyStartTime = currentTime(jdbcTemplate);
+                log.info("开始迁移空间 {} 的图片到 {}", spaceId, targetTable);
+                for (String sourceTable : sourceTables) {
+                    copyAll(jdbcTemplate, sourceTable, targetTable, spaceId, lockKey);
+                }
+                // 2.增量追平：复制期间被修改过的行
+                Timestamp since = copyStartTime;
+                for (int round = 0; round < MAX_CATCH_UP_ROUNDS; round++) {
+                    Timestamp roundStartTime = currentTime(jdbcTemplate);
+                    int changed = copyChanged(jdbcTemplate, sourceTables, targetTable, spaceId, since);
+                    since = roundStartTime;
+                    renewLock(lockKey);
+                    if (changed < CATCH_UP_THRESHOLD) {
+                        break;
+                    }
+                }
+                // 3.打开写入栅栏，等已经开始的写请求结束，再最后追平一次（不再休眠限速，尽快结束栅栏）
+                dynamicShardingManager.openWriteFence(spaceId);
+                TimeUnit.MILLISECONDS.sleep(fenceGraceMillis);
+                copyChanged(jdbcTemplate, sourceTables, targetTable, spaceId, since, false);
+                // 4.核对行数和校验和
+                long[] source = checksum(jdbcTemplate, sourceTables, spaceId);
+                long[] target = checksum(jdbcTemplate, Collections.singletonList(targetTable), spaceId);
+                if (source[0] != target[0] || source[1] != target[1]) {
+                    log.error("空间 {} 迁移校验失败，源表 行数 = {} 校验和 = {}，目标表 行数 = {} 校验和 = {}，稍后重试",
+                            spaceId, source[0], source[1], target[0], target[1]);
+                    dynamicShardingManager.closeWriteFence(spaceId);
+                    return;
+                }
+                // 5.栅栏快过期了：过期后的写入会进入源表，而目标表已经核对完，放弃本次切换（源表仍是完整的数据）
+                if (dynamicShardingManager.getWriteFenceRemainingMillis(spaceId) < FENCE_REMAINING_MIN_MILLIS) {
+                    log.warn("空间 {} 的切换阶段超过了写入栅栏的持续时间，放弃本次切换，稍后重试（可调大 picture.sharding.write-fence-ms）", spaceId);
+                    dynamicShardingManager.closeWriteFence(spaceId);
+                    return;
+                }
+                // 6.切换：注册分表并通知所有节点，之后该空间的读写都走专属分表
+                dynamicShardingManager.registerMigratedSpace(spaceId);
+                dynamicShardingManager.closeWriteFence(spaceId);
+            }
+            // 7.删除源数据：已注册的节点只按 id 的查询在删除完成前会同时查到源表和分表中的两条（内容相同的）记录，
+            // 所以注册后立即删除；删除期间宕机时，由下次迁移继续删除
+            for (String sourceTable : sourceTables) {
+                jdbcTemplate.update("DELETE FROM " + sourceTable + " WHERE spaceId = ?", spaceId);
+            }
+            stringRedisTemplate.opsForSet().remove(MIGRATING_SPACE_KEY, String.valueOf(spaceId));
+            log.info("空间 {} 的图片迁移完成", spaceId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 栅栏有过期时间，这里不用关闭
+            log.error("空间 {} 的图片迁移失败，重启后或下次触发时继续", spaceId, e);
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+
+    /**
+     * 续期迁移锁
+     */
+    private void renewLock(String lockKey) {
+        stringRedisTemplate.expire(lockKey, LOCK_TTL_MINUTES, TimeUnit.MINUTES);
+    }
+
+
+    /**
+     * 按 id 游标分批复制一张源表中该空间的所有图片
+     */
+    private void copyAll(JdbcTemplate jdbcTemplate, String sourceTable, String targetTable, Long spaceId,
+                         String lockKey) throws InterruptedException {
+        long lastId = 0;
+        while (true) {
+            List<Long> idList = jdbcTemplate.queryForList(
+                    "SELECT id FROM " + sourceTable + " WHERE spaceId = ? AND id > ? ORDER BY id LIMIT ?",
+                    Long.class, spaceId, lastId, batchSize);
+            if (idList.isEmpty()) {
+                return;
+            }
+            copyByIds(jdbcTemplate, sourceTable, targetTable, idList);
+            lastId = idList.get(idList.size() - 1);
+            renewLock(lockKey);
+            TimeUnit.MILLISECONDS.sleep(batchIntervalMillis);
+        }
+    }
+
+
+    /**
+     * 复制 since 之后有变化的行，返回变化的行数
+     * updateTime 只精确到秒，往前多取 1 秒，重复复制没有影响
+     */
+    private int copyChanged(JdbcTemplate jdbcTemplate, List<String> sourceTables, String targetTable,
+                            Long spaceId, Timestamp since) throws InterruptedException {
+        return copyChanged(jdbcTemplate, sourceTables, targetTable, spaceId, since, true);
+    }
+
+
+    /**
+     * 复制 since 之后有变化的行
+     *
+     * @param throttle 批次之间是否休眠（栅栏内不休眠）
+     */
+    private int copyChanged(JdbcTemplate jdbcTemplate, List<String> sourceTables, String targetTable,
+                            Long spaceId, Timestamp since, boolean throttle) throws InterruptedException {
+        Timestamp from = new Timestamp(since.getTime() - 1000);
+        int changed = 0;
+        for (String sourceTable : sourceTables) {
+            List<Long> idList = jdbcTemplate.queryForList(
+                    "SELECT id FROM " + sourceTable + " WHERE spaceId = ? AND updateTime >= ?",
+                    Long.class, spaceId, from);
+            for (List<Long> batch : CollUtil.split(idList, batchSize)) {
+                copyByIds(jdbcTemplate, sourceTable, targetTable, batch);
+                if (throttle) {
+                    TimeUnit.MILLISECONDS.sleep(batchIntervalMillis);
+                }
+            }
+            changed += idList.size();
+        }
+        return changed;
+    }
+
+
+    private void copyByIds(JdbcTemplate jdbcTemplate, String sourceTable, String targetTable, List<Long> idList) {
+        String placeholders = idList.stream().map(id -> "?").collect(Collectors.joining(","));
+        jdbcTemplate.update("REPLACE INTO " + targetTable + " SELECT * FROM " + sourceTable + " WHERE id IN (" + placeholders + ")",
+                idList.toArray());
+    }
+
+
+    /**
+     * 计算若干张表中该空间图片的 [行数, 校验和]，校验和为每行 CRC32 的异或，与行的顺序和所在的表无关
+     */
+    private long[] checksum(JdbcTemplate jdbcTemplate, List<String> tables, Long spaceId) {
+        long count = 0;
+        long checksum = 0;
+        for (String table : tables) {
+            Map<String, Object> result = jdbcTemplate.queryForMap(
+                    "SELECT COUNT(*) AS cnt, COALESCE(BIT_XOR(CRC32(CONCAT_WS('#', " + CHECKSUM_COLUMNS + "))), 0) AS checksum"
+                            + " FROM " + table + " WHERE spaceId = ?", spaceId);
+            count += ((Number) result.get("cnt")).longValue();
+            checksum ^= ((Number) result.get("checksum")).longValue();
+        }
+        return new long[]{count, checksum};
+    }
+
+
+    private static String quoteColumns(String... columns) {
+        return Arrays.stream(columns)
+                .map(column -> "QUOTE(" + column + ")")
+                .collect(Collectors.joining(", "));
+    }
+
+
+    /**
+     * 以数据库时间为准，避免应用服务器和数据库的时钟不一致
+     */
+    private Timestamp currentTime(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("SELECT NOW()", Timestamp.class);
+    }
+}
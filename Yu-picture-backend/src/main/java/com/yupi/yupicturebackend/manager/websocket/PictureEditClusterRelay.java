@@ -0,0 +1,310 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.IdUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRelayBatch;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRelayStat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片编辑跨节点转发（Redis 发布订阅）
+ * <p>
+ * 1. 每张图片一个频道，节点只订阅有本地会话的图片，最后一个本地会话断开后取消订阅；
+ * 2. 广播时先发给本节点的会话，再把序列化好的消息交给转发器，其他节点收到后原样发给自己的会话，不会重复序列化；
+ * 3. 待发布的消息按固定间隔刷出：同一张图片的消息合并成一批（一次 PUBLISH），所有批次走一次管道，减少 Redis 往返；
+ * 4. 只用到 PUBLISH / SUBSCRIBE，单机 Redis 即可，不依赖 Redis 集群。
+ */
+@Slf4j
+@Component
+public class PictureEditClusterRelay implements MessageListener {
+
+    private static final String CHANNEL_PREFIX = "yupicture:picture:edit:relay:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 引入 Redis 消息监听容器，按图片动态订阅频道
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 引入PictureEditHandler，收到其他节点的消息时取本地会话
+    @Resource
+    @Lazy
+    private PictureEditHandler pictureEditHandler;
+
+    // 引入消息发送器，收到的消息放入本地会话的发送队列
+    @Resource
+    private PictureEditMessageSender pictureEditMessageSender;
+
+    /**
+     * 刷出间隔（毫秒）：越大每次 PUBLISH 合并的消息越多，跨节点的延迟也越大
+     */
+    @Value("${picture.edit.cluster.flush-interval-ms:10}")
+    private long flushIntervalMs;
+
+    /**
+     * 等待发布的消息上限，Redis 不可用时超出的消息直接丢弃，避免占满内存
+     */
+    @Value("${picture.edit.cluster.max-pending:10000}")
+    private int maxPending;
+
+    // 批次之间共用的 ObjectMapper（消息内容已经是序列化好的字符串，不需要特殊配置）
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 本节点id，用于忽略自己发出的消息
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    // 本节点订阅的图片，key：pictureId，value：本地会话数
+    private final Map<Long, Integer> subscribedPictures = new ConcurrentHashMap<>();
+
+    // 等待发布的消息（按发送顺序）
+    private final ConcurrentLinkedQueue<PendingRelayMessage> pendingQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder publishedMessageCount = new LongAdder();
+
+    private final LongAdder publishedBatchCount = new LongAdder();
+
+    private final LongAdder flushCount = new LongAdder();
+
+    private final LongAdder receivedMessageCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private ScheduledExecutorService flushExecutor;
+
+    @PostConstruct
+    public void init() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(ThreadFactoryBuilder.create()
+                .setNamePrefix("pictureEditRelay-")
+                .setDaemon(true)
+                .build());
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * 本地会话加入图片时调用，第一个会话加入时订阅该图片的频道
+     */
+    public void subscribe(Long pictureId) {
+        subscribedPictures.compute(pictureId, (id, count) -> {
+            if (count == null) {
+                redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(getChannel(id)));
+                return 1;
+            }
+            return count + 1;
+        });
+    }
+
+    /**
+     * 本地会话离开图片时调用，最后一个会话离开时取消订阅
+     */
+    public void unsubscribe(Long pictureId) {
+        subscribedPictures.computeIfPresent(pictureId, (id, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            redisMessageListenerContainer.removeMessageListener(this, new ChannelTopic(getChannel(id)));
+            return null;
+        });
+    }
+
+
+    /**
+     * 转发给其他节点（不阻塞，按间隔批量发布）
+     *
+     * @param pictureId 图片id
+     * @param type      消息类型
+     * @param payload   序列化后的消息
+     */
+    public void publish(Long pictureId, String type, String payload) {
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            droppedCount.increment();
+            return;
+        }
+        pendingQueue.offer(new PendingRelayMessage(pictureId, type, payload));
+    }
+
+
+    /**
+     * 收到其他节点转发的消息，发给本节点该图片的所有会话
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        PictureEditRelayBatch relayBatch;
+        try {
+            relayBatch = objectMapper.readValue(message.getBody(), PictureEditRelayBatch.class);
+        } catch (Exception e) {
+            log.error("解析图片编辑转发消息失败", e);
+            return;
+        }
+        // 自己发出的消息已经在本地广播过了
+        if (nodeId.equals(relayBatch.getNodeId()) || CollUtil.isEmpty(relayBatch.getPayloads())) {
+            return;
+        }
+        Set<WebSocketSession> sessionSet = pictureEditHandler.getPictureSessions(relayBatch.getPictureId());
+        receivedMessageCount.add(relayBatch.getPayloads().size());
+        if (CollUtil.isEmpty(sessionSet)) {
+            return;
+        }
+        List<String> types = relayBatch.getTypes();
+        for (int i = 0; i < relayBatch.getPayloads().size(); i++) {
+            String type = types != null && i < types.size() ? types.get(i) : null;
+            pictureEditMessageSender.broadcast(sessionSet, relayBatch.getPayloads().get(i), type, null);
+        }
+    }
+
+
+    /**
+     * 获取转发的运行状态
+     */
+    public PictureEditRelayStat getRelayStat() {
+        PictureEditRelayStat relayStat = new PictureEditRelayStat();
+        relayStat.setNodeId(nodeId);
+        relayStat.setSubscribedPictureCount(subscribedPictures.size());
+        relayStat.setPendingCount(pendingCount.get());
+        relayStat.setPublishedMessageCount(publishedMessageCount.sum());
+        relayStat.setPublishedBatchCount(publishedBatchCount.sum());
+        relayStat.setFlushCount(flushCount.sum());
+        relayStat.setReceivedMessageCount(receivedMessageCount.sum());
+        relayStat.setDroppedCount(droppedCount.sum());
+        return relayStat;
+    }
+
+
+    /**
+     * 停机前把还没发布的消息发出去
+     */
+    @PreDestroy
+    public void destroy() {
+        flushExecutor.shutdown();
+        flushQuietly();
+    }
+
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("发布图片编辑转发消息失败", e);
+        }
+    }
+
+    /**
+     * 刷出等待发布的消息：按图片分批，一次管道发完
+     */
+    private synchronized void flush() {
+        // 1.取出当前所有消息，按图片分组（保持每张图片内的顺序）
+        Map<Long, PictureEditRelayBatch> batchMap = new LinkedHashMap<>();
+        int messageCount = 0;
+        PendingRelayMessage pendingMessage;
+        while ((pendingMessage = pendingQueue.poll()) != null) {
+            pendingCount.decrementAndGet();
+            messageCount++;
+            PictureEditRelayBatch relayBatch = batchMap.computeIfAbsent(pendingMessage.pictureId, this::newBatch);
+            relayBatch.getTypes().add(pendingMessage.type);
+            relayBatch.getPayloads().add(pendingMessage.payload);
+        }
+        if (batchMap.isEmpty()) {
+            return;
+        }
+        // 2.序列化每一批，通过管道一次发布
+        List<byte[][]> channelAndBodyList = new ArrayList<>(batchMap.size());
+        for (PictureEditRelayBatch relayBatch : batchMap.values()) {
+            try {
+                channelAndBodyList.add(new byte[][]{
+                        getChannel(relayBatch.getPictureId()).getBytes(StandardCharsets.UTF_8),
+                        objectMapper.writeValueAsBytes(relayBatch)});
+            } catch (Exception e) {
+                log.error("序列化图片编辑转发消息失败, pictureId = {}", relayBatch.getPictureId(), e);
+                droppedCount.add(relayBatch.getPayloads().size());
+                messageCount -= relayBatch.getPayloads().size();
+            }
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                publishAll(connection, channelAndBodyList);
+                return null;
+            });
+        } catch (Exception e) {
+            // Redis 不可用：本地会话已经收到，其他节点的用户丢失这些消息
+            droppedCount.add(messageCount);
+            throw e;
+        }
+        flushCount.increment();
+        publishedBatchCount.add(channelAndBodyList.size());
+        publishedMessageCount.add(messageCount);
+    }
+
+    private void publishAll(RedisConnection connection, List<byte[][]> channelAndBodyList) {
+        for (byte[][] channelAndBody : channelAndBodyList) {
+            connection.publish(channelAndBody[0], channelAndBody[1]);
+        }
+    }
+
+    private PictureEditRelayBatch newBatch(Long pictureId) {
+        PictureEditRelayBatch relayBatch = new PictureEditRelayBatch();
+        relayBatch.setNodeId(nodeId);
+        relayBatch.setPictureId(pictureId);
+        relayBatch.setTypes(new ArrayList<>());
+        relayBatch.setPayloads(new ArrayList<>());
+        return relayBatch;
+    }
+
+    private String getChannel(Long pictureId) {
+        return CHANNEL_PREFIX + pictureId;
+    }
+
+
+    /**
+     * 等待发布的消息
+     */
+    private static class PendingRelayMessage {
+
+        private final Long pictureId;
+
+        private final String type;
+
+        private final String payload;
+
+        PendingRelayMessage(Long pictureId, String type, String payload) {
+            this.pictureId = pictureId;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+}
@@ -2,17 +2,14 @@ package com.yupi.yupicturebackend.manager.websocket;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.json.JSONUtil;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import com.yupi.yupicturebackend.manager.websocket.disruptor.PictureEditEventProducer;
 import com.yupi.yupicturebackend.manager.websocket.model.PictureEditActionEnum;
 import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRequestMessage;
 import com.yupi.yupicturebackend.manager.websocket.model.PictureEditResponseMessage;
 import com.yupi.yupicturebackend.model.entity.User;
 import com.yupi.yupicturebackend.service.UserService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
@@ -36,8 +33,13 @@ public class PictureEditHandler extends TextWebSocketHandler {
     @Resource
     private UserService userService;
 
-    // 每张图片的编辑状态，key：pictureId，value：当前正在编辑的用户Id
-    private final Map<Long, Long> pictureEditingUsers = new ConcurrentHashMap<>();
+    // 引入图片编辑锁：每张图片的编辑状态保存在 Redis 中，所有节点共享（一张图同时只允许一人编辑）
+    @Resource
+    private PictureEditLockManager pictureEditLockManager;
+
+    // 引入跨节点转发：同一张图片的用户连接在不同节点上时，通过 Redis 发布订阅互相转发广播
+    @Resource
+    private PictureEditClusterRelay pictureEditClusterRelay;
 
     // 保存所有连接的会话，key：pictureId，value：用户会话集合
     // 必须用并发的HashMap -> ConcurrentHashMap，因为后面所有的连接都要用到这些方法，保证线程安全，防止数据丢失，因此用线程安全的HashMap
@@ -48,6 +50,24 @@ public class PictureEditHandler extends TextWebSocketHandler {
     @Lazy
     private PictureEditEventProducer pictureEditEventProducer;
 
+    // 引入会话注册表，编辑事件只保存会话下标
+    @Resource
+    private PictureEditSessionRegistry pictureEditSessionRegistry;
+
+    // 每个连接的入站限流：每秒补充的令牌数、允许的突发数
+    @Value("${picture.edit.rate-limit.permits-per-second:20}")
+    private double ratePermitsPerSecond;
+
+    @Value("${picture.edit.rate-limit.burst:40}")
+    private double rateBurst;
+
+    // 会话属性中保存令牌桶的 key
+    private static final String RATE_LIMITER_ATTRIBUTE = "editRateLimiter";
+
+    // 引入消息发送器：每个会话一个有界发送队列，写 socket 不占用 Disruptor 的分道线程
+    @Resource
+    private PictureEditMessageSender pictureEditMessageSender;
+
 
     /**
      * 连接建立成功
@@ -65,7 +85,16 @@ public class PictureEditHandler extends TextWebSocketHandler {
         // 1.1 初始化集合，如果首次加入，调用Concurrent的newKeySet方法，把pictureId传到HashMap中
         pictureSessions.putIfAbsent(pictureId, ConcurrentHashMap.newKeySet());
         pictureSessions.get(pictureId).add(session);
-        // 2.构造响应，发送加入编辑的消息通知
+        // 1.1.1 订阅该图片的跨节点频道（本节点第一个会话加入时才真正订阅）
+        pictureEditClusterRelay.subscribe(pictureId);
+        // 1.2 为会话分配注册表下标，创建有界发送队列和入站限流的令牌桶
+        pictureEditSessionRegistry.register(session);
+        pictureEditMessageSender.register(session);
+        session.getAttributes().put(RATE_LIMITER_ATTRIBUTE, new TokenBucket(ratePermitsPerSecond, rateBurst));
+        // 2.构造响应，发送加入编辑的消息通知（过载时丢弃这类通知，给编辑操作留出空间）
+        if (pictureEditEventProducer.shedNotice()) {
+            return;
+        }
         PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
         pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.INFO.getValue());
         String message = String.format("用户 %s 加入编辑", user.getUserName());
@@ -87,13 +116,21 @@ public class PictureEditHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         super.handleTextMessage(session, message);
-        // 获取消息内容，将消息字符串JSON 转换为 PictureEditMessage
-        PictureEditRequestMessage pictureEditRequestMessage = JSONUtil.toBean(message.getPayload(), PictureEditRequestMessage.class);
-
         // 从Session属性中获取到公共参数
         User user = (User) session.getAttributes().get("user");
         Long pictureId = (Long) session.getAttributes().get("pictureId");
 
+        // 连接限流：发送过快的客户端直接拒绝，不解析、不进入环形队列，避免一个客户端占满队列
+        TokenBucket tokenBucket = (TokenBucket) session.getAttributes().get(RATE_LIMITER_ATTRIBUTE);
+        if (tokenBucket != null && !tokenBucket.tryAcquire()) {
+            pictureEditEventProducer.recordRateLimited();
+            sendErrorMessage(session, user, "操作过于频繁，请稍后重试");
+            return;
+        }
+
+        // 获取消息内容：流式扫描一遍，直接得到类型编码和动作编码，不创建 PictureEditRequestMessage
+        int packedMessage = PictureEditMessageCodec.parse(message.getPayload());
+
         // switch判断:根据消息类型处理信息
         /*switch (pictureEditMessageTypeEnum) {
             case ENTER_EDIT:
@@ -120,24 +157,30 @@ public class PictureEditHandler extends TextWebSocketHandler {
         }*/
 
         // 根据消息类型处理信息：取消switch，改为 生产消息到 Disruptor 环形队列中
-        pictureEditEventProducer.publishEvent(pictureEditRequestMessage, session, user, pictureId);
+        // 队列已满时不阻塞容器线程，直接告诉客户端稍后重试（低优先级事件被丢弃时不提示）
+        // 事件中只放基本类型字段，会话通过注册表的下标和连接id找回
+        PictureEditEventProducer.PublishResult publishResult = pictureEditEventProducer.publishEvent(
+                PictureEditMessageCodec.typeCodeOf(packedMessage), PictureEditMessageCodec.actionCodeOf(packedMessage),
+                user.getId(), pictureId,
+                (Integer) session.getAttributes().get(PictureEditSessionRegistry.SESSION_INDEX_ATTRIBUTE),
+                (Long) session.getAttributes().get(PictureEditSessionRegistry.CONNECTION_ID_ATTRIBUTE));
+        if (publishResult == PictureEditEventProducer.PublishResult.REJECTED) {
+            sendErrorMessage(session, user, "服务器繁忙，请稍后重试");
+        }
     }
 
 
     /**
      * 进入编辑状态
      *
-     * @param pictureEditRequestMessage
      * @param session
      * @param user
      * @param pictureId
      */
-    public void handleEnterEditMessage(PictureEditRequestMessage pictureEditRequestMessage, WebSocketSession session, User user, Long pictureId) throws IOException {
+    public void handleEnterEditMessage(WebSocketSession session, User user, Long pictureId) throws IOException {
         // 限制：一张图同时只允许一人编辑
-        // 没有用户正在编辑该图片，才可以进入编辑
-        if (!pictureEditingUsers.containsKey(pictureId)) {
-            // 没其他人在编辑，就可以编辑，设置用户正在编辑该图
-            pictureEditingUsers.put(pictureId, user.getId());
+        // 没有用户正在编辑该图片，才可以进入编辑：抢编辑锁（所有节点共享），抢到就设置用户正在编辑该图
+        if (pictureEditLockManager.tryLock(pictureId, user.getId(), session.getId())) {
             // 构造响应
             PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
             pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.ENTER_EDIT.getValue());
@@ -147,8 +190,8 @@ public class PictureEditHandler extends TextWebSocketHandler {
             // 广播给所有用户
             broadcastToPicture(pictureId, pictureEditResponseMessage);
         } else {
-            // 如果有人已经在编辑，找到当前编辑者
-            Long editingUserId = pictureEditingUsers.get(pictureId);
+            // 如果有人已经在编辑，找到当前编辑者（可能连接在其他节点上）
+            Long editingUserId = pictureEditLockManager.getEditingUserId(pictureId);
             // 构造响应
             PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
             pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.ERROR.getValue());
@@ -165,7 +208,7 @@ public class PictureEditHandler extends TextWebSocketHandler {
             }
 
             // 把响应发回去
-            session.sendMessage(new TextMessage(JSONUtil.toJsonStr(pictureEditResponseMessage)));
+            pictureEditMessageSender.send(session, pictureEditResponseMessage);
         }
     }
 
@@ -173,30 +216,25 @@ public class PictureEditHandler extends TextWebSocketHandler {
     /**
      * 处理编辑操作
      *
-     * @param pictureEditRequestMessage
+     * @param actionEnum 编辑动作，无法识别时为 null
      * @param session
      * @param user
      * @param pictureId
      */
-    public void handleEditActionMessage(PictureEditRequestMessage pictureEditRequestMessage, WebSocketSession session, User user, Long pictureId) throws IOException {
-        // 根据pictureId获取当前正在编辑图片的人的Id
-        Long editingUserId = pictureEditingUsers.get(pictureId);
-        // 获取当前正在编辑的操作
-        String editAction = pictureEditRequestMessage.getEditAction();
-        // 拿到当前进行的编辑动作枚举类
-        PictureEditActionEnum actionEnum = PictureEditActionEnum.getEnumByValue(editAction);
+    public void handleEditActionMessage(PictureEditActionEnum actionEnum, WebSocketSession session, User user, Long pictureId) throws IOException {
+        // 当前进行的编辑动作枚举类（已经在解析消息时识别）
         if (actionEnum == null) {
             log.error("无效的编辑动作");
             return;
         }
-        // 确认是当前的编辑者：editingUserId非空且等于当前用户
-        if (editingUserId != null && editingUserId.equals(user.getId())) {
+        // 确认是当前的编辑者（按会话区分，同一用户的其他连接不能编辑）：编辑者的连接一定在持有锁的节点上，只查本地，不访问 Redis
+        if (pictureEditLockManager.isHeldBy(pictureId, session.getId())) {
             // 可以进行编辑操作了 -> 把进行的操作通用响应转发给其他用户即可
             PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
             pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.EDIT_ACTION.getValue());
             String message = String.format("用户 %s 执行了 %s 操作", user.getUserName(), actionEnum.getText());
             pictureEditResponseMessage.setMessage(message);
-            pictureEditResponseMessage.setEditAction(editAction); // 设置编辑的动作
+            pictureEditResponseMessage.setEditAction(actionEnum.getValue()); // 设置编辑的动作
             pictureEditResponseMessage.setUser(userService.getUserVO(user));
 
             // 广播给除当前客户端之外的其他用户，避免重复编辑
@@ -209,18 +247,13 @@ public class PictureEditHandler extends TextWebSocketHandler {
     /**
      * 退出编辑状态
      *
-     * @param pictureEditRequestMessage
      * @param session
      * @param user
      * @param pictureId
      */
-    public void handleExitEditMessage(PictureEditRequestMessage pictureEditRequestMessage, WebSocketSession session, User user, Long pictureId) throws IOException {
-        // 获取正在编辑的用户
-        Long editingUserId = pictureEditingUsers.get(pictureId);
-        // 判断是否为当前编辑者结束编辑状态
-        if (editingUserId != null && editingUserId.equals(user.getId())) {
-            // 移除当前正在编辑图片的用户
-            pictureEditingUsers.remove(pictureId);
+    public void handleExitEditMessage(WebSocketSession session, User user, Long pictureId) throws IOException {
+        // 判断是否为当前编辑者结束编辑状态：是的话释放编辑锁，移除当前正在编辑图片的用户
+        if (pictureEditLockManager.unlock(pictureId, session.getId())) {
 
             // 构造响应，发送退出编辑的消息通知
             PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
@@ -249,7 +282,7 @@ public class PictureEditHandler extends TextWebSocketHandler {
         User user = (User) session.getAttributes().get("user");
         Long pictureId = (Long) session.getAttributes().get("pictureId");
         // 2.移除当前登录用户的编辑状态
-        handleExitEditMessage(null, session, user, pictureId);
+        handleExitEditMessage(session, user, pictureId);
 
         // 3.删除会话
         // 3.1 获取当前图片的集合sessionSet
@@ -262,8 +295,16 @@ public class PictureEditHandler extends TextWebSocketHandler {
                 pictureSessions.remove(pictureId);
             }
         }
-
-        // 4.给其余用户返回响应：该用户已离开编辑
+        // 3.3.1 本节点最后一个会话离开时取消订阅该图片的跨节点频道
+        pictureEditClusterRelay.unsubscribe(pictureId);
+        // 3.4 丢弃该会话还没发出的消息，释放注册表下标（还在队列中的事件找不到会话，直接跳过）
+        pictureEditMessageSender.unregister(session);
+        pictureEditSessionRegistry.unregister(session);
+
+        // 4.给其余用户返回响应：该用户已离开编辑（过载时丢弃这类通知，给编辑操作留出空间）
+        if (pictureEditEventProducer.shedNotice()) {
+            return;
+        }
         PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
         pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.INFO.getValue());
         String message = String.format("%s 离开图片编辑", user.getUserName());
@@ -283,38 +324,46 @@ public class PictureEditHandler extends TextWebSocketHandler {
      * @param excludeSession             被排除的session
      */
     private void broadcastToPicture(Long pictureId, PictureEditResponseMessage pictureEditResponseMessage, WebSocketSession excludeSession) throws IOException {
-        // 1.先从pictureSessions里拿到pictureId的集合Set
+        // 1.消息只序列化一次，本节点和其他节点共用
+        String payload = pictureEditMessageSender.serialize(pictureEditResponseMessage);
+        if (payload == null) {
+            return;
+        }
+        // 2.先从pictureSessions里拿到pictureId的集合Set
         Set<WebSocketSession> sessionSet = pictureSessions.get(pictureId);
         if (CollUtil.isNotEmpty(sessionSet)) {
-            // 如果得到的图片Id集合非空，才可以广播
-            // 直接把响应转为String，会产生一个精度丢失的问题！因为该响应中有UserVO属性，UserVO里有userId属性，Long类型经过JSON转化一定会产生精度丢失问题。
-            // 1.1 所以要用Jackson库进行转化，创建Jackson库的ObjectMapper -> 是Jackson的核心对象，把Java对象 <-> JSON字符串互相转换（序列化/反序列化）
-            ObjectMapper objectMapper = new ObjectMapper();
-            // 1.2 配置序列化，将Long类型转换为String
-            // SimpleModule是Jackson的插件模块容器，可以放规则
-            SimpleModule module = new SimpleModule();
-            // 写Long.class和Long.TYPE 目的是 包装类 + 基本类型 都覆盖到
-            // 当Jackson遇到包装类型Long时，不按默认数字输出，而是用ToStringSerializer，效果是调用toString()输出JSON值
-            module.addSerializer(Long.class, ToStringSerializer.instance);
-            // Long.TYPE是基本类型long(即long.class)
-            module.addSerializer(Long.TYPE, ToStringSerializer.instance);
-            // 然后把这套规则注册到ObjectMapper上
-            objectMapper.registerModule(module);
-
-            // 2.把响应的信息按照textMessage拿到并发送，前提是把响应转成String（用JSON）
-            String message = objectMapper.writeValueAsString(pictureEditResponseMessage);
-            TextMessage textMessage = new TextMessage(message);
-            for (WebSocketSession session : sessionSet) {
-                // 排除掉的session不发送
-                if (excludeSession != null && session.equals(excludeSession)) {
-                    continue;
-                }
-                // 如果session是打开状态，直接调用sendMessage发消息，参数是textMessage
-                if (session.isOpen()) {
-                    session.sendMessage(textMessage);
-                }
-            }
+            // 3.如果得到的图片Id集合非空，才可以广播：放入每个会话各自的发送队列，慢客户端不影响其他人
+            pictureEditMessageSender.broadcast(sessionSet, payload, pictureEditResponseMessage.getType(), excludeSession);
         }
+        // 4.转发给其他节点上该图片的用户（被排除的会话一定在本节点上，其他节点全部发送）
+        pictureEditClusterRelay.publish(pictureId, pictureEditResponseMessage.getType(), payload);
+    }
+
+
+    /**
+     * 获取本节点上该图片的所有会话（跨节点转发收到消息时使用）
+     *
+     * @param pictureId
+     * @return 会话集合，没有时返回 null
+     */
+    public Set<WebSocketSession> getPictureSessions(Long pictureId) {
+        return pictureSessions.get(pictureId);
+    }
+
+
+    /**
+     * 给当前会话发送错误提示
+     *
+     * @param session
+     * @param user
+     * @param message
+     */
+    private void sendErrorMessage(WebSocketSession session, User user, String message) {
+        PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
+        pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.ERROR.getValue());
+        pictureEditResponseMessage.setMessage(message);
+        pictureEditResponseMessage.setUser(userService.getUserVO(user));
+        pictureEditMessageSender.send(session, pictureEditResponseMessage);
     }
 
 
@@ -328,4 +377,5 @@ public class PictureEditHandler extends TextWebSocketHandler {
         // 调用广播的方法，但是排除的Session设置为null
         broadcastToPicture(pictureId, pictureEditResponseMessage, null);
     }
+
 }
@@ -0,0 +1,186 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.NumberUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片编辑锁（所有节点共享）
+ * <p>
+ * 1. 一张图同时只允许一人编辑：进入编辑时用 SET NX 抢锁，带过期时间，节点宕机后锁自动释放；
+ * 锁的值是持有者标识 {用户id}:{节点id}:{会话id}，同一用户的多个连接（多个标签页、多个节点）也能区分开；
+ * 2. 本节点持有的锁记录在本地，编辑操作只查本地（编辑者的连接一定在持有锁的节点上），不访问 Redis；
+ * 3. 定时续期本节点持有的锁，续期失败（锁已过期被别人抢走）时从本地移除；
+ * 4. 释放、续期都先比较持有者标识，只处理自己的锁。只用到单 key 的命令和脚本，单机 Redis 即可。
+ */
+@Slf4j
+@Component
+public class PictureEditLockManager {
+
+    private static final String LOCK_KEY_PREFIX = "yupicture:picture:edit:lock:";
+
+    /**
+     * 值相同才删除
+     */
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0", Long.class);
+
+    /**
+     * 值相同才续期
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end\n" +
+            "return 0", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 锁的过期时间（毫秒），续期间隔应明显小于它
+     */
+    @Value("${picture.edit.cluster.lock-ttl-ms:30000}")
+    private long lockTtlMs;
+
+    /**
+     * 本节点id，与会话id一起组成持有者标识（会话id只在本节点内唯一）
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    // 本节点持有的锁，key：pictureId，value：持有者
+    private final Map<Long, LockOwner> heldLocks = new ConcurrentHashMap<>();
+
+
+    /**
+     * 尝试进入编辑
+     *
+     * @param pictureId 图片id
+     * @param userId    用户id
+     * @param sessionId 会话id
+     * @return 是否抢到锁（该会话已经持有时也返回 true）
+     */
+    public boolean tryLock(Long pictureId, Long userId, String sessionId) {
+        if (isHeldBy(pictureId, sessionId)) {
+            return true;
+        }
+        LockOwner lockOwner = new LockOwner(userId, sessionId, userId + ":" + nodeId + ":" + sessionId);
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(getLockKey(pictureId), lockOwner.token, lockTtlMs, TimeUnit.MILLISECONDS);
+        if (Boolean.TRUE.equals(locked)) {
+            heldLocks.put(pictureId, lockOwner);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取当前编辑者（可能在其他节点上）
+     *
+     * @param pictureId 图片id
+     * @return 用户id，没有人编辑时返回 null
+     */
+    public Long getEditingUserId(Long pictureId) {
+        LockOwner lockOwner = heldLocks.get(pictureId);
+        if (lockOwner != null) {
+            return lockOwner.userId;
+        }
+        String value = stringRedisTemplate.opsForValue().get(getLockKey(pictureId));
+        if (value == null) {
+            return null;
+        }
+        int index = value.indexOf(':');
+        String userId = index < 0 ? value : value.substring(0, index);
+        return NumberUtil.isLong(userId) ? Long.parseLong(userId) : null;
+    }
+
+    /**
+     * 该会话是否正在编辑该图片（只查本节点）
+     */
+    public boolean isHeldBy(Long pictureId, String sessionId) {
+        LockOwner lockOwner = heldLocks.get(pictureId);
+        return lockOwner != null && lockOwner.sessionId.equals(sessionId);
+    }
+
+    /**
+     * 退出编辑
+     *
+     * @param pictureId 图片id
+     * @param sessionId 会话id
+     * @return 是否释放了锁（不是该会话持有时返回 false）
+     */
+    public boolean unlock(Long pictureId, String sessionId) {
+        LockOwner lockOwner = heldLocks.get(pictureId);
+        if (lockOwner == null || !lockOwner.sessionId.equals(sessionId) || !heldLocks.remove(pictureId, lockOwner)) {
+            return false;
+        }
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(getLockKey(pictureId)), lockOwner.token);
+        } catch (Exception e) {
+            // 本地已经释放，Redis 中的锁等过期
+            log.error("释放图片编辑锁失败, pictureId = {}", pictureId, e);
+        }
+        return true;
+    }
+
+
+    /**
+     * 定时续期本节点持有的锁
+     */
+    @Scheduled(fixedDelayString = "${picture.edit.cluster.lock-renew-interval-ms:10000}")
+    public void renewLocks() {
+        for (Map.Entry<Long, LockOwner> entry : heldLocks.entrySet()) {
+            Long pictureId = entry.getKey();
+            LockOwner lockOwner = entry.getValue();
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(getLockKey(pictureId)),
+                        lockOwner.token, String.valueOf(lockTtlMs));
+                if (renewed == null || renewed == 0) {
+                    // 锁已经过期（可能被其他人抢到），本节点不再持有
+                    heldLocks.remove(pictureId, lockOwner);
+                    log.warn("图片编辑锁已失效, pictureId = {}, userId = {}", pictureId, lockOwner.userId);
+                }
+            } catch (Exception e) {
+                // Redis 暂时不可用，下次再续
+                log.error("续期图片编辑锁失败, pictureId = {}", pictureId, e);
+            }
+        }
+    }
+
+
+    private String getLockKey(Long pictureId) {
+        return LOCK_KEY_PREFIX + pictureId;
+    }
+
+
+    /**
+     * 锁的持有者
+     */
+    private static class LockOwner {
+
+        private final Long userId;
+
+        private final String sessionId;
+
+        /**
+         * 写入 Redis 的持有者标识
+         */
+        private final String token;
+
+        LockOwner(Long userId, String sessionId, String token) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.token = token;
+        }
+    }
+}
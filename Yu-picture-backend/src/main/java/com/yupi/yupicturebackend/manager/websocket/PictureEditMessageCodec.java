@@ -0,0 +1,206 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditActionEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
+
+/**
+ * 图片编辑请求消息的流式解析
+ * <p>
+ * 前端发来的消息是扁平的 JSON：{"type": "EDIT_ACTION", "editAction": "ROTATE_LEFT"}，
+ * 这里逐字符扫描一遍，直接在原字符串上比较枚举值，得到类型编码和动作编码，不创建 PictureEditRequestMessage 和中间字符串。
+ * 编码为枚举下标 + 1，0 表示没有或无法识别。
+ */
+public final class PictureEditMessageCodec {
+
+    /**
+     * 没有或无法识别
+     */
+    public static final int UNKNOWN = 0;
+
+    private static final String TYPE_KEY = "type";
+
+    private static final String EDIT_ACTION_KEY = "editAction";
+
+    // 缓存枚举数组（values() 每次都会复制一个新数组）
+    private static final PictureEditMessageTypeEnum[] TYPE_VALUES = PictureEditMessageTypeEnum.values();
+
+    private static final PictureEditActionEnum[] ACTION_VALUES = PictureEditActionEnum.values();
+
+    private PictureEditMessageCodec() {
+    }
+
+
+    /**
+     * 解析消息
+     *
+     * @param payload 消息内容
+     * @return 高 16 位是类型编码，低 16 位是动作编码
+     */
+    public static int parse(CharSequence payload) {
+        int typeCode = UNKNOWN;
+        int actionCode = UNKNOWN;
+        int length = payload.length();
+        int i = skipWhitespace(payload, 0);
+        if (i >= length || payload.charAt(i) != '{') {
+            return pack(UNKNOWN, UNKNOWN);
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(payload, i);
+            if (i >= length || payload.charAt(i) == '}') {
+                break;
+            }
+            if (payload.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            // 1.读取字段名
+            if (payload.charAt(i) != '"') {
+                return pack(UNKNOWN, UNKNOWN);
+            }
+            int keyStart = i + 1;
+            int keyEnd = findStringEnd(payload, keyStart);
+            if (keyEnd < 0) {
+                return pack(UNKNOWN, UNKNOWN);
+            }
+            i = skipWhitespace(payload, keyEnd + 1);
+            if (i >= length || payload.charAt(i) != ':') {
+                return pack(UNKNOWN, UNKNOWN);
+            }
+            i = skipWhitespace(payload, i + 1);
+            if (i >= length) {
+                return pack(UNKNOWN, UNKNOWN);
+            }
+            // 2.读取字段值：只关心 type 和 editAction 的字符串值，其他值跳过
+            if (payload.charAt(i) == '"') {
+                int valueStart = i + 1;
+                int valueEnd = findStringEnd(payload, valueStart);
+                if (valueEnd < 0) {
+                    return pack(UNKNOWN, UNKNOWN);
+                }
+                if (regionEquals(payload, keyStart, keyEnd, TYPE_KEY)) {
+                    typeCode = matchType(payload, valueStart, valueEnd);
+                } else if (regionEquals(payload, keyStart, keyEnd, EDIT_ACTION_KEY)) {
+                    actionCode = matchAction(payload, valueStart, valueEnd);
+                }
+                i = valueEnd + 1;
+            } else {
+                i = skipValue(payload, i);
+                if (i < 0) {
+                    return pack(UNKNOWN, UNKNOWN);
+                }
+            }
+        }
+        return pack(typeCode, actionCode);
+    }
+
+
+    public static int typeCodeOf(int packed) {
+        return packed >>> 16;
+    }
+
+    public static int actionCodeOf(int packed) {
+        return packed & 0xFFFF;
+    }
+
+    /**
+     * 编码转为消息类型，无法识别时返回 null
+     */
+    public static PictureEditMessageTypeEnum toType(int typeCode) {
+        return typeCode <= 0 || typeCode > TYPE_VALUES.length ? null : TYPE_VALUES[typeCode - 1];
+    }
+
+    /**
+     * 编码转为编辑动作，没有或无法识别时返回 null
+     */
+    public static PictureEditActionEnum toAction(int actionCode) {
+        return actionCode <= 0 || actionCode > ACTION_VALUES.length ? null : ACTION_VALUES[actionCode - 1];
+    }
+
+
+    private static int pack(int typeCode, int actionCode) {
+        return (typeCode << 16) | actionCode;
+    }
+
+    private static int matchType(CharSequence payload, int start, int end) {
+        for (int i = 0; i < TYPE_VALUES.length; i++) {
+            if (regionEquals(payload, start, end, TYPE_VALUES[i].getValue())) {
+                return i + 1;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static int matchAction(CharSequence payload, int start, int end) {
+        for (int i = 0; i < ACTION_VALUES.length; i++) {
+            if (regionEquals(payload, start, end, ACTION_VALUES[i].getValue())) {
+                return i + 1;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * payload[start, end) 是否等于 expected（带转义的字符串不会相等，按无法识别处理）
+     */
+    private static boolean regionEquals(CharSequence payload, int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (payload.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 找到字符串结束的引号位置，没有结束时返回 -1
+     */
+    private static int findStringEnd(CharSequence payload, int start) {
+        for (int i = start; i < payload.length(); i++) {
+            char c = payload.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 跳过一个非字符串的值（数字、true / false / null、嵌套对象或数组），返回值后面的位置，格式错误时返回 -1
+     */
+    private static int skipValue(CharSequence payload, int start) {
+        int depth = 0;
+        for (int i = start; i < payload.length(); i++) {
+            char c = payload.charAt(i);
+            if (c == '"') {
+                i = findStringEnd(payload, i + 1);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+        }
+        return depth == 0 ? payload.length() : -1;
+    }
+
+    private static int skipWhitespace(CharSequence payload, int start) {
+        int i = start;
+        while (i < payload.length() && Character.isWhitespace(payload.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
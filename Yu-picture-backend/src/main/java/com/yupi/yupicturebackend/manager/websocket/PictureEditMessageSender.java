@@ -0,0 +1,439 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditOverflowPolicyEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditResponseMessage;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditSenderStat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 图片编辑消息发送器（扇出）
+ * <p>
+ * 1. 每条消息只序列化一次（共用一个 ObjectMapper），广播时所有会话共用同一个 TextMessage；
+ * 2. 每个会话一个有界发送队列，由共享的发送线程池异步排空，同一时刻每个会话最多一个线程在发送，保证顺序；
+ * 3. 慢客户端只会让自己的队列写满，按策略丢弃、合并或断开，不影响同一张图片的其他用户，也不阻塞 Disruptor 分道线程；
+ * 4. 单次阻塞发送的超时时间单独设置，卡住的连接最多占用一个发送线程这么久。
+ */
+@Slf4j
+@Component
+public class PictureEditMessageSender {
+
+    /**
+     * Tomcat 阻塞发送超时时间的会话属性
+     */
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    /**
+     * 每次排空最多发送的消息数，发完让出线程，避免一个会话长期占用
+     */
+    private static final int DRAIN_BATCH_SIZE = 64;
+
+    /**
+     * 停机时在发送超时之外多等待的时间（毫秒）
+     */
+    private static final long SHUTDOWN_MARGIN_MILLIS = 1000;
+
+    /**
+     * 发送线程数，0 表示按 CPU 核数
+     */
+    @Value("${picture.edit.sender-threads:0}")
+    private int senderThreads;
+
+    /**
+     * 每个会话的发送队列容量
+     */
+    @Value("${picture.edit.send-queue-capacity:256}")
+    private int sendQueueCapacity;
+
+    /**
+     * 发送队列写满时的策略：drop / coalesce / disconnect
+     */
+    @Value("${picture.edit.overflow-policy:coalesce}")
+    private String overflowPolicy;
+
+    /**
+     * 单次发送超时时间（毫秒）
+     */
+    @Value("${picture.edit.send-timeout-ms:5000}")
+    private long sendTimeoutMs;
+
+    // 广播用的 ObjectMapper（Long 转为 String，避免前端精度丢失），创建一次重复使用
+    private final ObjectMapper objectMapper = createObjectMapper();
+
+    // 会话id -> 发送队列
+    private final Map<String, SessionSendQueue> sendQueueMap = new ConcurrentHashMap<>();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    private final LongAdder disconnectedCount = new LongAdder();
+
+    private PictureEditOverflowPolicyEnum overflowPolicyEnum;
+
+    private ExecutorService senderExecutor;
+
+    @PostConstruct
+    public void init() {
+        overflowPolicyEnum = PictureEditOverflowPolicyEnum.getEnumByValue(overflowPolicy);
+        if (overflowPolicyEnum == null) {
+            throw new IllegalStateException("不支持的发送队列溢出策略: " + overflowPolicy);
+        }
+        int threads = senderThreads > 0 ? senderThreads : Runtime.getRuntime().availableProcessors();
+        senderExecutor = Executors.newFixedThreadPool(threads, ThreadFactoryBuilder.create()
+                .setNamePrefix("pictureEditSender-")
+                .build());
+    }
+
+
+    /**
+     * 连接建立后调用，为会话创建发送队列
+     */
+    public void register(WebSocketSession session) {
+        // Tomcat 默认阻塞发送 20 秒才超时，改短，卡住的连接尽快释放发送线程
+        if (session instanceof NativeWebSocketSession) {
+            Session nativeSession = ((NativeWebSocketSession) session).getNativeSession(Session.class);
+            if (nativeSession != null) {
+                nativeSession.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, sendTimeoutMs);
+            }
+        }
+        sendQueueMap.computeIfAbsent(session.getId(), id -> new SessionSendQueue(session));
+    }
+
+    /**
+     * 连接关闭后调用，丢弃还没发出的消息
+     */
+    public void unregister(WebSocketSession session) {
+        SessionSendQueue sendQueue = sendQueueMap.remove(session.getId());
+        if (sendQueue != null) {
+            sendQueue.close();
+        }
+    }
+
+
+    /**
+     * 发送消息给某个会话
+     */
+    public void send(WebSocketSession session, PictureEditResponseMessage pictureEditResponseMessage) {
+        String payload = serialize(pictureEditResponseMessage);
+        if (payload != null) {
+            enqueue(session, new TextMessage(payload), coalesceKeyOf(pictureEditResponseMessage.getType()));
+        }
+    }
+
+    /**
+     * 广播给多个会话（只序列化一次）
+     *
+     * @param sessions                   会话集合
+     * @param pictureEditResponseMessage 消息
+     * @param excludeSession             被排除的会话，可以为 null
+     */
+    public void broadcast(Collection<WebSocketSession> sessions, PictureEditResponseMessage pictureEditResponseMessage,
+                          WebSocketSession excludeSession) {
+        String payload = serialize(pictureEditResponseMessage);
+        if (payload != null) {
+            broadcast(sessions, payload, pictureEditResponseMessage.getType(), excludeSession);
+        }
+    }
+
+    /**
+     * 广播已经序列化好的消息（本节点广播后还要转发给其他节点，或者是其他节点转发过来的消息）
+     *
+     * @param sessions       会话集合
+     * @param payload        序列化后的消息
+     * @param type           消息类型
+     * @param excludeSession 被排除的会话，可以为 null
+     */
+    public void broadcast(Collection<WebSocketSession> sessions, String payload, String type, WebSocketSession excludeSession) {
+        TextMessage textMessage = new TextMessage(payload);
+        String coalesceKey = coalesceKeyOf(type);
+        for (WebSocketSession session : sessions) {
+            // 排除掉的session不发送
+            if (excludeSession != null && session.equals(excludeSession)) {
+                continue;
+            }
+            enqueue(session, textMessage, coalesceKey);
+        }
+    }
+
+
+    /**
+     * 获取发送队列的运行状态
+     */
+    public PictureEditSenderStat getSenderStat() {
+        PictureEditSenderStat senderStat = new PictureEditSenderStat();
+        senderStat.setSessionCount(sendQueueMap.size());
+        senderStat.setQueuedCount(sendQueueMap.values().stream().mapToLong(SessionSendQueue::size).sum());
+        senderStat.setDroppedCount(droppedCount.sum());
+        senderStat.setCoalescedCount(coalescedCount.sum());
+        senderStat.setDisconnectedCount(disconnectedCount.sum());
+        return senderStat;
+    }
+
+
+    /**
+     * 优雅停机：正在发送的消息发完再关闭，最多等待一次发送超时的时间，超时后中断发送线程
+     */
+    @PreDestroy
+    public void destroy() {
+        senderExecutor.shutdown();
+        try {
+            if (!senderExecutor.awaitTermination(sendTimeoutMs + SHUTDOWN_MARGIN_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("图片编辑消息发送线程没有按时结束，强制关闭");
+                senderExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            senderExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void enqueue(WebSocketSession session, TextMessage textMessage, String coalesceKey) {
+        if (!session.isOpen()) {
+            return;
+        }
+        SessionSendQueue sendQueue = sendQueueMap.get(session.getId());
+        if (sendQueue == null) {
+            // 还没注册（或已经注销）的会话，不再发送
+            return;
+        }
+        sendQueue.offer(textMessage, coalesceKey);
+    }
+
+    /**
+     * 序列化消息（Long 转为 String），失败时返回 null
+     */
+    public String serialize(PictureEditResponseMessage pictureEditResponseMessage) {
+        try {
+            return objectMapper.writeValueAsString(pictureEditResponseMessage);
+        } catch (JsonProcessingException e) {
+            log.error("图片编辑消息序列化失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 可以合并的消息：通知只保留最新的一条，编辑状态（进入、退出）只保留最新的状态；编辑操作不能合并
+     * 同一张图片同时只有一人编辑，进入、退出在所有用户之间也是有序的，合并时新状态放在队尾，不会排到之后的消息前面
+     */
+    private String coalesceKeyOf(String type) {
+        PictureEditMessageTypeEnum typeEnum = PictureEditMessageTypeEnum.getEnumByValue(type);
+        if (typeEnum == null) {
+            return null;
+        }
+        switch (typeEnum) {
+            case INFO:
+            case ERROR:
+                return typeEnum.getValue();
+            case ENTER_EDIT:
+            case EXIT_EDIT:
+                return "EDIT_STATE";
+            default:
+                return null;
+        }
+    }
+
+    private static ObjectMapper createObjectMapper() {
+        // 直接把响应转为String，会产生一个精度丢失的问题！因为该响应中有UserVO属性，UserVO里有userId属性，Long类型经过JSON转化一定会产生精度丢失问题。
+        // 1.所以要用Jackson库进行转化，创建Jackson库的ObjectMapper -> 是Jackson的核心对象，把Java对象 <-> JSON字符串互相转换（序列化/反序列化）
+        ObjectMapper objectMapper = new ObjectMapper();
+        // 2.配置序列化，将Long类型转换为String
+        // SimpleModule是Jackson的插件模块容器，可以放规则
+        SimpleModule module = new SimpleModule();
+        // 写Long.class和Long.TYPE 目的是 包装类 + 基本类型 都覆盖到
+        // 当Jackson遇到包装类型Long时，不按默认数字输出，而是用ToStringSerializer，效果是调用toString()输出JSON值
+        module.addSerializer(Long.class, ToStringSerializer.instance);
+        // Long.TYPE是基本类型long(即long.class)
+        module.addSerializer(Long.TYPE, ToStringSerializer.instance);
+        // 然后把这套规则注册到ObjectMapper上
+        objectMapper.registerModule(module);
+        return objectMapper;
+    }
+
+
+    /**
+     * 单个会话的有界发送队列
+     */
+    private class SessionSendQueue {
+
+        private final WebSocketSession session;
+
+        private final ArrayDeque<PendingMessage> queue = new ArrayDeque<>();
+
+        /**
+         * 是否已经有线程在排空队列
+         */
+        private boolean draining;
+
+        private boolean closed;
+
+        SessionSendQueue(WebSocketSession session) {
+            this.session = session;
+        }
+
+        void offer(TextMessage textMessage, String coalesceKey) {
+            boolean disconnect = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (queue.size() < sendQueueCapacity) {
+                    queue.addLast(new PendingMessage(textMessage, coalesceKey));
+                } else {
+                    switch (overflowPolicyEnum) {
+                        case DROP:
+                            droppedCount.increment();
+                            return;
+                        case COALESCE:
+                            if (coalesce(textMessage, coalesceKey)) {
+                                coalescedCount.increment();
+                                return;
+                            }
+                            disconnect = true;
+                            break;
+                        default:
+                            disconnect = true;
+                    }
+                }
+                if (disconnect) {
+                    closed = true;
+                    queue.clear();
+                } else if (!draining) {
+                    draining = true;
+                    submitDrain();
+                }
+            }
+            if (disconnect) {
+                disconnectSlowSession();
+            }
+        }
+
+        /**
+         * 移除队列中一条同类的旧消息，新消息加到队尾（不能放在旧消息的位置，否则会排到比它早入队的消息前面）
+         */
+        private boolean coalesce(TextMessage textMessage, String coalesceKey) {
+            if (coalesceKey == null) {
+                return false;
+            }
+            Iterator<PendingMessage> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                if (coalesceKey.equals(iterator.next().coalesceKey)) {
+                    iterator.remove();
+                    queue.addLast(new PendingMessage(textMessage, coalesceKey));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean submitDrain() {
+            try {
+                senderExecutor.execute(this::drain);
+                return true;
+            } catch (RejectedExecutionException e) {
+                // 正在停机
+                draining = false;
+                queue.clear();
+                return false;
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH_SIZE; i++) {
+                PendingMessage pendingMessage;
+                synchronized (this) {
+                    pendingMessage = queue.pollFirst();
+                    if (pendingMessage == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (!session.isOpen()) {
+                    close();
+                    return;
+                }
+                try {
+                    session.sendMessage(pendingMessage.textMessage);
+                } catch (Exception e) {
+                    // 发送失败（超时、连接已断开），这个会话后面的消息也发不出去了
+                    log.warn("发送图片编辑消息失败，关闭会话, sessionId = {}", session.getId(), e);
+                    close();
+                    closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                    return;
+                }
+            }
+            // 还没发完，重新排队，让其他会话也有机会发送
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    draining = false;
+                } else {
+                    submitDrain();
+                }
+            }
+        }
+
+        synchronized int size() {
+            return queue.size();
+        }
+
+        synchronized void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        private void disconnectSlowSession() {
+            disconnectedCount.increment();
+            log.warn("会话发送队列已满，断开慢客户端, sessionId = {}", session.getId());
+            closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+
+        private void closeQuietly(CloseStatus closeStatus) {
+            try {
+                session.close(closeStatus);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+
+    /**
+     * 排队中的消息
+     */
+    private static class PendingMessage {
+
+        private final TextMessage textMessage;
+
+        private final String coalesceKey;
+
+        PendingMessage(TextMessage textMessage, String coalesceKey) {
+            this.textMessage = textMessage;
+            this.coalesceKey = coalesceKey;
+        }
+    }
+}
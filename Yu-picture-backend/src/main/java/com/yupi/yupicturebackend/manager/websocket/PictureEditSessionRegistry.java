@@ -0,0 +1,128 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 图片编辑会话注册表
+ * <p>
+ * 连接建立时给会话分配一个下标，编辑事件只保存下标和连接id，处理事件时再按下标找回会话。
+ * 下标在连接关闭后复用，连接id 每个连接唯一，用来识别已经关闭（下标被别的连接复用）的会话。
+ */
+@Component
+public class PictureEditSessionRegistry {
+
+    /**
+     * 会话属性中保存下标的 key
+     */
+    public static final String SESSION_INDEX_ATTRIBUTE = "editSessionIndex";
+
+    /**
+     * 会话属性中保存连接id的 key
+     */
+    public static final String CONNECTION_ID_ATTRIBUTE = "editConnectionId";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final AtomicLong connectionIdGenerator = new AtomicLong();
+
+    /**
+     * 下标 -> 会话（扩容时整体替换，读的一方不加锁）
+     */
+    private volatile AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    /**
+     * 空闲的下标（栈）
+     */
+    private int[] freeIndices = new int[0];
+
+    private int freeCount;
+
+    /**
+     * 已经分配过的最大下标 + 1
+     */
+    private int nextIndex;
+
+
+    /**
+     * 注册会话，下标和连接id保存到会话属性中
+     */
+    public synchronized void register(WebSocketSession session) {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndices[--freeCount];
+        } else {
+            index = nextIndex++;
+            if (index >= entries.length()) {
+                grow();
+            }
+        }
+        long connectionId = connectionIdGenerator.incrementAndGet();
+        entries.set(index, new Entry(session, connectionId));
+        session.getAttributes().put(SESSION_INDEX_ATTRIBUTE, index);
+        session.getAttributes().put(CONNECTION_ID_ATTRIBUTE, connectionId);
+    }
+
+    /**
+     * 注销会话，下标放回空闲栈
+     */
+    public synchronized void unregister(WebSocketSession session) {
+        Object index = session.getAttributes().get(SESSION_INDEX_ATTRIBUTE);
+        Object connectionId = session.getAttributes().get(CONNECTION_ID_ATTRIBUTE);
+        if (!(index instanceof Integer) || !(connectionId instanceof Long)) {
+            return;
+        }
+        Entry entry = entries.get((Integer) index);
+        if (entry == null || entry.connectionId != (Long) connectionId) {
+            return;
+        }
+        entries.set((Integer) index, null);
+        if (freeCount == freeIndices.length) {
+            freeIndices = Arrays.copyOf(freeIndices, Math.max(16, freeIndices.length * 2));
+        }
+        freeIndices[freeCount++] = (Integer) index;
+    }
+
+    /**
+     * 按下标找回会话
+     *
+     * @param sessionIndex 下标
+     * @param connectionId 连接id
+     * @return 会话，已经关闭（下标被复用）时返回 null
+     */
+    public WebSocketSession get(int sessionIndex, long connectionId) {
+        AtomicReferenceArray<Entry> currentEntries = entries;
+        if (sessionIndex < 0 || sessionIndex >= currentEntries.length()) {
+            return null;
+        }
+        Entry entry = currentEntries.get(sessionIndex);
+        return entry == null || entry.connectionId != connectionId ? null : entry.session;
+    }
+
+
+    private void grow() {
+        AtomicReferenceArray<Entry> oldEntries = entries;
+        AtomicReferenceArray<Entry> newEntries = new AtomicReferenceArray<>(oldEntries.length() * 2);
+        for (int i = 0; i < oldEntries.length(); i++) {
+            newEntries.set(i, oldEntries.get(i));
+        }
+        entries = newEntries;
+    }
+
+
+    private static class Entry {
+
+        private final WebSocketSession session;
+
+        private final long connectionId;
+
+        Entry(WebSocketSession session, long connectionId) {
+            this.session = session;
+            this.connectionId = connectionId;
+        }
+    }
+}
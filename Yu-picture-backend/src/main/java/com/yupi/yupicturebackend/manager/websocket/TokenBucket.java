@@ -0,0 +1,46 @@
+package com.yupi.yupicturebackend.manager.websocket;
+
+/**
+ * 令牌桶（单个连接的入站限流）
+ * <p>
+ * 按时间差惰性补充令牌，不需要定时任务；同一个连接的消息由容器线程依次调用，锁几乎没有竞争。
+ */
+public class TokenBucket {
+
+    /**
+     * 桶容量（允许的突发数）
+     */
+    private final double capacity;
+
+    /**
+     * 每纳秒补充的令牌数
+     */
+    private final double refillPerNanos;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        this.capacity = capacity;
+        this.refillPerNanos = permitsPerSecond / 1_000_000_000D;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试取一个令牌
+     *
+     * @return 是否取到
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNanos);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
@@ -1,9 +1,11 @@
 package com.yupi.yupicturebackend.manager.websocket;
 
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.ObjUtil;
 import cn.hutool.core.util.StrUtil;
 import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthManager;
 import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
+import com.yupi.yupicturebackend.manager.bloom.PictureBloomFilterManager;
 import com.yupi.yupicturebackend.model.entity.Picture;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.User;
@@ -21,7 +23,6 @@ import org.springframework.web.socket.server.HandshakeInterceptor;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -46,6 +47,10 @@ public class WsHandshakeInterceptor implements HandshakeInterceptor {
     @Resource
     private SpaceUserAuthManager spaceUserAuthManager;
 
+    // 引入图片id布隆过滤器
+    @Resource
+    private PictureBloomFilterManager pictureBloomFilterManager;
+
     /**
      * 建立连接前，需要先校验
      *
@@ -79,7 +84,12 @@ public class WsHandshakeInterceptor implements HandshakeInterceptor {
             }
 
             // 2.校验用户是否有编辑当前图片的权限
-            Picture picture = pictureService.getById(pictureId);
+            // 2.0 pictureId必须是数字，且布隆过滤器判断可能存在，才去查库
+            if (!NumberUtil.isLong(pictureId) || !pictureBloomFilterManager.mightContain(Long.valueOf(pictureId))) {
+                log.error("图片不存在，拒绝握手！");
+                return false;
+            }
+            Picture picture = pictureService.getByIdWithArchive(Long.valueOf(pictureId));
             if (ObjUtil.isEmpty(picture)) {
                 log.error("图片不存在，拒绝握手！");
                 return false;
@@ -99,11 +109,11 @@ public class WsHandshakeInterceptor implements HandshakeInterceptor {
                     return false;
                 }
             }
-            // 2.3 拿到空间用户的权限列表
-            List<String> permissionList = spaceUserAuthManager.getPermissionList(space, loginUser);
-            if (!permissionList.contains(SpaceUserPermissionConstant.PICTURE_EDIT)) {
+            // 2.3 判断空间用户的权限（按位判断）
+            if (!spaceUserAuthManager.hasPermission(space, loginUser, SpaceUserPermissionConstant.PICTURE_EDIT)) {
                 // 如果用户的权限列表中不包含 "edit" 编辑权限
                 log.error("用户没有编辑图片的权限，拒绝握手！");
+                return false;
             }
             // 2.4 终于可以成功握手了！设置用户登录信息等属性到 WebSocket 会话中
             // 参数attributes是一个Map，插入键值对，相对于给WebSocket会话创建属性
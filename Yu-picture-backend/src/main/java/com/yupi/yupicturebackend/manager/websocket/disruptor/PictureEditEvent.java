@@ -1,34 +1,57 @@
 package com.yupi.yupicturebackend.manager.websocket.disruptor;
 
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRequestMessage;
-import com.yupi.yupicturebackend.model.entity.User;
 import lombok.Data;
-import org.springframework.web.socket.WebSocketSession;
 
 /**
  * 图片编辑事件
+ * <p>
+ * 环形队列中的槽位是预先分配、反复使用的，只保存基本类型字段，不引用会话、用户、消息对象：
+ * 已关闭的会话和用户不会因为留在槽位里而无法回收，发布事件也不产生新对象。
+ * 会话通过 PictureEditSessionRegistry 按下标 + 连接id 找回。
  */
 @Data
 public class PictureEditEvent {
 
     /**
-     * 消息
+     * 消息类型编码（PictureEditMessageCodec.UNKNOWN 表示未知类型）
      */
-    private PictureEditRequestMessage pictureEditRequestMessage;
+    private int typeCode;
 
     /**
-     * 当前用户的 session
+     * 编辑动作编码（PictureEditMessageCodec.UNKNOWN 表示没有或未知）
      */
-    private WebSocketSession session;
+    private int actionCode;
 
     /**
-     * 当前用户
+     * 当前用户 id
      */
-    private User user;
+    private long userId;
 
     /**
      * 图片 id
      */
-    private Long pictureId;
+    private long pictureId;
+
+    /**
+     * 当前用户会话在注册表中的下标
+     */
+    private int sessionIndex;
+
+    /**
+     * 当前用户会话的连接id（下标会复用，用连接id确认还是同一个会话）
+     */
+    private long connectionId;
+
+    /**
+     * 所有分道处理完后清空槽位
+     */
+    public void clear() {
+        typeCode = 0;
+        actionCode = 0;
+        userId = 0L;
+        pictureId = 0L;
+        sessionIndex = 0;
+        connectionId = 0L;
+    }
 
 }
@@ -0,0 +1,15 @@
+package com.yupi.yupicturebackend.manager.websocket.disruptor;
+
+import com.lmax.disruptor.EventHandler;
+
+/**
+ * 槽位清理处理器：排在所有分道之后，所有分道都看过这个事件后再清空槽位
+ * （分道之间会读同一个槽位判断归属，不能由处理它的分道自己清空）
+ */
+public class PictureEditEventClearingHandler implements EventHandler<PictureEditEvent> {
+
+    @Override
+    public void onEvent(PictureEditEvent pictureEditEvent, long sequence, boolean endOfBatch) {
+        pictureEditEvent.clear();
+    }
+}
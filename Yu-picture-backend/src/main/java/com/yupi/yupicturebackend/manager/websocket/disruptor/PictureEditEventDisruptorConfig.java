@@ -2,10 +2,13 @@ package com.yupi.yupicturebackend.manager.websocket.disruptor;
 
 import cn.hutool.core.thread.ThreadFactoryBuilder;
 import com.lmax.disruptor.dsl.Disruptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 图片编辑事件 Disruptor 配置
@@ -13,9 +16,28 @@ import javax.annotation.Resource;
 @Configuration
 public class PictureEditEventDisruptorConfig {
 
-    // 引入PictureEditEventWorkHandler
+    // 引入PictureEditEventProcessor，分道处理器调用它处理事件
     @Resource
-    private PictureEditEventWorkHandler pictureEditEventWorkHandler;
+    private PictureEditEventProcessor pictureEditEventProcessor;
+
+    /**
+     * 分道数，0 表示按 CPU 核数
+     */
+    @Value("${picture.edit.lanes:0}")
+    private int laneCount;
+
+    /**
+     * 按 pictureId 分道的消费者，同一张图片的事件保持顺序，不同图片并行处理
+     */
+    @Bean("pictureEditEventLaneHandlers")
+    public List<PictureEditEventLaneHandler> pictureEditEventLaneHandlers() {
+        int lanes = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        List<PictureEditEventLaneHandler> laneHandlers = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            laneHandlers.add(new PictureEditEventLaneHandler(i, lanes, pictureEditEventProcessor));
+        }
+        return laneHandlers;
+    }
 
     @Bean("pictureEditEventDisruptor")
     public Disruptor<PictureEditEvent> messageModelRingBuffer() {
@@ -31,8 +53,10 @@ public class PictureEditEventDisruptorConfig {
                         .setNamePrefix("pictureEditEventDisruptor")
                         .build()
         );
-        // 3.绑定消费者：使用worker工作线程执行消费者的事件
-        disruptor.handleEventsWithWorkerPool(pictureEditEventWorkHandler);
+        // 3.绑定消费者：每条分道一个线程，并行读取环形队列，各自只处理本分道的图片；
+        // 所有分道都处理完后，由清理处理器清空槽位
+        disruptor.handleEventsWith(pictureEditEventLaneHandlers().toArray(new PictureEditEventLaneHandler[0]))
+                .then(new PictureEditEventClearingHandler());
         // 4.启动 disruptor
         disruptor.start();
         return disruptor;
@@ -0,0 +1,82 @@
+package com.yupi.yupicturebackend.manager.websocket.disruptor;
+
+import com.lmax.disruptor.EventHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片编辑事件分道处理器（消费者）
+ * <p>
+ * 每条分道一个线程，所有分道读取同一个环形队列，只处理 pictureId 落在本分道的事件：
+ * 同一张图片的事件总在同一条分道上按顺序处理，不同图片的事件并行处理。
+ */
+@Slf4j
+public class PictureEditEventLaneHandler implements EventHandler<PictureEditEvent> {
+
+    /**
+     * 分道下标
+     */
+    private final int laneIndex;
+
+    /**
+     * 分道总数
+     */
+    private final int laneCount;
+
+    /**
+     * 实际处理事件的逻辑
+     */
+    private final PictureEditEventProcessor pictureEditEventProcessor;
+
+    /**
+     * 已处理的事件数
+     */
+    private final AtomicLong processedCount = new AtomicLong();
+
+    /**
+     * 处理失败的事件数
+     */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public PictureEditEventLaneHandler(int laneIndex, int laneCount, PictureEditEventProcessor pictureEditEventProcessor) {
+        this.laneIndex = laneIndex;
+        this.laneCount = laneCount;
+        this.pictureEditEventProcessor = pictureEditEventProcessor;
+    }
+
+    @Override
+    public void onEvent(PictureEditEvent pictureEditEvent, long sequence, boolean endOfBatch) {
+        // 1.不是本分道的图片，直接跳过
+        if (laneOf(pictureEditEvent.getPictureId(), laneCount) != laneIndex) {
+            return;
+        }
+        // 2.处理事件，异常只记录日志，不能让分道线程退出
+        try {
+            pictureEditEventProcessor.process(pictureEditEvent);
+            processedCount.incrementAndGet();
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            log.error("处理图片编辑事件失败, lane = {}, pictureId = {}", laneIndex, pictureEditEvent.getPictureId(), e);
+        }
+    }
+
+    /**
+     * 计算图片所在的分道
+     */
+    public static int laneOf(long pictureId, int laneCount) {
+        return Math.floorMod(Long.hashCode(pictureId), laneCount);
+    }
+
+    public int getLaneIndex() {
+        return laneIndex;
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -0,0 +1,88 @@
+package com.yupi.yupicturebackend.manager.websocket.disruptor;
+
+import com.yupi.yupicturebackend.manager.websocket.PictureEditHandler;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditMessageCodec;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditMessageSender;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditSessionRegistry;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditResponseMessage;
+import com.yupi.yupicturebackend.model.entity.User;
+import com.yupi.yupicturebackend.service.UserService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.Resource;
+
+import static com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum.*;
+
+/**
+ * 图片编辑事件处理逻辑（由 PictureEditEventLaneHandler 在本分道的线程上调用，自己不是 Disruptor 的消费者）
+ */
+@Slf4j
+@Component
+public class PictureEditEventProcessor {
+
+    // 引入PictureEditHandler，因为3种handle方法都在其中
+    @Resource
+    private PictureEditHandler pictureEditHandler;
+
+    @Resource
+    private UserService userService;
+
+    // 引入消息发送器，不在分道线程上写 socket
+    @Resource
+    private PictureEditMessageSender pictureEditMessageSender;
+
+    // 引入会话注册表，按事件中的下标找回会话
+    @Resource
+    private PictureEditSessionRegistry pictureEditSessionRegistry;
+
+    /**
+     * 处理一个图片编辑事件
+     *
+     * @param pictureEditEvent 图片编辑事件
+     */
+    public void process(PictureEditEvent pictureEditEvent) throws Exception {
+        // 从注册表中按下标找回session，会话已经关闭时不再处理
+        WebSocketSession session = pictureEditSessionRegistry.get(pictureEditEvent.getSessionIndex(), pictureEditEvent.getConnectionId());
+        if (session == null) {
+            return;
+        }
+        // 然后获取几个参数：用户从会话属性中取（槽位里只有用户 id）
+        User user = (User) session.getAttributes().get("user");
+        Long pictureId = pictureEditEvent.getPictureId();
+
+        // 获取PictureEditMessageTypeEnum
+        PictureEditMessageTypeEnum pictureEditMessageTypeEnum = PictureEditMessageCodec.toType(pictureEditEvent.getTypeCode());
+        if (pictureEditMessageTypeEnum == null) {
+            // 未知的消息类型，按其他消息类型处理（switch 不能传 null）
+            pictureEditMessageTypeEnum = ERROR;
+        }
+
+        // switch判断:根据消息类型处理信息
+        switch (pictureEditMessageTypeEnum) {
+            case ENTER_EDIT:
+                // 进入编辑状态：调用pictureEditHandler的方法
+                pictureEditHandler.handleEnterEditMessage(session, user, pictureId);
+                break;
+            case EXIT_EDIT:
+                // 结束编辑状态
+                pictureEditHandler.handleExitEditMessage(session, user, pictureId);
+                break;
+            case EDIT_ACTION:
+                // 编辑状态行为
+                pictureEditHandler.handleEditActionMessage(PictureEditMessageCodec.toAction(pictureEditEvent.getActionCode()), session, user, pictureId);
+                break;
+            default:
+                // 其他消息类型，返回错误提示
+                PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
+                pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.ERROR.getValue());
+                pictureEditResponseMessage.setMessage("消息类型错误");
+                pictureEditResponseMessage.setUser(userService.getUserVO(user));
+                // 放入会话的发送队列，由发送器序列化后异步发送
+                pictureEditMessageSender.send(session, pictureEditResponseMessage);
+                break;
+        }
+    }
+}
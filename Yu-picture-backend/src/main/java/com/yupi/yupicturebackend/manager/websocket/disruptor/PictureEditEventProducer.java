@@ -1,15 +1,23 @@
 package com.yupi.yupicturebackend.manager.websocket.disruptor;
 
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRequestMessage;
-import com.yupi.yupicturebackend.model.entity.User;
+import com.yupi.yupicturebackend.manager.websocket.PictureEditMessageCodec;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditLaneStat;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditOverloadPolicyEnum;
+import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRingStat;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.WebSocketSession;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 图片编辑事件的（生产者）
@@ -22,29 +30,175 @@ public class PictureEditEventProducer {
     @Resource
     private Disruptor<PictureEditEvent> pictureEditEventDisruptor;
 
+    // 按 pictureId 分道的消费者
+    @Resource
+    private List<PictureEditEventLaneHandler> pictureEditEventLaneHandlers;
+
     /**
-     * 发布事件
+     * 环形队列过载策略：reject / shed
+     */
+    @Value("${picture.edit.overload-policy:shed}")
+    private String overloadPolicy;
+
+    /**
+     * 高水位（占用率），超过后 shed 策略开始丢弃低优先级的消息：服务端广播的加入、离开编辑通知，以及未知类型的消息
+     */
+    @Value("${picture.edit.shed-high-water:0.8}")
+    private double shedHighWater;
+
+    private PictureEditOverloadPolicyEnum overloadPolicyEnum;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder shedCount = new LongAdder();
+
+    private final LongAdder rateLimitedCount = new LongAdder();
+
+    /**
+     * 发布结果
+     */
+    public enum PublishResult {
+        /**
+         * 已发布
+         */
+        PUBLISHED,
+        /**
+         * 队列已满被拒绝，需要告诉客户端
+         */
+        REJECTED,
+        /**
+         * 低优先级事件被丢弃，不需要告诉客户端
+         */
+        SHED
+    }
+
+    @PostConstruct
+    public void init() {
+        overloadPolicyEnum = PictureEditOverloadPolicyEnum.getEnumByValue(overloadPolicy);
+        if (overloadPolicyEnum == null) {
+            throw new IllegalStateException("不支持的编辑事件过载策略: " + overloadPolicy);
+        }
+    }
+
+
+    /**
+     * 发布事件（不阻塞：队列满时立即返回，不会卡住 WebSocket 容器线程；只复制基本类型字段，不产生新对象）
      *
-     * @param pictureEditRequestMessage
-     * @param session
-     * @param user
-     * @param pictureId
+     * @param typeCode     消息类型编码
+     * @param actionCode   编辑动作编码
+     * @param userId       当前用户 id
+     * @param pictureId    图片 id
+     * @param sessionIndex 会话下标
+     * @param connectionId 连接id
+     * @return 发布结果
      */
-    public void publishEvent(PictureEditRequestMessage pictureEditRequestMessage, WebSocketSession session, User user, Long pictureId) {
+    public PublishResult publishEvent(int typeCode, int actionCode, long userId, long pictureId, int sessionIndex, long connectionId) {
         // 1.通过Disruptor拿到ringBuffer
         RingBuffer<PictureEditEvent> ringBuffer = pictureEditEventDisruptor.getRingBuffer();
-        // 2.然后获取可以放置事件的位置
-        // 2.1 拿到下一个生成事件的位置
-        long next = ringBuffer.next();
-        // 2.2 根据下一次的位置获取事件对象 -> 然后赋值 -> 就是把外层传来的参数封装到环形缓冲区得到的事件对象中
-        PictureEditEvent pictureEditEvent = ringBuffer.get(next);
-        pictureEditEvent.setPictureEditRequestMessage(pictureEditRequestMessage);
-        pictureEditEvent.setSession(session);
-        pictureEditEvent.setUser(user);
-        pictureEditEvent.setPictureId(pictureId);
-
-        // 3.发布事件
-        ringBuffer.publish(next);
+        // 2.shed 策略：超过高水位时先丢弃低优先级事件，给编辑操作留出空间
+        if (isLowPriority(typeCode) && isShedding(ringBuffer)) {
+            shedCount.increment();
+            return PublishResult.SHED;
+        }
+        // 3.然后获取可以放置事件的位置
+        // 3.1 尝试拿到下一个生成事件的位置，队列已满时不等待
+        long next;
+        try {
+            next = ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            rejectedCount.increment();
+            return PublishResult.REJECTED;
+        }
+        // 3.2 根据位置拿到预先分配的事件对象，把基本类型字段复制进去
+        try {
+            PictureEditEventTranslator.translateTo(ringBuffer.get(next), typeCode, actionCode, userId, pictureId, sessionIndex, connectionId);
+        } finally {
+            // 4.发布事件（拿到的位置必须发布，否则消费者会一直等在这个位置）
+            ringBuffer.publish(next);
+        }
+        return PublishResult.PUBLISHED;
+    }
+
+    /**
+     * 服务端广播加入、离开编辑的通知前调用：shed 策略下超过高水位时丢弃通知，把发送能力留给编辑操作
+     * （客户端只会发送进入、退出编辑和编辑操作，都不能丢弃，过载时真正能丢弃的是这类通知）
+     *
+     * @return 是否丢弃（丢弃时计入 shedCount）
+     */
+    public boolean shedNotice() {
+        if (isShedding(pictureEditEventDisruptor.getRingBuffer())) {
+            shedCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次被连接限流拦下的消息
+     */
+    public void recordRateLimited() {
+        rateLimitedCount.increment();
+    }
+
+    /**
+     * 获取环形队列的运行状态
+     *
+     * @return
+     */
+    public PictureEditRingStat getRingStat() {
+        RingBuffer<PictureEditEvent> ringBuffer = pictureEditEventDisruptor.getRingBuffer();
+        long occupancy = occupancy(ringBuffer);
+        PictureEditRingStat ringStat = new PictureEditRingStat();
+        ringStat.setBufferSize(ringBuffer.getBufferSize());
+        ringStat.setOccupancy(occupancy);
+        ringStat.setOccupancyRatio((double) occupancy / ringBuffer.getBufferSize());
+        ringStat.setRejectedCount(rejectedCount.sum());
+        ringStat.setShedCount(shedCount.sum());
+        ringStat.setRateLimitedCount(rateLimitedCount.sum());
+        return ringStat;
+    }
+
+    /**
+     * 进入、退出编辑和编辑操作是高优先级，其他（格式错误、未知类型）是低优先级
+     */
+    private boolean isLowPriority(int typeCode) {
+        PictureEditMessageTypeEnum typeEnum = PictureEditMessageCodec.toType(typeCode);
+        return typeEnum != PictureEditMessageTypeEnum.ENTER_EDIT
+                && typeEnum != PictureEditMessageTypeEnum.EXIT_EDIT
+                && typeEnum != PictureEditMessageTypeEnum.EDIT_ACTION;
+    }
+
+    /**
+     * shed 策略下队列是否超过了高水位
+     */
+    private boolean isShedding(RingBuffer<PictureEditEvent> ringBuffer) {
+        return overloadPolicyEnum == PictureEditOverloadPolicyEnum.SHED
+                && occupancy(ringBuffer) >= ringBuffer.getBufferSize() * shedHighWater;
+    }
+
+    private long occupancy(RingBuffer<PictureEditEvent> ringBuffer) {
+        return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
+    }
+
+    /**
+     * 获取每条分道的运行状态（落后于生产者的事件数等）
+     *
+     * @return
+     */
+    public List<PictureEditLaneStat> listLaneStats() {
+        long cursor = pictureEditEventDisruptor.getRingBuffer().getCursor();
+        List<PictureEditLaneStat> laneStatList = new ArrayList<>(pictureEditEventLaneHandlers.size());
+        for (PictureEditEventLaneHandler laneHandler : pictureEditEventLaneHandlers) {
+            long sequence = pictureEditEventDisruptor.getSequenceValueFor(laneHandler);
+            PictureEditLaneStat laneStat = new PictureEditLaneStat();
+            laneStat.setLane(laneHandler.getLaneIndex());
+            laneStat.setSequence(sequence);
+            laneStat.setLag(Math.max(0, cursor - sequence));
+            laneStat.setProcessedCount(laneHandler.getProcessedCount());
+            laneStat.setFailedCount(laneHandler.getFailedCount());
+            laneStatList.add(laneStat);
+        }
+        return laneStatList;
     }
 
     /**
@@ -0,0 +1,22 @@
+package com.yupi.yupicturebackend.manager.websocket.disruptor;
+
+/**
+ * 图片编辑事件翻译器：把基本类型字段复制到预先分配的槽位中
+ * <p>
+ * Disruptor 自带的 EventTranslatorXxxArg 参数是泛型，传 long / int 会装箱，所以这里直接写基本类型的参数。
+ */
+public final class PictureEditEventTranslator {
+
+    private PictureEditEventTranslator() {
+    }
+
+    public static void translateTo(PictureEditEvent pictureEditEvent, int typeCode, int actionCode, long userId,
+                                   long pictureId, int sessionIndex, long connectionId) {
+        pictureEditEvent.setTypeCode(typeCode);
+        pictureEditEvent.setActionCode(actionCode);
+        pictureEditEvent.setUserId(userId);
+        pictureEditEvent.setPictureId(pictureId);
+        pictureEditEvent.setSessionIndex(sessionIndex);
+        pictureEditEvent.setConnectionId(connectionId);
+    }
+}
@@ -1,72 +0,0 @@
-package com.yupi.yupicturebackend.manager.websocket.disruptor;
-
-import cn.hutool.json.JSONUtil;
-import com.lmax.disruptor.WorkHandler;
-import com.yupi.yupicturebackend.manager.websocket.PictureEditHandler;
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum;
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditRequestMessage;
-import com.yupi.yupicturebackend.manager.websocket.model.PictureEditResponseMessage;
-import com.yupi.yupicturebackend.model.entity.User;
-import com.yupi.yupicturebackend.service.UserService;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Component;
-import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.WebSocketSession;
-
-import javax.annotation.Resource;
-
-import static com.yupi.yupicturebackend.manager.websocket.model.PictureEditMessageTypeEnum.*;
-
-/**
- * 图片编辑事件处理器（消费者）
- */
-@Slf4j
-@Component
-public class PictureEditEventWorkHandler implements WorkHandler<PictureEditEvent> {
-
-    // 引入PictureEditHandler，因为3种handle方法都在其中
-    @Resource
-    private PictureEditHandler pictureEditHandler;
-
-    @Resource
-    private UserService userService;
-
-    @Override
-    public void onEvent(PictureEditEvent pictureEditEvent) throws Exception {
-        PictureEditRequestMessage pictureEditRequestMessage = pictureEditEvent.getPictureEditRequestMessage();
-        // 从pictureEditEvent中获取session
-        WebSocketSession session = pictureEditEvent.getSession();
-        // 然后获取几个参数
-        User user = pictureEditEvent.getUser();
-        Long pictureId = pictureEditEvent.getPictureId();
-
-        // 获取PictureEditMessageTypeEnum
-        String type = pictureEditRequestMessage.getType();
-        PictureEditMessageTypeEnum pictureEditMessageTypeEnum = getEnumByValue(type);
-
-        // switch判断:根据消息类型处理信息
-        switch (pictureEditMessageTypeEnum) {
-            case ENTER_EDIT:
-                // 进入编辑状态：调用pictureEditHandler的方法
-                pictureEditHandler.handleEnterEditMessage(pictureEditRequestMessage, session, user, pictureId);
-                break;
-            case EXIT_EDIT:
-                // 结束编辑状态
-                pictureEditHandler.handleExitEditMessage(pictureEditRequestMessage, session, user, pictureId);
-                break;
-            case EDIT_ACTION:
-                // 编辑状态行为
-                pictureEditHandler.handleEditActionMessage(pictureEditRequestMessage, session, user, pictureId);
-                break;
-            default:
-                // 其他消息类型，返回错误提示
-                PictureEditResponseMessage pictureEditResponseMessage = new PictureEditResponseMessage();
-                pictureEditResponseMessage.setType(PictureEditMessageTypeEnum.ERROR.getValue());
-                pictureEditResponseMessage.setMessage("消息类型错误");
-                pictureEditResponseMessage.setUser(userService.getUserVO(user));
-                // 调用session的方法发送，错误提示的消息必须经常JSON转Str后传送
-                session.sendMessage(new TextMessage(JSONUtil.toJsonStr(pictureEditResponseMessage)));
-                break;
-        }
-    }
-}
@@ -0,0 +1,39 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 图片编辑事件分道的运行状态
+ */
+@Data
+public class PictureEditLaneStat implements Serializable {
+
+    /**
+     * 分道下标
+     */
+    private Integer lane;
+
+    /**
+     * 分道已消费到的序号
+     */
+    private Long sequence;
+
+    /**
+     * 落后于生产者的事件数（环形队列中还没有被该分道看过的事件）
+     */
+    private Long lag;
+
+    /**
+     * 已处理的事件数（只统计本分道的图片）
+     */
+    private Long processedCount;
+
+    /**
+     * 处理失败的事件数
+     */
+    private Long failedCount;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,37 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Getter;
+
+/**
+ * 会话发送队列写满时的处理策略
+ */
+@Getter
+public enum PictureEditOverflowPolicyEnum {
+
+    DROP("丢弃新消息", "drop"),
+    COALESCE("合并同类消息，无法合并时断开", "coalesce"),
+    DISCONNECT("断开连接", "disconnect");
+
+    private final String text;
+    private final String value;
+
+    PictureEditOverflowPolicyEnum(String text, String value) {
+        this.text = text;
+        this.value = value;
+    }
+
+    /**
+     * 根据value获取枚举值
+     */
+    public static PictureEditOverflowPolicyEnum getEnumByValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        for (PictureEditOverflowPolicyEnum policyEnum : PictureEditOverflowPolicyEnum.values()) {
+            if (policyEnum.value.equalsIgnoreCase(value)) {
+                return policyEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Getter;
+
+/**
+ * 编辑事件环形队列过载时的处理策略
+ */
+@Getter
+public enum PictureEditOverloadPolicyEnum {
+
+    REJECT("队列写满时拒绝，并给客户端返回错误消息", "reject"),
+    SHED("队列超过高水位时先丢弃加入、离开编辑的通知和未知类型的消息，写满时再拒绝", "shed");
+
+    private final String text;
+    private final String value;
+
+    PictureEditOverloadPolicyEnum(String text, String value) {
+        this.text = text;
+        this.value = value;
+    }
+
+    /**
+     * 根据value获取枚举值
+     */
+    public static PictureEditOverloadPolicyEnum getEnumByValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        for (PictureEditOverloadPolicyEnum policyEnum : PictureEditOverloadPolicyEnum.values()) {
+            if (policyEnum.value.equalsIgnoreCase(value)) {
+                return policyEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,35 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 节点之间转发的一批图片编辑消息（同一张图片，按发送顺序）
+ */
+@Data
+public class PictureEditRelayBatch implements Serializable {
+
+    /**
+     * 发送节点的id，节点收到自己发出的消息时忽略
+     */
+    private String nodeId;
+
+    /**
+     * 图片id
+     */
+    private Long pictureId;
+
+    /**
+     * 每条消息的类型（用于发送队列写满时合并同类消息），与 payloads 一一对应
+     */
+    private List<String> types;
+
+    /**
+     * 每条消息序列化后的内容，收到后原样发给本节点的会话
+     */
+    private List<String> payloads;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,54 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 图片编辑跨节点转发的运行状态
+ */
+@Data
+public class PictureEditRelayStat implements Serializable {
+
+    /**
+     * 本节点id
+     */
+    private String nodeId;
+
+    /**
+     * 本节点订阅的图片数（有本地会话的图片）
+     */
+    private Integer subscribedPictureCount;
+
+    /**
+     * 等待发布的消息数
+     */
+    private Integer pendingCount;
+
+    /**
+     * 已发布的消息数
+     */
+    private Long publishedMessageCount;
+
+    /**
+     * 已发布的批次数（每批一次 PUBLISH）
+     */
+    private Long publishedBatchCount;
+
+    /**
+     * Redis 往返次数（每次刷出的所有批次走一次管道）
+     */
+    private Long flushCount;
+
+    /**
+     * 收到的其他节点消息数
+     */
+    private Long receivedMessageCount;
+
+    /**
+     * 等待队列写满或发布失败被丢弃的消息数
+     */
+    private Long droppedCount;
+
+    private static final long serialVersionUID = 1L;
+}
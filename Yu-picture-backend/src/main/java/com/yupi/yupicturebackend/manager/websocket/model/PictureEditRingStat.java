@@ -0,0 +1,44 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 图片编辑事件环形队列的运行状态
+ */
+@Data
+public class PictureEditRingStat implements Serializable {
+
+    /**
+     * 环形队列大小
+     */
+    private Integer bufferSize;
+
+    /**
+     * 已占用的槽位数（还有分道没有处理完的事件）
+     */
+    private Long occupancy;
+
+    /**
+     * 占用率（0 - 1）
+     */
+    private Double occupancyRatio;
+
+    /**
+     * 队列写满被拒绝的事件数
+     */
+    private Long rejectedCount;
+
+    /**
+     * 超过高水位被丢弃的低优先级消息数（加入、离开编辑的通知，未知类型的消息）
+     */
+    private Long shedCount;
+
+    /**
+     * 被连接限流拦下的消息数
+     */
+    private Long rateLimitedCount;
+
+    private static final long serialVersionUID = 1L;
+}
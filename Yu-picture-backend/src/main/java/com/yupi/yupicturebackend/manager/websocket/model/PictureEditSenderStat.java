@@ -0,0 +1,39 @@
+package com.yupi.yupicturebackend.manager.websocket.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 图片编辑消息发送队列的运行状态
+ */
+@Data
+public class PictureEditSenderStat implements Serializable {
+
+    /**
+     * 当前会话数
+     */
+    private Integer sessionCount;
+
+    /**
+     * 所有会话排队中的消息数
+     */
+    private Long queuedCount;
+
+    /**
+     * 队列写满后丢弃的消息数
+     */
+    private Long droppedCount;
+
+    /**
+     * 队列写满后合并的消息数
+     */
+    private Long coalescedCount;
+
+    /**
+     * 队列写满后断开的连接数
+     */
+    private Long disconnectedCount;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -2,6 +2,13 @@ package com.yupi.yupicturebackend.mapper;
 
 import com.yupi.yupicturebackend.model.entity.Picture;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultMap;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author 17832
@@ -11,8 +18,43 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface PictureMapper extends BaseMapper<Picture> {
 
-}
-
+    /**
+     * 从归档表中查询图片（不含逻辑删除的），复用 MyBatis-Plus 自动生成的 resultMap，tagIds 的类型处理器同样生效
+     *
+     * @param id 图片id
+     * @return
+     */
+    @Select("SELECT * FROM picture_archive WHERE id = #{id} AND isDelete = 0")
+    @ResultMap("mybatis-plus_Picture")
+    Picture selectArchivedById(@Param("id") Long id);
 
+    /**
+     * 从归档表中批量查询图片（不含逻辑删除的）
+     *
+     * @param idList 图片id列表，不能为空
+     * @return
+     */
+    @Select("<script>SELECT * FROM picture_archive WHERE isDelete = 0 AND id IN "
+            + "<foreach collection='idList' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+    @ResultMap("mybatis-plus_Picture")
+    List<Picture> selectArchivedBatchIds(@Param("idList") Collection<Long> idList);
 
+    /**
+     * 按id游标分批查询归档图片的id（不含逻辑删除的），用于重建布隆过滤器
+     *
+     * @param lastId 上一批最后一个id
+     * @param limit  每批数量
+     * @return
+     */
+    @Select("SELECT id FROM picture_archive WHERE id > #{lastId} AND isDelete = 0 ORDER BY id LIMIT #{limit}")
+    List<Long> selectArchivedIds(@Param("lastId") long lastId, @Param("limit") int limit);
 
+    /**
+     * 从归档表中删除图片（已恢复到热表）
+     *
+     * @param id 图片id
+     * @return
+     */
+    @Delete("DELETE FROM picture_archive WHERE id = #{id}")
+    int deleteArchivedById(@Param("id") Long id);
+}
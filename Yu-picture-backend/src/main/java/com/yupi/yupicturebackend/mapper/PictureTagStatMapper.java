@@ -0,0 +1,36 @@
+package com.yupi.yupicturebackend.mapper;
+
+import com.yupi.yupicturebackend.model.entity.PictureTagStat;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Date;
+
+/**
+ * @description 针对表【picture_tag_stat(标签统计)】的数据库操作Mapper
+ * @Entity com.yupi.yupicturebackend.model.entity.PictureTagStat
+ */
+public interface PictureTagStatMapper extends BaseMapper<PictureTagStat> {
+
+    /**
+     * 增量更新标签的图片数量，没有记录时插入
+     *
+     * @param scope 统计范围
+     * @param tagId 标签id
+     * @param delta 变化量（可以为负）
+     * @return
+     */
+    @Insert("INSERT INTO picture_tag_stat (scope, tagId, pictureCount) VALUES (#{scope}, #{tagId}, #{delta}) "
+            + "ON DUPLICATE KEY UPDATE pictureCount = pictureCount + #{delta}")
+    int incrementCount(@Param("scope") String scope, @Param("tagId") int tagId, @Param("delta") long delta);
+
+    /**
+     * 获取数据库的当前时间（核对时与统计表的 updateTime 比较，避免应用服务器与数据库的时钟偏差）
+     *
+     * @return
+     */
+    @Select("SELECT NOW()")
+    Date selectNow();
+}
@@ -0,0 +1,40 @@
+package com.yupi.yupicturebackend.mapper;
+
+import com.yupi.yupicturebackend.model.entity.PictureUploadDaily;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Date;
+
+/**
+ * @description 针对表【picture_upload_daily(每日上传汇总)】的数据库操作Mapper
+ * @Entity com.yupi.yupicturebackend.model.entity.PictureUploadDaily
+ */
+public interface PictureUploadDailyMapper extends BaseMapper<PictureUploadDaily> {
+
+    /**
+     * 增量更新某天的上传数量和大小，没有记录时插入
+     *
+     * @param spaceId    空间 id（公共图库为 0）
+     * @param statDate   日期 yyyy-MM-dd
+     * @param userId     用户 id
+     * @param countDelta 数量变化量（可以为负）
+     * @param sizeDelta  大小变化量（可以为负）
+     * @return
+     */
+    @Insert("INSERT INTO picture_upload_daily (spaceId, statDate, userId, uploadCount, uploadSize) "
+            + "VALUES (#{spaceId}, #{statDate}, #{userId}, #{countDelta}, #{sizeDelta}) "
+            + "ON DUPLICATE KEY UPDATE uploadCount = uploadCount + #{countDelta}, uploadSize = uploadSize + #{sizeDelta}")
+    int incrementDaily(@Param("spaceId") long spaceId, @Param("statDate") String statDate, @Param("userId") long userId,
+                       @Param("countDelta") long countDelta, @Param("sizeDelta") long sizeDelta);
+
+    /**
+     * 获取数据库的当前时间（核对时与汇总表的 updateTime 比较，避免应用服务器与数据库的时钟偏差）
+     *
+     * @return
+     */
+    @Select("SELECT NOW()")
+    Date selectNow();
+}
@@ -0,0 +1,12 @@
+package com.yupi.yupicturebackend.mapper;
+
+import com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+
+/**
+ * @description 针对表【space_archive_policy(空间归档策略)】的数据库操作Mapper
+ * @Entity com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy
+ */
+public interface SpaceArchivePolicyMapper extends BaseMapper<SpaceArchivePolicy> {
+
+}
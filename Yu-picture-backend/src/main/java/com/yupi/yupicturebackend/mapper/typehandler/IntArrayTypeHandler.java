@@ -0,0 +1,100 @@
+package com.yupi.yupicturebackend.mapper.typehandler;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * int[] <-> 逗号分隔字符串（如 "3,17,42"）的类型处理器
+ * 用于图片的标签id列表：比 JSON 字符串数组紧凑得多，读取时也不需要走 JSON 解析
+ */
+@MappedTypes(int[].class)
+@MappedJdbcTypes(JdbcType.VARCHAR)
+public class IntArrayTypeHandler extends BaseTypeHandler<int[]> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, int[] parameter, JdbcType jdbcType) throws SQLException {
+        ps.setString(i, format(parameter));
+    }
+
+    @Override
+    public int[] getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return parse(rs.getString(columnName));
+    }
+
+    @Override
+    public int[] getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return parse(rs.getString(columnIndex));
+    }
+
+    @Override
+    public int[] getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return parse(cs.getString(columnIndex));
+    }
+
+    /**
+     * int[] 转为逗号分隔字符串
+     */
+    public static String format(int[] values) {
+        if (values == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(values.length * 4);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 逗号分隔字符串转为 int[]（手动扫描，不产生中间字符串）
+     * null 返回 null（表示还没有标签id，走旧的 JSON 标签），空串返回空数组
+     */
+    public static int[] parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        int length = value.length();
+        if (length == 0) {
+            return new int[0];
+        }
+        // 先数一下有多少个数字，避免扩容
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == ',') {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        int index = 0;
+        int current = 0;
+        boolean hasDigit = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == ',') {
+                if (hasDigit) {
+                    result[index++] = current;
+                }
+                current = 0;
+                hasDigit = false;
+            } else if (c >= '0' && c <= '9') {
+                current = current * 10 + (c - '0');
+                hasDigit = true;
+            }
+        }
+        if (hasDigit) {
+            result[index++] = current;
+        }
+        return index == count ? result : Arrays.copyOf(result, index);
+    }
+}
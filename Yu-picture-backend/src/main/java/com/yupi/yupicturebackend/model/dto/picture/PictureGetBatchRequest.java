@@ -0,0 +1,20 @@
+package com.yupi.yupicturebackend.model.dto.picture;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量获取图片请求
+ */
+@Data
+public class PictureGetBatchRequest implements Serializable {
+
+    /**
+     * 图片id列表（按这个顺序返回）
+     */
+    private List<Long> idList;
+
+    private static final long serialVersionUID = 1L;
+}
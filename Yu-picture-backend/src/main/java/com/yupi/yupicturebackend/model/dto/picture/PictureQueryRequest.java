@@ -60,6 +60,39 @@ public class PictureQueryRequest extends PageRequest implements Serializable {
      */
     private Double picScale;
 
+    /**
+     * 【范围筛选】最小/最大图片宽度
+     */
+    private Integer minPicWidth;
+
+    private Integer maxPicWidth;
+
+    /**
+     * 【范围筛选】最小/最大图片高度
+     */
+    private Integer minPicHeight;
+
+    private Integer maxPicHeight;
+
+    /**
+     * 【范围筛选】最小/最大图片体积
+     */
+    private Long minPicSize;
+
+    private Long maxPicSize;
+
+    /**
+     * 【范围筛选】最小/最大图片宽高比例
+     */
+    private Double minPicScale;
+
+    private Double maxPicScale;
+
+    /**
+     * 【范围筛选】宽高比分档：portrait-竖图；square-方图；landscape-横图；panorama-超宽图
+     */
+    private String picScaleType;
+
     /**
      * 图片格式
      */
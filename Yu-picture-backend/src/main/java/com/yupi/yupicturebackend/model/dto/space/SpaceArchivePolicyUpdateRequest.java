@@ -0,0 +1,34 @@
+package com.yupi.yupicturebackend.model.dto.space;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 更新空间归档策略请求
+ */
+@Data
+public class SpaceArchivePolicyUpdateRequest implements Serializable {
+
+    /**
+     * 空间id
+     */
+    private Long spaceId;
+
+    /**
+     * 是否开启归档：0-关闭，1-开启
+     */
+    private Integer enabled;
+
+    /**
+     * 逻辑删除的图片保留多少天后归档，为空使用默认值
+     */
+    private Integer deletedRetentionDays;
+
+    /**
+     * 多少天没有访问和编辑的图片归档，为空使用默认值，0 表示不按访问归档
+     */
+    private Integer idleDays;
+
+    private static final long serialVersionUID = 1L;
+}
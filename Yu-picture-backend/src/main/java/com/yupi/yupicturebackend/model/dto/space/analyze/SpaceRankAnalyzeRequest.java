@@ -15,5 +15,10 @@ public class SpaceRankAnalyzeRequest implements Serializable {
      */
     private Integer topN = 10;
 
+    /**
+     * 排序依据：size（使用大小，默认）/ count（图片数量）
+     */
+    private String rankType = "size";
+
     private static final long serialVersionUID = 1L;
 }
@@ -0,0 +1,23 @@
+package com.yupi.yupicturebackend.model.dto.space.analyze;
+
+import lombok.Data;
+import java.io.Serializable;
+
+/**
+ * 查询某个空间在使用排行中的名次 请求类
+ */
+@Data
+public class SpaceRankPositionRequest implements Serializable {
+
+    /**
+     * 空间ID
+     */
+    private Long spaceId;
+
+    /**
+     * 排序依据：size（使用大小，默认）/ count（图片数量）
+     */
+    private String rankType = "size";
+
+    private static final long serialVersionUID = 1L;
+}
@@ -3,6 +3,8 @@ package com.yupi.yupicturebackend.model.dto.space.analyze;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
+import java.util.Date;
+
 /**
  * 空间 用户上传行为分析请求类
  */
@@ -19,4 +21,14 @@ public class SpaceUserAnalyzeRequest extends SpaceAnalyzeRequest {
      * 时间维度：day / week / month
      */
     private String timeDimension;
+
+    /**
+     * 开始日期（包含，可选）
+     */
+    private Date startDate;
+
+    /**
+     * 结束日期（包含，可选）
+     */
+    private Date endDate;
 }
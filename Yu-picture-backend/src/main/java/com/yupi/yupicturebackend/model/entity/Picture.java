@@ -2,6 +2,8 @@ package com.yupi.yupicturebackend.model.entity;
 
 import com.baomidou.mybatisplus.annotation.*;
 
+import com.yupi.yupicturebackend.mapper.typehandler.IntArrayTypeHandler;
+
 import java.io.Serializable;
 import java.util.Date;
 
@@ -12,7 +14,7 @@ import lombok.Data;
  *
  * @TableName picture
  */
-@TableName(value = "picture")
+@TableName(value = "picture", autoResultMap = true)
 @Data
 public class Picture implements Serializable {
 
@@ -55,6 +57,12 @@ public class Picture implements Serializable {
      */
     private String tags;
 
+    /**
+     * 标签id列表（对应 tag 表，数据库中存为逗号分隔字符串），不为null时以它为准
+     */
+    @TableField(typeHandler = IntArrayTypeHandler.class)
+    private int[] tagIds;
+
     /**
      * 图片体积
      */
@@ -92,7 +100,9 @@ public class Picture implements Serializable {
 
     /**
      * 【新增】空间id
+     * 插入时即使为 null 也要带上这一列：分表算法靠它区分插入（只路由到一张表）和只按 id 的查询
      */
+    @TableField(insertStrategy = FieldStrategy.ALWAYS)
     private Long spaceId;
 
     /**
@@ -0,0 +1,41 @@
+package com.yupi.yupicturebackend.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.Data;
+
+/**
+ * 标签统计（主键为 scope + tagId）
+ *
+ * @TableName picture_tag_stat
+ */
+@TableName(value = "picture_tag_stat")
+@Data
+public class PictureTagStat implements Serializable {
+    /**
+     * 统计范围：all/public/space:{spaceId}
+     */
+    private String scope;
+
+    /**
+     * 标签id
+     */
+    private Integer tagId;
+
+    /**
+     * 图片数量
+     */
+    private Long pictureCount;
+
+    /**
+     * 更新时间
+     */
+    private Date updateTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,51 @@
+package com.yupi.yupicturebackend.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.Data;
+
+/**
+ * 每日上传汇总（主键为 spaceId + statDate + userId）
+ *
+ * @TableName picture_upload_daily
+ */
+@TableName(value = "picture_upload_daily")
+@Data
+public class PictureUploadDaily implements Serializable {
+    /**
+     * 空间 id（公共图库为 0）
+     */
+    private Long spaceId;
+
+    /**
+     * 上传日期
+     */
+    private Date statDate;
+
+    /**
+     * 上传用户 id
+     */
+    private Long userId;
+
+    /**
+     * 上传数量
+     */
+    private Long uploadCount;
+
+    /**
+     * 上传总大小
+     */
+    private Long uploadSize;
+
+    /**
+     * 更新时间
+     */
+    private Date updateTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
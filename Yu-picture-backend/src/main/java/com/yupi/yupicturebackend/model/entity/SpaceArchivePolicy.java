@@ -0,0 +1,57 @@
+package com.yupi.yupicturebackend.model.entity;
+
+import com.baomidou.mybatisplus.annotation.FieldStrategy;
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.Data;
+
+/**
+ * 空间归档策略
+ *
+ * @TableName space_archive_policy
+ */
+@TableName(value = "space_archive_policy")
+@Data
+public class SpaceArchivePolicy implements Serializable {
+    /**
+     * 空间id
+     */
+    @TableId(type = IdType.INPUT)
+    private Long spaceId;
+
+    /**
+     * 是否开启归档：0-关闭，1-开启
+     */
+    private Integer enabled;
+
+    /**
+     * 逻辑删除的图片保留多少天后归档，为空使用默认值（更新时允许改回空）
+     */
+    @TableField(updateStrategy = FieldStrategy.ALWAYS)
+    private Integer deletedRetentionDays;
+
+    /**
+     * 多少天没有访问和编辑的图片归档，为空使用默认值，0 表示不按访问归档（更新时允许改回空）
+     */
+    @TableField(updateStrategy = FieldStrategy.ALWAYS)
+    private Integer idleDays;
+
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    /**
+     * 更新时间
+     */
+    private Date updateTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
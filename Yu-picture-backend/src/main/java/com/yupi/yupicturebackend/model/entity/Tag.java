@@ -0,0 +1,39 @@
+package com.yupi.yupicturebackend.model.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.Data;
+
+/**
+ * 标签字典
+ *
+ * @TableName tag
+ */
+@TableName(value = "tag")
+@Data
+public class Tag implements Serializable {
+    /**
+     * id（紧凑的整型编码，图片中只存这个id）
+     */
+    @TableId(type = IdType.AUTO)
+    private Integer id;
+
+    /**
+     * 标签名称（唯一，区分大小写）
+     */
+    private String tagName;
+
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
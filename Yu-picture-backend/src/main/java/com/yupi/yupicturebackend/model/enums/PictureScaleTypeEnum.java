@@ -0,0 +1,51 @@
+package com.yupi.yupicturebackend.model.enums;
+
+import cn.hutool.core.util.ObjUtil;
+import lombok.Getter;
+
+/**
+ * 图片宽高比分档枚举（picScale = 宽 / 高）
+ * 每一档是左闭右开区间 [minScale, maxScale)，为null表示不限
+ */
+@Getter
+public enum PictureScaleTypeEnum {
+
+    PORTRAIT("竖图", "portrait", null, 0.95),
+    SQUARE("方图", "square", 0.95, 1.05),
+    LANDSCAPE("横图", "landscape", 1.05, 2.0),
+    PANORAMA("超宽图", "panorama", 2.0, null);
+
+    private final String text;
+
+    private final String value;
+
+    private final Double minScale;
+
+    private final Double maxScale;
+
+    PictureScaleTypeEnum(String text, String value, Double minScale, Double maxScale) {
+        this.text = text;
+        this.value = value;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+    }
+
+
+    /**
+     * 根据value获取枚举
+     *
+     * @param value
+     * @return
+     */
+    public static PictureScaleTypeEnum getEnumByValue(String value) {
+        if (ObjUtil.isEmpty(value)) {
+            return null;
+        }
+        for (PictureScaleTypeEnum pictureScaleTypeEnum : PictureScaleTypeEnum.values()) {
+            if (pictureScaleTypeEnum.value.equals(value)) {
+                return pictureScaleTypeEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+package com.yupi.yupicturebackend.model.enums;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+
+/**
+ * 图片查询允许的排序字段（排序白名单）
+ * <p>
+ * 只有能被联合索引直接按序读取的列才允许排序，避免对不断增长的公共图库做 filesort。
+ * 排序时统一追加 id 作为第二排序键（同方向），保证分页结果稳定；对应的索引（见 sql/create_table.sql）：
+ * <ul>
+ *     <li>createTime：公共图库 (spaceId, reviewStatus, createTime, id)、空间内 (spaceId, createTime, id)、管理员按审核状态 (reviewStatus, createTime, id)</li>
+ * </ul>
+ * picture 是写入频繁的表，只给前端实际使用的排序建索引；以后要支持新的排序字段，先加对应的联合索引再加到这里。
+ */
+@Getter
+public enum PictureSortFieldEnum {
+
+    CREATE_TIME("创建时间", "createTime", "createTime");
+
+    private final String text;
+
+    /**
+     * 前端传入的排序字段
+     */
+    private final String value;
+
+    /**
+     * 实际排序的数据库列
+     */
+    private final String column;
+
+    PictureSortFieldEnum(String text, String value, String column) {
+        this.text = text;
+        this.value = value;
+        this.column = column;
+    }
+
+
+    /**
+     * 根据value获取枚举
+     *
+     * @param value
+     * @return
+     */
+    public static PictureSortFieldEnum getEnumByValue(String value) {
+        if (StrUtil.isBlank(value)) {
+            return null;
+        }
+        for (PictureSortFieldEnum pictureSortFieldEnum : PictureSortFieldEnum.values()) {
+            if (pictureSortFieldEnum.value.equals(value)) {
+                return pictureSortFieldEnum;
+            }
+        }
+        return null;
+    }
+}
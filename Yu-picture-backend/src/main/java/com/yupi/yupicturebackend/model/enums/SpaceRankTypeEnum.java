@@ -0,0 +1,51 @@
+package com.yupi.yupicturebackend.model.enums;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+
+/**
+ * 空间使用排行的排序依据
+ */
+@Getter
+public enum SpaceRankTypeEnum {
+
+    SIZE("按使用大小", "size", "totalSize"),
+    COUNT("按图片数量", "count", "totalCount");
+
+    private final String text;
+
+    /**
+     * 前端传入的排序依据
+     */
+    private final String value;
+
+    /**
+     * 对应的空间表列
+     */
+    private final String column;
+
+    SpaceRankTypeEnum(String text, String value, String column) {
+        this.text = text;
+        this.value = value;
+        this.column = column;
+    }
+
+
+    /**
+     * 根据value获取枚举
+     *
+     * @param value
+     * @return
+     */
+    public static SpaceRankTypeEnum getEnumByValue(String value) {
+        if (StrUtil.isBlank(value)) {
+            return null;
+        }
+        for (SpaceRankTypeEnum spaceRankTypeEnum : SpaceRankTypeEnum.values()) {
+            if (spaceRankTypeEnum.value.equals(value)) {
+                return spaceRankTypeEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -143,8 +143,10 @@ public class PictureVO implements Serializable {
         }
         PictureVO pictureVO = new PictureVO();
         BeanUtils.copyProperties(picture, pictureVO);
-        // 转换类型
-        pictureVO.setTags(JSONUtil.toList(picture.getTags(), String.class));
+        // 转换类型（已有标签id的图片由 TagService 按字典解码，这里不再解析 JSON）
+        if (picture.getTagIds() == null) {
+            pictureVO.setTags(JSONUtil.toList(picture.getTags(), String.class));
+        }
         return pictureVO;
     }
 }
@@ -0,0 +1,37 @@
+package com.yupi.yupicturebackend.model.vo.space.analyze;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.io.Serializable;
+
+/**
+ * 空间排名响应类
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SpaceRankPositionResponse implements Serializable {
+
+    /**
+     * 空间ID
+     */
+    private Long spaceId;
+
+    /**
+     * 名次（从 1 开始）
+     */
+    private Long rank;
+
+    /**
+     * 排序依据的值（使用大小或图片数量）
+     */
+    private Long score;
+
+    /**
+     * 参与排行的空间总数
+     */
+    private Long total;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -57,6 +57,34 @@ public interface PictureService extends IService<Picture> {
     PictureVO getPictureVO(Picture picture, HttpServletRequest request);
 
 
+    /**
+     * 按id查询图片（只读场景），热表中没有时查归档表
+     *
+     * @param id 图片id
+     * @return 不存在时返回 null
+     */
+    Picture getByIdWithArchive(Long id);
+
+
+    /**
+     * 按id查询图片（写操作之前），已归档的图片先恢复到热表
+     *
+     * @param id 图片id
+     * @return 不存在时返回 null
+     */
+    Picture getByIdForUpdate(Long id);
+
+
+    /**
+     * 批量获取图片封装（按请求顺序返回，不存在或没有查看权限的图片会被跳过）
+     *
+     * @param idList    图片id列表
+     * @param loginUser 登录用户
+     * @return
+     */
+    List<PictureVO> getPictureVOListByIds(List<Long> idList, User loginUser);
+
+
     /**
      * 分页获取图片封装列表
      *
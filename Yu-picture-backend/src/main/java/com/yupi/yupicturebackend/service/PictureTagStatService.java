@@ -0,0 +1,62 @@
+package com.yupi.yupicturebackend.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.PictureTagStat;
+
+import java.util.List;
+
+/**
+ * @description 针对表【picture_tag_stat(标签统计)】的数据库操作Service
+ */
+public interface PictureTagStatService extends IService<PictureTagStat> {
+
+    /**
+     * 全部图片
+     */
+    String SCOPE_ALL = "all";
+
+    /**
+     * 公共图库
+     */
+    String SCOPE_PUBLIC = "public";
+
+    /**
+     * 图片所在的统计范围
+     *
+     * @param spaceId 空间id，为空表示公共图库
+     * @return
+     */
+    static String scopeOf(Long spaceId) {
+        return spaceId == null ? SCOPE_PUBLIC : "space:" + spaceId;
+    }
+
+    /**
+     * 图片的标签变化后增量更新统计（所在范围和全部范围），在同一个事务中更新所有计数
+     *
+     * @param oldPicture 变化前的图片（需要 spaceId、tags、tagIds），新增时为 null
+     * @param newPicture 变化后的图片（需要 spaceId、tags、tagIds），删除时为 null
+     */
+    void applyTagDelta(Picture oldPicture, Picture newPicture);
+
+    /**
+     * 图片修改标签后（所在空间不变）增量更新统计
+     *
+     * @param oldPicture 修改前的图片
+     * @param newTagIds  修改后的标签id，为 null 表示没有修改标签
+     */
+    void applyTagChange(Picture oldPicture, int[] newTagIds);
+
+    /**
+     * 获取某个范围的标签统计，按图片数量降序
+     *
+     * @param scope 统计范围
+     * @return
+     */
+    List<PictureTagStat> listScopeTagStat(String scope);
+
+    /**
+     * 全量扫描图片，核对并修正统计
+     */
+    void reconcileTagStat();
+}
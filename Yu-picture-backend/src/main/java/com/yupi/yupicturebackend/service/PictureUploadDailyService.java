@@ -0,0 +1,30 @@
+package com.yupi.yupicturebackend.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.PictureUploadDaily;
+
+/**
+ * @description 针对表【picture_upload_daily(每日上传汇总)】的数据库操作Service
+ */
+public interface PictureUploadDailyService extends IService<PictureUploadDaily> {
+
+    /**
+     * 公共图库在汇总表中的空间 id（主键列不能为 null）
+     */
+    long PUBLIC_SPACE_ID = 0L;
+
+    /**
+     * 图片新增、替换、删除后增量更新汇总，在同一个事务中更新
+     *
+     * @param oldPicture 变化前的图片（需要 spaceId、userId、picSize、createTime），新增时为 null
+     * @param newPicture 变化后的图片（需要 spaceId、userId、picSize），新增时为 null；
+     *                   没有 createTime 时按原图片的创建日期（替换图片）或今天（新增图片）计算
+     */
+    void applyUploadDelta(Picture oldPicture, Picture newPicture);
+
+    /**
+     * 全量扫描图片，回填并修正汇总
+     */
+    void reconcileUploadDaily();
+}
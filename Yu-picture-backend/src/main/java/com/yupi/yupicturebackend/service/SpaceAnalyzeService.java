@@ -69,4 +69,22 @@ public interface SpaceAnalyzeService extends IService<Space> {
      * @return
      */
     List<Space> getSpaceRankAnalyze(SpaceRankAnalyzeRequest spaceRankAnalyzeRequest, User loginUser);
+
+
+    /**
+     * 获取某个空间在使用排行中的名次（空间创建者和管理员）
+     * @param spaceRankPositionRequest
+     * @param loginUser
+     * @return
+     */
+    SpaceRankPositionResponse getSpaceRankPosition(SpaceRankPositionRequest spaceRankPositionRequest, User loginUser);
+
+
+    /**
+     * 校验空间分析权限
+     *
+     * @param spaceAnalyzeRequest
+     * @param loginUser
+     */
+    void checkSpaceAnalyzeAuth(SpaceAnalyzeRequest spaceAnalyzeRequest, User loginUser);
 }
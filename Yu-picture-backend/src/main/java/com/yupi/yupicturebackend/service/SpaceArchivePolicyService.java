@@ -0,0 +1,30 @@
+package com.yupi.yupicturebackend.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.yupi.yupicturebackend.model.dto.space.SpaceArchivePolicyUpdateRequest;
+import com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy;
+import com.yupi.yupicturebackend.model.entity.User;
+
+/**
+ * @description 针对表【space_archive_policy(空间归档策略)】的数据库操作Service
+ */
+public interface SpaceArchivePolicyService extends IService<SpaceArchivePolicy> {
+
+    /**
+     * 获取空间的归档策略（仅空间创建人和管理员）
+     *
+     * @param spaceId   空间id
+     * @param loginUser 登录用户
+     * @return 没有单独配置时返回 null（使用默认策略）
+     */
+    SpaceArchivePolicy getArchivePolicy(Long spaceId, User loginUser);
+
+    /**
+     * 新增或更新空间的归档策略（仅空间创建人和管理员）
+     *
+     * @param spaceArchivePolicyUpdateRequest 更新请求
+     * @param loginUser                       登录用户
+     * @return
+     */
+    boolean updateArchivePolicy(SpaceArchivePolicyUpdateRequest spaceArchivePolicyUpdateRequest, User loginUser);
+}
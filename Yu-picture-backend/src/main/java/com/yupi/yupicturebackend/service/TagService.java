@@ -0,0 +1,53 @@
+package com.yupi.yupicturebackend.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.Tag;
+
+import java.util.List;
+
+/**
+ * @description 针对表【tag(标签字典)】的数据库操作Service
+ */
+public interface TagService extends IService<Tag> {
+
+    /**
+     * 标签列表编码为标签id数组（字典中没有的标签会自动创建）
+     *
+     * @param tagList 标签列表
+     * @return 标签id数组，tagList为null时返回null
+     */
+    int[] encodeTags(List<String> tagList);
+
+    /**
+     * 标签id数组解码为标签列表（返回字典中共享的字符串实例）
+     *
+     * @param tagIds 标签id数组
+     * @return 标签列表
+     */
+    List<String> decodeTags(int[] tagIds);
+
+    /**
+     * 根据标签名称获取标签id（只查字典，不创建）
+     *
+     * @param tagName 标签名称
+     * @return 标签id，不存在返回null
+     */
+    Integer getTagId(String tagName);
+
+    /**
+     * 根据标签id获取标签名称
+     *
+     * @param tagId 标签id
+     * @return 标签名称，不存在返回null
+     */
+    String getTagName(int tagId);
+
+    /**
+     * 把标签写入图片：写入标签id，并清空旧的 JSON 标签
+     *
+     * @param picture 图片
+     * @param tagList 标签列表，为null表示不修改标签
+     */
+    void fillPictureTags(Picture picture, List<String> tagList);
+}
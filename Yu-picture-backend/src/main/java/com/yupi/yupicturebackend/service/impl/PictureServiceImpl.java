@@ -7,6 +7,7 @@ import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yupi.yupicturebackend.annotation.ReadFromReplica;
 import com.yupi.yupicturebackend.api.aliyunai.AliYunAiApi;
 import com.yupi.yupicturebackend.api.aliyunai.model.CreateOutPaintingTaskRequest;
 import com.yupi.yupicturebackend.api.aliyunai.model.CreateOutPaintingTaskResponse;
@@ -14,6 +15,15 @@ import com.yupi.yupicturebackend.exception.BusinessException;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
 import com.yupi.yupicturebackend.manager.CosManager;
+import com.yupi.yupicturebackend.manager.archive.PictureArchiveManager;
+import com.yupi.yupicturebackend.manager.auth.SpaceUserAuthManager;
+import com.yupi.yupicturebackend.manager.auth.model.SpaceUserPermissionConstant;
+import com.yupi.yupicturebackend.manager.bloom.PictureBloomFilterManager;
+import com.yupi.yupicturebackend.manager.etag.ETagManager;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaManager;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaReservation;
+import com.yupi.yupicturebackend.manager.rank.SpaceRankManager;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
 import com.yupi.yupicturebackend.manager.upload.FilePictureUpload;
 import com.yupi.yupicturebackend.manager.upload.PictureUploadTemplate;
 import com.yupi.yupicturebackend.manager.upload.UrlPictureUpload;
@@ -23,11 +33,16 @@ import com.yupi.yupicturebackend.model.entity.Picture;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.User;
 import com.yupi.yupicturebackend.model.enums.PictureReviewStatusEnum;
+import com.yupi.yupicturebackend.model.enums.PictureScaleTypeEnum;
+import com.yupi.yupicturebackend.model.enums.PictureSortFieldEnum;
 import com.yupi.yupicturebackend.model.vo.PictureVO;
 import com.yupi.yupicturebackend.model.vo.UserVO;
 import com.yupi.yupicturebackend.service.PictureService;
+import com.yupi.yupicturebackend.service.PictureTagStatService;
+import com.yupi.yupicturebackend.service.PictureUploadDailyService;
 import com.yupi.yupicturebackend.mapper.PictureMapper;
 import com.yupi.yupicturebackend.service.SpaceService;
+import com.yupi.yupicturebackend.service.TagService;
 import com.yupi.yupicturebackend.service.UserService;
 import com.yupi.yupicturebackend.utils.ColorSimilarUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -38,8 +53,10 @@ import org.jsoup.select.Elements;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
@@ -89,6 +106,47 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
     @Resource
     private AliYunAiApi aliYunAiApi;
 
+    // 引入标签字典
+    @Resource
+    private TagService tagService;
+
+    // 引入图片id布隆过滤器
+    @Resource
+    private PictureBloomFilterManager pictureBloomFilterManager;
+
+    // 引入标签统计服务
+    @Resource
+    private PictureTagStatService pictureTagStatService;
+
+    // 引入每日上传汇总服务
+    @Resource
+    private PictureUploadDailyService pictureUploadDailyService;
+
+    // 引入空间使用排行榜，额度变化时同步更新
+    @Resource
+    private SpaceRankManager spaceRankManager;
+
+    // 引入空间额度管理，上传前原子预占额度
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    // 引入ETag管理，写操作后让对应范围的ETag失效
+    @Resource
+    private ETagManager eTagManager;
+
+    // 引入空间权限管理，批量获取图片时按空间计算权限
+    @Resource
+    private SpaceUserAuthManager spaceUserAuthManager;
+
+    // 引入动态分表管理器，写入空间图片前确认分表已注册、没有在迁移
+    @Resource
+    @Lazy
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入冷数据归档，按id查询时回退到归档表
+    @Resource
+    private PictureArchiveManager pictureArchiveManager;
+
 
     /**
      * 图片校验
@@ -128,10 +186,12 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         ThrowUtils.throwIf(loginUser == null, ErrorCode.NO_AUTH_ERROR, "用户没登录");
           // 【新增】校验空间是否存在
         Long spaceId = pictureUploadRequest.getSpaceId();
+        Space space = null;
         if (spaceId != null) {
             // 从Service层获取space后检验
-            Space space = spaceService.getById(spaceId);
+            space = spaceService.getById(spaceId);
             ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "要操作的空间不存在");
+            dynamicShardingManager.beforeSpaceWrite(spaceId);
 
             // 下面这段代码修改为 使用统一的权限校验
             // 【新增】校验是否有空间的权限，仅空间的管理员可以上传图片！
@@ -139,25 +199,20 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
                 throw new BusinessException(ErrorCode.NO_AUTH_ERROR);
             }*/
 
-            // 【校验额度】
-            if (space.getTotalCount() >= space.getMaxCount()) {
-                throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
-            }
-            if (space.getTotalSize() >= space.getMaxSize()) {
-                throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间大小不足");
-            }
+            // 【校验额度】移到确定是新增还是替换之后，通过 Redis 原子预占
         }
 
         // 2.判断是新增还是删除
         Long pictureId = null; // 定义图片id，默认空
         if (pictureUploadRequest != null) {
             // 只有请求上传对象的参数不为空，才可以拿到图片id
-            pictureUploadRequest.getId();
+            pictureId = pictureUploadRequest.getId();
         }
         // - 更新的话还要判断图片是否存在(判断图片id不为空，说明图片存在，那就是更新图片的请求了)
+        Picture oldPicture = null;
         if (pictureId != null) {
-            // 根据id获取原始图片
-            Picture oldPicture = this.getById(pictureId);
+            // 根据id获取原始图片（已归档的先恢复）
+            oldPicture = this.getByIdForUpdate(pictureId);
             ThrowUtils.throwIf(oldPicture == null, ErrorCode.NOT_FOUND_ERROR, "图片不存在");
 
             // 下面这段代码修改为 使用统一的权限校验
@@ -180,80 +235,102 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
             }
         }
 
-        // 3.上传图片，得到图片信息 - 需要引用File/Url的PictureUpload方法 - 上传图片服务
-        // 【新增】按照用户id划分目录 -> 按照空间划分目录
-        String uploadPathPrefix;
-        if (spaceId == null) {
-            // 表示公共图库的内容
-            uploadPathPrefix = String.format("public/%s", loginUser.getId());
-        } else {
-            // 表示私有空间
-            uploadPathPrefix = String.format("space/%s", spaceId);
-        }
-
-        // 根据inputSource的类型区分上传方式
-        // 3.1 先默认是文件上传
-        PictureUploadTemplate pictureUploadTemplate = filePictureUpload;
-        // 3.2 如果inputSource的类型是String，再改成URL上传
-        if (inputSource instanceof String) {
-            pictureUploadTemplate = urlPictureUpload;
+        // 【预占额度】上传前在 Redis 中原子地检查并预占额度，并发上传不会超额（替换图片不占用条数）
+        Long finalSpaceId = spaceId;
+        if (spaceId != null && space == null) {
+            space = spaceService.getById(spaceId);
+            ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "要操作的空间不存在");
         }
-        // 3.3 调用模板方法上传，参数为inputSource
-        UploadPictureResult uploadPictureResult = pictureUploadTemplate.uploadPicture(inputSource, uploadPathPrefix);
-
-        // 按照用户id划分目录
-        // 构造要入库的图片信息：设置图片的url和缩略图的url，以及图片的spaceId
+        long oldPicSize = oldPicture == null || oldPicture.getPicSize() == null ? 0 : oldPicture.getPicSize();
+        long countDelta = oldPicture == null ? 1 : 0;
+        SpaceQuotaReservation reservation = null;
         Picture picture = new Picture();
-        picture.setUrl(uploadPictureResult.getUrl());
-        picture.setThumbnailUrl(uploadPictureResult.getThumbnailUrl());
-        picture.setSpaceId(spaceId);
-          // 直接从uploadPictureResult(上传图片的通用包装类)中获取picName，如果单独的图片上传请求体中图片名称不为空，直接拿单独的图片名称替代初始的名称
-        String picName = uploadPictureResult.getName();
-        if (pictureUploadRequest != null && StrUtil.isNotBlank(pictureUploadRequest.getPicName())) {
-            picName = pictureUploadRequest.getPicName();
-        }
-        picture.setName(picName);
-        picture.setPicSize(uploadPictureResult.getPicSize());
-        picture.setPicWidth(uploadPictureResult.getPicWidth());
-        picture.setPicHeight(uploadPictureResult.getPicHeight());
-        picture.setPicScale(uploadPictureResult.getPicScale());
-        picture.setPicFormat(uploadPictureResult.getPicFormat());
-        picture.setPicColor(uploadPictureResult.getPicColor());
-        picture.setUserId(loginUser.getId());
-        // 或者使用BeanUtils.copyProperties
-        // BeanUtils.copyProperties(uploadPictureResult, picture);
-
-        // 4.如果pictureId不为空，说明有图片了，只能进行更新图片操作
-        if (pictureId != null) {
-            // 如果是更新，需要补充id和编辑时间
-            picture.setId(pictureId);
-            picture.setEditTime(new Date());
+        if (space != null) {
+            // 文件上传可以预先知道大小，URL 上传在上传后再按实际大小修正
+            long estimateSize = inputSource instanceof MultipartFile ? ((MultipartFile) inputSource).getSize() : 0;
+            reservation = spaceQuotaManager.reserve(space, Math.max(0, estimateSize - oldPicSize), countDelta);
         }
-        // 补充审核参数 - 调用fillReviewParams方法
-        this.fillReviewParams(picture, loginUser);
+        try {
+            // 3.上传图片，得到图片信息 - 需要引用File/Url的PictureUpload方法 - 上传图片服务
+            // 【新增】按照用户id划分目录 -> 按照空间划分目录
+            String uploadPathPrefix;
+            if (spaceId == null) {
+                // 表示公共图库的内容
+                uploadPathPrefix = String.format("public/%s", loginUser.getId());
+            } else {
+                // 表示私有空间
+                uploadPathPrefix = String.format("space/%s", spaceId);
+            }
 
-        // 5.操作数据库
-        // 【更新空间额度】使用编程式事务 => 更新空间的使用额度
-            // 开启事务
-        Long finalSpaceId = spaceId;
-        transactionTemplate.execute(status -> {
-            // 插入数据
-            boolean result = this.saveOrUpdate(picture);
-            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "图片上传失败，数据库操作失败");
-            // 只有spaceId不为空(即私有空间)才需要更新额度
-            if (finalSpaceId != null) {
-                // 插入数据成功后 => 更新空间的使用额度
-                boolean update = spaceService.lambdaUpdate()
-                        .eq(Space::getId, finalSpaceId)
-                        .setSql("totalSize = totalSize + " + picture.getPicSize())
-                        .setSql("totalCount = totalCount + 1")
-                        .update();
-                ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
+            // 根据inputSource的类型区分上传方式
+            // 3.1 先默认是文件上传
+            PictureUploadTemplate pictureUploadTemplate = filePictureUpload;
+            // 3.2 如果inputSource的类型是String，再改成URL上传
+            if (inputSource instanceof String) {
+                pictureUploadTemplate = urlPictureUpload;
             }
-            return picture; // 用不到返回值，此处随便返回即可
-        });
+            // 3.3 调用模板方法上传，参数为inputSource
+            UploadPictureResult uploadPictureResult = pictureUploadTemplate.uploadPicture(inputSource, uploadPathPrefix);
+
+            // 按照用户id划分目录
+            // 构造要入库的图片信息：设置图片的url和缩略图的url，以及图片的spaceId
+            picture.setUrl(uploadPictureResult.getUrl());
+            picture.setThumbnailUrl(uploadPictureResult.getThumbnailUrl());
+            picture.setSpaceId(spaceId);
+              // 直接从uploadPictureResult(上传图片的通用包装类)中获取picName，如果单独的图片上传请求体中图片名称不为空，直接拿单独的图片名称替代初始的名称
+            String picName = uploadPictureResult.getName();
+            if (pictureUploadRequest != null && StrUtil.isNotBlank(pictureUploadRequest.getPicName())) {
+                picName = pictureUploadRequest.getPicName();
+            }
+            picture.setName(picName);
+            picture.setPicSize(uploadPictureResult.getPicSize());
+            picture.setPicWidth(uploadPictureResult.getPicWidth());
+            picture.setPicHeight(uploadPictureResult.getPicHeight());
+            picture.setPicScale(uploadPictureResult.getPicScale());
+            picture.setPicFormat(uploadPictureResult.getPicFormat());
+            picture.setPicColor(uploadPictureResult.getPicColor());
+            picture.setUserId(loginUser.getId());
+            // 或者使用BeanUtils.copyProperties
+            // BeanUtils.copyProperties(uploadPictureResult, picture);
+
+            // 4.如果pictureId不为空，说明有图片了，只能进行更新图片操作
+            if (pictureId != null) {
+                // 如果是更新，需要补充id和编辑时间
+                picture.setId(pictureId);
+                picture.setEditTime(new Date());
+            }
+            // 补充审核参数 - 调用fillReviewParams方法
+            this.fillReviewParams(picture, loginUser);
+
+            // 5.操作数据库
+                // 开启事务
+            Picture finalOldPicture = oldPicture;
+            transactionTemplate.execute(status -> {
+                // 插入数据
+                boolean result = this.saveOrUpdate(picture);
+                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "图片上传失败，数据库操作失败");
+                // 空间额度不再在事务中更新 space 表（热点行），入库成功后提交预占，由额度管理异步批量落库
+                // 更新每日上传汇总
+                pictureUploadDailyService.applyUploadDelta(finalOldPicture, picture);
+                return picture; // 用不到返回值，此处随便返回即可
+            });
+        } catch (RuntimeException e) {
+            // 上传或入库失败，释放预占的额度
+            spaceQuotaManager.release(reservation);
+            throw e;
+        }
+        // 提交预占：按实际大小修正，变化量异步落库
+        long sizeDelta = picture.getPicSize() - oldPicSize;
+        spaceQuotaManager.commit(reservation, sizeDelta, countDelta);
+        // 额度变化同步到空间排行
+        if (finalSpaceId != null) {
+            spaceRankManager.incrementUsage(finalSpaceId, sizeDelta, countDelta);
+        }
+        // 新图片加入布隆过滤器
+        pictureBloomFilterManager.add(picture.getId());
+        eTagManager.bumpScope(finalSpaceId);
 
-        return PictureVO.objToVo(picture);
+        return toPictureVO(picture);
     }
 
 
@@ -293,6 +370,16 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         // 【筛选条件】开始、结束编辑时间
         Date startEditTime = pictureQueryRequest.getStartEditTime();
         Date endEditTime = pictureQueryRequest.getEndEditTime();
+        // 【范围筛选】宽、高、体积、宽高比
+        Integer minPicWidth = pictureQueryRequest.getMinPicWidth();
+        Integer maxPicWidth = pictureQueryRequest.getMaxPicWidth();
+        Integer minPicHeight = pictureQueryRequest.getMinPicHeight();
+        Integer maxPicHeight = pictureQueryRequest.getMaxPicHeight();
+        Long minPicSize = pictureQueryRequest.getMinPicSize();
+        Long maxPicSize = pictureQueryRequest.getMaxPicSize();
+        Double minPicScale = pictureQueryRequest.getMinPicScale();
+        Double maxPicScale = pictureQueryRequest.getMaxPicScale();
+        String picScaleType = pictureQueryRequest.getPicScaleType();
 
 
         // 3.从多字段中搜索 - searchText需同时从name和introduction中获取
@@ -324,20 +411,65 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         // 前端传入开始、结束编辑时间，用于过滤 editTime 范围
         queryWrapper.ge(ObjUtil.isNotEmpty(startEditTime), "editTime", startEditTime);
         queryWrapper.lt(ObjUtil.isNotEmpty(endEditTime), "editTime", endEditTime);
+        // 宽、高、体积、宽高比的范围筛选（不单独建索引：按 createTime 排序索引顺序读取并过滤，凑够一页即停止）
+        queryWrapper.ge(ObjUtil.isNotEmpty(minPicWidth), "picWidth", minPicWidth);
+        queryWrapper.le(ObjUtil.isNotEmpty(maxPicWidth), "picWidth", maxPicWidth);
+        queryWrapper.ge(ObjUtil.isNotEmpty(minPicHeight), "picHeight", minPicHeight);
+        queryWrapper.le(ObjUtil.isNotEmpty(maxPicHeight), "picHeight", maxPicHeight);
+        queryWrapper.ge(ObjUtil.isNotEmpty(minPicSize), "picSize", minPicSize);
+        queryWrapper.le(ObjUtil.isNotEmpty(maxPicSize), "picSize", maxPicSize);
+        queryWrapper.ge(ObjUtil.isNotEmpty(minPicScale), "picScale", minPicScale);
+        queryWrapper.le(ObjUtil.isNotEmpty(maxPicScale), "picScale", maxPicScale);
+        // 宽高比分档：左闭右开区间
+        if (StrUtil.isNotBlank(picScaleType)) {
+            PictureScaleTypeEnum pictureScaleTypeEnum = PictureScaleTypeEnum.getEnumByValue(picScaleType);
+            ThrowUtils.throwIf(pictureScaleTypeEnum == null, ErrorCode.PARAMS_ERROR, "宽高比分档不存在");
+            queryWrapper.ge(pictureScaleTypeEnum.getMinScale() != null, "picScale", pictureScaleTypeEnum.getMinScale());
+            queryWrapper.lt(pictureScaleTypeEnum.getMaxScale() != null, "picScale", pictureScaleTypeEnum.getMaxScale());
+        }
 
         // JSON 数组查询
         if (CollUtil.isNotEmpty(tags)) {
             for (String tag : tags) {
-                queryWrapper.like("tags", "\"" + tag + "\"");
+                // 老数据匹配 JSON 标签，新数据匹配标签id
+                Integer tagId = tagService.getTagId(tag);
+                queryWrapper.and(qw -> {
+                    qw.like("tags", "\"" + tag + "\"");
+                    if (tagId != null) {
+                        qw.or().apply("FIND_IN_SET({0}, tagIds)", tagId);
+                    }
+                });
             }
         }
 
-        // 排序
-        queryWrapper.orderBy(StrUtil.isNotEmpty(sortField), sortOrder.equals("ascend"), sortField);
+        // 排序：只允许白名单中有索引支持的字段，并追加同方向的 id 保证分页稳定
+        if (StrUtil.isNotEmpty(sortField)) {
+            PictureSortFieldEnum pictureSortFieldEnum = PictureSortFieldEnum.getEnumByValue(sortField);
+            ThrowUtils.throwIf(pictureSortFieldEnum == null, ErrorCode.PARAMS_ERROR, "不支持的排序字段");
+            boolean isAsc = "ascend".equals(sortOrder);
+            queryWrapper.orderBy(true, isAsc, pictureSortFieldEnum.getColumn());
+            queryWrapper.orderBy(true, isAsc, "id");
+        }
         return queryWrapper;
     }
 
 
+    /**
+     * 对象转封装类，并按标签字典解码标签
+     *
+     * @param picture 图片
+     * @return
+     */
+    private PictureVO toPictureVO(Picture picture) {
+        PictureVO pictureVO = PictureVO.objToVo(picture);
+        // 已编码的标签直接从字典取共享的字符串，不再逐行解析 JSON
+        if (picture.getTagIds() != null) {
+            pictureVO.setTags(tagService.decodeTags(picture.getTagIds()));
+        }
+        return pictureVO;
+    }
+
+
     /**
      * 用户获取图片，只能看到VO的图片（获取单条数据）
      *
@@ -348,7 +480,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
     @Override
     public PictureVO getPictureVO(Picture picture, HttpServletRequest request) {
         // 对象转封装类 - 先调用方法
-        PictureVO pictureVO = PictureVO.objToVo(picture);
+        PictureVO pictureVO = toPictureVO(picture);
         // 关联查询用户信息 - 查看是谁传入的这张图片
         Long userId = picture.getUserId();
         if (userId != null && userId > 0) {
@@ -361,6 +493,118 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
     }
 
 
+    /**
+     * 按id查询图片（只读场景），热表中没有时查归档表
+     *
+     * @param id 图片id
+     * @return
+     */
+    @Override
+    public Picture getByIdWithArchive(Long id) {
+        Picture picture = this.getById(id);
+        if (picture == null) {
+            picture = pictureArchiveManager.getArchivedPicture(id);
+        }
+        if (picture != null) {
+            pictureArchiveManager.recordAccess(id);
+        }
+        return picture;
+    }
+
+
+    /**
+     * 按id查询图片（写操作之前），已归档的图片先恢复到热表，之后的更新、删除才能作用到它
+     *
+     * @param id 图片id
+     * @return
+     */
+    @Override
+    public Picture getByIdForUpdate(Long id) {
+        Picture picture = this.getById(id);
+        if (picture == null) {
+            picture = pictureArchiveManager.restorePicture(id, true);
+        }
+        return picture;
+    }
+
+
+    /**
+     * 批量获取图片封装（按请求顺序返回）
+     * 图片一次 IN 查询，空间、权限、用户都按不重复的key各查一次，N 次请求合并为一次
+     *
+     * @param idList    图片id列表
+     * @param loginUser 登录用户
+     * @return
+     */
+    @Override
+    public List<PictureVO> getPictureVOListByIds(List<Long> idList, User loginUser) {
+        // 1.校验参数，去重并过滤掉布隆过滤器判断一定不存在的id
+        ThrowUtils.throwIf(loginUser == null, ErrorCode.NOT_LOGIN_ERROR);
+        if (CollUtil.isEmpty(idList)) {
+            return new ArrayList<>();
+        }
+        Set<Long> idSet = idList.stream()
+                .filter(pictureBloomFilterManager::mightContain)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (idSet.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // 2.一次查询所有图片（分表时 ShardingSphere 会对每张分表各执行一次 IN 查询）
+        Map<Long, Picture> pictureMap = this.listByIds(idSet).stream()
+                .collect(Collectors.toMap(Picture::getId, picture -> picture, (a, b) -> a));
+        // 2.1 热表中没有的再查归档表
+        if (pictureMap.size() < idSet.size()) {
+            List<Long> missingIdList = idSet.stream()
+                    .filter(id -> !pictureMap.containsKey(id))
+                    .collect(Collectors.toList());
+            pictureArchiveManager.listArchivedPictures(missingIdList)
+                    .forEach(picture -> pictureMap.putIfAbsent(picture.getId(), picture));
+        }
+        if (pictureMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // 3.不重复的空间一次查出，并计算每个空间的权限
+        Set<Long> spaceIdSet = pictureMap.values().stream()
+                .map(Picture::getSpaceId)
+                .filter(ObjUtil::isNotNull)
+                .collect(Collectors.toSet());
+        List<Space> spaceList = spaceIdSet.isEmpty() ? new ArrayList<>() : spaceService.listByIds(spaceIdSet);
+        Map<Long, Long> spacePermissionMaskMap = spaceUserAuthManager.getPermissionMaskMap(spaceList, loginUser);
+        // 公共图库的权限只需要算一次
+        long publicPermissionMask = spaceUserAuthManager.getPermissionMask(null, loginUser);
+
+        // 4.不重复的上传用户一次查出
+        Set<Long> userIdSet = pictureMap.values().stream()
+                .map(Picture::getUserId)
+                .filter(ObjUtil::isNotNull)
+                .collect(Collectors.toSet());
+        Map<Long, UserVO> userVOMap = userIdSet.isEmpty() ? new HashMap<>() : userService.listByIds(userIdSet).stream()
+                .collect(Collectors.toMap(User::getId, userService::getUserVO));
+
+        // 5.按请求顺序组装，跳过不存在、空间已不存在或没有查看权限的图片
+        List<PictureVO> pictureVOList = new ArrayList<>(idSet.size());
+        for (Long id : idSet) {
+            Picture picture = pictureMap.get(id);
+            if (picture == null) {
+                continue;
+            }
+            Long permissionMask = picture.getSpaceId() == null
+                    ? publicPermissionMask
+                    : spacePermissionMaskMap.get(picture.getSpaceId());
+            if (permissionMask == null || !spaceUserAuthManager.hasPermission(permissionMask, SpaceUserPermissionConstant.PICTURE_VIEW)) {
+                continue;
+            }
+            PictureVO pictureVO = toPictureVO(picture);
+            pictureVO.setUser(userVOMap.get(picture.getUserId()));
+            pictureVO.setPermissionList(spaceUserAuthManager.toPermissionList(permissionMask));
+            pictureVOList.add(pictureVO);
+        }
+        return pictureVOList;
+    }
+
+
     /**
      * 分页获取图片封装列表（获取分页数据）
      *
@@ -384,7 +628,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
 
         // 4.【下面都是重点】否则，要先把对象列表封装为VO列表 -> stream流,map过滤：每一次都把实体类转VO类
         List<PictureVO> pictureVOList = pictureList.stream()
-                .map(PictureVO::objToVo)
+                .map(this::toPictureVO)
                 .collect(Collectors.toList());
         // 5.【重要】关联查询用户信息：通过stream流 -> 先获取图片列表中所有用户id的集合，然后，stream流获取用户id与图片对应
         Set<Long> userIdSet = pictureList.stream().map(Picture::getUserId).collect(Collectors.toSet());
@@ -431,8 +675,8 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         if (id == null || reviewStatusEnum == null || PictureReviewStatusEnum.REVIEWING.equals(reviewStatusEnum)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        // 2.判断图片是否存在
-        Picture oldPicture = this.getById(id);
+        // 2.判断图片是否存在（已归档的先恢复）
+        Picture oldPicture = this.getByIdForUpdate(id);
         ThrowUtils.throwIf(oldPicture == null, ErrorCode.NOT_FOUND_ERROR);
 
         // 3.校验审核状态是否重复,即已经是该状态了
@@ -440,6 +684,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "请勿重复审核");
         }
         // 4.数据库操作 -> 更新图片
+        dynamicShardingManager.beforeSpaceWrite(oldPicture.getSpaceId());
         Picture updatePicture = new Picture();
         BeanUtils.copyProperties(pictureReviewRequest, updatePicture);
         // 获取对应的参数
@@ -448,6 +693,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         // 更新数据库内容
         boolean result = this.updateById(updatePicture);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        eTagManager.bumpScope(oldPicture.getSpaceId());
     }
 
 
@@ -629,34 +875,49 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         ThrowUtils.throwIf(loginUser == null, ErrorCode.NO_AUTH_ERROR);
 
         // 2.从数据库通过id获取图片 -> 如果图片存在，定义为老图片;不存在就报错
-        Picture oldPicture = this.getById(pictureId);
+        // 已归档的图片先恢复到热表，删除会释放额度，所以恢复时不检查空间额度
+        Picture hotPicture = this.getById(pictureId);
+        Picture oldPicture = hotPicture != null ? hotPicture : pictureArchiveManager.restorePicture(pictureId, false);
         ThrowUtils.throwIf(oldPicture == null, ErrorCode.NOT_FOUND_ERROR);
 
         // 不使用了，已经改为注解鉴权：@SaSpaceCheckPermission
         // 3.【校验权限，调用checkPictureAuth方法】图片存在了 -> 只有本人和管理员可以删除本张图片
         // checkPictureAuth(loginUser, oldPicture);
 
+        dynamicShardingManager.beforeSpaceWrite(oldPicture.getSpaceId());
+        // 登记进行中的写入：删除提交到释放额度之间，额度核对跳过该空间
+        String writeToken = spaceQuotaManager.beginWrite(oldPicture.getSpaceId());
         // 开启事务
         // 更新空间的使用额度后 => 释放额度
-        transactionTemplate.execute(status -> {
-            // 4.操作数据库，删除图片
-            boolean result = this.removeById(pictureId);
-            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
-            // 4.1 首先必须拿到spaceId，明确一点：只有私有空间才可以更新额度！公共空间增删图片都不更新。
-            Long spaceId = oldPicture.getSpaceId();
-            if (spaceId != null) {
-                // 【健壮性增强】为了避免极端数据导致SQL拼出来的是 ... - null
-                ThrowUtils.throwIf(oldPicture.getPicSize() == null, ErrorCode.OPERATION_ERROR, "图片大小为空");
-                // 插入数据成功后 => 更新空间的使用额度
-                boolean update = spaceService.lambdaUpdate()
-                        .eq(Space::getId, oldPicture.getSpaceId())
-                        .setSql("totalSize = totalSize - " + oldPicture.getPicSize())
-                        .setSql("totalCount = totalCount - 1 ")
-                        .update();
-                ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
-            }
-            return true; // 用不到返回值，此处随便返回即可
-        });
+        try {
+            transactionTemplate.execute(status -> {
+                // 4.操作数据库，删除图片
+                boolean result = this.removeById(pictureId);
+                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+                // 4.1 首先必须拿到spaceId，明确一点：只有私有空间才可以更新额度！公共空间增删图片都不更新。
+                Long spaceId = oldPicture.getSpaceId();
+                if (spaceId != null) {
+                    // 【健壮性增强】为了避免极端数据导致额度计算出错
+                    ThrowUtils.throwIf(oldPicture.getPicSize() == null, ErrorCode.OPERATION_ERROR, "图片大小为空");
+                }
+                // 4.2 扣减标签统计和每日上传汇总
+                pictureTagStatService.applyTagDelta(oldPicture, null);
+                pictureUploadDailyService.applyUploadDelta(oldPicture, null);
+                return true; // 用不到返回值，此处随便返回即可
+            });
+        } catch (RuntimeException e) {
+            spaceQuotaManager.endWrite(oldPicture.getSpaceId(), writeToken);
+            throw e;
+        }
+
+        // 释放额度（异步落库），并同步到空间排行
+        if (oldPicture.getSpaceId() != null) {
+            spaceQuotaManager.releaseUsage(oldPicture.getSpaceId(), oldPicture.getPicSize(), writeToken);
+            spaceRankManager.incrementUsage(oldPicture.getSpaceId(), -oldPicture.getPicSize(), -1);
+        }
+        // 记录到布隆过滤器（删除过多时会重建）
+        pictureBloomFilterManager.remove(pictureId);
+        eTagManager.bumpScope(oldPicture.getSpaceId());
 
         // 异步清理文件
         this.clearPictureFile(oldPicture);
@@ -696,8 +957,8 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         // 1.在此处进行实体类和DTO请求类的转换
         Picture picture = new Picture();
         BeanUtils.copyProperties(pictureEditRequest, picture);
-        // 注意将list转为String
-        picture.setTags(JSONUtil.toJsonStr(pictureEditRequest.getTags()));
+        // 注意将list转为标签id（写入标签字典）
+        tagService.fillPictureTags(picture, pictureEditRequest.getTags());
         // 设置编辑时间
         picture.setEditTime(new Date());
 
@@ -705,8 +966,8 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         // 调用图片类通用的方法validPicture
         this.validPicture(picture);
         Long id = pictureEditRequest.getId();
-        // 从pictureService中通过id查到图片的话，就叫oldPicture
-        Picture oldPicture = this.getById(id);
+        // 从pictureService中通过id查到图片的话，就叫oldPicture（已归档的先恢复）
+        Picture oldPicture = this.getByIdForUpdate(id);
         ThrowUtils.throwIf(oldPicture == null, ErrorCode.NOT_FOUND_ERROR);
 
         // 不使用了，已经改为注解鉴权：@SaSpaceCheckPermission
@@ -715,9 +976,14 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
           // 补充审核参数
         this.fillReviewParams(picture, loginUser);
 
-        // 5.操作数据库
-        boolean result = this.updateById(picture);
-        ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        // 5.操作数据库（修改了标签时，同一个事务中更新标签统计）
+        dynamicShardingManager.beforeSpaceWrite(oldPicture.getSpaceId());
+        transactionTemplate.executeWithoutResult(status -> {
+            boolean result = this.updateById(picture);
+            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+            pictureTagStatService.applyTagChange(oldPicture, picture.getTagIds());
+        });
+        eTagManager.bumpScope(oldPicture.getSpaceId());
     }
 
 
@@ -730,6 +996,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<PictureVO> searchPictureByColor(Long spaceId, String picColor, User loginUser) {
         // 1.校验参数
         ThrowUtils.throwIf(spaceId == null || StrUtil.isBlank(picColor), ErrorCode.PARAMS_ERROR);
@@ -769,7 +1036,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
 
         // 5.返回结果 -> 把普通的sortedPictureList转成封装类给前端
         return sortedPictureList.stream()
-                .map(PictureVO::objToVo)
+                .map(this::toPictureVO)
                 .collect(Collectors.toList());
     }
 
@@ -798,22 +1065,36 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         if (!space.getUserId().equals(loginUser.getId())) {
             throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "你没有访问该空间权限");
         }
+        dynamicShardingManager.beforeSpaceWrite(spaceId);
         // 3.查询指定图片（仅选择需要的字段）
         List<Picture> pictureList = this.lambdaQuery()
-                .select(Picture::getId, Picture::getSpaceId)
+                .select(Picture::getId, Picture::getSpaceId, Picture::getTags, Picture::getTagIds)
                 .eq(Picture::getSpaceId, spaceId)
                 .in(Picture::getId, pictureIdList)
                 .list();
         if (pictureList.isEmpty()) {
             return;
         }
-        // 4.更新分类和标签（for循环更新）
+        // 修改标签前先记录原来的标签，用于更新标签统计
+        List<Picture> oldTagPictureList = new ArrayList<>(pictureList.size());
+        if (CollUtil.isNotEmpty(tags)) {
+            for (Picture picture : pictureList) {
+                Picture oldTagPicture = new Picture();
+                oldTagPicture.setSpaceId(picture.getSpaceId());
+                oldTagPicture.setTags(picture.getTags());
+                oldTagPicture.setTagIds(picture.getTagIds());
+                oldTagPictureList.add(oldTagPicture);
+            }
+        }
+        // 4.更新分类和标签（for循环更新），标签只需要编码一次
+        int[] tagIds = CollUtil.isNotEmpty(tags) ? tagService.encodeTags(tags) : null;
         pictureList.forEach(picture -> {
             if (StrUtil.isNotBlank(category)) {
                 picture.setCategory(category);
             }
-            if (CollUtil.isEmpty(tags)) {
-                picture.setTags(JSONUtil.toJsonStr(tags));
+            if (CollUtil.isNotEmpty(tags)) {
+                picture.setTagIds(tagIds);
+                picture.setTags("");
             }
         });
 
@@ -821,9 +1102,13 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
         String nameRule = pictureEditByBatchRequest.getNameRule();
           // 新建一个方法：将nameRule填充到图片列表中
         fillPictureWithNameRule(pictureList, nameRule);
-        // 6.操作数据库进行批量更新
-        boolean result = this.updateBatchById(pictureList);
-        ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "批量编辑失败");
+        // 6.操作数据库进行批量更新（同一个事务中更新标签统计）
+        transactionTemplate.executeWithoutResult(status -> {
+            boolean result = this.updateBatchById(pictureList);
+            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "批量编辑失败");
+            oldTagPictureList.forEach(oldTagPicture -> pictureTagStatService.applyTagChange(oldTagPicture, tagIds));
+        });
+        eTagManager.bumpScope(spaceId);
     }
 
 
@@ -861,7 +1146,7 @@ public class PictureServiceImpl extends ServiceImpl<PictureMapper, Picture>
     public CreateOutPaintingTaskResponse createPictureOutPaintingTask(CreatePictureOutPaintingTaskRequest createPictureOutPaintingTaskRequest, User loginUser) {
         // 获取图片信息
         Long pictureId = createPictureOutPaintingTaskRequest.getPictureId();
-        Picture picture = this.getById(pictureId);
+        Picture picture = this.getByIdWithArchive(pictureId);
         ThrowUtils.throwIf(picture == null, ErrorCode.NOT_FOUND_ERROR, "图片不存在");
 
         // 不使用了，已经改为注解鉴权：@SaSpaceCheckPermission
@@ -0,0 +1,275 @@
+package com.yupi.yupicturebackend.service.impl;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yupi.yupicturebackend.mapper.PictureMapper;
+import com.yupi.yupicturebackend.mapper.PictureTagStatMapper;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.PictureTagStat;
+import com.yupi.yupicturebackend.service.PictureTagStatService;
+import com.yupi.yupicturebackend.service.TagService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标签统计服务
+ * <p>
+ * 1. 图片编辑、批量编辑、删除（以及归档、恢复）时，按“变化前 - 变化后”的标签差异增量更新计数，
+ * 与图片的修改在同一个事务中，按固定顺序更新，避免并发更新同一批标签时死锁（上传的新图片没有标签，不需要统计）；
+ * 2. 增量更新可能因为异常、旧数据等原因产生偏差，由定时任务全量扫描图片核对修正（只修改不一致的行）：
+ * 修正同样按“预期 - 实际”的差值增量更新，不覆盖核对期间其他请求的增量；扫描开始后被更新过的行跳过，由下一次核对处理；
+ * 3. 统计表为空时（第一次部署），启动后自动执行一次全量核对。
+ *
+ * @description 针对表【picture_tag_stat(标签统计)】的数据库操作Service实现
+ */
+@Service
+@Slf4j
+public class PictureTagStatServiceImpl extends ServiceImpl<PictureTagStatMapper, PictureTagStat>
+        implements PictureTagStatService {
+
+    /**
+     * 核对任务锁，多个节点只有一个执行
+     */
+    private static final String RECONCILE_LOCK_KEY = "yupicture:tagstat:reconcile:lock";
+
+    /**
+     * 核对时每次扫描的图片数
+     */
+    private static final int SCAN_BATCH_SIZE = 5000;
+
+    /**
+     * 扫描开始时间向前留出的余量（毫秒）：覆盖扫描开始时还没提交的编辑事务
+     */
+    private static final long SCAN_START_MARGIN_MILLIS = 10_000;
+
+    // 引入图片Mapper，核对时扫描图片（不引入PictureService，避免循环依赖）
+    @Resource
+    private PictureMapper pictureMapper;
+
+    // 引入标签字典，解析老数据的 JSON 标签
+    @Resource
+    private TagService tagService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 第一次部署时执行全量统计的后台线程
+    private ExecutorService reconcileExecutor;
+
+
+    @PostConstruct
+    public void init() {
+        reconcileExecutor = Executors.newSingleThreadExecutor(ThreadFactoryBuilder.create()
+                .setNamePrefix("pictureTagStat-")
+                .setDaemon(true)
+                .build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 核对只修改不一致的行，中断后下次重新执行即可
+        reconcileExecutor.shutdownNow();
+    }
+
+
+    @Override
+    public void applyTagDelta(Picture oldPicture, Picture newPicture) {
+        // 1.计算每个 (范围, 标签) 的变化量，TreeMap 保证更新顺序固定
+        TreeMap<String, Long> deltaMap = new TreeMap<>();
+        if (oldPicture != null) {
+            collectDelta(deltaMap, oldPicture, -1);
+        }
+        if (newPicture != null) {
+            collectDelta(deltaMap, newPicture, 1);
+        }
+        deltaMap.values().removeIf(delta -> delta == 0);
+        if (deltaMap.isEmpty()) {
+            return;
+        }
+        // 2.在一个事务中更新（调用方已经在事务中时加入调用方的事务，与图片的修改一起提交或回滚）
+        transactionTemplate.executeWithoutResult(status -> deltaMap.forEach((key, delta) -> {
+            int index = key.lastIndexOf('#');
+            this.getBaseMapper().incrementCount(key.substring(0, index), Integer.parseInt(key.substring(index + 1)), delta);
+        }));
+    }
+
+
+    @Override
+    public void applyTagChange(Picture oldPicture, int[] newTagIds) {
+        if (oldPicture == null || newTagIds == null) {
+            return;
+        }
+        Picture newPicture = new Picture();
+        newPicture.setSpaceId(oldPicture.getSpaceId());
+        newPicture.setTagIds(newTagIds);
+        applyTagDelta(oldPicture, newPicture);
+    }
+
+
+    @Override
+    public List<PictureTagStat> listScopeTagStat(String scope) {
+        return this.lambdaQuery()
+                .select(PictureTagStat::getTagId, PictureTagStat::getPictureCount)
+                .eq(PictureTagStat::getScope, scope)
+                .gt(PictureTagStat::getPictureCount, 0)
+                .orderByDesc(PictureTagStat::getPictureCount)
+                .list();
+    }
+
+
+    /**
+     * 第一次部署时统计表为空，启动后在后台全量统计一次
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initTagStat() {
+        try {
+            if (this.count() == 0) {
+                reconcileExecutor.execute(this::reconcileTagStat);
+            }
+        } catch (Exception e) {
+            log.error("检查标签统计表失败", e);
+        }
+    }
+
+
+    /**
+     * 定时全量核对（默认每天凌晨执行）
+     */
+    @Override
+    @Scheduled(cron = "${picture.tag-stat.reconcile-cron:0 0 4 * * ?}")
+    public void reconcileTagStat() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(RECONCILE_LOCK_KEY, "1", 2, TimeUnit.HOURS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            // 扫描开始时间取数据库时间，与统计表的 updateTime 比较
+            Date scanStartTime = new Date(this.getBaseMapper().selectNow().getTime() - SCAN_START_MARGIN_MILLIS);
+            // 1.按 id 游标分批扫描所有未删除的图片，统计每个 (范围, 标签) 的图片数
+            Map<String, Long> expectedMap = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Picture> pictureList = pictureMapper.selectList(new QueryWrapper<Picture>()
+                        .select("id", "spaceId", "tags", "tagIds")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + SCAN_BATCH_SIZE));
+                if (pictureList.isEmpty()) {
+                    break;
+                }
+                for (Picture picture : pictureList) {
+                    for (int tagId : resolveTagIds(picture, true)) {
+                        expectedMap.merge(statKey(SCOPE_ALL, tagId), 1L, Long::sum);
+                        expectedMap.merge(statKey(PictureTagStatService.scopeOf(picture.getSpaceId()), tagId), 1L, Long::sum);
+                    }
+                }
+                lastId = pictureList.get(pictureList.size() - 1).getId();
+            }
+            // 2.与统计表逐行比较，只修改不一致的行
+            // 扫描期间被增量更新过的行：扫描结果可能已经过时（图片在被扫描之后才修改），这次不修正
+            Map<String, Long> actualMap = new HashMap<>();
+            Set<String> changedKeySet = new HashSet<>();
+            this.list().forEach(stat -> {
+                String key = statKey(stat.getScope(), stat.getTagId());
+                actualMap.put(key, stat.getPictureCount());
+                if (stat.getUpdateTime() != null && !stat.getUpdateTime().before(scanStartTime)) {
+                    changedKeySet.add(key);
+                }
+            });
+            Set<String> keySet = new TreeSet<>(expectedMap.keySet());
+            keySet.addAll(actualMap.keySet());
+            int fixed = 0;
+            for (String key : keySet) {
+                if (changedKeySet.contains(key)) {
+                    continue;
+                }
+                long delta = expectedMap.getOrDefault(key, 0L) - actualMap.getOrDefault(key, 0L);
+                if (delta == 0) {
+                    continue;
+                }
+                // 按差值增量修正，读取统计表之后其他请求的增量不会被覆盖
+                int index = key.lastIndexOf('#');
+                this.getBaseMapper().incrementCount(key.substring(0, index), Integer.parseInt(key.substring(index + 1)), delta);
+                fixed++;
+            }
+            log.info("标签统计核对完成，共 {} 项，修正 {} 项，扫描期间有更新跳过 {} 项，耗时 {} ms", keySet.size(), fixed,
+                    changedKeySet.size(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("标签统计核对失败", e);
+        } finally {
+            stringRedisTemplate.delete(RECONCILE_LOCK_KEY);
+        }
+    }
+
+
+    /**
+     * 把图片的标签计入变化量：所在范围和全部范围各计一次
+     */
+    private void collectDelta(Map<String, Long> deltaMap, Picture picture, long delta) {
+        String scope = PictureTagStatService.scopeOf(picture.getSpaceId());
+        for (int tagId : resolveTagIds(picture, false)) {
+            deltaMap.merge(statKey(SCOPE_ALL, tagId), delta, Long::sum);
+            deltaMap.merge(statKey(scope, tagId), delta, Long::sum);
+        }
+    }
+
+
+    /**
+     * 解析图片的标签id（去重）：优先使用 tagIds，老数据解析 JSON 标签
+     *
+     * @param picture       图片
+     * @param createMissing 老数据的标签不在字典中时是否写入字典（核对时写入，增量更新时只查字典）
+     * @return
+     */
+    private Set<Integer> resolveTagIds(Picture picture, boolean createMissing) {
+        Set<Integer> tagIdSet = new LinkedHashSet<>();
+        if (picture.getTagIds() != null) {
+            for (int tagId : picture.getTagIds()) {
+                tagIdSet.add(tagId);
+            }
+            return tagIdSet;
+        }
+        if (StrUtil.isBlank(picture.getTags())) {
+            return tagIdSet;
+        }
+        for (String tagName : JSONUtil.toList(picture.getTags(), String.class)) {
+            Integer tagId = tagService.getTagId(tagName);
+            if (tagId == null && createMissing) {
+                try {
+                    tagId = tagService.encodeTags(Collections.singletonList(tagName))[0];
+                } catch (Exception e) {
+                    log.warn("老数据标签无法写入字典: {}", tagName);
+                }
+            }
+            if (tagId != null) {
+                tagIdSet.add(tagId);
+            }
+        }
+        return tagIdSet;
+    }
+
+
+    private String statKey(String scope, int tagId) {
+        return scope + "#" + tagId;
+    }
+}
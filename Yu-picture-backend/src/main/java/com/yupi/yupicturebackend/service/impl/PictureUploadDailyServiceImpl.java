@@ -0,0 +1,236 @@
+package com.yupi.yupicturebackend.service.impl;
+
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yupi.yupicturebackend.mapper.PictureMapper;
+import com.yupi.yupicturebackend.mapper.PictureUploadDailyMapper;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.PictureUploadDaily;
+import com.yupi.yupicturebackend.service.PictureUploadDailyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每日上传汇总服务
+ * <p>
+ * 1. 上传（新增、替换）、删除图片（以及归档、恢复）时，按“变化前 - 变化后”增量更新对应 (空间, 日期, 用户) 的数量和大小，
+ * 与图片的修改在同一个事务中，按固定顺序更新避免死锁；
+ * 2. 定时任务按 id 游标全量扫描图片回填汇总，只修改不一致的行；汇总表为空时（第一次部署）启动后自动回填一次；
+ * 修正按“预期 - 实际”的差值增量更新，不覆盖回填期间其他请求的增量；扫描开始后被更新过的行跳过，由下一次回填处理；
+ * 3. 汇总口径与原来的用户上传行为分析一致：热表中未删除的图片，按创建日期统计。
+ *
+ * @description 针对表【picture_upload_daily(每日上传汇总)】的数据库操作Service实现
+ */
+@Service
+@Slf4j
+public class PictureUploadDailyServiceImpl extends ServiceImpl<PictureUploadDailyMapper, PictureUploadDaily>
+        implements PictureUploadDailyService {
+
+    /**
+     * 回填任务锁，多个节点只有一个执行
+     */
+    private static final String RECONCILE_LOCK_KEY = "yupicture:uploaddaily:reconcile:lock";
+
+    /**
+     * 回填时每次扫描的图片数
+     */
+    private static final int SCAN_BATCH_SIZE = 5000;
+
+    /**
+     * 扫描开始时间向前留出的余量（毫秒）：覆盖扫描开始时还没提交的上传、删除事务
+     */
+    private static final long SCAN_START_MARGIN_MILLIS = 10_000;
+
+    // 引入图片Mapper，回填时扫描图片（不引入PictureService，避免循环依赖）
+    @Resource
+    private PictureMapper pictureMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 第一次部署时执行回填的后台线程
+    private ExecutorService reconcileExecutor;
+
+
+    @PostConstruct
+    public void init() {
+        reconcileExecutor = Executors.newSingleThreadExecutor(ThreadFactoryBuilder.create()
+                .setNamePrefix("pictureUploadDaily-")
+                .setDaemon(true)
+                .build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 回填只修改不一致的行，中断后下次重新执行即可
+        reconcileExecutor.shutdownNow();
+    }
+
+
+    @Override
+    public void applyUploadDelta(Picture oldPicture, Picture newPicture) {
+        // 1.计算每个 (空间, 日期, 用户) 的变化量，TreeMap 保证更新顺序固定
+        TreeMap<String, long[]> deltaMap = new TreeMap<>();
+        if (oldPicture != null) {
+            collectDelta(deltaMap, oldPicture, oldPicture.getCreateTime(), -1);
+        }
+        if (newPicture != null) {
+            Date createTime = newPicture.getCreateTime();
+            if (createTime == null) {
+                // 替换图片不改变创建时间；新插入的图片创建时间由数据库生成，读取入库后的值，与回填时的日期一致
+                createTime = oldPicture != null ? oldPicture.getCreateTime() : getPersistedCreateTime(newPicture.getId());
+            }
+            collectDelta(deltaMap, newPicture, createTime, 1);
+        }
+        deltaMap.values().removeIf(delta -> delta[0] == 0 && delta[1] == 0);
+        if (deltaMap.isEmpty()) {
+            return;
+        }
+        // 2.在一个事务中更新（调用方已经在事务中时加入调用方的事务，与图片的修改一起提交或回滚）
+        transactionTemplate.executeWithoutResult(status -> deltaMap.forEach((key, delta) -> {
+            String[] parts = key.split("#");
+            this.getBaseMapper().incrementDaily(Long.parseLong(parts[0]), parts[1], Long.parseLong(parts[2]), delta[0], delta[1]);
+        }));
+    }
+
+
+    /**
+     * 第一次部署时汇总表为空，启动后在后台回填一次
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initUploadDaily() {
+        try {
+            if (this.count() == 0) {
+                reconcileExecutor.execute(this::reconcileUploadDaily);
+            }
+        } catch (Exception e) {
+            log.error("检查每日上传汇总表失败", e);
+        }
+    }
+
+
+    /**
+     * 定时回填、核对（默认每天凌晨执行）
+     */
+    @Override
+    @Scheduled(cron = "${picture.upload-daily.reconcile-cron:0 30 4 * * ?}")
+    public void reconcileUploadDaily() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(RECONCILE_LOCK_KEY, "1", 2, TimeUnit.HOURS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            // 扫描开始时间取数据库时间，与汇总表的 updateTime 比较
+            Date scanStartTime = new Date(this.getBaseMapper().selectNow().getTime() - SCAN_START_MARGIN_MILLIS);
+            // 1.按 id 游标分批扫描所有未删除的图片，按 (空间, 日期, 用户) 汇总
+            Map<String, long[]> expectedMap = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Picture> pictureList = pictureMapper.selectList(new QueryWrapper<Picture>()
+                        .select("id", "spaceId", "userId", "picSize", "createTime")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + SCAN_BATCH_SIZE));
+                if (pictureList.isEmpty()) {
+                    break;
+                }
+                for (Picture picture : pictureList) {
+                    collectDelta(expectedMap, picture, picture.getCreateTime(), 1);
+                }
+                lastId = pictureList.get(pictureList.size() - 1).getId();
+            }
+            // 2.与汇总表逐行比较，只修改不一致的行
+            // 扫描期间被增量更新过的行：扫描结果可能已经过时（图片在被扫描之后才上传、删除），这次不修正
+            Map<String, long[]> actualMap = new HashMap<>();
+            Set<String> changedKeySet = new HashSet<>();
+            this.list().forEach(daily -> {
+                String key = dailyKey(daily.getSpaceId(), DateUtil.formatDate(daily.getStatDate()), daily.getUserId());
+                actualMap.put(key, new long[]{daily.getUploadCount(), daily.getUploadSize()});
+                if (daily.getUpdateTime() != null && !daily.getUpdateTime().before(scanStartTime)) {
+                    changedKeySet.add(key);
+                }
+            });
+            Set<String> keySet = new TreeSet<>(expectedMap.keySet());
+            keySet.addAll(actualMap.keySet());
+            int fixed = 0;
+            for (String key : keySet) {
+                if (changedKeySet.contains(key)) {
+                    continue;
+                }
+                long[] expected = expectedMap.getOrDefault(key, new long[2]);
+                long[] actual = actualMap.getOrDefault(key, new long[2]);
+                long countDelta = expected[0] - actual[0];
+                long sizeDelta = expected[1] - actual[1];
+                if (countDelta == 0 && sizeDelta == 0) {
+                    continue;
+                }
+                // 按差值增量修正，读取汇总表之后其他请求的增量不会被覆盖
+                String[] parts = key.split("#");
+                this.getBaseMapper().incrementDaily(Long.parseLong(parts[0]), parts[1], Long.parseLong(parts[2]), countDelta, sizeDelta);
+                fixed++;
+            }
+            log.info("每日上传汇总回填完成，共 {} 项，修正 {} 项，扫描期间有更新跳过 {} 项，耗时 {} ms", keySet.size(), fixed,
+                    changedKeySet.size(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("每日上传汇总回填失败", e);
+        } finally {
+            stringRedisTemplate.delete(RECONCILE_LOCK_KEY);
+        }
+    }
+
+
+    /**
+     * 把图片计入变化量
+     */
+    private void collectDelta(Map<String, long[]> deltaMap, Picture picture, Date createTime, long sign) {
+        if (picture.getUserId() == null || createTime == null) {
+            return;
+        }
+        long spaceId = picture.getSpaceId() == null ? PUBLIC_SPACE_ID : picture.getSpaceId();
+        long picSize = picture.getPicSize() == null ? 0 : picture.getPicSize();
+        long[] delta = deltaMap.computeIfAbsent(dailyKey(spaceId, DateUtil.formatDate(createTime), picture.getUserId()), key -> new long[2]);
+        delta[0] += sign;
+        delta[1] += sign * picSize;
+    }
+
+
+    /**
+     * 读取图片入库后由数据库生成的创建时间（与图片的插入在同一个事务中，能读到未提交的行）
+     *
+     * @param pictureId 图片id
+     * @return 读取不到时返回 null（不计入汇总，由回填修正）
+     */
+    private Date getPersistedCreateTime(Long pictureId) {
+        if (pictureId == null) {
+            return null;
+        }
+        Picture picture = pictureMapper.selectOne(new QueryWrapper<Picture>()
+                .select("createTime")
+                .eq("id", pictureId));
+        return picture == null ? null : picture.getCreateTime();
+    }
+
+
+    private String dailyKey(long spaceId, String statDate, long userId) {
+        return spaceId + "#" + statDate + "#" + userId;
+    }
+}
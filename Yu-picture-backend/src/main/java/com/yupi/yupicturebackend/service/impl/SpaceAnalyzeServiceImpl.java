@@ -1,26 +1,41 @@
 package com.yupi.yupicturebackend.service.impl;
 
+import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.ObjUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yupi.yupicturebackend.annotation.ReadFromReplica;
 import com.yupi.yupicturebackend.exception.BusinessException;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
+import com.yupi.yupicturebackend.manager.quota.SpaceQuotaManager;
+import com.yupi.yupicturebackend.manager.rank.SpaceRankManager;
 import com.yupi.yupicturebackend.mapper.SpaceMapper;
 import com.yupi.yupicturebackend.model.dto.space.analyze.*;
 import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.PictureTagStat;
+import com.yupi.yupicturebackend.model.entity.PictureUploadDaily;
 import com.yupi.yupicturebackend.model.entity.Space;
 import com.yupi.yupicturebackend.model.entity.User;
+import com.yupi.yupicturebackend.model.enums.SpaceRankTypeEnum;
 import com.yupi.yupicturebackend.model.vo.space.analyze.*;
 import com.yupi.yupicturebackend.service.PictureService;
+import com.yupi.yupicturebackend.service.PictureTagStatService;
+import com.yupi.yupicturebackend.service.PictureUploadDailyService;
 import com.yupi.yupicturebackend.service.SpaceAnalyzeService;
 import com.yupi.yupicturebackend.service.SpaceService;
+import com.yupi.yupicturebackend.service.TagService;
 import com.yupi.yupicturebackend.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +62,31 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
     @Resource
     private PictureService pictureService;
 
+    @Resource
+    private TagService tagService;
+
+    // 引入标签统计服务
+    @Resource
+    private PictureTagStatService pictureTagStatService;
+
+    // 引入每日上传汇总服务
+    @Resource
+    private PictureUploadDailyService pictureUploadDailyService;
+
+    // 引入空间使用排行榜
+    @Resource
+    private SpaceRankManager spaceRankManager;
+
+    // 引入空间额度管理，使用量加上还没落库的变化量
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    /**
+     * 图片大小分析的分段边界（字节，递增），N 个边界分成 N + 1 段
+     */
+    @Value("${picture.analyze.size-buckets:102400,512000,1048576}")
+    private long[] sizeBuckets;
+
     /**
      * 获取空间使用情况分析
      *
@@ -55,6 +95,7 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public SpaceUsageAnalyzeResponse getSpaceUsageAnalyze(SpaceUsageAnalyzeRequest spaceUsageAnalyzeRequest, User loginUser) {
         // 1.参数校验
         // 2.权限校验
@@ -62,17 +103,16 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
         if (spaceUsageAnalyzeRequest.isQueryAll() || spaceUsageAnalyzeRequest.isQueryPublic()) {
             // 调用checkSpaceAnalyzeAuth方法
             checkSpaceAnalyzeAuth(spaceUsageAnalyzeRequest, loginUser);
-            // 统计图库的使用空间
+            // 统计图库的使用空间：SUM / COUNT 下推到数据库，不再把每一行的 picSize 查出来在内存中加和
+            // 开启分表时 ShardingSphere 在每张分表上并行执行，再把各表的 SUM、COUNT 归并（聚合列不能再套函数，否则无法归并）
             QueryWrapper<Picture> queryWrapper = new QueryWrapper<>();
-            queryWrapper.select("picSize");
+            queryWrapper.select("SUM(picSize) AS usedSize", "COUNT(*) AS usedCount");
             // 调用fillAnalyzeQueryWrapper方法，对不同的权限查询 -> 目的：自动补充查询范围
             fillAnalyzeQueryWrapper(spaceUsageAnalyzeRequest, queryWrapper);
 
-            // 然后查图片表 -> 从BaseMapper中调用selectObjs方法，目的是：用返回值为Long的List(Object)替换返回值为List的表
-            List<Object> pictureObjList = pictureService.getBaseMapper().selectObjs(queryWrapper);
-            // 把得到的pictureObjList通过stream映射为Long类型，最后把所有的Long加和组成usedSize
-            long usedSize = pictureObjList.stream().mapToLong(obj -> (Long) obj).sum();
-            long usedCount = pictureObjList.size(); // 得到列表的count
+            Map<String, Object> resultMap = getFirstMap(pictureService.getBaseMapper().selectMaps(queryWrapper));
+            long usedSize = getLongValue(resultMap, "usedSize");
+            long usedCount = getLongValue(resultMap, "usedCount");
 
             // 得到结果后，封装返回结果
             SpaceUsageAnalyzeResponse spaceUsageAnalyzeResponse = new SpaceUsageAnalyzeResponse();
@@ -93,16 +133,18 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
             ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
             // 校验权限
             checkSpaceAnalyzeAuth(spaceUsageAnalyzeRequest, loginUser);
+            // 使用量 = space 表的值 + 还没落库的变化量（space 表最多落后一个落库间隔）
+            long[] usage = spaceQuotaManager.getUsage(space);
             // 封装返回结果
             SpaceUsageAnalyzeResponse spaceUsageAnalyzeResponse = new SpaceUsageAnalyzeResponse();
-            spaceUsageAnalyzeResponse.setUsedSize(space.getTotalSize());
-            spaceUsageAnalyzeResponse.setUsedCount(space.getTotalCount());
+            spaceUsageAnalyzeResponse.setUsedSize(usage[0]);
+            spaceUsageAnalyzeResponse.setUsedCount(usage[1]);
             // 私有空间，有数量和容量限制，也无比例
             spaceUsageAnalyzeResponse.setMaxSize(space.getMaxSize());
             spaceUsageAnalyzeResponse.setMaxCount(space.getMaxCount());
               // 计算比例
-            double sizeUsageRatio = NumberUtil.round(space.getTotalSize() * 100.0 / space.getMaxSize(), 2).doubleValue();
-            double countUsageRatio = NumberUtil.round(space.getTotalCount() * 100.0 / space.getMaxCount(), 2).doubleValue();
+            double sizeUsageRatio = NumberUtil.round(usage[0] * 100.0 / space.getMaxSize(), 2).doubleValue();
+            double countUsageRatio = NumberUtil.round(usage[1] * 100.0 / space.getMaxCount(), 2).doubleValue();
             spaceUsageAnalyzeResponse.setSizeUsageRatio(null);
             spaceUsageAnalyzeResponse.setCountUsageRatio(null);
             return spaceUsageAnalyzeResponse;
@@ -118,6 +160,7 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<SpaceCategoryAnalyzeResponse> getSpaceCategoryAnalyze(SpaceCategoryAnalyzeRequest spaceCategoryAnalyzeRequest, User loginUser) {
         // 1.参数校验
         ThrowUtils.throwIf(spaceCategoryAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
@@ -156,42 +199,36 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<SpaceTagAnalyzeResponse> getSpaceTagAnalyze(SpaceTagAnalyzeRequest spaceTagAnalyzeRequest, User loginUser) {
         // 1.参数校验
         ThrowUtils.throwIf(spaceTagAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         checkSpaceAnalyzeAuth(spaceTagAnalyzeRequest, loginUser);
 
-        // 2.构造查询条件
-        QueryWrapper<Picture> queryWrapper = new QueryWrapper<>();
-        // 根据请求参数，补充查询条件，调用fillAnalyzeQueryWrapper
-        fillAnalyzeQueryWrapper(spaceTagAnalyzeRequest, queryWrapper);
-
-        // 3.查询所有符合条件的标签
-        queryWrapper.select("tags");
-          // 获取到所有符合条件的标签字符串列表,并转换为String格式的List
-        List<String> tagsJsonList = pictureService.getBaseMapper().selectObjs(queryWrapper).stream()
-                // 过滤掉无标签的字段 -> 用Hutool的ObjUtil工具
-                .filter(ObjUtil::isNotNull)
-                // map转换 -> Obj转为String
-                .map(Object::toString)
-                .collect(Collectors.toList());
+        // 2.确定统计范围（与 fillAnalyzeQueryWrapper 的范围一致）
+        String scope;
+        if (spaceTagAnalyzeRequest.isQueryAll()) {
+            scope = PictureTagStatService.SCOPE_ALL;
+        } else if (spaceTagAnalyzeRequest.isQueryPublic()) {
+            scope = PictureTagStatService.SCOPE_PUBLIC;
+        } else if (spaceTagAnalyzeRequest.getSpaceId() != null) {
+            scope = PictureTagStatService.scopeOf(spaceTagAnalyzeRequest.getSpaceId());
+        } else {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "未指定查询范围");
+        }
 
-        // 4.解析标签并统计
-          // 如：["Java", "Python"], ["Java", "PHP"]  ==>  "Java", "Python", "Java", "PHP"
-        Map<String, Long> tagCountMap = tagsJsonList.stream()
-                // 把数组拆开，用扁平化处理 flatMap函数，把每一条的tagsJson 通过 JSONUtil的toList方法拆开，转化为String
-                .flatMap(tagsJson -> JSONUtil.toList(tagsJson, String.class).stream())
-                // 收集数据后分组，根据tag标签分组求和，求出每个tag的数量
-                .collect(Collectors.groupingBy(tag -> tag, Collectors.counting()));
-
-        // 5.转换为响应对象，按照相应次数排序
-          // entrySet()是指tagCountMap的一条记录，即一个key和一个value
-        return tagCountMap.entrySet().stream()
-                // 排序sorted方法，传入一个比较器：(e1,e2) -> Long.compare(e2的值，e1的值)
-                .sorted((e1, e2) -> Long.compare(e2.getValue(), e1.getValue())) // 降序排
-                // 转换，把每一个entry转为标签对象，取出key：value
-                .map(entry -> new SpaceTagAnalyzeResponse(entry.getKey(), entry.getValue()))
-                .collect(Collectors.toList());
+        // 3.直接读取增量维护的标签统计表（按范围 + 数量的索引，已按数量降序），不再扫描图片解析标签
+        List<PictureTagStat> tagStatList = pictureTagStatService.listScopeTagStat(scope);
+
+        // 4.标签id转回标签名，转换为响应对象
+        List<SpaceTagAnalyzeResponse> responseList = new ArrayList<>(tagStatList.size());
+        for (PictureTagStat tagStat : tagStatList) {
+            String tagName = tagService.getTagName(tagStat.getTagId());
+            if (tagName != null) {
+                responseList.add(new SpaceTagAnalyzeResponse(tagName, tagStat.getPictureCount()));
+            }
+        }
+        return responseList;
     }
 
 
@@ -202,6 +239,7 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<SpaceSizeAnalyzeResponse> getSpaceSizeAnalyze(SpaceSizeAnalyzeRequest spaceSizeAnalyzeRequest, User loginUser) {
 
         // 1.检查权限
@@ -213,21 +251,34 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
           // 根据请求参数，补充查询条件，调用fillAnalyzeQueryWrapper
         fillAnalyzeQueryWrapper(spaceSizeAnalyzeRequest, queryWrapper);
 
-        // 3.查询所有符合条件的图片大小
-        queryWrapper.select("picSize");
-        List<Long> picSizeList = pictureService.getBaseMapper().selectObjs(queryWrapper)
-                .stream()
-                .filter(ObjUtil::isNotNull)
-                // map转换：把size转为数字类型
-                .map(size -> (Long) size)
-                .collect(Collectors.toList());
+        // 3.每个分段用 SUM(CASE WHEN ...) 在数据库中计数，一次查询得到所有分段，不再把每一行的 picSize 查出来
+        // 分段是左闭右开区间 [lower, upper)，分段边界来自配置，都是数字，可以直接拼接到 SQL 中
+        List<String> labelList = new ArrayList<>();
+        List<String> selectList = new ArrayList<>();
+        for (int i = 0; i <= sizeBuckets.length; i++) {
+            Long lower = i == 0 ? null : sizeBuckets[i - 1];
+            Long upper = i == sizeBuckets.length ? null : sizeBuckets[i];
+            String condition;
+            if (lower == null) {
+                condition = "picSize < " + upper;
+                labelList.add("<" + formatSize(upper));
+            } else if (upper == null) {
+                condition = "picSize >= " + lower;
+                labelList.add("≥" + formatSize(lower));
+            } else {
+                condition = "picSize >= " + lower + " AND picSize < " + upper;
+                labelList.add(formatSize(lower) + "-" + formatSize(upper));
+            }
+            selectList.add("SUM(CASE WHEN " + condition + " THEN 1 ELSE 0 END) AS bucket" + i);
+        }
+        queryWrapper.select(selectList.toArray(new String[0]));
+        Map<String, Object> resultMap = getFirstMap(pictureService.getBaseMapper().selectMaps(queryWrapper));
 
-        // 4.定义分段范围，注意使用有序的Map，如LinedHashMap、TreeMap
+        // 4.按分段顺序组装，注意使用有序的Map，如LinedHashMap、TreeMap
         LinkedHashMap<String, Long> sizeRanges = new LinkedHashMap<>();
-        sizeRanges.put("<100KB", picSizeList.stream().filter(size -> size < 100 * 1024).count());
-        sizeRanges.put("100KB-500KB", picSizeList.stream().filter(size -> size >= 100 * 1024 && size < 500 * 1024).count());
-        sizeRanges.put("500KB-1MB", picSizeList.stream().filter(size -> size >= 500 * 1024 && size <= 1 * 1024 * 1024).count());
-        sizeRanges.put(">1MB", picSizeList.stream().filter(size -> size > 1 * 1024 * 1024).count());
+        for (int i = 0; i < labelList.size(); i++) {
+            sizeRanges.put(labelList.get(i), getLongValue(resultMap, "bucket" + i));
+        }
 
         // 5.转化为响应对象
         return sizeRanges.entrySet().stream()
@@ -244,49 +295,60 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<SpaceUserAnalyzeResponse> getSpaceUserAnalyze(SpaceUserAnalyzeRequest spaceUserAnalyzeRequest, User loginUser) {
 
         // 1.校验权限
         ThrowUtils.throwIf(spaceUserAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         checkSpaceAnalyzeAuth(spaceUserAnalyzeRequest, loginUser);
 
-        // 2.构造查询条件
-        QueryWrapper<Picture> queryWrapper = new QueryWrapper<>();
-        fillAnalyzeQueryWrapper(spaceUserAnalyzeRequest, queryWrapper);
+        // 2.构造查询条件：直接查询每日上传汇总表，不再扫描图片表（图片表按 createTime 的表达式分组无法使用索引）
+        QueryWrapper<PictureUploadDaily> queryWrapper = new QueryWrapper<>();
+        if (spaceUserAnalyzeRequest.isQueryAll()) {
+            // 全空间分析，不需要条件
+        } else if (spaceUserAnalyzeRequest.isQueryPublic()) {
+            queryWrapper.eq("spaceId", PictureUploadDailyService.PUBLIC_SPACE_ID);
+        } else if (spaceUserAnalyzeRequest.getSpaceId() != null) {
+            queryWrapper.eq("spaceId", spaceUserAnalyzeRequest.getSpaceId());
+        } else {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "未指定查询范围");
+        }
           // 2.1 补充用户 id 查询
         Long userId = spaceUserAnalyzeRequest.getUserId();
           // 只有userId非空时，才能查询
         queryWrapper.eq(ObjUtil.isNotNull(userId), "userId", userId);
-          // 2.2 补充分析维度：每日、每周、每月
+          // 2.2 补充日期范围（包含首尾两天）
+        Date startDate = spaceUserAnalyzeRequest.getStartDate();
+        Date endDate = spaceUserAnalyzeRequest.getEndDate();
+        queryWrapper.ge(ObjUtil.isNotNull(startDate), "statDate", startDate == null ? null : DateUtil.formatDate(startDate));
+        queryWrapper.le(ObjUtil.isNotNull(endDate), "statDate", endDate == null ? null : DateUtil.formatDate(endDate));
+          // 2.3 补充分析维度：每日、每周、每月（与原来按 createTime 分组的格式一致）
         String timeDimension = spaceUserAnalyzeRequest.getTimeDimension(); // 时间维度参数
-          // 【sql重要！】使用switch枚举时间维度的参数
+        ThrowUtils.throwIf(StrUtil.isBlank(timeDimension), ErrorCode.PARAMS_ERROR, "不支持的时间维度");
         switch(timeDimension) {
             case "day":
-                // sql拆分：把时间格式按图片创建时间切分，即年-月-日的格式切分为period,然后取出count值计数
-                queryWrapper.select("DATE_FORMAT(createTime, '%Y-%m-%d') as period", "count(*) as count");
+                queryWrapper.select("DATE_FORMAT(statDate, '%Y-%m-%d') as period", "SUM(uploadCount) as count");
                 break;
             case "week":
                 // YEARWEEK可以自动划分到这一年的某一周
-                queryWrapper.select("YEARWEEK(createTime) as period", "count(*) as count");
+                queryWrapper.select("YEARWEEK(statDate) as period", "SUM(uploadCount) as count");
                 break;
             case "month":
-                queryWrapper.select("DATE_FORMAT(createTime, '%Y-%m') as period", "count(*) as count");
+                queryWrapper.select("DATE_FORMAT(statDate, '%Y-%m') as period", "SUM(uploadCount) as count");
                 break;
             default:
-                // ThrowUtils.throwIf(true, ErrorCode.PARAMS_ERROR, "不支持的时间维度");
                 throw new BusinessException(ErrorCode.PARAMS_ERROR, "不支持的时间维度");
         }
-          // 2.3 分组排序，按照period分组,且增序排序，时间就是从小到大
-        queryWrapper.groupBy("period").orderByAsc("period");
+          // 2.4 分组排序，按照period分组,且增序排序，时间就是从小到大；全部删除的日期不返回
+        queryWrapper.groupBy("period").having("SUM(uploadCount) > 0").orderByAsc("period");
 
-        // 3. 查询并封装结果
-        List<Map<String, Object>> queryResult = pictureService.getBaseMapper().selectMaps(queryWrapper);
+        // 3. 查询并封装结果（汇总表每个空间每天每个用户一行，数据量远小于图片表）
+        List<Map<String, Object>> queryResult = pictureUploadDailyService.getBaseMapper().selectMaps(queryWrapper);
         return queryResult
                 .stream()
                 .map(result -> {
                     String period = result.get("period").toString();
-                    // 下面这个count同样是BigDecimal类型，需要先转为Number，再转为Long类型
-                    // Long count = (Long) result.get("count");
+                    // SUM 的结果是BigDecimal类型，需要先转为Number，再转为Long类型
                     long count = ((Number) result.get("count")).longValue();
                     return new SpaceUserAnalyzeResponse(period, count);
                 })
@@ -301,21 +363,82 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @return
      */
     @Override
+    @ReadFromReplica
     public List<Space> getSpaceRankAnalyze(SpaceRankAnalyzeRequest spaceRankAnalyzeRequest, User loginUser) {
 
         // 1.校验权限 (仅管理员)
         ThrowUtils.throwIf(spaceRankAnalyzeRequest == null, ErrorCode.PARAMS_ERROR);
         ThrowUtils.throwIf(!userService.isAdmin(loginUser), ErrorCode.NO_AUTH_ERROR);
 
-        // 2.构造查询条件
-        QueryWrapper<Space> queryWrapper = new QueryWrapper<>();
-        queryWrapper.select("id", "spaceName", "userId", "totalSize")
-                .orderByDesc("totalSize")
-                // 一次只输出前N个,limit后必须加空格，因为格式是limit N
-                .last("limit " + spaceRankAnalyzeRequest.getTopN());
-
-        // 3.查询并封装结果
-        return spaceService.list(queryWrapper);
+        Integer topN = spaceRankAnalyzeRequest.getTopN();
+        ThrowUtils.throwIf(topN == null || topN <= 0, ErrorCode.PARAMS_ERROR, "排行数量错误");
+        SpaceRankTypeEnum rankType = getRankType(spaceRankAnalyzeRequest.getRankType());
+
+        // 2.从排行榜（Redis ZSET）取前N个空间id，不再对空间表排序
+        LinkedHashMap<Long, Long> topMap = spaceRankManager.listTop(rankType, topN);
+        if (topMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // 3.按主键查询空间信息，按排行的顺序封装结果，排序依据的值以排行为准（与名次一致）
+        Map<Long, Space> spaceMap = spaceService.lambdaQuery()
+                .select(Space::getId, Space::getSpaceName, Space::getUserId, Space::getTotalSize, Space::getTotalCount)
+                .in(Space::getId, topMap.keySet())
+                .list()
+                .stream()
+                .collect(Collectors.toMap(Space::getId, space -> space));
+        List<Space> resultList = new ArrayList<>(topMap.size());
+        topMap.forEach((spaceId, score) -> {
+            Space space = spaceMap.get(spaceId);
+            if (space == null) {
+                // 已删除的空间，等待核对移除
+                return;
+            }
+            if (rankType == SpaceRankTypeEnum.SIZE) {
+                space.setTotalSize(score);
+            } else {
+                space.setTotalCount(score);
+            }
+            resultList.add(space);
+        });
+        return resultList;
+    }
+
+
+    /**
+     * 获取某个空间在使用排行中的名次（空间创建者和管理员）
+     * @param spaceRankPositionRequest
+     * @param loginUser
+     * @return
+     */
+    @Override
+    public SpaceRankPositionResponse getSpaceRankPosition(SpaceRankPositionRequest spaceRankPositionRequest, User loginUser) {
+        // 1.校验参数和权限
+        ThrowUtils.throwIf(spaceRankPositionRequest == null, ErrorCode.PARAMS_ERROR);
+        Long spaceId = spaceRankPositionRequest.getSpaceId();
+        ThrowUtils.throwIf(spaceId == null || spaceId <= 0, ErrorCode.PARAMS_ERROR);
+        SpaceRankTypeEnum rankType = getRankType(spaceRankPositionRequest.getRankType());
+        Space space = spaceService.getById(spaceId);
+        ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+        spaceService.checkSpaceAuth(loginUser, space);
+
+        // 2.从排行榜查名次（ZREVRANK）
+        long[] rank = spaceRankManager.getRank(rankType, spaceId);
+        ThrowUtils.throwIf(rank == null, ErrorCode.NOT_FOUND_ERROR, "空间暂未进入排行，请稍后再试");
+        return new SpaceRankPositionResponse(spaceId, rank[0], rank[1], rank[2]);
+    }
+
+
+    /**
+     * 解析排序依据，不传时按使用大小
+     */
+    private SpaceRankTypeEnum getRankType(String rankTypeValue) {
+        if (StrUtil.isBlank(rankTypeValue)) {
+            return SpaceRankTypeEnum.SIZE;
+        }
+        SpaceRankTypeEnum rankType = SpaceRankTypeEnum.getEnumByValue(rankTypeValue);
+        ThrowUtils.throwIf(rankType == null, ErrorCode.PARAMS_ERROR, "不支持的排序依据");
+        return rankType;
     }
 
 
@@ -325,7 +448,8 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
      * @param spaceAnalyzeRequest
      * @param loginUser
      */
-    private void checkSpaceAnalyzeAuth(SpaceAnalyzeRequest spaceAnalyzeRequest, User loginUser) {
+    @Override
+    public void checkSpaceAnalyzeAuth(SpaceAnalyzeRequest spaceAnalyzeRequest, User loginUser) {
         // 1.取出请求参数的值
         boolean queryPublic = spaceAnalyzeRequest.isQueryPublic(); // 公共图库
         boolean queryAll = spaceAnalyzeRequest.isQueryAll(); // 全部图库(含私有图库)
@@ -374,8 +498,48 @@ public class SpaceAnalyzeServiceImpl extends ServiceImpl<SpaceMapper, Space>
         // 三个条件均不满足则抛出异常
         throw new BusinessException(ErrorCode.PARAMS_ERROR, "未指定查询范围");
     }
-}
 
 
+    /**
+     * 校验图片大小分段的配置：至少一个边界，且严格递增
+     */
+    @PostConstruct
+    public void validSizeBuckets() {
+        ThrowUtils.throwIf(sizeBuckets == null || sizeBuckets.length == 0, ErrorCode.SYSTEM_ERROR, "图片大小分段不能为空");
+        for (int i = 0; i < sizeBuckets.length; i++) {
+            ThrowUtils.throwIf(sizeBuckets[i] <= 0 || (i > 0 && sizeBuckets[i] <= sizeBuckets[i - 1]),
+                    ErrorCode.SYSTEM_ERROR, "图片大小分段必须是递增的正数");
+        }
+    }
 
 
+    /**
+     * 分段边界的展示名称，如 102400 -> 100KB，1048576 -> 1MB
+     */
+    private String formatSize(long size) {
+        if (size % (1024 * 1024) == 0) {
+            return size / (1024 * 1024) + "MB";
+        }
+        if (size % 1024 == 0) {
+            return size / 1024 + "KB";
+        }
+        return size + "B";
+    }
+
+
+    /**
+     * 聚合查询只有一行结果（没有数据时 SUM 为 NULL，ShardingSphere 归并后也可能没有行）
+     */
+    private Map<String, Object> getFirstMap(List<Map<String, Object>> resultList) {
+        return resultList.isEmpty() || resultList.get(0) == null ? new HashMap<>() : resultList.get(0);
+    }
+
+
+    /**
+     * 读取聚合结果（SUM 返回 BigDecimal，COUNT 返回 Long），NULL 视为 0
+     */
+    private long getLongValue(Map<String, Object> resultMap, String key) {
+        Object value = resultMap.get(key);
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+}
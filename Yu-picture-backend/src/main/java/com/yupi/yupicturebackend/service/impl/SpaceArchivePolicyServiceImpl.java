@@ -0,0 +1,76 @@
+package com.yupi.yupicturebackend.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yupi.yupicturebackend.exception.ErrorCode;
+import com.yupi.yupicturebackend.exception.ThrowUtils;
+import com.yupi.yupicturebackend.mapper.SpaceArchivePolicyMapper;
+import com.yupi.yupicturebackend.model.dto.space.SpaceArchivePolicyUpdateRequest;
+import com.yupi.yupicturebackend.model.entity.Space;
+import com.yupi.yupicturebackend.model.entity.SpaceArchivePolicy;
+import com.yupi.yupicturebackend.model.entity.User;
+import com.yupi.yupicturebackend.service.SpaceArchivePolicyService;
+import com.yupi.yupicturebackend.service.SpaceService;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+
+/**
+ * @description 针对表【space_archive_policy(空间归档策略)】的数据库操作Service实现
+ */
+@Service
+public class SpaceArchivePolicyServiceImpl extends ServiceImpl<SpaceArchivePolicyMapper, SpaceArchivePolicy>
+        implements SpaceArchivePolicyService {
+
+    /**
+     * 天数配置的上限（10年）
+     */
+    private static final int MAX_DAYS = 3650;
+
+    // 引入SpaceService，校验空间是否存在和权限
+    @Resource
+    private SpaceService spaceService;
+
+
+    @Override
+    public SpaceArchivePolicy getArchivePolicy(Long spaceId, User loginUser) {
+        checkAuth(spaceId, loginUser);
+        return this.getById(spaceId);
+    }
+
+
+    @Override
+    public boolean updateArchivePolicy(SpaceArchivePolicyUpdateRequest spaceArchivePolicyUpdateRequest, User loginUser) {
+        // 1.参数校验
+        ThrowUtils.throwIf(spaceArchivePolicyUpdateRequest == null, ErrorCode.PARAMS_ERROR);
+        Integer enabled = spaceArchivePolicyUpdateRequest.getEnabled();
+        Integer deletedRetentionDays = spaceArchivePolicyUpdateRequest.getDeletedRetentionDays();
+        Integer idleDays = spaceArchivePolicyUpdateRequest.getIdleDays();
+        ThrowUtils.throwIf(enabled != null && enabled != 0 && enabled != 1, ErrorCode.PARAMS_ERROR, "开启状态错误");
+        // 刚删除的图片可能还要恢复，至少保留1天
+        ThrowUtils.throwIf(deletedRetentionDays != null && (deletedRetentionDays < 1 || deletedRetentionDays > MAX_DAYS),
+                ErrorCode.PARAMS_ERROR, "删除图片的保留天数需要在 1 ~ " + MAX_DAYS + " 之间");
+        ThrowUtils.throwIf(idleDays != null && (idleDays < 0 || idleDays > MAX_DAYS),
+                ErrorCode.PARAMS_ERROR, "未访问天数需要在 0 ~ " + MAX_DAYS + " 之间");
+        // 2.权限校验
+        checkAuth(spaceArchivePolicyUpdateRequest.getSpaceId(), loginUser);
+        // 3.新增或更新
+        SpaceArchivePolicy spaceArchivePolicy = new SpaceArchivePolicy();
+        BeanUtils.copyProperties(spaceArchivePolicyUpdateRequest, spaceArchivePolicy);
+        if (spaceArchivePolicy.getEnabled() == null) {
+            spaceArchivePolicy.setEnabled(1);
+        }
+        return this.saveOrUpdate(spaceArchivePolicy);
+    }
+
+
+    /**
+     * 空间必须存在，且只有空间创建人和管理员可以查看和修改归档策略
+     */
+    private void checkAuth(Long spaceId, User loginUser) {
+        ThrowUtils.throwIf(spaceId == null || spaceId <= 0, ErrorCode.PARAMS_ERROR);
+        Space space = spaceService.getById(spaceId);
+        ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+        spaceService.checkSpaceAuth(loginUser, space);
+    }
+}
@@ -9,7 +9,8 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.yupi.yupicturebackend.exception.BusinessException;
 import com.yupi.yupicturebackend.exception.ErrorCode;
 import com.yupi.yupicturebackend.exception.ThrowUtils;
-// import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
+import com.yupi.yupicturebackend.manager.rank.SpaceRankManager;
+import com.yupi.yupicturebackend.manager.sharding.DynamicShardingManager;
 import com.yupi.yupicturebackend.model.dto.space.SpaceAddRequest;
 import com.yupi.yupicturebackend.model.dto.space.SpaceQueryRequest;
 import com.yupi.yupicturebackend.model.entity.Space;
@@ -57,10 +58,14 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
     @Resource
     private SpaceUserService spaceUserService;
 
-    // 【可选】引入动态分表管理器 （注释掉，关闭分库分表，方便部署！）
-    /*@Resource
+    // 引入动态分表管理器（未启用 ShardingSphere 数据源时不会做任何事）
+    @Resource
     @Lazy
-    private DynamicShardingManager dynamicShardingManager;*/
+    private DynamicShardingManager dynamicShardingManager;
+
+    // 引入空间使用排行榜
+    @Resource
+    private SpaceRankManager spaceRankManager;
 
 
     /**
@@ -133,12 +138,15 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
                     ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "创建团队成员记录失败");
                 }
 
-                // 【可选】创建分表（仅对团队空间生效）
-                // dynamicShardingManager.createSpacePictureTable(space);
-
                 // 成功的话，返回新写入的id
                 return space.getId();
             });
+            // 5.事务提交后再创建分表（仅对旗舰版团队空间生效），DDL 会隐式提交事务，不能放在事务里
+            if (newSpaceId != null) {
+                dynamicShardingManager.createSpacePictureTable(space);
+                // 新空间加入使用排行
+                spaceRankManager.addSpace(newSpaceId);
+            }
             return Optional.ofNullable(newSpaceId).orElse(-1L);
         }
     }
@@ -0,0 +1,243 @@
+package com.yupi.yupicturebackend.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yupi.yupicturebackend.exception.ErrorCode;
+import com.yupi.yupicturebackend.exception.ThrowUtils;
+import com.yupi.yupicturebackend.mapper.TagMapper;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.entity.Tag;
+import com.yupi.yupicturebackend.service.TagService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 标签字典服务
+ * 标签数量很少且几乎只增不改，所以全量缓存在内存中：
+ * 标签名 -> id 用于写入编码，id -> 标签名 用于读取解码，解码出来的字符串是同一个实例，列表页不会再为每行重复创建
+ * 标签名去掉首尾空白后按原样区分大小写（tagName 列为 utf8mb4_bin），内存字典与数据库唯一索引的匹配规则一致
+ *
+ * @description 针对表【tag(标签字典)】的数据库操作Service实现
+ */
+@Service
+@Slf4j
+public class TagServiceImpl extends ServiceImpl<TagMapper, Tag>
+        implements TagService {
+
+    /**
+     * 标签名最大长度（与表结构一致）
+     */
+    private static final int MAX_TAG_NAME_LENGTH = 64;
+
+    /**
+     * 标签名 -> 标签id
+     */
+    private final Map<String, Integer> tagIdMap = new ConcurrentHashMap<>();
+
+    /**
+     * 标签id -> 标签名（字典中的规范实例）
+     */
+    private final Map<Integer, String> tagNameMap = new ConcurrentHashMap<>();
+
+    /**
+     * 查不到的标签名（短时间缓存，避免反复查询不存在的标签打到数据库；其他节点新建后最多延迟这么久可见）
+     */
+    private final Cache<String, Boolean> missingTagNameCache = Caffeine.newBuilder()
+            .maximumSize(10_000L)
+            .expireAfterWrite(Duration.ofSeconds(10))
+            .build();
+
+    /**
+     * 查不到的标签id
+     */
+    private final Cache<Integer, Boolean> missingTagIdCache = Caffeine.newBuilder()
+            .maximumSize(10_000L)
+            .expireAfterWrite(Duration.ofSeconds(10))
+            .build();
+
+
+    /**
+     * 启动时加载整个标签字典
+     */
+    @PostConstruct
+    public void loadTagDictionary() {
+        try {
+            this.list().forEach(this::cacheTag);
+            log.info("标签字典加载完成，共 {} 个标签", tagNameMap.size());
+        } catch (Exception e) {
+            // 表还没建好时不影响启动，后续按需加载
+            log.error("标签字典加载失败", e);
+        }
+    }
+
+
+    /**
+     * 标签列表编码为标签id数组
+     *
+     * @param tagList 标签列表
+     * @return
+     */
+    @Override
+    public int[] encodeTags(List<String> tagList) {
+        if (tagList == null) {
+            return null;
+        }
+        // 1.去掉空白、去重，并保持原有顺序
+        Set<String> tagNameSet = new LinkedHashSet<>();
+        for (String tagName : tagList) {
+            if (StrUtil.isNotBlank(tagName)) {
+                tagNameSet.add(tagName.trim());
+            }
+        }
+        // 2.逐个转为id，字典中没有则创建
+        int[] tagIds = new int[tagNameSet.size()];
+        int index = 0;
+        for (String tagName : tagNameSet) {
+            tagIds[index++] = getOrCreateTagId(tagName);
+        }
+        return tagIds;
+    }
+
+
+    /**
+     * 标签id数组解码为标签列表
+     *
+     * @param tagIds 标签id数组
+     * @return
+     */
+    @Override
+    public List<String> decodeTags(int[] tagIds) {
+        if (tagIds == null || tagIds.length == 0) {
+            return new ArrayList<>();
+        }
+        List<String> tagList = new ArrayList<>(tagIds.length);
+        for (int tagId : tagIds) {
+            String tagName = getTagName(tagId);
+            if (tagName != null) {
+                tagList.add(tagName);
+            }
+        }
+        return tagList;
+    }
+
+
+    @Override
+    public Integer getTagId(String tagName) {
+        if (StrUtil.isBlank(tagName)) {
+            return null;
+        }
+        tagName = tagName.trim();
+        Integer tagId = tagIdMap.get(tagName);
+        if (tagId != null) {
+            return tagId;
+        }
+        // 刚查过不存在，直接返回
+        if (missingTagNameCache.getIfPresent(tagName) != null) {
+            return null;
+        }
+        // 本地没有，可能是其他节点新建的，查一次数据库
+        Tag tag = this.lambdaQuery().eq(Tag::getTagName, tagName).one();
+        if (tag == null) {
+            missingTagNameCache.put(tagName, Boolean.TRUE);
+            return null;
+        }
+        cacheTag(tag);
+        return tag.getId();
+    }
+
+
+    @Override
+    public String getTagName(int tagId) {
+        String tagName = tagNameMap.get(tagId);
+        if (tagName != null) {
+            return tagName;
+        }
+        // 刚查过不存在，直接返回
+        if (missingTagIdCache.getIfPresent(tagId) != null) {
+            return null;
+        }
+        // 本地没有，可能是其他节点新建的，查一次数据库
+        Tag tag = this.getById(tagId);
+        if (tag == null) {
+            missingTagIdCache.put(tagId, Boolean.TRUE);
+            return null;
+        }
+        return cacheTag(tag);
+    }
+
+
+    /**
+     * 把标签写入图片
+     *
+     * @param picture 图片
+     * @param tagList 标签列表
+     */
+    @Override
+    public void fillPictureTags(Picture picture, List<String> tagList) {
+        if (picture == null || tagList == null) {
+            return;
+        }
+        picture.setTagIds(encodeTags(tagList));
+        // 标签以id为准，旧的 JSON 标签置为空串（不能置null，否则updateById会忽略这个字段）
+        picture.setTags("");
+    }
+
+
+    /**
+     * 获取标签id，不存在则创建
+     *
+     * @param tagName 标签名
+     * @return
+     */
+    private int getOrCreateTagId(String tagName) {
+        Integer tagId = getTagId(tagName);
+        if (tagId != null) {
+            return tagId;
+        }
+        ThrowUtils.throwIf(tagName.length() > MAX_TAG_NAME_LENGTH, ErrorCode.PARAMS_ERROR, "标签过长");
+        Tag tag = new Tag();
+        tag.setTagName(tagName);
+        try {
+            boolean result = this.save(tag);
+            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "标签创建失败");
+        } catch (DuplicateKeyException e) {
+            // 并发创建同名标签，唯一索引冲突，直接用已存在的那条
+            tag = this.lambdaQuery().eq(Tag::getTagName, tagName).one();
+            ThrowUtils.throwIf(tag == null, ErrorCode.OPERATION_ERROR, "标签创建失败");
+        }
+        cacheTag(tag);
+        return tag.getId();
+    }
+
+
+    /**
+     * 放入本地字典，返回字典中的规范实例
+     *
+     * @param tag 标签
+     * @return
+     */
+    private String cacheTag(Tag tag) {
+        String tagName = tag.getTagName().intern();
+        String cachedName = tagNameMap.putIfAbsent(tag.getId(), tagName);
+        if (cachedName != null) {
+            tagName = cachedName;
+        }
+        tagIdMap.putIfAbsent(tagName, tag.getId());
+        // 已经存在了，去掉之前记录的“查不到”
+        missingTagNameCache.invalidate(tagName);
+        missingTagIdCache.invalidate(tag.getId());
+        return tagName;
+    }
+}
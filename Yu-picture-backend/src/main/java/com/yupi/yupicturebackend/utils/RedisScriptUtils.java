@@ -0,0 +1,28 @@
+package com.yupi.yupicturebackend.utils;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.List;
+
+/**
+ * 工具类：Redis 脚本
+ */
+public class RedisScriptUtils {
+
+    private RedisScriptUtils() {
+        // 工具类不需要实例化
+    }
+
+    /**
+     * 创建返回列表的脚本
+     * DefaultRedisScript 只接受 Class 作为结果类型，List.class 无法带泛型，这里统一转换一次，调用方不再需要强转
+     *
+     * @param scriptText 脚本内容
+     * @param <T>        列表元素类型（Lua 整数为 Long，字符串为 String，嵌套表为 List）
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> DefaultRedisScript<List<T>> listScript(String scriptText) {
+        return new DefaultRedisScript<>(scriptText, (Class<List<T>>) (Class<?>) List.class);
+    }
+}
@@ -0,0 +1,170 @@
+package com.yupi.yupicturebackend;
+
+import com.yupi.yupicturebackend.manager.websocket.PictureEditLockManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 图片编辑锁的多节点测试（不需要 Redis，两个锁管理器共用一个内存中的 Redis 替身）
+ */
+public class PictureEditLockManagerTest {
+
+    private static final String LOCK_KEY_PREFIX = "yupicture:picture:edit:lock:";
+
+    private static final long PICTURE_ID = 100L;
+
+    private static final long USER_ID_1 = 1L;
+
+    private static final long USER_ID_2 = 2L;
+
+    /**
+     * 内存中的 Redis：key -> value（过期用 expire 手动模拟）
+     */
+    private Map<String, String> redisStore;
+
+    /**
+     * 节点 A
+     */
+    private PictureEditLockManager nodeA;
+
+    /**
+     * 节点 B
+     */
+    private PictureEditLockManager nodeB;
+
+
+    @BeforeEach
+    public void init() {
+        redisStore = new ConcurrentHashMap<>();
+        StringRedisTemplate stringRedisTemplate = mockStringRedisTemplate();
+        nodeA = newLockManager(stringRedisTemplate);
+        nodeB = newLockManager(stringRedisTemplate);
+    }
+
+
+    @Test
+    public void testOnlyOneNodeAcquires() {
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        // 会话id只在节点内唯一：另一个节点上编号相同的会话不能抢到锁
+        assertFalse(nodeB.tryLock(PICTURE_ID, USER_ID_2, "0"));
+        assertFalse(nodeB.isHeldBy(PICTURE_ID, "0"));
+        // 其他节点从 Redis 中解析出当前编辑者
+        assertEquals(USER_ID_1, nodeB.getEditingUserId(PICTURE_ID));
+        assertEquals(USER_ID_1, nodeA.getEditingUserId(PICTURE_ID));
+    }
+
+    @Test
+    public void testSameUserOnTwoNodes() {
+        // 同一用户在两个节点上各有一个连接（会话id也相同），只有持有锁的连接能编辑
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        assertFalse(nodeB.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        assertTrue(nodeA.isHeldBy(PICTURE_ID, "0"));
+        assertFalse(nodeB.isHeldBy(PICTURE_ID, "0"));
+        // 另一个节点上的连接断开，不能释放这把锁
+        assertFalse(nodeB.unlock(PICTURE_ID, "0"));
+        assertNotNull(redisStore.get(lockKey()));
+        assertTrue(nodeA.unlock(PICTURE_ID, "0"));
+        assertNull(redisStore.get(lockKey()));
+    }
+
+    @Test
+    public void testSameUserTwoSessionsOnOneNode() {
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        // 同一会话重复进入编辑
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        // 同一用户的另一个标签页
+        assertFalse(nodeA.tryLock(PICTURE_ID, USER_ID_1, "1"));
+        assertFalse(nodeA.isHeldBy(PICTURE_ID, "1"));
+        assertFalse(nodeA.unlock(PICTURE_ID, "1"));
+        assertTrue(nodeA.isHeldBy(PICTURE_ID, "0"));
+    }
+
+    @Test
+    public void testUnlockAfterExpireKeepsNewOwner() {
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        // 节点 A 的锁过期（如长时间 GC、与 Redis 断开），节点 B 抢到
+        expire(lockKey());
+        assertTrue(nodeB.tryLock(PICTURE_ID, USER_ID_2, "0"));
+        String ownerToken = redisStore.get(lockKey());
+        // 节点 A 释放本地记录，但不能删除节点 B 的锁
+        assertTrue(nodeA.unlock(PICTURE_ID, "0"));
+        assertEquals(ownerToken, redisStore.get(lockKey()));
+        assertTrue(nodeB.isHeldBy(PICTURE_ID, "0"));
+        assertEquals(USER_ID_2, nodeA.getEditingUserId(PICTURE_ID));
+    }
+
+    @Test
+    public void testRenewDropsLostLock() {
+        assertTrue(nodeA.tryLock(PICTURE_ID, USER_ID_1, "0"));
+        expire(lockKey());
+        assertTrue(nodeB.tryLock(PICTURE_ID, USER_ID_2, "0"));
+        String ownerToken = redisStore.get(lockKey());
+        // 节点 A 续期失败，从本地移除，不会续到节点 B 的锁上
+        nodeA.renewLocks();
+        assertFalse(nodeA.isHeldBy(PICTURE_ID, "0"));
+        nodeB.renewLocks();
+        assertTrue(nodeB.isHeldBy(PICTURE_ID, "0"));
+        assertEquals(ownerToken, redisStore.get(lockKey()));
+    }
+
+
+    private PictureEditLockManager newLockManager(StringRedisTemplate stringRedisTemplate) {
+        PictureEditLockManager pictureEditLockManager = new PictureEditLockManager();
+        ReflectionTestUtils.setField(pictureEditLockManager, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(pictureEditLockManager, "lockTtlMs", 30000L);
+        return pictureEditLockManager;
+    }
+
+    /**
+     * 按锁管理器用到的命令模拟 Redis：SET NX、GET，以及比较值后 DEL / PEXPIRE 的脚本
+     */
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate mockStringRedisTemplate() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> redisStore.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        when(valueOperations.get(anyString())).thenAnswer(invocation -> redisStore.get(invocation.<String>getArgument(0)));
+        // 释放：一个参数（持有者标识）
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString()))
+                .thenAnswer(invocation -> executeScript(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        // 续期：两个参数（持有者标识、过期时间）
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), anyString(), anyString()))
+                .thenAnswer(invocation -> executeScript(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+        return stringRedisTemplate;
+    }
+
+    private Long executeScript(RedisScript<?> script, List<String> keys, String token) {
+        String key = keys.get(0);
+        if (!token.equals(redisStore.get(key))) {
+            return 0L;
+        }
+        if (!script.getScriptAsString().contains("PEXPIRE")) {
+            redisStore.remove(key, token);
+        }
+        return 1L;
+    }
+
+    private void expire(String key) {
+        redisStore.remove(key);
+    }
+
+    private String lockKey() {
+        return LOCK_KEY_PREFIX + PICTURE_ID;
+    }
+}
@@ -0,0 +1,213 @@
+package com.yupi.yupicturebackend;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yupicturebackend.exception.BusinessException;
+import com.yupi.yupicturebackend.model.dto.picture.PictureQueryRequest;
+import com.yupi.yupicturebackend.model.entity.Picture;
+import com.yupi.yupicturebackend.model.enums.PictureReviewStatusEnum;
+import com.yupi.yupicturebackend.model.enums.PictureSortFieldEnum;
+import com.yupi.yupicturebackend.service.PictureService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.Resource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 图片查询的执行计划回归测试（排序白名单 + 范围筛选）
+ * <p>
+ * 开启分表后 picture 只是建表模板，没有数据，在它上面 EXPLAIN 看不出真实的执行计划。
+ * 这里按哈希分表 picture_h0 复制一张临时表（索引完全相同），写入有代表性的数据并 ANALYZE，
+ * 再把 getQueryWrapper 生成的条件拼成真实的分页 SQL 执行 EXPLAIN，检查是否使用了预期的索引。
+ * 需要本地 MySQL 已执行 sql/create_table.sql（包括哈希分表）。
+ */
+@SpringBootTest
+public class PictureQueryPlanTest {
+
+    /**
+     * 临时表名
+     */
+    private static final String PLAN_TABLE = "picture_plan_test";
+
+    /**
+     * 作为模板的真实分表
+     */
+    private static final String SHARD_TABLE = "picture_h0";
+
+    /**
+     * 写入的数据量：公共图库 1/3，其余分散在 20 个空间中；1/5 待审核
+     */
+    private static final int SEED_ROW_COUNT = 6000;
+
+    /**
+     * MyBatis-Plus 条件中的参数占位符
+     */
+    private static final Pattern PARAM_PATTERN = Pattern.compile("#\\{ew\\.paramNameValuePairs\\.(\\w+)}");
+
+    @Resource
+    private PictureService pictureService;
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+
+    @BeforeEach
+    public void createPlanTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + PLAN_TABLE);
+        jdbcTemplate.execute("CREATE TABLE " + PLAN_TABLE + " LIKE " + SHARD_TABLE);
+        List<Object[]> argList = new ArrayList<>(SEED_ROW_COUNT);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SEED_ROW_COUNT; i++) {
+            Long spaceId = i % 3 == 0 ? null : (long) (i % 20 + 1);
+            int reviewStatus = i % 5 == 0 ? PictureReviewStatusEnum.REVIEWING.getValue() : PictureReviewStatusEnum.PASS.getValue();
+            int picWidth = 200 + (i * 37) % 3800;
+            int picHeight = 200 + (i * 53) % 3800;
+            argList.add(new Object[]{"https://example.com/" + i, "picture" + i, (long) (i % 50 + 1), spaceId, reviewStatus,
+                    picWidth, picHeight, (long) ((i * 7919) % 5_000_000), (double) picWidth / picHeight,
+                    new Timestamp(now - i * 60_000L)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO " + PLAN_TABLE
+                + " (url, name, userId, spaceId, reviewStatus, picWidth, picHeight, picSize, picScale, createTime)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", argList);
+        // 更新统计信息，避免优化器按空表估算
+        jdbcTemplate.execute("ANALYZE TABLE " + PLAN_TABLE);
+    }
+
+    @AfterEach
+    public void dropPlanTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + PLAN_TABLE);
+    }
+
+
+    @Test
+    public void testPublicSortByCreateTimeUsesIndex() {
+        // 主页：公共图库按创建时间倒序
+        PictureQueryRequest pictureQueryRequest = publicQueryRequest();
+        assertSortUsesIndex(pictureQueryRequest, "idx_spaceId_reviewStatus_createTime_id");
+    }
+
+    @Test
+    public void testSpaceSortByCreateTimeUsesIndex() {
+        // 空间详情页：只有 spaceId，没有审核状态
+        PictureQueryRequest pictureQueryRequest = new PictureQueryRequest();
+        pictureQueryRequest.setSpaceId(1L);
+        pictureQueryRequest.setSortField("createTime");
+        pictureQueryRequest.setSortOrder("descend");
+        assertSortUsesIndex(pictureQueryRequest, "idx_spaceId_createTime_id");
+    }
+
+    @Test
+    public void testReviewSortByCreateTimeUsesIndex() {
+        // 管理员查看待审核图片
+        PictureQueryRequest pictureQueryRequest = new PictureQueryRequest();
+        pictureQueryRequest.setReviewStatus(PictureReviewStatusEnum.REVIEWING.getValue());
+        pictureQueryRequest.setSortField("createTime");
+        pictureQueryRequest.setSortOrder("descend");
+        assertSortUsesIndex(pictureQueryRequest, "idx_reviewStatus_createTime_id");
+    }
+
+    @Test
+    public void testPublicRangeFilterUsesSortIndex() {
+        // 主页加上宽、高、宽高比筛选：按排序索引顺序读取并过滤，不能退化为 filesort
+        PictureQueryRequest pictureQueryRequest = publicQueryRequest();
+        pictureQueryRequest.setMinPicWidth(1920);
+        pictureQueryRequest.setMinPicHeight(1080);
+        pictureQueryRequest.setPicScaleType("landscape");
+        assertSortUsesIndex(pictureQueryRequest, "idx_spaceId_reviewStatus_createTime_id");
+    }
+
+    @Test
+    public void testSpaceRangeFilterUsesSortIndex() {
+        // 某个空间中小于 500KB 的图片
+        PictureQueryRequest pictureQueryRequest = new PictureQueryRequest();
+        pictureQueryRequest.setSpaceId(1L);
+        pictureQueryRequest.setMaxPicSize(500 * 1024L);
+        pictureQueryRequest.setSortField("createTime");
+        pictureQueryRequest.setSortOrder("descend");
+        assertSortUsesIndex(pictureQueryRequest, "idx_spaceId_createTime_id");
+    }
+
+    @Test
+    public void testUnknownSortFieldRejected() {
+        PictureQueryRequest pictureQueryRequest = publicQueryRequest();
+        pictureQueryRequest.setSortField("introduction");
+        assertThrows(BusinessException.class, () -> pictureService.getQueryWrapper(pictureQueryRequest));
+    }
+
+    @Test
+    public void testAllSortFieldsHaveIndex() {
+        // 白名单中的每个排序字段，公共图库查询都不能出现 filesort
+        for (PictureSortFieldEnum pictureSortFieldEnum : PictureSortFieldEnum.values()) {
+            PictureQueryRequest pictureQueryRequest = publicQueryRequest();
+            pictureQueryRequest.setSortField(pictureSortFieldEnum.getValue());
+            Map<String, Object> plan = explain(pictureQueryRequest);
+            assertNoFilesort(plan);
+        }
+    }
+
+
+    /**
+     * 主页公共图库的查询条件（与前端 HomePage 一致）
+     */
+    private PictureQueryRequest publicQueryRequest() {
+        PictureQueryRequest pictureQueryRequest = new PictureQueryRequest();
+        pictureQueryRequest.setNullSpaceId(true);
+        pictureQueryRequest.setReviewStatus(PictureReviewStatusEnum.PASS.getValue());
+        pictureQueryRequest.setSortField("createTime");
+        pictureQueryRequest.setSortOrder("descend");
+        return pictureQueryRequest;
+    }
+
+    /**
+     * 断言排序查询使用了指定的索引，并且没有 filesort
+     *
+     * @param pictureQueryRequest 查询请求
+     * @param indexName           预期的索引名
+     */
+    private void assertSortUsesIndex(PictureQueryRequest pictureQueryRequest, String indexName) {
+        Map<String, Object> plan = explain(pictureQueryRequest);
+        assertEquals(indexName, plan.get("key"), "没有使用预期的索引: " + plan);
+        assertNoFilesort(plan);
+    }
+
+    private void assertNoFilesort(Map<String, Object> plan) {
+        Object extra = plan.get("Extra");
+        assertFalse(extra != null && extra.toString().contains("filesort"), "排序没有走索引: " + plan);
+    }
+
+    /**
+     * 获取查询在临时分表上的执行计划（第一行）
+     *
+     * @param pictureQueryRequest 查询请求
+     * @return
+     */
+    protected Map<String, Object> explain(PictureQueryRequest pictureQueryRequest) {
+        QueryWrapper<Picture> queryWrapper = pictureService.getQueryWrapper(pictureQueryRequest);
+        // 与实际执行时一致，补上逻辑删除条件
+        queryWrapper.eq("isDelete", 0);
+        // 把 #{ew.paramNameValuePairs.xxx} 占位符换成 ?，按出现顺序收集参数
+        Map<String, Object> paramMap = queryWrapper.getParamNameValuePairs();
+        List<Object> paramList = new ArrayList<>();
+        Matcher matcher = PARAM_PATTERN.matcher(queryWrapper.getCustomSqlSegment());
+        StringBuffer sql = new StringBuffer("EXPLAIN SELECT * FROM " + PLAN_TABLE + " ");
+        while (matcher.find()) {
+            paramList.add(paramMap.get(matcher.group(1)));
+            matcher.appendReplacement(sql, "?");
+        }
+        matcher.appendTail(sql);
+        sql.append(" LIMIT ").append(pictureQueryRequest.getPageSize());
+        List<Map<String, Object>> planList = jdbcTemplate.queryForList(sql.toString(), paramList.toArray());
+        assertFalse(planList.isEmpty());
+        return planList.get(0);
+    }
+}
@@ -0,0 +1,246 @@
+package com.yupi.yupicturebackend;
+
+import com.google.common.collect.Range;
+import com.yupi.yupicturebackend.manager.sharding.PictureShardingAlgorithm;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 图片分表算法的路由测试（不需要数据库，直接调用 doSharding）
+ */
+public class PictureShardingAlgorithmTest {
+
+    private static final String LOGIC_TABLE = "picture";
+
+    private static final long SPACE_ID_1 = 1001L;
+
+    private static final long SPACE_ID_2 = 1002L;
+
+    private static final long SPACE_ID_3 = 1003L;
+
+    /**
+     * 没有专属分表的空间（公共图库以外的普通空间）
+     */
+    private static final long NORMAL_SPACE_ID = 2001L;
+
+    private PictureShardingAlgorithm pictureShardingAlgorithm;
+
+    private List<String> availableTargetNames;
+
+
+    @BeforeEach
+    public void init() {
+        pictureShardingAlgorithm = new PictureShardingAlgorithm();
+        Properties properties = new Properties();
+        properties.setProperty("hash-table-count", "8");
+        pictureShardingAlgorithm.init(properties);
+        // 与 actual-data-nodes 一致：逻辑表 + 8 张哈希分表 + 3 张空间分表
+        availableTargetNames = new ArrayList<>();
+        availableTargetNames.add(LOGIC_TABLE);
+        availableTargetNames.addAll(allHashTables());
+        availableTargetNames.add(spaceTable(SPACE_ID_1));
+        availableTargetNames.add(spaceTable(SPACE_ID_2));
+        availableTargetNames.add(spaceTable(SPACE_ID_3));
+    }
+
+
+    @Test
+    public void testHashTableIndexMatchesMysqlCrc32() {
+        // MySQL: SELECT CRC32('1') % 8 = 2212294583 % 8 = 7
+        assertEquals(7, PictureShardingAlgorithm.getHashTableIndex(1L, 8));
+        assertEquals("picture_h7", pictureShardingAlgorithm.getHashTableName(1L));
+        // 字符串形式的 id 与 Long 路由到同一张表
+        assertEquals(pictureShardingAlgorithm.getHashTableName(123456789L), pictureShardingAlgorithm.getHashTableName("123456789"));
+    }
+
+    @Test
+    public void testInitHashTableCount() {
+        Properties properties = new Properties();
+        properties.setProperty("hash-table-count", " 4 ");
+        pictureShardingAlgorithm.init(properties);
+        long id = 987654321L;
+        assertEquals("picture_h" + PictureShardingAlgorithm.getHashTableIndex(id, 4), pictureShardingAlgorithm.getHashTableName(id));
+    }
+
+    @Test
+    public void testInsertIntoSpaceTable() {
+        // 旗舰版团队空间的图片写入专属分表，与 id 无关
+        Collection<String> result = doSharding(values(SPACE_ID_1), values(42L), null);
+        assertEquals(Collections.singletonList(spaceTable(SPACE_ID_1)), result);
+    }
+
+    @Test
+    public void testInsertIntoHashTable() {
+        long id = 1_900_000_000_000_000_001L;
+        // 普通空间
+        Collection<String> result = doSharding(values(NORMAL_SPACE_ID), values(id), null);
+        assertEquals(Collections.singletonList(pictureShardingAlgorithm.getHashTableName(id)), result);
+        // 公共图库（spaceId 为 null）
+        result = doSharding(values((Comparable<?>) null), values(id), null);
+        assertEquals(Collections.singletonList(pictureShardingAlgorithm.getHashTableName(id)), result);
+    }
+
+    @Test
+    public void testQueryNormalSpaceWithoutId() {
+        // 普通空间的分页查询：分散到所有哈希分表，不涉及空间分表
+        Collection<String> result = doSharding(values(NORMAL_SPACE_ID), null, null);
+        assertEquals(new HashSet<>(allHashTables()), new HashSet<>(result));
+    }
+
+    @Test
+    public void testQueryMixedSpaceIds() {
+        // spaceId IN (专属分表空间, 普通空间)：专属分表 + 所有哈希分表
+        Collection<String> result = doSharding(values(SPACE_ID_2, NORMAL_SPACE_ID), null, null);
+        Set<String> expected = new HashSet<>(allHashTables());
+        expected.add(spaceTable(SPACE_ID_2));
+        assertEquals(expected, new HashSet<>(result));
+        // spaceId IN (两个专属分表空间)：只查这两张表
+        result = doSharding(values(SPACE_ID_1, SPACE_ID_3), null, null);
+        assertEquals(new HashSet<>(Arrays.asList(spaceTable(SPACE_ID_1), spaceTable(SPACE_ID_3))), new HashSet<>(result));
+    }
+
+    @Test
+    public void testQueryByIdOnly() {
+        // getById、按id修改/删除：一张哈希分表 + 所有空间分表（不知道图片属于哪个空间）
+        long id = 123L;
+        Collection<String> result = doSharding(null, values(id), null);
+        Set<String> expected = new HashSet<>(allSpaceTables());
+        expected.add(pictureShardingAlgorithm.getHashTableName(id));
+        assertEquals(expected, new HashSet<>(result));
+        assertFalse(result.contains(LOGIC_TABLE));
+    }
+
+    @Test
+    public void testQueryByIdList() {
+        // 按id批量查询：每个id对应的哈希分表取并集
+        List<Long> idList = Arrays.asList(1L, 2L, 3L, 4L, 5L);
+        Collection<String> result = doSharding(null, values(idList.toArray(new Comparable<?>[0])), null);
+        Set<String> expected = new HashSet<>(allSpaceTables());
+        idList.forEach(id -> expected.add(pictureShardingAlgorithm.getHashTableName(id)));
+        assertEquals(expected, new HashSet<>(result));
+        // 不会重复路由同一张表
+        assertEquals(expected.size(), result.size());
+    }
+
+    @Test
+    public void testQueryWithoutShardingCondition() {
+        // 没有分片条件（如 spaceId IS NULL 的公共图库）：所有哈希分表 + 所有空间分表，不包括逻辑表
+        Collection<String> result = doSharding(null, null, null);
+        Set<String> expected = new HashSet<>(allHashTables());
+        expected.addAll(allSpaceTables());
+        assertEquals(expected, new HashSet<>(result));
+    }
+
+    @Test
+    public void testQuerySpaceIdRange() {
+        // spaceId BETWEEN 1001 AND 1002：所有哈希分表 + 范围内的空间分表
+        Map<String, Range<Comparable<?>>> rangeMap = rangeMap("spaceId", Range.closed(SPACE_ID_1, SPACE_ID_2));
+        Collection<String> result = doSharding(null, null, rangeMap);
+        Set<String> expected = new HashSet<>(allHashTables());
+        expected.add(spaceTable(SPACE_ID_1));
+        expected.add(spaceTable(SPACE_ID_2));
+        assertEquals(expected, new HashSet<>(result));
+        // spaceId > 1001：开区间不包含下界
+        rangeMap = rangeMap("spaceId", Range.greaterThan(SPACE_ID_1));
+        result = doSharding(null, null, rangeMap);
+        expected = new HashSet<>(allHashTables());
+        expected.add(spaceTable(SPACE_ID_2));
+        expected.add(spaceTable(SPACE_ID_3));
+        assertEquals(expected, new HashSet<>(result));
+        // SQL 字面量可能是 Integer：spaceId < 1002
+        rangeMap = rangeMap("spaceId", Range.lessThan(1002));
+        result = doSharding(null, null, rangeMap);
+        expected = new HashSet<>(allHashTables());
+        expected.add(spaceTable(SPACE_ID_1));
+        assertEquals(expected, new HashSet<>(result));
+    }
+
+    @Test
+    public void testQueryIdRange() {
+        // 按id游标扫描：id 的范围条件无法裁剪哈希分表，空间分表也都要查
+        Map<String, Range<Comparable<?>>> rangeMap = rangeMap("id", Range.greaterThan(1000L));
+        Collection<String> result = doSharding(null, null, rangeMap);
+        Set<String> expected = new HashSet<>(allHashTables());
+        expected.addAll(allSpaceTables());
+        assertEquals(expected, new HashSet<>(result));
+    }
+
+    @Test
+    public void testOnlyAvailableTables() {
+        // 哈希分表没有全部配置时，不会路由到不存在的表
+        availableTargetNames.remove("picture_h0");
+        availableTargetNames.remove(spaceTable(SPACE_ID_3));
+        Collection<String> result = doSharding(values(NORMAL_SPACE_ID), null, null);
+        assertFalse(result.contains("picture_h0"));
+        assertEquals(7, result.size());
+        // 专属分表不存在（如刚升级还未建表）的空间，按普通空间走哈希分表
+        long id = 77L;
+        result = doSharding(values(SPACE_ID_3), values(id), null);
+        String hashTableName = pictureShardingAlgorithm.getHashTableName(id);
+        assertEquals(availableTargetNames.contains(hashTableName) ? Collections.singletonList(hashTableName) : Collections.emptyList(), result);
+    }
+
+    @Test
+    public void testColumnNameIgnoreCase() {
+        Map<String, Collection<Comparable<?>>> shardingValuesMap = new HashMap<>();
+        shardingValuesMap.put("SPACEID", values(SPACE_ID_1));
+        ComplexKeysShardingValue<Comparable<?>> shardingValue = new ComplexKeysShardingValue<>(LOGIC_TABLE, shardingValuesMap, Collections.emptyMap());
+        Collection<String> result = pictureShardingAlgorithm.doSharding(availableTargetNames, shardingValue);
+        assertEquals(Collections.singletonList(spaceTable(SPACE_ID_1)), result);
+    }
+
+
+    /**
+     * 构造分片条件并路由
+     *
+     * @param spaceIds spaceId 的精确值，null 表示没有该条件
+     * @param ids      id 的精确值，null 表示没有该条件
+     * @param rangeMap 范围条件，null 表示没有
+     * @return
+     */
+    private Collection<String> doSharding(Collection<Comparable<?>> spaceIds, Collection<Comparable<?>> ids,
+                                          Map<String, Range<Comparable<?>>> rangeMap) {
+        Map<String, Collection<Comparable<?>>> shardingValuesMap = new HashMap<>();
+        if (spaceIds != null) {
+            shardingValuesMap.put("spaceId", spaceIds);
+        }
+        if (ids != null) {
+            shardingValuesMap.put("id", ids);
+        }
+        ComplexKeysShardingValue<Comparable<?>> shardingValue = new ComplexKeysShardingValue<>(LOGIC_TABLE, shardingValuesMap,
+                rangeMap == null ? Collections.emptyMap() : rangeMap);
+        return pictureShardingAlgorithm.doSharding(availableTargetNames, shardingValue);
+    }
+
+    private Collection<Comparable<?>> values(Comparable<?>... values) {
+        return Arrays.asList(values);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<String, Range<Comparable<?>>> rangeMap(String columnName, Range range) {
+        Map<String, Range<Comparable<?>>> rangeMap = new HashMap<>();
+        rangeMap.put(columnName, (Range<Comparable<?>>) range);
+        return rangeMap;
+    }
+
+    private List<String> allHashTables() {
+        List<String> hashTables = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            hashTables.add(PictureShardingAlgorithm.HASH_TABLE_PREFIX + i);
+        }
+        return hashTables;
+    }
+
+    private List<String> allSpaceTables() {
+        return Arrays.asList(spaceTable(SPACE_ID_1), spaceTable(SPACE_ID_2), spaceTable(SPACE_ID_3));
+    }
+
+    private String spaceTable(long spaceId) {
+        return LOGIC_TABLE + "_" + spaceId;
+    }
+}
@@ -0,0 +1,66 @@
+package com.yupi.yupicturebackend;
+
+import com.yupi.yupicturebackend.manager.datasource.DataSourceRouteHolder;
+import com.yupi.yupicturebackend.manager.datasource.ReadWriteRouteManager;
+import com.yupi.yupicturebackend.manager.datasource.ReplicaLagMonitor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.Resource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 读写分离测试，需要本地两个 MySQL 实例：3306 为主库，3307 为它的副本（已开启复制）
+ */
+@SpringBootTest(properties = {
+        "picture.datasource.read-write-splitting.enabled=true",
+        "picture.datasource.read-write-splitting.replicas[0].name=replica1",
+        "picture.datasource.read-write-splitting.replicas[0].url=jdbc:mysql://localhost:3307/yu_picture?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=GMT%2B8",
+        "picture.datasource.read-write-splitting.replicas[0].username=${spring.datasource.username}",
+        "picture.datasource.read-write-splitting.replicas[0].password=${spring.datasource.password}"
+})
+public class ReadWriteSplittingTest {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private ReadWriteRouteManager readWriteRouteManager;
+
+    @Resource
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @AfterEach
+    public void clearRoute() {
+        DataSourceRouteHolder.set(null);
+    }
+
+
+    @Test
+    public void testRouteToReplica() {
+        // 默认走主库，指定副本后走副本
+        Long primaryServerId = jdbcTemplate.queryForObject("SELECT @@server_id", Long.class);
+        DataSourceRouteHolder.set("replica1");
+        Long replicaServerId = jdbcTemplate.queryForObject("SELECT @@server_id", Long.class);
+        assertNotEquals(primaryServerId, replicaServerId);
+    }
+
+    @Test
+    public void testHealthyReplicaIsChosen() {
+        replicaLagMonitor.checkLag();
+        assertTrue(replicaLagMonitor.getHealthyReplicas().contains("replica1"), "副本复制未运行或延迟过大");
+        assertEquals("replica1", readWriteRouteManager.chooseReadTarget(null));
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        replicaLagMonitor.checkLag();
+        // 刚写过数据的用户读主库，其他用户读副本
+        readWriteRouteManager.markWrite(1L);
+        assertEquals(DataSourceRouteHolder.PRIMARY, readWriteRouteManager.chooseReadTarget(1L));
+        assertEquals("replica1", readWriteRouteManager.chooseReadTarget(2L));
+    }
+}
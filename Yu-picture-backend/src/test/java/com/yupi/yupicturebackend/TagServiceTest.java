@@ -0,0 +1,67 @@
+package com.yupi.yupicturebackend;
+
+import cn.hutool.core.util.RandomUtil;
+import com.yupi.yupicturebackend.service.TagService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 标签字典的大小写测试
+ * <p>
+ * 内存字典按标签名原样匹配，数据库唯一索引也必须区分大小写，
+ * 否则大小写不同的标签每次都查不到缓存、查库后又被解析成已存的写法。
+ * 需要本地 MySQL 已执行 sql/create_table.sql。
+ */
+@SpringBootTest
+public class TagServiceTest {
+
+    @Resource
+    private TagService tagService;
+
+    /**
+     * 本次测试创建的标签id，结束后删除
+     */
+    private final List<Integer> createdTagIds = new ArrayList<>();
+
+
+    @AfterEach
+    public void removeCreatedTags() {
+        if (!createdTagIds.isEmpty()) {
+            tagService.removeByIds(createdTagIds);
+        }
+    }
+
+
+    @Test
+    public void testCaseVariantIsSeparateTag() {
+        String tagName = "TagCase" + RandomUtil.randomString(8);
+        String lowerTagName = tagName.toLowerCase();
+        int tagId = createTag(tagName);
+        // 大小写不同的写法不是同一个标签，数据库中也查不到
+        assertNull(tagService.getTagId(lowerTagName));
+        int lowerTagId = createTag(lowerTagName);
+        assertNotEquals(tagId, lowerTagId);
+        // 各自按原样解码，不会变成另一种写法
+        assertEquals(Arrays.asList(tagName, lowerTagName), tagService.decodeTags(new int[]{tagId, lowerTagId}));
+        // 之后两种写法都命中本地字典，首尾空白不影响
+        assertEquals(tagId, tagService.getTagId(tagName));
+        assertEquals(lowerTagId, tagService.getTagId(" " + lowerTagName + " "));
+    }
+
+
+    private int createTag(String tagName) {
+        int[] tagIds = tagService.encodeTags(Collections.singletonList(tagName));
+        assertEquals(1, tagIds.length);
+        createdTagIds.add(tagIds[0]);
+        return tagIds[0];
+    }
+}